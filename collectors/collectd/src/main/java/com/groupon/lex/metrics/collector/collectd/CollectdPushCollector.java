@@ -31,8 +31,11 @@
  */
 package com.groupon.lex.metrics.collector.collectd;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import com.groupon.lex.metrics.GroupName;
 import com.groupon.lex.metrics.Metric;
 import com.groupon.lex.metrics.MetricGroup;
@@ -46,8 +49,8 @@ import com.groupon.lex.metrics.Tags;
 import com.groupon.lex.metrics.collector.collectd.grammar.CollectdTags;
 import com.groupon.lex.metrics.lib.Any2;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
+import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -62,9 +65,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -72,6 +75,7 @@ import java.util.stream.Stream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -87,14 +91,28 @@ import org.joda.time.Duration;
 public class CollectdPushCollector extends SynchronousGroupGenerator {
     public static final String API_ENDPOINT_BASE = "/collectd/jsonpush/";
     public static final Duration DROP_DURATION = Duration.standardHours(1);
-    private static final Type COLLECTD_TYPE = new TypeToken<List<CollectdMessage>>() {
-    }.getType();
     private static final Metric UP_METRIC = new SimpleMetric(MetricName.valueOf("up"), Boolean.TRUE);
     private static final Metric DOWN_METRIC = new SimpleMetric(MetricName.valueOf("up"), Boolean.FALSE);
 
+    /**
+     * Maximum number of distinct tag strings that are cached.
+     */
+    public static final int MAX_CACHED_TAGS = 10000;
+    private static final Cache<String, Map<String, Any2<String, Number>>> TAG_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_TAGS)
+            .build();
+    private static final MetricName INGEST_POSTS = MetricName.valueOf("ingest", "posts");
+    private static final MetricName INGEST_MESSAGES = MetricName.valueOf("ingest", "messages");
+    private static final MetricName INGEST_PARSE_ERRORS = MetricName.valueOf("ingest", "parse_errors");
+    private static final MetricName INGEST_RATE = MetricName.valueOf("ingest", "rate");
+
     private Map<String, DateTime> knownHosts = EMPTY_MAP;  // Replaced on each collection.
-    private final ReadWriteLock messagesGuard = new ReentrantReadWriteLock();  // Protects messages.
-    private final Map<CollectdKey, CollectdMessage> messages = new ConcurrentHashMap<>();
+    private final AtomicReference<MessageBuffer> messages = new AtomicReference<>(new MessageBuffer());
+    private final LongAdder receivedPosts = new LongAdder();
+    private final LongAdder receivedMessages = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private long lastScrapeMessages = 0;
+    private long lastScrapeNanos = System.nanoTime();
     @Getter
     private final SimpleGroupPath basePath;
 
@@ -120,10 +138,25 @@ public class CollectdPushCollector extends SynchronousGroupGenerator {
 
             final String tag_string = s.substring(tags_brace_open + 1, s.length() - 1);
             if (!tag_string.isEmpty())
-                out_tagmap.putAll(CollectdTags.parse(tag_string));
+                out_tagmap.putAll(parse_tags_(tag_string));
 
             return s.substring(0, tags_brace_open);
         }
+
+        /**
+         * Parse tags, using the cache of previously parsed tags.
+         *
+         * Agents send the same plugin names on every push, so parsing the
+         * tags once saves running the parser for each message.
+         */
+        private static Map<String, Any2<String, Number>> parse_tags_(String tag_string) {
+            final Map<String, Any2<String, Number>> cached = TAG_CACHE.getIfPresent(tag_string);
+            if (cached != null) return cached;
+
+            final Map<String, Any2<String, Number>> parsed = unmodifiableMap(new HashMap<>(CollectdTags.parse(tag_string)));
+            TAG_CACHE.put(tag_string, parsed);
+            return parsed;
+        }
     }
 
     public static class CollectdMessage {
@@ -142,15 +175,113 @@ public class CollectdPushCollector extends SynchronousGroupGenerator {
             return new CollectdKey(host, plugin, plugin_instance, type, type_instance);
         }
 
+        /**
+         * Read a single message from a JSON stream.
+         *
+         * @param reader The stream, positioned at the start of a message
+         * object.
+         * @return The decoded message.
+         * @throws IOException If the stream fails or contains malformed JSON.
+         */
+        public static CollectdMessage read(JsonReader reader) throws IOException {
+            final CollectdMessage msg = new CollectdMessage();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "values":
+                        msg.values = read_numbers_(reader);
+                        break;
+                    case "dstypes":
+                        msg.dstypes = read_strings_(reader);
+                        break;
+                    case "dsnames":
+                        msg.dsnames = read_strings_(reader);
+                        break;
+                    case "time":
+                        msg.time = reader.nextDouble();
+                        break;
+                    case "interval":
+                        msg.interval = reader.nextLong();
+                        break;
+                    case "host":
+                        msg.host = reader.nextString();
+                        break;
+                    case "plugin":
+                        msg.plugin = reader.nextString();
+                        break;
+                    case "plugin_instance":
+                        msg.plugin_instance = reader.nextString();
+                        break;
+                    case "type":
+                        msg.type = reader.nextString();
+                        break;
+                    case "type_instance":
+                        msg.type_instance = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            return msg;
+        }
+
+        private static List<Number> read_numbers_(JsonReader reader) throws IOException {
+            final List<Number> result = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    result.add(null);
+                    continue;
+                }
+
+                final String num = reader.nextString();
+                Number value;
+                try {
+                    value = Long.parseLong(num);
+                } catch (NumberFormatException ex) {
+                    value = Double.parseDouble(num);
+                }
+                result.add(value);
+            }
+            reader.endArray();
+            return result;
+        }
+
+        private static List<String> read_strings_(JsonReader reader) throws IOException {
+            final List<String> result = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    result.add(null);
+                } else {
+                    result.add(reader.nextString());
+                }
+            }
+            reader.endArray();
+            return result;
+        }
+
         public int metricCount() {
             return values.size();
         }
 
         /**
-         * Work around for Google gson parser emitting numbers as 'lazily
-         * parsed' numbers.
+         * Convert a number to a metric value.
          *
-         * @param elem An instance of a gson lazily parsed number.
+         * The number is converted using its textual form, so any Number
+         * implementation is handled.
+         *
+         * @param elem A number.
          * @return A metric value containing the number.
          */
         private static MetricValue number_to_metric_value_(Number elem) {
@@ -211,25 +342,97 @@ public class CollectdPushCollector extends SynchronousGroupGenerator {
     }
 
     private class Endpoint extends HttpServlet {
-        private final Gson gson = new Gson();
-
         @Override
         protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-            final List<CollectdMessage> msgs = gson.fromJson(req.getReader(), COLLECTD_TYPE);
-
-            final Lock lck = messagesGuard.readLock();
-            lck.lock();
+            // Parse the entire post before adding anything, so a malformed
+            // post is rejected as a whole.
+            final List<CollectdMessage> parsed = new ArrayList<>();
             try {
-                msgs.forEach(msg -> messages.put(msg.getKey(), msg));
-            } finally {
-                lck.unlock();
+                final JsonReader reader = new JsonReader(req.getReader());
+                reader.setLenient(true);
+                reader.beginArray();
+                while (reader.hasNext())
+                    parsed.add(CollectdMessage.read(reader));
+                reader.endArray();
+            } catch (MalformedJsonException | IllegalStateException | NumberFormatException | EOFException ex) {
+                parseErrors.increment();
+                resp.sendError(SC_BAD_REQUEST, "Monsoon rejected " + parsed.size() + " metric groups, due to malformed input: " + ex.getMessage());
+                return;
             }
+            add_messages_(parsed);
+            receivedPosts.increment();
+            receivedMessages.add(parsed.size());
 
             resp.setStatus(SC_OK);
-            resp.getWriter().write("Monsoon accepted " + msgs.size() + " metric groups\n");
+            resp.getWriter().write("Monsoon accepted " + parsed.size() + " metric groups\n");
+        }
+    }
+
+    /**
+     * Messages received since the last scrape.
+     *
+     * Writers register in {@link #writers} before adding, so that the scrape
+     * can wait for them after swapping in a new buffer. The scrape waits on
+     * the monitor of the buffer, which the last writer notifies.
+     */
+    private static class MessageBuffer {
+        public final Map<CollectdKey, CollectdMessage> messages = new ConcurrentHashMap<>();
+        public final AtomicInteger writers = new AtomicInteger();
+        public volatile boolean swapped = false;
+
+        /** Deregister a writer. */
+        public void leave() {
+            if (writers.decrementAndGet() == 0 && swapped) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
         }
     }
 
+    private void add_messages_(Collection<CollectdMessage> msgs) {
+        if (msgs.isEmpty()) return;
+
+        MessageBuffer buffer;
+        for (;;) {
+            buffer = messages.get();
+            buffer.writers.incrementAndGet();
+            if (buffer == messages.get()) break;
+            buffer.leave();  // Buffer was swapped out, retry on new buffer.
+        }
+
+        try {
+            for (CollectdMessage msg : msgs)
+                buffer.messages.put(msg.getKey(), msg);
+        } finally {
+            buffer.leave();
+        }
+    }
+
+    /**
+     * Replace the message buffer and return the old buffer, once all writes to
+     * it have completed.
+     */
+    private Map<CollectdKey, CollectdMessage> swap_messages_() {
+        final MessageBuffer buffer = messages.getAndSet(new MessageBuffer());
+
+        boolean interrupted = false;
+        synchronized (buffer) {
+            buffer.swapped = true;
+            while (buffer.writers.get() != 0) {
+                try {
+                    buffer.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return buffer.messages;
+    }
+
     public CollectdPushCollector(@NonNull BiConsumer<String, HttpServlet> er, @NonNull SimpleGroupPath base_path, @NonNull String name) {
         if (name.isEmpty())
             throw new IllegalArgumentException("empty endpoint name");
@@ -239,48 +442,87 @@ public class CollectdPushCollector extends SynchronousGroupGenerator {
     }
 
     @Override
-    public Collection<? extends MetricGroup> getGroups(CompletableFuture<TimeoutObject> timeout) {
+    public synchronized Collection<? extends MetricGroup> getGroups(CompletableFuture<TimeoutObject> timeout) {
         final DateTime now = new DateTime(DateTimeZone.UTC);
         final DateTime drop = now.minus(DROP_DURATION);
+        final Collection<CollectdMessage> scraped = swap_messages_().values();
 
-        Lock lck = messagesGuard.writeLock();
-        lck.lock();
-        try {
-            // Transform all messages into metrics.
-            final Stream<MetricGroup> msg_stream = messages.values().stream()
-                    .map(cm -> cm.toMetricGroup(basePath))
-                    .flatMap(mg -> Arrays.stream(mg.getMetrics()).map(m -> SimpleMapEntry.create(mg.getName(), m)))
-                    .collect(Collectors.groupingBy(Map.Entry::getKey, Collectors.mapping(Map.Entry::getValue, Collectors.toList())))
-                    .entrySet()
-                    .stream()
-                    .map((Map.Entry<GroupName, List<Metric>> entry) -> new SimpleMetricGroup(entry.getKey(), entry.getValue()));
-            // Collect the set of hosts that are 'up'.
-            final Set<String> up_hosts = messages.values().stream()
-                    .map(msg -> msg.host)
-                    .distinct()
-                    .collect(Collectors.toSet());
-            // Collect the set of hosts that are 'down'.
-            final Map<String, DateTime> down_hosts = knownHosts.entrySet().stream()
-                    .filter(entry -> entry.getValue().isAfter(drop)) // Don't remember host names for ever.
-                    .filter(entry -> !up_hosts.contains(entry.getKey())) // No need to remember hosts that emitted metrics.
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-            // Create metrics for all up/down hosts.
-            final Stream<MetricGroup> up_hosts_stream = up_hosts.stream()
-                    .map(host -> up_down_host_(host, true));
-            final Stream<MetricGroup> down_hosts_stream = down_hosts.keySet().stream()
-                    .map(host -> up_down_host_(host, false));
-            // Replace the map of known hosts.
-            knownHosts = Stream.concat(down_hosts.entrySet().stream(), up_hosts.stream().map(host -> SimpleMapEntry.create(host, now)))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-            // Done, return result.
-            return Stream.of(msg_stream, up_hosts_stream, down_hosts_stream)
-                    .flatMap(Function.identity())
-                    .collect(Collectors.toList());
-        } finally {
-            messages.clear();
-            lck.unlock();
+        // Transform all messages into metrics.
+        final Map<GroupName, List<Metric>> metricsByGroup = new HashMap<>();
+        for (CollectdMessage cm : scraped) {
+            final MetricGroup mg = cm.toMetricGroup(basePath);
+            metricsByGroup.computeIfAbsent(mg.getName(), k -> new ArrayList<>())
+                    .addAll(Arrays.asList(mg.getMetrics()));
         }
+        final Stream<MetricGroup> msg_stream = metricsByGroup.entrySet().stream()
+                .map((Map.Entry<GroupName, List<Metric>> entry) -> new SimpleMetricGroup(entry.getKey(), entry.getValue()));
+        // Collect the set of hosts that are 'up'.
+        final Set<String> up_hosts = scraped.stream()
+                .map(msg -> msg.host)
+                .collect(Collectors.toSet());
+        // Collect the set of hosts that are 'down'.
+        final Map<String, DateTime> down_hosts = knownHosts.entrySet().stream()
+                .filter(entry -> entry.getValue().isAfter(drop)) // Don't remember host names for ever.
+                .filter(entry -> !up_hosts.contains(entry.getKey())) // No need to remember hosts that emitted metrics.
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        // Create metrics for all up/down hosts.
+        final Stream<MetricGroup> up_hosts_stream = up_hosts.stream()
+                .map(host -> up_down_host_(host, true));
+        final Stream<MetricGroup> down_hosts_stream = down_hosts.keySet().stream()
+                .map(host -> up_down_host_(host, false));
+        // Replace the map of known hosts.
+        knownHosts = Stream.concat(down_hosts.entrySet().stream(), up_hosts.stream().map(host -> SimpleMapEntry.create(host, now)))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+        // Done, return result.
+        return Stream.of(msg_stream, up_hosts_stream, down_hosts_stream, ingest_metrics_())
+                .flatMap(Function.identity())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Create the ingest statistics group.
+     *
+     * The group is emitted on every scrape, even if nothing was posted, so the
+     * cumulative counters have no gaps.
+     */
+    private Stream<MetricGroup> ingest_metrics_() {
+        final long nowNanos = System.nanoTime();
+        final long posts = receivedPosts.sum();
+        final long errors = parseErrors.sum();
+        final long msgs = receivedMessages.sum();
+        final double rate = (msgs - lastScrapeMessages) / Math.max(1e-9, (nowNanos - lastScrapeNanos) / 1e9);
+        lastScrapeMessages = msgs;
+        lastScrapeNanos = nowNanos;
+
+        return Stream.of(new SimpleMetricGroup(
+                GroupName.valueOf(getBasePath()),
+                Arrays.asList(
+                        new SimpleMetric(INGEST_POSTS, MetricValue.fromIntValue(posts)),
+                        new SimpleMetric(INGEST_MESSAGES, MetricValue.fromIntValue(msgs)),
+                        new SimpleMetric(INGEST_PARSE_ERRORS, MetricValue.fromIntValue(errors)),
+                        new SimpleMetric(INGEST_RATE, MetricValue.fromDblValue(rate)))));
+    }
+
+    /**
+     * Number of POST requests that were accepted.
+     */
+    public long getReceivedPosts() {
+        return receivedPosts.sum();
+    }
+
+    /**
+     * Number of messages that were received.
+     */
+    public long getReceivedMessages() {
+        return receivedMessages.sum();
+    }
+
+    /**
+     * Number of POST requests that could not be parsed.
+     */
+    public long getParseErrors() {
+        return parseErrors.sum();
     }
 
     /**
@@ -47,7 +47,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -61,12 +63,13 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
-import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -84,6 +87,7 @@ public class CollectdPushCollectorTest {
     private DateTime NOW = DateTime.now(DateTimeZone.UTC);
     private String json;
     private static final GroupName BASE_NAME = GroupName.valueOf(SimpleGroupPath.valueOf("foo"), singletonMap("host", MetricValue.fromStrValue("localhost")));
+    private static final GroupName INGEST_NAME = GroupName.valueOf(SimpleGroupPath.valueOf("foo"));
     private static final GroupName UPTIME_NAME = GroupName.valueOf(SimpleGroupPath.valueOf("foo", "uptime", "0"), BASE_NAME.getTags());
     private static final GroupName DOWNTIME_NAME = GroupName.valueOf(SimpleGroupPath.valueOf("foo", "downtime", "0"), BASE_NAME.getTags());
     private static final MetricName UP_METRIC = MetricName.valueOf("up");
@@ -158,9 +162,9 @@ public class CollectdPushCollectorTest {
         when(request.getReader()).thenReturn(new BufferedReader(new StringReader(json)));
         when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
 
-        /* Before data arrives, getGroups is empty. */
+        /* Before data arrives, getGroups only holds the ingest statistics. */
         Collection<MetricGroup> groups = GroupGenerator.deref(collectd.getGroups(threadpool, new CompletableFuture<>()));
-        assertTrue(groups.isEmpty());
+        assertEquals(singleton(INGEST_NAME), groups.stream().map(MetricGroup::getName).collect(Collectors.toSet()));
 
         /* Perform HTTP request. */
         collectd_acceptor.service(request, response);
@@ -181,13 +185,61 @@ public class CollectdPushCollectorTest {
         groups = GroupGenerator.deref(collectd.getGroups(threadpool, new CompletableFuture<>()));
         // Convenience map for validation.
         group_map = groups.stream().map(x -> (MetricGroup) x).collect(Collectors.toMap(MetricGroup::getName, MetricGroup::getMetrics));
-        assertEquals(group_map.keySet(), singleton(BASE_NAME));
+        assertEquals(group_map.keySet(), new HashSet<>(Arrays.asList(BASE_NAME, INGEST_NAME)));
         assertEquals(UP_METRIC, group_map.get(BASE_NAME)[0].getName());
         assertEquals(MetricValue.FALSE, group_map.get(BASE_NAME)[0].getValue());
 
         verify(response, times(1)).setStatus(200);
     }
 
+    @Test
+    public void ingest_metrics() throws Exception {
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getCharacterEncoding()).thenReturn("UTF-8");
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(json)));
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+        collectd_acceptor.service(request, response);
+
+        final Map<GroupName, Metric[]> group_map = GroupGenerator.deref(collectd.getGroups(threadpool, new CompletableFuture<>())).stream()
+                .collect(Collectors.toMap(MetricGroup::getName, MetricGroup::getMetrics));
+        final Map<MetricName, MetricValue> ingest = Arrays.stream(group_map.get(INGEST_NAME))
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+        assertEquals(MetricValue.fromIntValue(1), ingest.get(MetricName.valueOf("ingest", "posts")));
+        assertEquals(MetricValue.fromIntValue(2), ingest.get(MetricName.valueOf("ingest", "messages")));
+        assertEquals(MetricValue.fromIntValue(0), ingest.get(MetricName.valueOf("ingest", "parse_errors")));
+        assertEquals(1, collectd.getReceivedPosts());
+        assertEquals(2, collectd.getReceivedMessages());
+
+        // Counters are still emitted on a scrape without new posts.
+        final Map<GroupName, Metric[]> idle_map = GroupGenerator.deref(collectd.getGroups(threadpool, new CompletableFuture<>())).stream()
+                .collect(Collectors.toMap(MetricGroup::getName, MetricGroup::getMetrics));
+        final Map<MetricName, MetricValue> idle = Arrays.stream(idle_map.get(INGEST_NAME))
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+        assertEquals(MetricValue.fromIntValue(1), idle.get(MetricName.valueOf("ingest", "posts")));
+        assertEquals(MetricValue.fromIntValue(2), idle.get(MetricName.valueOf("ingest", "messages")));
+    }
+
+    @Test
+    public void malformed_post() throws Exception {
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getCharacterEncoding()).thenReturn("UTF-8");
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(json.substring(0, json.length() - 5))));
+
+        collectd_acceptor.service(request, response);
+
+        verify(response, times(1)).sendError(Mockito.eq(400), Mockito.anyString());
+        assertEquals(1, collectd.getParseErrors());
+        assertEquals(0, collectd.getReceivedPosts());
+        assertEquals(0, collectd.getReceivedMessages());
+
+        // The complete message before the malformed one must not be kept either.
+        final Set<GroupName> groups = GroupGenerator.deref(collectd.getGroups(threadpool, new CompletableFuture<>())).stream()
+                .map(MetricGroup::getName)
+                .collect(Collectors.toSet());
+        assertFalse(groups.contains(UPTIME_NAME));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void empty_api_name_is_disallowed() throws Exception {
         new CollectdPushCollector((path, handler) -> {
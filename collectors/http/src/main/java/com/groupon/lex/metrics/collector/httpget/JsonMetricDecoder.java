@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.collector.httpget;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.groupon.lex.metrics.Metric;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.SimpleMetric;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import static java.util.Collections.unmodifiableList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.NonNull;
+
+/**
+ * Decodes a JSON document into metrics, without materializing the document.
+ *
+ * Each scalar in the document becomes a metric, named by the path to the
+ * scalar. Path elements and their metric names are kept in a tree that is
+ * reused between documents, so repeated scrapes of the same endpoint don't
+ * create new names.
+ *
+ * An optional allow-list selects which subtrees are decoded. Each entry is a
+ * path (excluding the root), where the element {@code *} matches any key or
+ * array index. Subtrees not on the allow-list are skipped by the reader.
+ *
+ * @author ariane
+ */
+public class JsonMetricDecoder {
+    private static final Logger LOG = Logger.getLogger(JsonMetricDecoder.class.getName());
+    /**
+     * Maximum number of paths that are remembered, before the name tree is
+     * discarded.
+     */
+    public static final int MAX_CACHED_NAMES = 100000;
+    public static final String WILDCARD = "*";
+    private final List<String> rootPath;
+    private final List<List<String>> include;
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private volatile Node root;
+
+    /**
+     * @param rootPath The metric name prefix for the document.
+     * @param include The allow-list of paths to decode. If empty, the entire
+     * document is decoded.
+     */
+    public JsonMetricDecoder(@NonNull List<String> rootPath, @NonNull Collection<? extends List<String>> include) {
+        this.rootPath = unmodifiableList(new ArrayList<>(rootPath));
+        this.include = unmodifiableList(new ArrayList<>(include));
+        this.root = newRoot_();
+    }
+
+    /**
+     * Decode a document.
+     *
+     * @param in The document to decode.
+     * @return All metrics in the document, in document order.
+     * @throws IOException If the reader fails.
+     */
+    public List<Metric> decode(@NonNull Reader in) throws IOException {
+        if (nodeCount.get() > MAX_CACHED_NAMES)
+            root = newRoot_();
+
+        final List<Metric> result = new ArrayList<>();
+        final JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            final Node docRoot = root;
+            final JsonToken first;
+            try {
+                first = reader.peek();
+            } catch (EOFException ex) {
+                // Empty document, decodes as JSON null.
+                emit_(docRoot, MetricValue.EMPTY, result);
+                return result;
+            }
+
+            if (first != JsonToken.END_DOCUMENT) {
+                decodeValue_(reader, docRoot, result);
+                // The reader is lenient, so it would accept more values after the first.
+                if (reader.peek() != JsonToken.END_DOCUMENT)
+                    throw new IllegalStateException("trailing data after JSON document");
+            }
+            return result;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException | EOFException ex) {
+            LOG.log(Level.WARNING, "unable to parse as json", ex);
+            result.clear();
+            return result;
+        }
+    }
+
+    private void decodeValue_(JsonReader reader, Node node, List<Metric> out) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); ++i)
+                    decodeChild_(reader, node.child(String.valueOf(i)), out);
+                reader.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                while (reader.hasNext())
+                    decodeChild_(reader, node.child(reader.nextName()), out);
+                reader.endObject();
+                break;
+            case NULL:
+                reader.nextNull();
+                emit_(node, MetricValue.EMPTY, out);
+                break;
+            case BOOLEAN:
+                emit_(node, MetricValue.fromBoolean(reader.nextBoolean()), out);
+                break;
+            case NUMBER:
+                emit_(node, decodeNumber_(reader.nextString()), out);
+                break;
+            case STRING:
+                emit_(node, MetricValue.fromStrValue(reader.nextString()), out);
+                break;
+            default:
+                throw new IllegalStateException("unexpected JSON token " + reader.peek());
+        }
+    }
+
+    private void decodeChild_(JsonReader reader, Node child, List<Metric> out) throws IOException {
+        if (child.match == Match.EXCLUDED)
+            reader.skipValue();
+        else
+            decodeValue_(reader, child, out);
+    }
+
+    private static void emit_(Node node, MetricValue value, List<Metric> out) {
+        if (node.match == Match.INCLUDED)
+            out.add(new SimpleMetric(node.getName(), value));
+    }
+
+    private static MetricValue decodeNumber_(String num) {
+        try {
+            return MetricValue.fromIntValue(Long.parseLong(num));
+        } catch (NumberFormatException ex) {
+            /* SKIP */
+        }
+        try {
+            return MetricValue.fromDblValue(Double.parseDouble(num));
+        } catch (NumberFormatException ex) {
+            /* SKIP */
+        }
+        return MetricValue.fromStrValue(num);
+    }
+
+    private Node newRoot_() {
+        nodeCount.set(0);
+        return new Node(rootPath, include.isEmpty() ? Match.INCLUDED : Match.PARTIAL);
+    }
+
+    /**
+     * Determine if a path is selected by the allow-list.
+     *
+     * @param path The full path, including the root path.
+     */
+    private Match match_(List<String> path) {
+        final int depth = path.size() - rootPath.size();
+        Match best = Match.EXCLUDED;
+        for (List<String> pattern : include) {
+            final int len = Math.min(depth, pattern.size());
+            boolean prefixMatch = true;
+            for (int i = 0; prefixMatch && i < len; ++i) {
+                final String patternElem = pattern.get(i);
+                prefixMatch = WILDCARD.equals(patternElem) || patternElem.equals(path.get(rootPath.size() + i));
+            }
+            if (!prefixMatch) continue;
+
+            if (pattern.size() <= depth)
+                return Match.INCLUDED;
+            best = Match.PARTIAL;
+        }
+        return best;
+    }
+
+    private static enum Match {
+        /**
+         * Node and all its children are decoded.
+         */
+        INCLUDED,
+        /**
+         * Node is not decoded, but some of its children may be.
+         */
+        PARTIAL,
+        /**
+         * Node and all its children are skipped.
+         */
+        EXCLUDED
+    }
+
+    /**
+     * Element in the path tree.
+     */
+    private class Node {
+        private final List<String> path;
+        private final Match match;
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile MetricName name;
+
+        public Node(List<String> path, Match match) {
+            this.path = path;
+            this.match = match;
+            nodeCount.incrementAndGet();
+        }
+
+        public Node child(String key) {
+            final Node child = children.get(key);
+            if (child != null) return child;
+            return children.computeIfAbsent(key, this::newChild_);
+        }
+
+        public MetricName getName() {
+            MetricName result = name;
+            if (result == null)
+                name = result = MetricName.valueOf(path);
+            return result;
+        }
+
+        private Node newChild_(String key) {
+            final List<String> childPath = new ArrayList<>(path.size() + 1);
+            childPath.addAll(path);
+            childPath.add(key);
+            final Match childMatch = (match == Match.PARTIAL ? match_(childPath) : match);
+            return new Node(childPath, childMatch);
+        }
+    }
+}
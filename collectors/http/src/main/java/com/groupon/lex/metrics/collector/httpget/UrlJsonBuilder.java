@@ -33,10 +33,14 @@ package com.groupon.lex.metrics.collector.httpget;
 
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.builders.collector.AcceptAsPath;
+import com.groupon.lex.metrics.builders.collector.AcceptIncludePaths;
 import com.groupon.lex.metrics.builders.collector.AcceptTagSet;
 import com.groupon.lex.metrics.builders.collector.CollectorBuilder;
 import com.groupon.lex.metrics.builders.collector.MainString;
 import com.groupon.lex.metrics.resolver.NameBoundResolver;
+import java.util.Collection;
+import static java.util.Collections.emptyList;
+import java.util.List;
 import java.util.function.BiConsumer;
 import javax.servlet.http.HttpServlet;
 import lombok.Getter;
@@ -46,13 +50,18 @@ import lombok.ToString;
 @Getter
 @Setter
 @ToString
-public class UrlJsonBuilder implements CollectorBuilder, MainString, AcceptAsPath, AcceptTagSet {
+public class UrlJsonBuilder implements CollectorBuilder, MainString, AcceptAsPath, AcceptIncludePaths, AcceptTagSet {
     private SimpleGroupPath asPath;
     private NameBoundResolver tagSet;
     private String main;
+    /**
+     * Paths in the document to decode. If empty, the entire document is
+     * decoded.
+     */
+    private Collection<List<String>> include = emptyList();
 
     @Override
     public UrlJsonCollector build(BiConsumer<String, HttpServlet> er) throws Exception {
-        return new UrlJsonCollector(asPath, new UrlPattern(main, tagSet));
+        return new UrlJsonCollector(asPath, new UrlPattern(main, tagSet), include);
     }
 }
@@ -31,29 +31,17 @@
  */
 package com.groupon.lex.metrics.collector.httpget;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonPrimitive;
 import com.groupon.lex.metrics.Metric;
-import com.groupon.lex.metrics.MetricName;
-import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.SimpleGroupPath;
-import com.groupon.lex.metrics.SimpleMetric;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Collection;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import java.util.List;
 import java.util.Optional;
-import static java.util.function.Function.identity;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.stream.Stream;
 import org.apache.http.Header;
 
@@ -62,90 +50,28 @@ import org.apache.http.Header;
  * @author ariane
  */
 public class UrlJsonCollector extends UrlGetCollector {
-    private static final Logger LOG = Logger.getLogger(UrlJsonCollector.class.getName());
-    private final JsonParser parser_ = new JsonParser();
-    private final List<String> ROOT = singletonList("body");
+    private static final List<String> ROOT = singletonList("body");
+    private final JsonMetricDecoder decoder_;
 
     public UrlJsonCollector(SimpleGroupPath base_group_name, UrlPattern patterns) {
+        this(base_group_name, patterns, emptyList());
+    }
+
+    /**
+     * Create a collector that only decodes the selected paths.
+     *
+     * @param base_group_name The base group name.
+     * @param patterns The URL patterns to scrape.
+     * @param include The allow-list of paths in the document to decode; if
+     * empty, the entire document is decoded.
+     */
+    public UrlJsonCollector(SimpleGroupPath base_group_name, UrlPattern patterns, Collection<? extends List<String>> include) {
         super(base_group_name, patterns);
+        decoder_ = new JsonMetricDecoder(ROOT, include);
     }
 
     @Override
     protected Stream<Metric> processStream(Header[] response_headers, String contentType, Optional<Charset> charset, InputStream in) throws IOException {
-        try {
-            return decode_(ROOT, parser_.parse(new InputStreamReader(in, charset.orElseGet(() -> Charset.forName("UTF-8")))));
-        } catch (JsonParseException ex) {
-            LOG.log(Level.WARNING, "unable to parse as json", ex);
-            return Stream.empty();
-        }
-    }
-
-    private static Stream<Metric> decode_(List<String> prefix, JsonElement elem) {
-        if (elem.isJsonNull())
-            return Stream.of(new SimpleMetric(MetricName.valueOf(prefix), MetricValue.EMPTY));
-
-        if (elem.isJsonArray()) {
-            return decode_array_(prefix, elem.getAsJsonArray());
-        }
-
-        if (elem.isJsonObject()) {
-            return decode_object_(prefix, elem.getAsJsonObject());
-        }
-
-        return Stream.of(new SimpleMetric(MetricName.valueOf(prefix), decode_primitive_(elem)));
-    }
-
-    private static Stream<Metric> decode_array_(List<String> prefix, JsonArray elem) {
-        final int size = elem.size();
-        final Collection<Stream<Metric>> result = new ArrayList<>(size);
-
-        for (int i = 0; i < size; ++i) {
-            final List<String> sub_prefix = new ArrayList<>(prefix.size() + 1);
-            sub_prefix.addAll(prefix);
-            sub_prefix.add(String.valueOf(i));
-
-            result.add(decode_(sub_prefix, elem.get(i)));
-        }
-        return result.stream().flatMap(identity());
-    }
-
-    private static Stream<Metric> decode_object_(List<String> prefix, JsonObject elem) {
-        return elem.entrySet().stream()
-                .flatMap((e) -> {
-                    final List<String> sub_prefix = new ArrayList<>(prefix.size() + 1);
-                    sub_prefix.addAll(prefix);
-                    sub_prefix.add(e.getKey());
-
-                    return decode_(sub_prefix, e.getValue());
-                });
-    }
-
-    private static MetricValue decode_primitive_(JsonElement base_elem) {
-        final JsonPrimitive elem = base_elem.getAsJsonPrimitive();
-
-        if (elem.isBoolean())
-            return MetricValue.fromBoolean(elem.getAsBoolean());
-
-        if (elem.isNumber()) {
-            String num = elem.getAsNumber().toString();
-            try {
-                return MetricValue.fromIntValue(Long.parseLong(num));
-            } catch (NumberFormatException ex) {
-                /* SKIP */
-            }
-            try {
-                return MetricValue.fromDblValue(Double.parseDouble(num));
-            } catch (NumberFormatException ex ) {
-                /* SKIP */
-            }
-            return MetricValue.fromStrValue(num);
-        }
-
-        if (elem.isString())
-            return MetricValue.fromStrValue(elem.getAsString());
-
-        // Should be unreachable.
-        LOG.log(Level.WARNING, "failed to correctly decode primitive JSON value {0}", base_elem);
-        return MetricValue.EMPTY;
+        return decoder_.decode(new InputStreamReader(in, charset.orElseGet(() -> Charset.forName("UTF-8")))).stream();
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.collector.httpget;
+
+import com.groupon.lex.metrics.Metric;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import java.io.StringReader;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class JsonMetricDecoderTest {
+    private static final List<String> ROOT = singletonList("body");
+    private static final String JSON
+            = "{"
+            + "  \"bool\": true,"
+            + "  \"int\": 7,"
+            + "  \"dbl\": 3.1415,"
+            + "  \"big\": 123456789012345678901234567890,"
+            + "  \"map\": { \"key\": \"value\", \"other\": 1 },"
+            + "  \"list\": [ { \"name\": \"a\", \"v\": 1 }, { \"name\": \"b\", \"v\": 2 } ],"
+            + "  \"null\": null,"
+            + "  \"str\": \"foobar\""
+            + "}";
+
+    private static Map<MetricName, MetricValue> decode(JsonMetricDecoder decoder, String json) throws Exception {
+        return decoder.decode(new StringReader(json)).stream()
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+
+    @Test
+    public void decodeAll() throws Exception {
+        final Map<MetricName, MetricValue> metrics = decode(new JsonMetricDecoder(ROOT, emptyList()), JSON);
+
+        assertEquals(12, metrics.size());
+        assertThat(metrics, allOf(
+                hasEntry(MetricName.valueOf("body", "bool"), MetricValue.TRUE),
+                hasEntry(MetricName.valueOf("body", "int"), MetricValue.fromIntValue(7)),
+                hasEntry(MetricName.valueOf("body", "dbl"), MetricValue.fromDblValue(3.1415)),
+                hasEntry(MetricName.valueOf("body", "big"), MetricValue.fromDblValue(123456789012345678901234567890.0)),
+                hasEntry(MetricName.valueOf("body", "map", "key"), MetricValue.fromStrValue("value")),
+                hasEntry(MetricName.valueOf("body", "list", "1", "name"), MetricValue.fromStrValue("b")),
+                hasEntry(MetricName.valueOf("body", "null"), MetricValue.EMPTY),
+                hasEntry(MetricName.valueOf("body", "str"), MetricValue.fromStrValue("foobar"))));
+    }
+
+    @Test
+    public void scalarDocument() throws Exception {
+        assertEquals(singletonMap(MetricName.valueOf("body"), MetricValue.fromIntValue(17)),
+                decode(new JsonMetricDecoder(ROOT, emptyList()), "17"));
+        assertEquals(singletonMap(MetricName.valueOf("body"), MetricValue.EMPTY),
+                decode(new JsonMetricDecoder(ROOT, emptyList()), ""));
+    }
+
+    @Test
+    public void include() throws Exception {
+        final JsonMetricDecoder decoder = new JsonMetricDecoder(ROOT, asList(asList("map", "key"), asList("list", "*", "v")));
+        final Map<MetricName, MetricValue> metrics = decode(decoder, JSON);
+
+        assertEquals(3, metrics.size());
+        assertThat(metrics, allOf(
+                hasEntry(MetricName.valueOf("body", "map", "key"), MetricValue.fromStrValue("value")),
+                hasEntry(MetricName.valueOf("body", "list", "0", "v"), MetricValue.fromIntValue(1)),
+                hasEntry(MetricName.valueOf("body", "list", "1", "v"), MetricValue.fromIntValue(2))));
+    }
+
+    @Test
+    public void includeSubtree() throws Exception {
+        final Map<MetricName, MetricValue> metrics = decode(new JsonMetricDecoder(ROOT, singletonList(singletonList("map"))), JSON);
+
+        assertEquals(2, metrics.size());
+        assertThat(metrics, allOf(
+                hasEntry(MetricName.valueOf("body", "map", "key"), MetricValue.fromStrValue("value")),
+                hasEntry(MetricName.valueOf("body", "map", "other"), MetricValue.fromIntValue(1))));
+    }
+
+    @Test
+    public void namesAreReused() throws Exception {
+        final JsonMetricDecoder decoder = new JsonMetricDecoder(ROOT, emptyList());
+        final Metric first = decoder.decode(new StringReader("{\"a\": 1}")).get(0);
+        final Metric second = decoder.decode(new StringReader("{\"a\": 2}")).get(0);
+
+        assertSame(first.getName(), second.getName());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        assertTrue(decode(new JsonMetricDecoder(ROOT, emptyList()), "{\"a\": [1, 2").isEmpty());
+    }
+
+    @Test
+    public void trailingGarbage() throws Exception {
+        assertTrue(decode(new JsonMetricDecoder(ROOT, emptyList()), "{\"a\": 1} garbage").isEmpty());
+        assertTrue(decode(new JsonMetricDecoder(ROOT, emptyList()), "{\"a\": 1}{\"b\": 2}").isEmpty());
+    }
+
+    @Test
+    public void trailingWhitespace() throws Exception {
+        assertEquals(singletonMap(MetricName.valueOf("body", "a"), MetricValue.fromIntValue(1)),
+                decode(new JsonMetricDecoder(ROOT, emptyList()), "{\"a\": 1}\n  "));
+    }
+}
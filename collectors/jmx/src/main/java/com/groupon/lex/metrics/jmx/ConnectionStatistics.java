@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.jmx;
+
+import com.groupon.lex.metrics.Metric;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.SimpleMetric;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the requests made on a JMX connection.
+ *
+ * The JMX API does not expose the RMI transport, so the statistics count
+ * requests and the number of values transferred, rather than bytes.
+ *
+ * @author ariane
+ */
+public class ConnectionStatistics {
+    public static final MetricName ROUND_TRIPS = MetricName.valueOf("round_trips");
+    public static final MetricName MBEAN_INFO_FETCHES = MetricName.valueOf("mbean_info");
+    public static final MetricName ATTRIBUTES_READ = MetricName.valueOf("attributes");
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong mbeanInfoFetches = new AtomicLong();
+    private final AtomicLong attributesRead = new AtomicLong();
+
+    /** Record a request to the MBean server. */
+    public void roundTrip() {
+        roundTrips.incrementAndGet();
+    }
+
+    /** Record a request to the MBean server, to fetch MBeanInfo. */
+    public void mbeanInfoFetch() {
+        mbeanInfoFetches.incrementAndGet();
+        roundTrip();
+    }
+
+    /**
+     * Record attribute values received from the MBean server.
+     *
+     * @param count The number of attribute values received.
+     */
+    public void attributesRead(int count) {
+        attributesRead.addAndGet(count);
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    public long getMBeanInfoFetches() {
+        return mbeanInfoFetches.get();
+    }
+
+    public long getAttributesRead() {
+        return attributesRead.get();
+    }
+
+    /**
+     * Express the statistics as metrics.
+     *
+     * @return The counters as metrics.
+     */
+    public Collection<Metric> getMetrics() {
+        return Arrays.asList(
+                new SimpleMetric(ROUND_TRIPS, getRoundTrips()),
+                new SimpleMetric(MBEAN_INFO_FETCHES, getMBeanInfoFetches()),
+                new SimpleMetric(ATTRIBUTES_READ, getAttributesRead()));
+    }
+}
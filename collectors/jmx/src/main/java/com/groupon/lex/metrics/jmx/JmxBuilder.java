@@ -33,6 +33,7 @@ package com.groupon.lex.metrics.jmx;
 
 import com.groupon.lex.metrics.GroupGenerator;
 import com.groupon.lex.metrics.ResolverGroupGenerator;
+import com.groupon.lex.metrics.builders.collector.AcceptConcurrency;
 import com.groupon.lex.metrics.builders.collector.AcceptTagSet;
 import com.groupon.lex.metrics.builders.collector.CollectorBuilder;
 import com.groupon.lex.metrics.builders.collector.MainStringList;
@@ -40,6 +41,7 @@ import com.groupon.lex.metrics.resolver.NameBoundResolver;
 import com.groupon.lex.metrics.resolver.NamedResolverMap;
 import static java.util.Collections.unmodifiableSortedSet;
 import java.util.List;
+import java.util.OptionalInt;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.function.BiConsumer;
@@ -54,13 +56,17 @@ import lombok.ToString;
 @Getter
 @Setter
 @ToString
-public class JmxBuilder implements CollectorBuilder, MainStringList, AcceptTagSet {
+public class JmxBuilder implements CollectorBuilder, MainStringList, AcceptTagSet, AcceptConcurrency {
     private List<String> main;
     private NameBoundResolver tagSet;
+    /**
+     * Number of MBeans read concurrently over a connection.
+     */
+    private OptionalInt concurrency = OptionalInt.empty();
 
     @Override
     public GroupGenerator build(BiConsumer<String, HttpServlet> er) throws Exception {
-        return new ResolverGroupGenerator(tagSet, new Constructor(getIncludes()));
+        return new ResolverGroupGenerator(tagSet, new Constructor(getIncludes(), concurrency.orElse(MetricListener.DEFAULT_CONCURRENCY)));
     }
 
     private SortedSet<ObjectName> getIncludes() throws MalformedObjectNameException {
@@ -73,6 +79,7 @@ public class JmxBuilder implements CollectorBuilder, MainStringList, AcceptTagSe
     @RequiredArgsConstructor
     private static class Constructor implements ResolverGroupGenerator.GroupGeneratorFactory {
         private final SortedSet<ObjectName> includes;
+        private final int concurrency;
 
         @Override
         public GroupGenerator create(NamedResolverMap arg) throws Exception {
@@ -84,7 +91,7 @@ public class JmxBuilder implements CollectorBuilder, MainStringList, AcceptTagSe
                 port = arg.getString("port");  // Backwards compatibility: port used to be a string.
             }
 
-            MetricListener listener = new MetricListener(new JmxClient("service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi", true), includes, arg);
+            MetricListener listener = new MetricListener(new JmxClient("service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi", true), includes, arg, concurrency);
             listener.enable();
             return listener;
         }
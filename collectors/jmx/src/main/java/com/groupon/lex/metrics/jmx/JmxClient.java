@@ -69,6 +69,9 @@ public class JmxClient implements AutoCloseable {
     @Getter(AccessLevel.PACKAGE) // For debug purposes only.
     private CompletableFuture<GCCloseable<JMXConnector>> conn_;  // conn_ == null -> connection needs recovery
     private final Collection<ConnectionDecorator> recovery_callbacks_ = new ArrayList<>();
+    /** Request counters for this client. */
+    @Getter
+    private final ConnectionStatistics statistics = new ConnectionStatistics();
 
     /**
      * Create a default client, using the default PlatformMBeanServer.
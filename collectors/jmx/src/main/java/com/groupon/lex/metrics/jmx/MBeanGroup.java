@@ -33,6 +33,7 @@ package com.groupon.lex.metrics.jmx;
 
 import static com.groupon.lex.metrics.AttributeConverter.resolve_property;
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.Metric;
 import com.groupon.lex.metrics.MetricGroup;
 import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.MetricValue;
@@ -42,15 +43,19 @@ import com.groupon.lex.metrics.resolver.NamedResolverMap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.IntrospectionException;
@@ -72,7 +77,8 @@ import org.joda.time.Duration;
 public class MBeanGroup {
     private static final Logger LOG = Logger.getLogger(MBeanGroup.class.getName());
     private static final Duration SILENCE_EXCEPTION_LOG = Duration.standardHours(4);
-    private final Map<String, DateTime> last_exception_log_ = new HashMap<>();
+    private final Map<String, DateTime> last_exception_log_ = new ConcurrentHashMap<>();
+    private final Map<String, DateTime> last_retry_ = new ConcurrentHashMap<>();
 
     private static class Tag {
         private final String name_;
@@ -120,6 +126,8 @@ public class MBeanGroup {
 
     private final GroupName name_;
     private final ObjectName obj_name_;
+    /** Attribute names of the MBean, loaded on first use; null if not loaded. */
+    private volatile String[] attributes_ = null;
 
     /**
      * Extract a metric group name from a JMX ObjectName.
@@ -195,24 +203,90 @@ public class MBeanGroup {
         return resolve_property(Arrays.asList(attribute), property);
     }
 
+    /**
+     * Retrieve the attribute names of the MBean.
+     *
+     * The names are loaded using the MBeanInfo on first use and remembered
+     * until the group is invalidated.
+     */
+    private String[] getAttributeNames_(MBeanServerConnection conn, ConnectionStatistics stats) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+        String[] attributes = attributes_;
+        if (attributes == null) {
+            stats.mbeanInfoFetch();
+            attributes = Arrays.stream(conn.getMBeanInfo(obj_name_).getAttributes())
+                    .map(MBeanAttributeInfo::getName)
+                    .distinct()
+                    .toArray(String[]::new);
+            attributes_ = attributes;
+        }
+        return attributes;
+    }
+
+    /**
+     * Forget the cached MBeanInfo.
+     *
+     * Invoked when the MBean is unregistered.
+     */
+    public void invalidate() {
+        attributes_ = null;
+    }
+
     public Optional<MetricGroup> getMetrics(MBeanServerConnection conn) {
-        MBeanAttributeInfo[] attributes;
+        return getMetrics(conn, new ConnectionStatistics());
+    }
+
+    /**
+     * Read all attributes of the MBean.
+     *
+     * All attributes are read using a single request.
+     *
+     * @param conn The connection to the MBean server.
+     * @param stats Statistics for the connection.
+     * @return A metric group with the attributes of the MBean, or an empty
+     * optional if the MBean could not be read.
+     */
+    public Optional<MetricGroup> getMetrics(MBeanServerConnection conn, ConnectionStatistics stats) {
+        final String[] attributes;
+        final AttributeList values;
         try {
-            attributes = conn.getMBeanInfo(obj_name_).getAttributes();
+            attributes = getAttributeNames_(conn, stats);
+            stats.roundTrip();
+            values = conn.getAttributes(obj_name_, attributes);
         } catch (InstanceNotFoundException ex) {
+            invalidate();
             return Optional.empty();
         } catch (IntrospectionException | ReflectionException | IOException ex) {
             LOG.log(Level.WARNING, "failed to load properties on " + obj_name_, ex);
             return Optional.empty();
         }
+        stats.attributesRead(values.size());
+
+        final List<Metric> metrics = new ArrayList<>();
+        final Set<String> missing = new LinkedHashSet<>(Arrays.asList(attributes));
+        for (Attribute attribute : values.asList()) {
+            missing.remove(attribute.getName());
+            resolve_property(Arrays.asList(attribute.getName()), attribute.getValue())
+                    .map(m -> new SimpleMetric(m.getKey(), m.getValue()))
+                    .forEach(metrics::add);
+        }
+
+        /*
+         * Attributes that failed to load are silently omitted by getAttributes.
+         * Every once in a while, read them individually, to log why they fail.
+         */
+        final DateTime now_ts = DateTime.now(DateTimeZone.UTC);
+        for (String attribute : missing) {
+            final DateTime last_retry = last_retry_.getOrDefault(attribute, new DateTime(0L, DateTimeZone.UTC));
+            if (new Duration(last_retry, now_ts).isLongerThan(SILENCE_EXCEPTION_LOG)) {
+                last_retry_.put(attribute, now_ts);
+                stats.roundTrip();
+                resolve_(conn, attribute)
+                        .map(m -> new SimpleMetric(m.getKey(), m.getValue()))
+                        .forEach(metrics::add);
+            }
+        }
 
-        return Optional.of(new SimpleMetricGroup(
-                getName(),
-                Arrays.stream(attributes)
-                .map(MBeanAttributeInfo::getName)
-                .distinct()
-                .flatMap(attribute -> resolve_(conn, attribute))
-                .map(m -> new SimpleMetric(m.getKey(), m.getValue()))));
+        return Optional.of(new SimpleMetricGroup(getName(), metrics));
     }
 
     public GroupName getName() {
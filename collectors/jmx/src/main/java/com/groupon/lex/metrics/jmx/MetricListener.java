@@ -32,19 +32,26 @@
 package com.groupon.lex.metrics.jmx;
 
 import com.groupon.lex.metrics.GroupGenerator;
+import com.groupon.lex.metrics.Metric;
 import com.groupon.lex.metrics.MetricGroup;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.SimpleMetric;
+import com.groupon.lex.metrics.SimpleMetricGroup;
 import com.groupon.lex.metrics.jmx.JmxClient.ConnectionDecorator;
 import com.groupon.lex.metrics.lib.GCCloseable;
 import com.groupon.lex.metrics.resolver.NamedResolverMap;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import static java.util.Collections.singleton;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,6 +75,13 @@ import lombok.NonNull;
  */
 public class MetricListener implements GroupGenerator {
     private static final Logger LOG = Logger.getLogger(MetricListener.class.getName());
+    /** Path of the group holding the connection statistics. */
+    public static final List<String> STATISTICS_PATH = Arrays.asList("monsoon", "jmx");
+    public static final MetricName MBEAN_COUNT = MetricName.valueOf("mbeans");
+    public static final MetricName SKIPPED_COUNT = MetricName.valueOf("skipped");
+    /** Default number of MBeans that is read concurrently over a connection. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+    private final int concurrency_;
     private final Collection<ObjectName> filter_;
     private final Map<ObjectName, MBeanGroup> detected_groups_ = new HashMap<ObjectName, MBeanGroup>();
     private boolean is_enabled_ = false;
@@ -79,9 +93,24 @@ public class MetricListener implements GroupGenerator {
     private final NamedResolverMap resolvedMap;
 
     public MetricListener(@NonNull JmxClient conn, @NonNull Collection<ObjectName> filter, @NonNull NamedResolverMap resolvedMap) throws IOException, InstanceNotFoundException {
+        this(conn, filter, resolvedMap, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Create a new listener.
+     *
+     * @param conn The JMX connection.
+     * @param filter Patterns of MBeans to collect.
+     * @param resolvedMap Resolver arguments, used to name the groups.
+     * @param concurrency The maximum number of MBeans read concurrently.
+     */
+    public MetricListener(@NonNull JmxClient conn, @NonNull Collection<ObjectName> filter, @NonNull NamedResolverMap resolvedMap, int concurrency) throws IOException, InstanceNotFoundException {
         if (filter.isEmpty())
             throw new IllegalArgumentException("empty filter");
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
         filter_ = filter;
+        concurrency_ = concurrency;
         connection = conn;
         this.resolvedMap = resolvedMap;
 
@@ -160,8 +189,8 @@ public class MetricListener implements GroupGenerator {
             return;
         }
 
-        MBeanGroup instance = detected_groups_.get(obj);
-        detected_groups_.remove(obj);
+        MBeanGroup instance = detected_groups_.remove(obj);
+        instance.invalidate();
         LOG.log(Level.FINE, "de-registered metrics for {0}: {1}", new Object[]{obj, instance});
     }
 
@@ -206,6 +235,10 @@ public class MetricListener implements GroupGenerator {
         return filter_.toArray(new ObjectName[0]);
     }
 
+    public int getConcurrency() {
+        return concurrency_;
+    }
+
     public boolean isEnabled() {
         return is_enabled_;
     }
@@ -219,6 +252,22 @@ public class MetricListener implements GroupGenerator {
         disable();
     }
 
+    /**
+     * Create a metric group describing the requests on the connection.
+     *
+     * Only emitted for remote connections.
+     *
+     * @param timings The timings of the MBeans that were read.
+     * @param skipped The number of MBeans not read, due to timeout.
+     */
+    private MetricGroup statisticsGroup_(ScrapeTimings timings, int skipped) {
+        final List<Metric> metrics = new ArrayList<>(connection.getStatistics().getMetrics());
+        metrics.add(new SimpleMetric(MBEAN_COUNT, timings.getCount() + skipped));
+        metrics.add(new SimpleMetric(SKIPPED_COUNT, skipped));
+        metrics.addAll(timings.getMetrics());
+        return new SimpleMetricGroup(resolvedMap.getGroupName(STATISTICS_PATH), metrics);
+    }
+
     @Override
     public Collection<CompletableFuture<? extends Collection<? extends MetricGroup>>> getGroups(Executor threadpool, CompletableFuture<TimeoutObject> timeout) {
         /*
@@ -227,30 +276,66 @@ public class MetricListener implements GroupGenerator {
          * If there are no groups registered, the connection opening won't be triggered otherwise.
          * And if that isn't triggered, registering groups won't happen either.
          */
-        CompletableFuture<List<MetricGroup>> future = connection.getConnection(threadpool)
-                .applyToEitherAsync(
+        CompletableFuture<Collection<MetricGroup>> future = connection.getConnection(threadpool)
+                .applyToEither(
                         timeout.thenApply(timeoutObject -> new GCCloseable<JMXConnector>()),
                         conn -> {
                             if (conn.get() == null)
                                 throw new RuntimeException("connection unavailable");
-
-                            synchronized (this) {
-                                try {
-                                    List<MetricGroup> result = new ArrayList<>();
-                                    for (MBeanGroup group
-                                                 : detected_groups_.values()) {
-                                        if (timeout.isDone())
-                                            throw new RuntimeException("timed out");
-                                        group.getMetrics(conn.get().getMBeanServerConnection()).ifPresent(result::add);
-                                    }
-                                    return result;
-                                } catch (IOException ex) {
-                                    throw new RuntimeException("unable to get MBeanServerConnection", ex);
-                                }
+                            try {
+                                return conn.get().getMBeanServerConnection();
+                            } catch (IOException ex) {
+                                throw new RuntimeException("unable to get MBeanServerConnection", ex);
                             }
-                        },
-                        threadpool);
-        timeout.thenAccept(timeoutObject -> future.cancel(true));
+                        })
+                .thenCompose(conn -> scrape_(conn, threadpool, timeout));
         return singleton(future);
     }
+
+    /**
+     * Scrape all detected MBeans.
+     *
+     * The MBeans are read by at most concurrency workers on the threadpool.
+     * When the timeout fires, workers stop picking up new MBeans and the
+     * groups read so far are returned.
+     */
+    private CompletableFuture<Collection<MetricGroup>> scrape_(MBeanServerConnection conn, Executor threadpool, CompletableFuture<TimeoutObject> timeout) {
+        final Queue<MBeanGroup> pending;
+        synchronized (this) {
+            pending = new ConcurrentLinkedQueue<>(detected_groups_.values());
+        }
+        final Queue<MetricGroup> result = new ConcurrentLinkedQueue<>();
+        final ScrapeTimings timings = new ScrapeTimings();
+
+        final CompletableFuture<?>[] workers = new CompletableFuture<?>[Integer.min(concurrency_, Integer.max(1, pending.size()))];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = CompletableFuture.runAsync(
+                    () -> {
+                        MBeanGroup group;
+                        while (!timeout.isDone() && (group = pending.poll()) != null) {
+                            final long t0 = System.nanoTime();
+                            group.getMetrics(conn, connection.getStatistics()).ifPresent(result::add);
+                            timings.add(group.getMonitoredMBeanName(), System.nanoTime() - t0);
+                        }
+                    },
+                    threadpool);
+        }
+
+        final CompletableFuture<Collection<MetricGroup>> future = new CompletableFuture<>();
+        final Runnable complete = () -> {
+            if (future.isDone()) return;
+            final List<MetricGroup> groups = new ArrayList<>(result);
+            if (connection.getJmxUrl().isPresent())
+                groups.add(statisticsGroup_(timings, pending.size()));
+            future.complete(groups);
+        };
+        CompletableFuture.allOf(workers)
+                .whenComplete((ignored, exc) -> {
+                    if (exc != null)
+                        LOG.log(Level.WARNING, "scrape of " + connection.getJmxUrl() + " failed", exc);
+                    complete.run();
+                });
+        timeout.thenRun(complete);
+        return future;
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.jmx;
+
+import com.groupon.lex.metrics.Histogram;
+import com.groupon.lex.metrics.Metric;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.SimpleMetric;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+
+/**
+ * Records how long it took to read each MBean during a scrape.
+ *
+ * Latencies are recorded in a histogram with power-of-two millisecond
+ * buckets.  The slowest MBean is remembered, to help find beans that slow
+ * down collection.
+ *
+ * @author ariane
+ */
+class ScrapeTimings {
+    public static final MetricName LATENCY = MetricName.valueOf("timing", "mbean");
+    public static final MetricName SLOWEST_LATENCY = MetricName.valueOf("timing", "slowest");
+    public static final MetricName SLOWEST_NAME = MetricName.valueOf("slowest");
+    /** Bucket index to count; bucket -1 holds [0, 1) msec, bucket i holds [2^i, 2^(i+1)) msec. */
+    private final Map<Integer, Long> buckets_ = new TreeMap<>();
+    private int count_ = 0;
+    private long slowest_nsec_ = -1;
+    private ObjectName slowest_ = null;
+
+    /**
+     * Record the latency of an MBean.
+     *
+     * @param name The name of the MBean.
+     * @param nsec The time it took to read the MBean, in nanoseconds.
+     */
+    public synchronized void add(ObjectName name, long nsec) {
+        final long msec = TimeUnit.NANOSECONDS.toMillis(nsec);
+        final int bucket = (msec == 0 ? -1 : 63 - Long.numberOfLeadingZeros(msec));
+        buckets_.merge(bucket, 1L, Long::sum);
+        ++count_;
+
+        if (nsec > slowest_nsec_) {
+            slowest_nsec_ = nsec;
+            slowest_ = name;
+        }
+    }
+
+    /** @return The number of MBeans that were read. */
+    public synchronized int getCount() {
+        return count_;
+    }
+
+    /**
+     * Express the timings as metrics.
+     *
+     * @return Metrics describing the latency of the MBeans.
+     */
+    public synchronized Collection<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<>(3);
+        result.add(new SimpleMetric(LATENCY, MetricValue.fromHistValue(new Histogram(buckets_.entrySet().stream()
+                .map(bucket -> {
+                    final double floor = (bucket.getKey() < 0 ? 0 : 1L << bucket.getKey());
+                    final double ceil = 1L << (bucket.getKey() + 1);
+                    return new Histogram.RangeWithCount(floor, ceil, bucket.getValue());
+                })))));
+        if (slowest_ != null) {
+            result.add(new SimpleMetric(SLOWEST_LATENCY, TimeUnit.NANOSECONDS.toMillis(slowest_nsec_)));
+            result.add(new SimpleMetric(SLOWEST_NAME, slowest_.getCanonicalName()));
+        }
+        return result;
+    }
+}
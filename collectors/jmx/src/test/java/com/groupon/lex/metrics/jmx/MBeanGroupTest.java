@@ -50,11 +50,13 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.hasEntry;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import org.junit.Before;
 import org.junit.Test;
@@ -140,6 +142,31 @@ public class MBeanGroupTest {
                 hasEntry(MetricName.valueOf("Stringval"), MetricValue.fromStrValue("foobar"))));
     }
 
+    @Test
+    public void read_caches_mbean_info() throws Exception {
+        final MBeanGroup mbg = new MBeanGroup(obj_name, NamedResolverMap.EMPTY);
+        final ConnectionStatistics stats = new ConnectionStatistics();
+        final MBeanServerConnection conn = jmx.getConnection(threadpool).get().get().getMBeanServerConnection();
+
+        mbg.getMetrics(conn, stats).get();
+        mbg.getMetrics(conn, stats).get();
+
+        assertEquals(1, stats.getMBeanInfoFetches());
+        assertEquals(3, stats.getRoundTrips());
+        assertEquals(8, stats.getAttributesRead());
+
+        mbg.invalidate();
+        mbg.getMetrics(conn, stats).get();
+        assertEquals(2, stats.getMBeanInfoFetches());
+    }
+
+    @Test
+    public void read_missing_mbean() throws Exception {
+        final MBeanGroup mbg = new MBeanGroup(new ObjectName("com.groupon.lex.metrics.jmx:type=MBeanGroupInstanceTest,seq=missing"), NamedResolverMap.EMPTY);
+
+        assertFalse(mbg.getMetrics(jmx.getConnection(threadpool).get().get().getMBeanServerConnection()).isPresent());
+    }
+
     @Test
     public void remembers_objname() {
         final MBeanGroup mbg = new MBeanGroup(obj_name, NamedResolverMap.EMPTY);
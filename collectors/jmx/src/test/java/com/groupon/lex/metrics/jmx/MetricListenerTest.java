@@ -38,6 +38,7 @@ import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.resolver.NamedResolverMap;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collection;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
@@ -53,6 +54,7 @@ import java.util.stream.Collectors;
 import javax.management.ObjectName;
 import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -192,6 +194,58 @@ public class MetricListenerTest {
         }
     }
 
+    @Test
+    public void run_concurrently() throws Exception {
+        final MetricListener concurrent_listener = new MetricListener(jmx, singleton(new ObjectName(PREFIX + "*")), NamedResolverMap.EMPTY, 3);
+        final ExecutorService concurrent_threadpool = Executors.newFixedThreadPool(3);
+        final List<ObjectName> names = new ArrayList<>();
+        for (int i = 0; i < 10; ++i)
+            names.add(new ObjectName(PREFIX + "something=found" + i));
+
+        try {
+            for (ObjectName name : names)
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new TestValueImpl(), name);
+            concurrent_listener.enable();
+            assertEquals(3, concurrent_listener.getConcurrency());
+
+            Collection<MetricGroup> groups = GroupGenerator.deref(concurrent_listener.getGroups(concurrent_threadpool, new CompletableFuture<>()));
+            assertThat(groups.stream().map(MetricGroup::getName).collect(Collectors.toList()),
+                    containsInAnyOrder(names.stream()
+                            .map(name -> GROUP_PATH.apply(singletonMap("something", MetricValue.fromStrValue(name.getKeyProperty("something")))))
+                            .toArray()));
+        } finally {
+            concurrent_listener.close();
+            concurrent_threadpool.shutdownNow();
+            for (ObjectName name : names)
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void partial_result_after_timeout() throws Exception {
+        final TestValueImpl test_value = new TestValueImpl();
+        final CompletableFuture<GroupGenerator.TimeoutObject> timeout = new CompletableFuture<>();
+        final ExecutorService blocked_threadpool = Executors.newSingleThreadExecutor();
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(test_value, new ObjectName(PREFIX + "something=found"));
+        try {
+            listener.enable();
+
+            /* Occupy the threadpool, so no MBean gets read before the timeout. */
+            final CompletableFuture<Void> blocker = new CompletableFuture<>();
+            blocked_threadpool.execute(blocker::join);
+
+            Collection<CompletableFuture<? extends Collection<? extends MetricGroup>>> futures = listener.getGroups(blocked_threadpool, timeout);
+            timeout.complete(new GroupGenerator.TimeoutObject());
+            blocker.complete(null);
+
+            assertTrue(GroupGenerator.deref(futures).isEmpty());
+        } finally {
+            blocked_threadpool.shutdownNow();
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(PREFIX + "something=found"));
+        }
+    }
+
     @Test
     public void find_nothing_when_disabled() throws Exception {
         /**
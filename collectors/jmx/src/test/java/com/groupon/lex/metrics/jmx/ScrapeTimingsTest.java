@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.jmx;
+
+import com.groupon.lex.metrics.Histogram;
+import com.groupon.lex.metrics.Metric;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.management.ObjectName;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class ScrapeTimingsTest {
+    private static Map<MetricName, MetricValue> metrics(ScrapeTimings timings) {
+        return timings.getMetrics().stream()
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+
+    @Test
+    public void empty() {
+        ScrapeTimings timings = new ScrapeTimings();
+
+        assertEquals(0, timings.getCount());
+        assertThat(metrics(timings), hasEntry(ScrapeTimings.LATENCY, MetricValue.fromHistValue(new Histogram())));
+        assertThat(metrics(timings), not(hasKey(ScrapeTimings.SLOWEST_NAME)));
+    }
+
+    @Test
+    public void add() throws Exception {
+        ScrapeTimings timings = new ScrapeTimings();
+        timings.add(new ObjectName("test:name=fast"), TimeUnit.MICROSECONDS.toNanos(10));
+        timings.add(new ObjectName("test:name=slow"), TimeUnit.MILLISECONDS.toNanos(5));
+        timings.add(new ObjectName("test:name=medium"), TimeUnit.MILLISECONDS.toNanos(4));
+
+        assertEquals(3, timings.getCount());
+        assertThat(metrics(timings), hasEntry(ScrapeTimings.LATENCY, MetricValue.fromHistValue(new Histogram(
+                new Histogram.RangeWithCount(0, 1, 1),
+                new Histogram.RangeWithCount(4, 8, 2)))));
+        assertThat(metrics(timings), hasEntry(ScrapeTimings.SLOWEST_LATENCY, MetricValue.fromIntValue(5)));
+        assertThat(metrics(timings), hasEntry(ScrapeTimings.SLOWEST_NAME, MetricValue.fromStrValue("test:name=slow")));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.groupon.monsoon.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Performs TCP connects, using non-blocking sockets driven by a single
+ * selector thread.
+ *
+ * Each connect completes a future with the connect latency in nanoseconds,
+ * or with the exception that caused the connect to fail. A connect that
+ * doesn't complete before its deadline fails with a
+ * {@link SocketTimeoutException}. Cancelling (or otherwise completing) the
+ * future aborts the connect.
+ *
+ * @author ariane
+ */
+public class ConnectEngine implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ConnectEngine.class.getName());
+    private static final AtomicInteger THREAD_IDX = new AtomicInteger();
+    /**
+     * Max time the selector sleeps, so that aborted connects are cleaned up.
+     */
+    private static final long MAX_SELECT_MSEC = 1000;
+    private static ConnectEngine defaultEngine;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Pending> registrations = new ConcurrentLinkedQueue<>();
+    /**
+     * Connects in progress; only accessed from the selector thread.
+     */
+    private final Set<Pending> pending = new HashSet<>();
+    private volatile boolean closed = false;
+
+    public ConnectEngine() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::run_, "tcp-connect-engine-" + THREAD_IDX.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Retrieve the engine shared by all TCP collectors.
+     *
+     * @return The shared engine.
+     * @throws IOException If the engine cannot be created.
+     */
+    public static synchronized ConnectEngine getDefault() throws IOException {
+        if (defaultEngine == null || defaultEngine.closed)
+            defaultEngine = new ConnectEngine();
+        return defaultEngine;
+    }
+
+    /**
+     * Connect to the given address.
+     *
+     * @param dst The address to connect to.
+     * @param timeout Max time the connect may take.
+     * @param unit Time unit of timeout.
+     * @return A future holding the connect latency in nanoseconds.
+     */
+    public CompletableFuture<Long> connect(@NonNull InetSocketAddress dst, long timeout, @NonNull TimeUnit unit) {
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new ClosedChannelException());
+            return result;
+        }
+        final long t0 = System.nanoTime();
+
+        final SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+        } catch (IOException ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            if (channel.connect(dst)) {
+                result.complete(System.nanoTime() - t0);
+                close_(channel);
+                return result;
+            }
+        } catch (IOException | RuntimeException ex) {
+            result.completeExceptionally(ex);
+            close_(channel);
+            return result;
+        }
+
+        if (closed) {
+            result.completeExceptionally(new ClosedChannelException());
+            close_(channel);
+            return result;
+        }
+        registrations.add(new Pending(channel, result, t0, t0 + unit.toNanos(timeout)));
+        selector.wakeup();
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void run_() {
+        try {
+            while (!closed) {
+                register_();
+                final long nextDeadline = expire_();
+                final long sleepMsec = Math.max(1L, Math.min(MAX_SELECT_MSEC, TimeUnit.NANOSECONDS.toMillis(nextDeadline - System.nanoTime()) + 1));
+                selector.select(sleepMsec);
+
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    finish_((Pending)key.attachment());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.SEVERE, "connect engine failed", ex);
+        } finally {
+            closed = true;
+            final ClosedChannelException closedEx = new ClosedChannelException();
+            pending.forEach(p -> p.fail(closedEx));
+            pending.clear();
+            for (Pending p = registrations.poll(); p != null; p = registrations.poll())
+                p.fail(closedEx);
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "unable to close selector", ex);
+            }
+        }
+    }
+
+    /**
+     * Register newly submitted connects with the selector.
+     */
+    private void register_() {
+        for (Pending p = registrations.poll(); p != null; p = registrations.poll()) {
+            try {
+                p.channel.register(selector, SelectionKey.OP_CONNECT, p);
+                pending.add(p);
+            } catch (ClosedChannelException ex) {
+                p.fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Fail connects that passed their deadline and discard aborted connects.
+     *
+     * @return The earliest deadline of the remaining connects.
+     */
+    private long expire_() {
+        final long now = System.nanoTime();
+        long nextDeadline = now + TimeUnit.MILLISECONDS.toNanos(MAX_SELECT_MSEC);
+
+        final Iterator<Pending> iter = pending.iterator();
+        while (iter.hasNext()) {
+            final Pending p = iter.next();
+            if (p.future.isDone()) {
+                iter.remove();
+                close_(p.channel);
+            } else if (p.deadline - now <= 0) {
+                iter.remove();
+                p.fail(new SocketTimeoutException("connect timed out"));
+            } else if (p.deadline - nextDeadline < 0) {
+                nextDeadline = p.deadline;
+            }
+        }
+        return nextDeadline;
+    }
+
+    private void finish_(Pending p) {
+        try {
+            if (!p.channel.finishConnect())
+                return;  // Spurious wakeup.
+            final long latency = System.nanoTime() - p.t0;
+            pending.remove(p);
+            p.future.complete(latency);
+            close_(p.channel);
+        } catch (IOException | RuntimeException ex) {
+            pending.remove(p);
+            p.fail(ex);
+        }
+    }
+
+    private static void close_(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "unable to close socket", ex);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Pending {
+        private final SocketChannel channel;
+        private final CompletableFuture<Long> future;
+        private final long t0;
+        private final long deadline;
+
+        public void fail(Throwable ex) {
+            future.completeExceptionally(ex);
+            close_(channel);
+        }
+    }
+}
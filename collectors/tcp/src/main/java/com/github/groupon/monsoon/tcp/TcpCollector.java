@@ -31,6 +31,7 @@
  */
 package com.github.groupon.monsoon.tcp;
 
+import com.groupon.lex.metrics.GroupGenerator;
 import com.groupon.lex.metrics.GroupName;
 import com.groupon.lex.metrics.Metric;
 import com.groupon.lex.metrics.MetricGroup;
@@ -38,7 +39,6 @@ import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.SimpleMetric;
 import com.groupon.lex.metrics.SimpleMetricGroup;
-import com.groupon.lex.metrics.SynchronousGroupGenerator;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.ConnectException;
@@ -52,23 +52,40 @@ import java.net.UnknownHostException;
 import java.net.UnknownServiceException;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
 import java.util.ArrayList;
 import java.util.Collection;
 import static java.util.Collections.singleton;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.LongSupplier;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 @Getter
-public class TcpCollector extends SynchronousGroupGenerator {
+public class TcpCollector implements GroupGenerator {
+    private static final Logger LOG = Logger.getLogger(TcpCollector.class.getName());
     /**
-     * MetricName under which the timing is published.
+     * Default max time a connect attempt may take.
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MSEC = 29 * 1000;
+    /**
+     * MetricName under which the timing is published, in milliseconds.
      */
     private static final MetricName TIMING_METRIC = MetricName.valueOf("latency");
+    /**
+     * MetricName under which the precise timing is published, in
+     * nanoseconds.
+     */
+    private static final MetricName TIMING_NSEC_METRIC = MetricName.valueOf("latency_nsec");
     /**
      * MetricName under which the error message is published.
      */
@@ -88,6 +105,14 @@ public class TcpCollector extends SynchronousGroupGenerator {
      */
     @NonNull
     private final GroupName groupName;
+    /**
+     * Max time a connect attempt may take, in milliseconds.
+     */
+    private final long connectTimeoutMsec;
+
+    public TcpCollector(@NonNull InetSocketAddress dst, @NonNull GroupName groupName) {
+        this(dst, groupName, DEFAULT_CONNECT_TIMEOUT_MSEC);
+    }
 
     /**
      * The result code of a connect attempt.
@@ -118,25 +143,54 @@ public class TcpCollector extends SynchronousGroupGenerator {
     @Getter
     static class ConnectDatum {  // Package visibility for testing purposes.
         private final ConnectResult result;
-        private final long msec;
+        private final long nsec;
         private final Optional<String> message;
+
+        public long getMsec() {
+            return TimeUnit.NANOSECONDS.toMillis(nsec);
+        }
     }
 
+    /**
+     * Start a connect attempt on the shared connect engine.
+     *
+     * No thread is blocked while the connect is in progress. If the scrape
+     * times out, the connect attempt is aborted.
+     */
     @Override
-    public Collection<MetricGroup> getGroups(CompletableFuture<TimeoutObject> timeout) {
-        // Install interruption handler to interrupt the tryConnect method on timeout.
-        final Thread currentThread = Thread.currentThread();
-        timeout.thenAccept((timeoutObject) -> currentThread.interrupt());
+    public Collection<CompletableFuture<? extends Collection<? extends MetricGroup>>> getGroups(Executor threadpool, CompletableFuture<TimeoutObject> timeout) {
+        final CompletableFuture<Long> connect;
+        try {
+            connect = ConnectEngine.getDefault().connect(dst, connectTimeoutMsec, TimeUnit.MILLISECONDS);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "connect engine unavailable, falling back to blocking connect", ex);
+            return singleton(CompletableFuture.supplyAsync(() -> singleton(mainGroup(tryConnect())), threadpool));
+        }
+        timeout.thenAccept(timeoutObject -> connect.completeExceptionally(new SocketTimeoutException("scrape timed out")));
+
+        return singleton(connect.handle((nsec, exc) -> {
+            if (exc == null)
+                return singleton(mainGroup(new ConnectDatum(ConnectResult.OK, nsec, Optional.empty())));
+            return singleton(mainGroup(classify(exc instanceof CompletionException ? exc.getCause() : exc, 0)));
+        }));
+    }
 
-        // Perform the actual connect attempt.
-        final ConnectDatum connect = tryConnect();
-        return singleton(mainGroup(connect));
+    /**
+     * Perform a connect attempt and wait for its result.
+     *
+     * @param timeout Future that aborts the connect attempt on completion.
+     * @return The metric group describing the connect attempt.
+     */
+    public Collection<MetricGroup> getGroups(CompletableFuture<TimeoutObject> timeout) throws InterruptedException, ExecutionException {
+        return GroupGenerator.deref(getGroups(Runnable::run, timeout));
     }
 
     private MetricGroup mainGroup(ConnectDatum connect) {
         Collection<Metric> metrics = new ArrayList<>();
-        if (connect.getResult() == ConnectResult.OK)
-            metrics.add(new SimpleMetric(TIMING_METRIC, connect.getMsec()));
+        if (connect.getResult() == ConnectResult.OK) {
+            metrics.add(new SimpleMetric(TIMING_METRIC, TimeUnit.NANOSECONDS.toMillis(connect.getNsec())));
+            metrics.add(new SimpleMetric(TIMING_NSEC_METRIC, connect.getNsec()));
+        }
         metrics.add(new SimpleMetric(ERROR_MSG, connect.getMessage().map(MetricValue::fromStrValue).orElse(MetricValue.EMPTY)));
         metrics.add(new SimpleMetric(ERROR_TYPE, connect.getResult().toString()));
         for (ConnectResult cr : ConnectResult.values())
@@ -159,47 +213,41 @@ public class TcpCollector extends SynchronousGroupGenerator {
     }
 
     ConnectDatum tryConnect(SocketChannel dstSocket) {  // Package visibility for testing purposes.
-        final Timer timer = new Timer();
+        final long t0 = System.nanoTime();
         try {
             dstSocket.connect(dst);
-            return new ConnectDatum(ConnectResult.OK, timer.getAsLong(), Optional.empty());
-        } catch (SocketTimeoutException | ClosedByInterruptException ex) {
-            return new ConnectDatum(ConnectResult.TIMED_OUT, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (NoRouteToHostException ex) {
-            return new ConnectDatum(ConnectResult.NO_ROUTE_TO_HOST, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (PortUnreachableException ex) {
-            return new ConnectDatum(ConnectResult.PORT_UNREACHABLE, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (UnknownHostException ex) {
-            return new ConnectDatum(ConnectResult.UNKNOWN_HOST, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (UnknownServiceException ex) {
-            return new ConnectDatum(ConnectResult.UNKNOWN_SERVICE, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (ProtocolException ex) {
-            return new ConnectDatum(ConnectResult.PROTOCOL_ERROR, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (BindException ex) {
-            return new ConnectDatum(ConnectResult.BIND_FAILED, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (ConnectException ex) {
-            // ConnectException and SocketException seem to cover the same error cases..?
-            return new ConnectDatum(ConnectResult.CONNECT_FAILED, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
-        } catch (SocketException ex) {
-            // ConnectException and SocketException seem to cover the same error cases..?
-            return new ConnectDatum(ConnectResult.CONNECT_FAILED, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
+            return new ConnectDatum(ConnectResult.OK, System.nanoTime() - t0, Optional.empty());
         } catch (IOException ex) {
-            return new ConnectDatum(ConnectResult.IO_ERROR, timer.getAsLong(), Optional.ofNullable(ex.getMessage()));
+            return classify(ex, System.nanoTime() - t0);
         }
     }
 
     /**
-     * A simple timer class, that measures time since its construction, in msec.
+     * Diagnose a failed connect attempt.
+     *
+     * @param ex The exception that caused the connect attempt to fail.
+     * @param nsec The time spent on the connect attempt.
+     * @return A ConnectDatum describing the failure.
      */
-    private static class Timer implements LongSupplier {
-        private final long t0 = System.currentTimeMillis();
-
-        /**
-         * Returns the number of msec since the constructor was called.
-         */
-        @Override
-        public long getAsLong() {
-            return System.currentTimeMillis() - t0;
-        }
+    static ConnectDatum classify(Throwable ex, long nsec) {  // Package visibility for testing purposes.
+        final Optional<String> message = Optional.ofNullable(ex.getMessage());
+        if (ex instanceof SocketTimeoutException || ex instanceof ClosedByInterruptException || ex instanceof CancellationException)
+            return new ConnectDatum(ConnectResult.TIMED_OUT, nsec, message);
+        if (ex instanceof NoRouteToHostException)
+            return new ConnectDatum(ConnectResult.NO_ROUTE_TO_HOST, nsec, message);
+        if (ex instanceof PortUnreachableException)
+            return new ConnectDatum(ConnectResult.PORT_UNREACHABLE, nsec, message);
+        if (ex instanceof UnknownHostException || ex instanceof UnresolvedAddressException)
+            return new ConnectDatum(ConnectResult.UNKNOWN_HOST, nsec, message);
+        if (ex instanceof UnknownServiceException)
+            return new ConnectDatum(ConnectResult.UNKNOWN_SERVICE, nsec, message);
+        if (ex instanceof ProtocolException)
+            return new ConnectDatum(ConnectResult.PROTOCOL_ERROR, nsec, message);
+        if (ex instanceof BindException)
+            return new ConnectDatum(ConnectResult.BIND_FAILED, nsec, message);
+        // ConnectException and SocketException seem to cover the same error cases..?
+        if (ex instanceof ConnectException || ex instanceof SocketException)
+            return new ConnectDatum(ConnectResult.CONNECT_FAILED, nsec, message);
+        return new ConnectDatum(ConnectResult.IO_ERROR, nsec, message);
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.groupon.monsoon.tcp;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import org.junit.After;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectEngineTest {
+    private ConnectEngine engine;
+    private ServerSocketChannel dstSocket;
+    private InetSocketAddress dstAddress;
+
+    @Before
+    public void setup() throws Exception {
+        engine = new ConnectEngine();
+        dstSocket = ServerSocketChannel.open();
+        dstSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        dstAddress = (InetSocketAddress) dstSocket.getLocalAddress();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        engine.close();
+        dstSocket.close();
+    }
+
+    @Test(timeout = 20000)
+    public void connectOk() throws Exception {
+        long nsec = engine.connect(dstAddress, 10, TimeUnit.SECONDS).get();
+
+        assertThat(nsec, greaterThanOrEqualTo(0L));
+    }
+
+    @Test(timeout = 20000)
+    public void connectMany() throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[16];
+        for (int i = 0; i < futures.length; ++i)
+            futures[i] = engine.connect(dstAddress, 10, TimeUnit.SECONDS);
+
+        CompletableFuture.allOf(futures).get();
+    }
+
+    @Test(timeout = 20000)
+    public void connectRefused() throws Exception {
+        dstSocket.close();
+
+        try {
+            engine.connect(dstAddress, 10, TimeUnit.SECONDS).get();
+            fail("connect should have been refused");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(ConnectException.class));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void connectTimeout() throws Exception {
+        // Once the (unaccepted) backlog is full, the kernel drops further
+        // SYNs and the connect only ends at its deadline.
+        try (ServerSocketChannel unresponsive = ServerSocketChannel.open()) {
+            unresponsive.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+            final InetSocketAddress unresponsiveAddress = (InetSocketAddress) unresponsive.getLocalAddress();
+
+            for (int i = 0; i < 16; ++i) {
+                try {
+                    engine.connect(unresponsiveAddress, 250, TimeUnit.MILLISECONDS).get();
+                } catch (ExecutionException ex) {
+                    assertThat(ex.getCause(), instanceOf(SocketTimeoutException.class));
+                    return;
+                }
+            }
+            fail("connect should have timed out");
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void closeFailsPending() throws Exception {
+        engine.close();
+
+        try {
+            engine.connect(dstAddress, 10, TimeUnit.SECONDS).get();
+            fail("closed engine should not connect");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(ClosedChannelException.class));
+        }
+    }
+}
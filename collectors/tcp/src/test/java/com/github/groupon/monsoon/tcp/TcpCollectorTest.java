@@ -87,7 +87,10 @@ public class TcpCollectorTest {
                         hasProperty("metrics", arrayContainingInAnyOrder(
                                 allOf(hasProperty("name", equalTo(MetricName.valueOf("up"))),
                                         hasProperty("value", equalTo(MetricValue.TRUE))),
-                                allOf(hasProperty("name", equalTo(MetricName.valueOf("latency")))),
+                                allOf(hasProperty("name", equalTo(MetricName.valueOf("latency"))),
+                                        hasProperty("value", hasProperty("int", equalTo(true)))),
+                                allOf(hasProperty("name", equalTo(MetricName.valueOf("latency_nsec"))),
+                                        hasProperty("value", hasProperty("int", equalTo(true)))),
                                 allOf(hasProperty("name", equalTo(MetricName.valueOf("error", "msg"))),
                                         hasProperty("value", equalTo(MetricValue.EMPTY))),
                                 allOf(hasProperty("name", equalTo(MetricName.valueOf("error", "type"))),
@@ -255,4 +258,11 @@ public class TcpCollectorTest {
         Mockito.verify(mockSocket, times(1)).connect(Mockito.eq(dstAddress));
         Mockito.verifyNoMoreInteractions(mockSocket);
     }
+
+    @Test
+    public void classifyScrapeTimeout() throws Exception {
+        TcpCollector.ConnectDatum result = TcpCollector.classify(new SocketTimeoutException("scrape timed out"), 0);
+
+        assertThat(result.getResult(), equalTo(TcpCollector.ConnectResult.TIMED_OUT));
+    }
 }
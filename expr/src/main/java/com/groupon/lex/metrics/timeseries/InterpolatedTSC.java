@@ -258,9 +258,8 @@ public class InterpolatedTSC extends AbstractTimeSeriesCollection implements Tim
         }
 
         private MetricValue interpolate(MetricValue a, MetricValue b) {
-            if ((a.getBoolValue() != null || a.getIntValue() != null || a.getFltValue() != null)
-                    && (b.getBoolValue() != null || b.getIntValue() != null || b.getFltValue() != null))
-                return MetricValue.fromDblValue(backWeight * a.value().get().doubleValue() + forwWeight * b.value().get().doubleValue());
+            if (a.isNumeric() && b.isNumeric())
+                return MetricValue.fromDblValue(backWeight * a.doubleValue() + forwWeight * b.doubleValue());
 
             if (a.getStrValue() != null && b.getStrValue() != null)
                 return a;
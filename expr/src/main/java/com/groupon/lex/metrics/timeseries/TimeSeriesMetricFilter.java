@@ -2,11 +2,16 @@ package com.groupon.lex.metrics.timeseries;
 
 import com.groupon.lex.metrics.MetricMatcher;
 import com.groupon.lex.metrics.PathMatcher;
+import com.groupon.lex.metrics.SimpleGroupPath;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
@@ -95,4 +100,50 @@ public class TimeSeriesMetricFilter {
     public boolean isEmpty() {
         return getMetrics().isEmpty() && getGroups().isEmpty();
     }
+
+    /**
+     * Apply the filter to a time series value.
+     *
+     * If the group is selected by a group matcher, the value is returned
+     * as is. Otherwise, if any metric matcher selects the group, the value is
+     * returned with only the metrics selected by those matchers.
+     *
+     * @param tsv The time series value to filter.
+     * @return The filtered time series value, or empty if the filter does not
+     * select the group.
+     */
+    public Optional<TimeSeriesValue> apply(TimeSeriesValue tsv) {
+        final SimpleGroupPath path = tsv.getGroup().getPath();
+        if (groups.stream().anyMatch(matcher -> matcher.match(path.getPath())))
+            return Optional.of(tsv);
+
+        final List<MetricMatcher> metricMatchers = metrics.stream()
+                .filter(matcher -> matcher.match(path))
+                .collect(Collectors.toList());
+        if (metricMatchers.isEmpty())
+            return Optional.empty();
+        return Optional.of(new ImmutableTimeSeriesValue(
+                tsv.getGroup(),
+                tsv.getMetrics().entrySet().stream()
+                        .filter(metric -> metricMatchers.stream().anyMatch(matcher -> matcher.match(metric.getKey()))),
+                Map.Entry::getKey,
+                Map.Entry::getValue));
+    }
+
+    /**
+     * Apply the filter to a time series collection.
+     *
+     * @param tsc The time series collection to filter.
+     * @return A time series collection holding only the groups and metrics
+     * selected by this filter.
+     */
+    public TimeSeriesCollection apply(TimeSeriesCollection tsc) {
+        if (equals(ALL_GROUPS)) return tsc;
+        return new SimpleTimeSeriesCollection(
+                tsc.getTimestamp(),
+                tsc.getTSValues().stream()
+                        .map(this::apply)
+                        .filter(Optional::isPresent)
+                        .map(Optional::get));
+    }
 }
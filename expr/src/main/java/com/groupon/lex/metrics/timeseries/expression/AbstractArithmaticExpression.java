@@ -79,6 +79,29 @@ public abstract class AbstractArithmaticExpression extends AbstractBiExpression<
     @Override
     public int getPriority() { return priority_; }
 
+    /**
+     * Fast path for numeric values, which avoids boxing the operands.
+     */
+    @Override
+    protected final MetricValue applyValues(MetricValue x, MetricValue y) {
+        if (!x.isNumeric() || !y.isNumeric())
+            return super.applyValues(x, y);
+
+        try {
+            if (x.isFloat() && y.isFloat())
+                return MetricValue.fromDblValue(expr(x.doubleValue(), y.doubleValue()));
+            else if (x.isFloat())
+                return MetricValue.fromDblValue(expr(x.doubleValue(), y.longValue()));
+            else if (y.isFloat())
+                return MetricValue.fromDblValue(expr(x.longValue(), y.doubleValue()));
+            else
+                return MetricValue.fromIntValue(expr(x.longValue(), y.longValue()));
+        } catch (ArithmeticException ex) {
+            LOG.log(Level.FINE, "error evaluating " + configString(), ex);
+            return MetricValue.EMPTY;
+        }
+    }
+
     @Override
     protected final Optional<Any2<? extends Number, Histogram>> expr(Number x, Number y) {
         try {
@@ -101,7 +101,13 @@ public abstract class AbstractBiExpression<X, Y, R extends Number> implements Ti
         return y_arg_;
     }
 
-    private MetricValue apply_(MetricValue x, MetricValue y) {
+    /**
+     * Apply the expression on a pair of values.
+     *
+     * Derived classes may override this, to handle common cases without
+     * wrapping the values.
+     */
+    protected MetricValue applyValues(MetricValue x, MetricValue y) {
         return pairwiseFlatMap(x_impl_.apply(x), y_impl_.apply(y), this::expr_)
                 .map(num_or_hist -> num_or_hist.mapCombine(MetricValue::fromNumberValue, MetricValue::fromHistValue))
                 .orElse(MetricValue.EMPTY);
@@ -115,6 +121,6 @@ public abstract class AbstractBiExpression<X, Y, R extends Number> implements Ti
     public TimeSeriesMetricDeltaSet apply(Context ctx) {
         final TimeSeriesMetricDeltaSet x_val = x_arg_.apply(ctx);
         final TimeSeriesMetricDeltaSet y_val = y_arg_.apply(ctx);
-        return matcher_.apply(x_val, y_val, this::apply_);
+        return matcher_.apply(x_val, y_val, this::applyValues);
     }
 }
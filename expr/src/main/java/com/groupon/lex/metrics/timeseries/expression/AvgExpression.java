@@ -33,10 +33,9 @@ public class AvgExpression extends TimeSeriesMetricAggregate<AvgExpression.AvgAg
     protected AvgAgg map_(MetricValue x) {
         final Optional<AvgAgg> hist_params = x.histogram().map(h -> new AvgAgg(h.sum(), h.getEventCount()));
         if (hist_params.isPresent()) return hist_params.get();
-        return x.value()
-                .map(Number::doubleValue)
-                .map(x_number -> new AvgAgg(x_number, 1))
-                .orElseGet(() -> new AvgAgg(0, 0));
+        if (x.isNumeric())
+            return new AvgAgg(x.doubleValue(), 1);
+        return new AvgAgg(0, 0);
     }
     @Override
     protected MetricValue unmap_(AvgAgg v) {
@@ -35,7 +35,6 @@ import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.timeseries.TagMatchingClause;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
 import static com.groupon.lex.metrics.timeseries.expression.Util.maybeBraces;
-import static com.groupon.lex.metrics.timeseries.expression.Util.pairwiseFlatMap;
 import java.util.Optional;
 import java.util.function.BiPredicate;
 
@@ -55,7 +54,9 @@ public class NumberBiPredicate extends AbstractBiPredicate<MetricValue, MetricVa
 
     @Override
     protected Optional<Boolean> expr(MetricValue x_val, MetricValue y_val) {
-        return pairwiseFlatMap(x_val.value(), y_val.value(), (x, y) -> Optional.of(predicate_.test(x.doubleValue(), y.doubleValue())));
+        if (!x_val.isNumeric() || !y_val.isNumeric())
+            return Optional.empty();
+        return Optional.of(predicate_.test(x_val.doubleValue(), y_val.doubleValue()));
     }
 
     @Override
@@ -62,17 +62,12 @@ public class NumberUnaryExpression implements TimeSeriesMetricExpression {
     @Override
     public Collection<TimeSeriesMetricExpression> getChildren() { return Collections.singleton(expr_); }
 
-    private Number apply_1_(Number x) {
-        if (x instanceof Float || x instanceof Double)
-            return dbl_transform_.apply(x.doubleValue());
-        else
-            return long_transform_.apply(x.longValue());
-    }
-
     private Optional<MetricValue> apply_(MetricValue x) {
-        return x.value()
-                .map(this::apply_1_)
-                .map(MetricValue::fromNumberValue);
+        if (x.isFloat())
+            return Optional.ofNullable(dbl_transform_.apply(x.doubleValue())).map(MetricValue::fromDblValue);
+        if (x.isNumeric())
+            return Optional.ofNullable(long_transform_.apply(x.longValue())).map(MetricValue::fromIntValue);
+        return Optional.empty();
     }
 
     @Override
@@ -0,0 +1,62 @@
+package com.groupon.lex.metrics.timeseries;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricMatcher;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.PathMatcher;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import static java.util.Collections.singletonMap;
+import java.util.stream.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class TimeSeriesMetricFilterTest {
+    private static final DateTime T0 = new DateTime(DateTimeZone.UTC);
+    private static final GroupName FOO = GroupName.valueOf(SimpleGroupPath.valueOf("foo"));
+    private static final GroupName BAR = GroupName.valueOf(SimpleGroupPath.valueOf("bar"));
+    private static final GroupName BAZ = GroupName.valueOf(SimpleGroupPath.valueOf("baz"));
+
+    private static TimeSeriesValue tsv(GroupName group) {
+        final Map<MetricName, MetricValue> metrics = new HashMap<>();
+        metrics.put(MetricName.valueOf("x"), MetricValue.fromIntValue(1));
+        metrics.put(MetricName.valueOf("y"), MetricValue.fromIntValue(2));
+        return new ImmutableTimeSeriesValue(group, metrics);
+    }
+
+    @Test
+    public void allGroups() {
+        final TimeSeriesCollection tsc = new SimpleTimeSeriesCollection(T0, Stream.of(tsv(FOO), tsv(BAR)));
+
+        assertSame(tsc, TimeSeriesMetricFilter.ALL_GROUPS.apply(tsc));
+    }
+
+    @Test
+    public void emptyFilter() {
+        final TimeSeriesCollection tsc = new SimpleTimeSeriesCollection(T0, Stream.of(tsv(FOO), tsv(BAR)));
+
+        assertEquals(new SimpleTimeSeriesCollection(T0, Stream.empty()), new TimeSeriesMetricFilter().apply(tsc));
+    }
+
+    @Test
+    public void groupsAndMetrics() {
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withGroup(new PathMatcher(new PathMatcher.LiteralNameMatch("foo")))
+                .withMetric(new MetricMatcher(
+                        new PathMatcher(new PathMatcher.LiteralNameMatch("bar")),
+                        new PathMatcher(new PathMatcher.LiteralNameMatch("x"))));
+        final TimeSeriesCollection tsc = new SimpleTimeSeriesCollection(T0, Stream.of(tsv(FOO), tsv(BAR), tsv(BAZ)));
+
+        final TimeSeriesCollection expected = new SimpleTimeSeriesCollection(T0, Stream.of(
+                tsv(FOO),
+                new ImmutableTimeSeriesValue(BAR, singletonMap(MetricName.valueOf("x"), MetricValue.fromIntValue(1)))));
+        assertEquals(expected, filter.apply(tsc));
+        assertEquals(Optional.empty(), filter.apply(tsv(BAZ)));
+    }
+}
@@ -4,6 +4,7 @@ import com.groupon.lex.metrics.history.TSData;
 import com.groupon.lex.metrics.history.v2.Compression;
 import com.groupon.lex.metrics.history.xdr.DirCollectHistory;
 import com.groupon.lex.metrics.history.xdr.TSDataFileChain;
+import com.groupon.lex.metrics.history.xdr.TSDataOptimizerTask;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -38,6 +39,12 @@ public class FileConvert {
     @Option(name = "--archive-compress", usage = "optimized-compression for archived data", handler = Compression.CompressionOptionHandler.class)
     private Compression optimizedCompression = Compression.DEFAULT_OPTIMIZED;
 
+    @Option(name = "--optimize-tasks", usage = "number of optimizations that may run concurrently")
+    private int optimizeTasks = TSDataOptimizerTask.getTaskConcurrency();
+
+    @Option(name = "--optimize-decoders", usage = "number of threads decoding files during optimization")
+    private int optimizeDecoders = TSDataOptimizerTask.getDecodeConcurrency();
+
     @Argument(metaVar = "/src/dir", usage = "path: which dir contains source files", index = 0)
     private String srcdir;
 
@@ -75,6 +82,12 @@ public class FileConvert {
             /* UNREACHABLE */
         }
 
+        if (optimizeTasks < 1 || optimizeDecoders < 1) {
+            System.err.println("optimizer concurrency must be at least 1");
+            print_usage_and_exit_(parser);
+            /* UNREACHABLE */
+        }
+
         // If verbose mode is requested, dial up the log spam.
         if (verbose)
             Logger.getLogger("com.groupon.lex").setLevel(Level.INFO);
@@ -88,6 +101,8 @@ public class FileConvert {
     }
 
     public void run() throws IOException {
+        TSDataOptimizerTask.setTaskConcurrency(optimizeTasks);
+        TSDataOptimizerTask.setDecodeConcurrency(optimizeDecoders);
         final DirCollectHistory src = new DirCollectHistory(srcdir_path_);
         final DirCollectHistory dst = new DirCollectHistory(dstdir_path_);
         dst.setAppendCompression(compression);
@@ -1,8 +1,16 @@
 package com.groupon.lex.metrics.history;
 
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import static com.groupon.lex.metrics.history.HistoryContext.LOOK_BACK;
+import static com.groupon.lex.metrics.history.HistoryContext.LOOK_FORWARD;
 import com.groupon.lex.metrics.history.v2.Compression;
+import com.groupon.lex.metrics.history.xdr.TSDataOptimizerTask;
+import com.groupon.lex.metrics.history.xdr.support.reader.BlockCache;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import java.util.Collection;
+import java.util.Map;
 import static java.util.Objects.requireNonNull;
 import java.util.stream.Stream;
 import lombok.NonNull;
@@ -14,6 +22,8 @@ import org.joda.time.Duration;
  * @author ariane
  */
 public abstract class AbstractCollectHistory<TSD_Impl extends TSData> implements CollectHistory {
+    public static final MetricName MAPPED_BYTES = MetricName.valueOf("mmap", "bytes");
+    public static final MetricName FILE_SIZE = MetricName.valueOf("file_size");
     private final TSD_Impl historical_;
 
     protected AbstractCollectHistory(TSD_Impl initial) {
@@ -64,6 +74,38 @@ public abstract class AbstractCollectHistory<TSD_Impl extends TSData> implements
         return getTSData().stream(begin, end, stepsize);
     }
 
+    @Override
+    public Stream<TimeSeriesCollection> stream(TimeSeriesMetricFilter filter) {
+        return getTSData().stream(filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, TimeSeriesMetricFilter filter) {
+        return getTSData().stream(begin, filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return getTSData().stream(begin, end, filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(Duration stepsize, TimeSeriesMetricFilter filter) {
+        return IntervalIterator.stream(getTSData().stream(filter), stepsize, LOOK_BACK, LOOK_FORWARD);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, Duration stepsize, TimeSeriesMetricFilter filter) {
+        return IntervalIterator.stream(getTSData().stream(begin.minus(LOOK_BACK), filter), stepsize, LOOK_BACK, LOOK_FORWARD)
+                .filter(ts -> !ts.getTimestamp().isBefore(begin));
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, Duration stepsize, TimeSeriesMetricFilter filter) {
+        return IntervalIterator.stream(getTSData().stream(begin.minus(LOOK_BACK), end.plus(LOOK_FORWARD), filter), stepsize, LOOK_BACK, LOOK_FORWARD)
+                .filter(ts -> !ts.getTimestamp().isBefore(begin) && !ts.getTimestamp().isAfter(end));
+    }
+
     @Override
     public boolean add(TimeSeriesCollection tsv) {
         return getTSData().add(tsv);
@@ -79,6 +121,14 @@ public abstract class AbstractCollectHistory<TSD_Impl extends TSData> implements
         return getTSData().getFileSize();
     }
 
+    @Override
+    public Map<MetricName, MetricValue> getHistoryMetrics() {
+        final Map<MetricName, MetricValue> result = BlockCache.getDefault().getMetrics();
+        result.put(FILE_SIZE, MetricValue.fromIntValue(getFileSize()));
+        result.putAll(TSDataOptimizerTask.getMetrics());
+        return result;
+    }
+
     /**
      * Get the compression used for append files.
      *
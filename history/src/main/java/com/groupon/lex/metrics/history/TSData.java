@@ -1,11 +1,13 @@
 package com.groupon.lex.metrics.history;
 
 import com.groupon.lex.metrics.history.v2.Compression;
+import com.groupon.lex.metrics.history.v2.tables.ReadonlyTableFile;
 import com.groupon.lex.metrics.history.xdr.ColumnMajorTSData;
 import com.groupon.lex.metrics.history.xdr.support.SequenceTSData;
 import com.groupon.lex.metrics.history.xdr.support.TmpFileBasedColumnMajorTSData;
 import com.groupon.lex.metrics.lib.GCCloseable;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
@@ -128,6 +130,42 @@ public interface TSData extends Collection<TimeSeriesCollection>, CollectHistory
         return StreamSupport.stream(spliterator(), false);
     }
 
+    /**
+     * Stream the TSData contents, restricted to the groups and metrics
+     * selected by the filter. The stream iterates collection in chronological
+     * order, without duplicate timestamps.
+     *
+     * Implementations may return more than the filter selects; the default
+     * implementation ignores the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(TimeSeriesMetricFilter filter) {
+        return stream();
+    }
+
+    /**
+     * Stream the TSData contents, starting at the 'begin' timestamp
+     * (inclusive), restricted to the groups and metrics selected by the
+     * filter.
+     *
+     * Implementations may return more than the filter selects; the default
+     * implementation ignores the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(DateTime begin, TimeSeriesMetricFilter filter) {
+        return stream(begin);
+    }
+
+    /**
+     * Stream the TSData contents, between the 'begin' and 'end' timestamps
+     * (inclusive), restricted to the groups and metrics selected by the
+     * filter.
+     *
+     * Implementations may return more than the filter selects; the default
+     * implementation ignores the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return stream(begin, end);
+    }
+
     /**
      * Stream the TSData contents in reverse chronological order. The stream
      * iterates collection in reverse chronological order, without duplicate
@@ -244,9 +282,23 @@ public interface TSData extends Collection<TimeSeriesCollection>, CollectHistory
      * TSData file or the version of the file is too new.
      */
     public static SequenceTSData readonly(Path file) throws IOException {
+        return readonly(file, ReadonlyTableFile.DEFAULT_MMAP_MAX_SIZE);
+    }
+
+    /**
+     * Open the given TSData file.
+     *
+     * @param file The file to open.
+     * @param mmapMaxSize The maximum size, in bytes, of optimized files that
+     * are memory mapped.
+     * @return A TSData instance that will read the given file.
+     * @throws IOException If an IOException occurs, the file is not a valid
+     * TSData file or the version of the file is too new.
+     */
+    public static SequenceTSData readonly(Path file, long mmapMaxSize) throws IOException {
         final Logger LOG = Logger.getLogger(TSData.class.getName());
 
-        final SequenceTSData result = TSDataVersionDispatch.open(file);
+        final SequenceTSData result = TSDataVersionDispatch.open(file, TSDataVersionDispatch.versionTable(mmapMaxSize));
         LOG.log(Level.INFO, "opened v{0}.{1}: {2} ({3}-{4}, {5} scrapes)", new Object[]{result.getMajor(), result.getMinor(), file, result.getBegin(), result.getEnd(), result.getMajor() >= 2 ? result.size() : "#???"});
         return result;
     }
@@ -32,6 +32,7 @@
 package com.groupon.lex.metrics.history;
 
 import com.groupon.lex.metrics.history.v2.TSDataFactory2;
+import com.groupon.lex.metrics.history.v2.tables.ReadonlyTableFile;
 import static com.groupon.lex.metrics.history.xdr.Const.MIME_HEADER_LEN;
 import static com.groupon.lex.metrics.history.xdr.Const.validateHeaderOrThrow;
 import static com.groupon.lex.metrics.history.xdr.Const.version_major;
@@ -62,11 +63,22 @@ import org.acplt.oncrpc.OncRpcException;
  * @author ariane
  */
 public class TSDataVersionDispatch {
-    public static final List<Factory> VERSION_TABLE = unmodifiableList(Arrays.asList(
-            new TSData_0_and_1(), // version 0
-            new TSData_0_and_1(), // version 1
-            new TSDataFactory2() // version 2
-    ));
+    public static final List<Factory> VERSION_TABLE = versionTable(ReadonlyTableFile.DEFAULT_MMAP_MAX_SIZE);
+
+    /**
+     * Create a version table.
+     *
+     * @param mmapMaxSize The maximum size, in bytes, of tables files that are
+     * memory mapped.
+     * @return A version table for use with {@link #open(Path, List)}.
+     */
+    public static List<Factory> versionTable(long mmapMaxSize) {
+        return unmodifiableList(Arrays.asList(
+                new TSData_0_and_1(), // version 0
+                new TSData_0_and_1(), // version 1
+                new TSDataFactory2(mmapMaxSize) // version 2
+        ));
+    }
 
     public static interface Factory {
         public SequenceTSData open(Releaseable<FileChannel> file, boolean completeGzipped) throws IOException;
@@ -45,13 +45,13 @@ public class ToXdr {
             result.kind = metrickind.BOOL;
             result.bool_value = mv.getBoolValue();
         }
-        if (mv.getIntValue() != null) {
+        if (mv.isInt()) {
             result.kind = metrickind.INT;
-            result.int_value = mv.getIntValue();
+            result.int_value = mv.longValue();
         }
-        if (mv.getFltValue() != null) {
+        if (mv.isFloat()) {
             result.kind = metrickind.FLOAT;
-            result.dbl_value = mv.getFltValue();
+            result.dbl_value = mv.doubleValue();
         }
         if (mv.getStrValue() != null) {
             result.kind = metrickind.STRING;
@@ -53,6 +53,17 @@ import org.acplt.oncrpc.OncRpcException;
  * based on the major version.
  */
 public class TSDataFactory2 implements TSDataVersionDispatch.Factory {
+    /** Maximum size of tables files that are memory mapped. */
+    private final long mmapMaxSize;
+
+    public TSDataFactory2() {
+        this(ReadonlyTableFile.DEFAULT_MMAP_MAX_SIZE);
+    }
+
+    public TSDataFactory2(long mmapMaxSize) {
+        this.mmapMaxSize = mmapMaxSize;
+    }
+
     @Override
     public SequenceTSData open(TSDataVersionDispatch.Releaseable<FileChannel> fd, boolean completeGzipped) throws IOException {
         if (completeGzipped)
@@ -74,7 +85,7 @@ public class TSDataFactory2 implements TSDataVersionDispatch.Factory {
                 case header_flags.KIND_LIST:
                     return new RWListFile(new GCCloseable<>(fd.release()), false);
                 case header_flags.KIND_TABLES:
-                    return new ReadonlyTableFile(new GCCloseable<>(fd.release()));
+                    return new ReadonlyTableFile(new GCCloseable<>(fd.release()), mmapMaxSize);
             }
         } catch (OncRpcException ex) {
             throw new IOException("failed to load file", ex);
@@ -64,8 +64,10 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
 public class RWListFile extends SequenceTSData {
-    private static final short FILE_VERSION = 2;  // Only file version that uses Table format.
+    static final short FILE_VERSION = 2;  // Only file version that uses Table format.
+    public static final short FILE_MINOR = 0;  // List format is unchanged since 2.0.
     private final State state;
+    private final int version;
 
     public RWListFile(@NonNull GCCloseable<FileChannel> file, boolean forWrite) throws IOException, OncRpcException {
         final tsfile_header hdr;
@@ -75,7 +77,7 @@ public class RWListFile extends SequenceTSData {
             reader.beginDecoding();
 
             /* Check the mime header and version number first. */
-            final int version = validateHeaderOrThrow(reader);
+            version = validateHeaderOrThrow(reader);
             if (Const.version_major(version) != FILE_VERSION)
                 throw new IllegalArgumentException("ListFile is version " + FILE_VERSION + " only");
 
@@ -112,7 +114,7 @@ public class RWListFile extends SequenceTSData {
         try {
             try (XdrEncodingFileWriter writer = new XdrEncodingFileWriter(new Crc32AppendingFileWriter(new SizeVerifyingWriter(new FileChannelWriter(file.get(), 0), MIME_HEADER_LEN + HDR_3_LEN + CRC_LEN), 0))) {
                 writer.beginEncoding();
-                writeMimeHeader(writer, FILE_VERSION, (short) 0);
+                writeMimeHeader(writer, FILE_VERSION, FILE_MINOR);
                 hdr.xdrEncode(writer);
                 writer.endEncoding();
             }
@@ -137,12 +139,12 @@ public class RWListFile extends SequenceTSData {
 
     @Override
     public short getMajor() {
-        return FILE_VERSION;
+        return Const.version_major(version);
     }
 
     @Override
     public short getMinor() {
-        return 0;
+        return Const.version_minor(version);
     }
 
     @Override
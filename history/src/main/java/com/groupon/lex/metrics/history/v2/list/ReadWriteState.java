@@ -358,7 +358,7 @@ public final class ReadWriteState implements State {
      */
     private void writeHeader(tsfile_header hdr, ByteBuffer useBuffer) throws OncRpcException, IOException {
         try (XdrEncodingFileWriter writer = new XdrEncodingFileWriter(new Crc32AppendingFileWriter(new SizeVerifyingWriter(new FileChannelWriter(file.get(), 0), ALL_HDR_CRC_LEN), 4), useBuffer)) {
-            Const.writeMimeHeader(writer);
+            Const.writeMimeHeader(writer, RWListFile.FILE_VERSION, RWListFile.FILE_MINOR);
             hdr.xdrEncode(writer);
         }
     }
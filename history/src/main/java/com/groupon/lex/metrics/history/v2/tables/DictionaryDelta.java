@@ -39,6 +39,7 @@ import com.groupon.lex.metrics.history.v2.xdr.path_dictionary_delta;
 import com.groupon.lex.metrics.history.v2.xdr.strval_dictionary_delta;
 import com.groupon.lex.metrics.history.v2.xdr.tag_dictionary_delta;
 import com.groupon.lex.metrics.history.xdr.support.DecodingException;
+import com.groupon.lex.metrics.history.xdr.support.reader.HeapSize;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
 import com.groupon.lex.metrics.lib.sequence.ForwardSequence;
 import java.util.ArrayList;
@@ -172,6 +173,28 @@ public class DictionaryDelta {
         return tagsTable;
     }
 
+    /**
+     * Estimate the heap space used by this dictionary.
+     *
+     * @return The estimated size of this dictionary, in bytes.
+     */
+    public long getHeapBytes() {
+        return HeapSize.align(HeapSize.OBJECT + 3 * HeapSize.REFERENCE + 3 * 4)
+                + HeapSize.list(stringTable.size())
+                + HeapSize.strings(stringTable)
+                + HeapSize.list(pathTable.size())
+                + pathTable.stream().mapToLong(path -> HeapSize.list(path.size())).sum()  // Path elements are shared with the string table.
+                + HeapSize.list(tagsTable.size())
+                + tagsTable.stream().mapToLong(DictionaryDelta::tagsHeapBytes).sum();
+    }
+
+    private static long tagsHeapBytes(Tags tags) {
+        final int size = tags.asMap().size();
+        return HeapSize.align(HeapSize.OBJECT + HeapSize.REFERENCE + 4)
+                + HeapSize.openHashMap(size)
+                + size * HeapSize.align(HeapSize.OBJECT + 4 * HeapSize.REFERENCE);  // Tag names are shared with the string table.
+    }
+
     public String getString(int ref) {
         if (ref < stringRefOffset || ref - stringRefOffset >= stringTable.size())
             throw new IllegalArgumentException("Invalid string reference (" + ref + " not between " + stringRefOffset + " and " + (stringRefOffset + stringTable.size()) + ")");
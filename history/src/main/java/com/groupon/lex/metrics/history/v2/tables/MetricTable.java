@@ -38,6 +38,7 @@ import static com.groupon.lex.metrics.history.v2.xdr.ToXdr.bitset;
 import static com.groupon.lex.metrics.history.v2.xdr.ToXdr.createPresenceBitset;
 import com.groupon.lex.metrics.history.v2.xdr.histogram;
 import com.groupon.lex.metrics.history.v2.xdr.metric_table;
+import com.groupon.lex.metrics.history.v2.xdr.metric_table_packed;
 import com.groupon.lex.metrics.history.v2.xdr.metric_value;
 import com.groupon.lex.metrics.history.v2.xdr.metrickind;
 import com.groupon.lex.metrics.history.v2.xdr.mt_16bit;
@@ -48,6 +49,8 @@ import com.groupon.lex.metrics.history.v2.xdr.mt_dbl;
 import com.groupon.lex.metrics.history.v2.xdr.mt_empty;
 import com.groupon.lex.metrics.history.v2.xdr.mt_hist;
 import com.groupon.lex.metrics.history.v2.xdr.mt_other;
+import com.groupon.lex.metrics.history.v2.xdr.mt_packed_dbl;
+import com.groupon.lex.metrics.history.v2.xdr.mt_packed_int;
 import com.groupon.lex.metrics.history.v2.xdr.mt_str;
 import gnu.trove.TDecorators;
 import gnu.trove.map.TIntByteMap;
@@ -146,6 +149,23 @@ public class MetricTable {
         return mt;
     }
 
+    /**
+     * Encode the metric table using packed integer and floating point values.
+     *
+     * @return The metric table, in packed encoding.
+     */
+    public metric_table_packed encodePacked() {
+        metric_table_packed mt = new metric_table_packed();
+        mt.metrics_bool = encodeBool(t_bool, timestampsSize);
+        mt.metrics_int = encodePackedInt(t_16bit, t_32bit, t_64bit, timestampsSize);
+        mt.metrics_dbl = encodePackedDbl(t_dbl, timestampsSize);
+        mt.metrics_str = encodeStr(t_str, timestampsSize);
+        mt.metrics_hist = encodeHist(t_hist, timestampsSize);
+        mt.metrics_empty = encodeEmpty(t_empty, timestampsSize);
+        mt.metrics_other = encodeOther(t_other, timestampsSize);
+        return mt;
+    }
+
     private static mt_bool encodeBool(TIntByteMap t_bool, int timestampsSize) {
         LOG.log(Level.FINEST, "encoding {0}", TDecorators.wrap(t_bool));
         boolean values[] = new boolean[timestampsSize];
@@ -226,6 +246,46 @@ public class MetricTable {
         return result;
     }
 
+    private static mt_packed_int encodePackedInt(TIntShortMap t_16bit, TIntIntMap t_32bit, TIntLongMap t_64bit, int timestampsSize) {
+        LOG.log(Level.FINEST, "encoding {0}, {1}, {2}", new Object[]{TDecorators.wrap(t_16bit), TDecorators.wrap(t_32bit), TDecorators.wrap(t_64bit)});
+        final TIntSet keys = new TIntHashSet(t_16bit.size() + t_32bit.size() + t_64bit.size(), 1, -1);
+        long[] values = new long[timestampsSize];
+        int values_len = 0;
+        for (int i = 0; i < values.length; ++i) {
+            if (t_16bit.containsKey(i))
+                values[values_len++] = t_16bit.get(i);
+            else if (t_32bit.containsKey(i))
+                values[values_len++] = t_32bit.get(i);
+            else if (t_64bit.containsKey(i))
+                values[values_len++] = t_64bit.get(i);
+            else
+                continue;
+            keys.add(i);
+        }
+
+        mt_packed_int result = new mt_packed_int();
+        result.presence = createPresenceBitset(keys, timestampsSize);
+        result.values = PackedValues.encodeInts(values, values_len);
+
+        return result;
+    }
+
+    private static mt_packed_dbl encodePackedDbl(TIntDoubleMap t_dbl, int timestampsSize) {
+        LOG.log(Level.FINEST, "encoding {0}", TDecorators.wrap(t_dbl));
+        double[] values = new double[timestampsSize];
+        int values_len = 0;
+        for (int i = 0; i < values.length; ++i) {
+            if (t_dbl.containsKey(i))
+                values[values_len++] = t_dbl.get(i);
+        }
+
+        mt_packed_dbl result = new mt_packed_dbl();
+        result.presence = createPresenceBitset(t_dbl.keySet(), timestampsSize);
+        result.values = PackedValues.encodeDoubles(values, values_len);
+
+        return result;
+    }
+
     private static mt_str encodeStr(TIntIntMap t_str, int timestampsSize) {
         LOG.log(Level.FINEST, "encoding {0}", TDecorators.wrap(t_str));
         int[] values = new int[timestampsSize];
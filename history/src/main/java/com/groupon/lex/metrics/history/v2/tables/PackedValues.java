@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.v2.tables;
+
+import com.groupon.lex.metrics.history.xdr.support.DecodingException;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encoder and decoders for the packed metric table values.
+ *
+ * Integers are encoded as zigzag varints of their delta-of-delta, doubles are
+ * encoded as the XOR with their predecessor, with leading and trailing zero
+ * bytes omitted.
+ * Both encodings rely on consecutive values in a metric table being similar,
+ * which is the common case for counters and gauges.
+ *
+ * @author ariane
+ */
+final class PackedValues {
+    /** Header byte used for a double that is equal to its predecessor. */
+    private static final int DBL_SAME = 0x80;
+
+    private PackedValues() {
+    }
+
+    /**
+     * Encode integer values using delta-of-delta encoding.
+     *
+     * @param values The values to encode.
+     * @param len The number of values to encode.
+     * @return The packed representation of the values.
+     */
+    public static byte[] encodeInts(long[] values, int len) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(len * 2);
+        long prev = 0;
+        long prevDelta = 0;
+        for (int i = 0; i < len; ++i) {
+            final long delta = values[i] - prev;
+            writeVarint(out, zigzag(delta - prevDelta));
+            prev = values[i];
+            prevDelta = (i == 0 ? 0 : delta);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode floating point values using XOR encoding.
+     *
+     * @param values The values to encode.
+     * @param len The number of values to encode.
+     * @return The packed representation of the values.
+     */
+    public static byte[] encodeDoubles(double[] values, int len) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(len * 4);
+        long prev = 0;
+        for (int i = 0; i < len; ++i) {
+            final long bits = Double.doubleToRawLongBits(values[i]);
+            final long xor = bits ^ prev;
+            prev = bits;
+
+            if (xor == 0) {
+                out.write(DBL_SAME);
+                continue;
+            }
+            final int lead = Long.numberOfLeadingZeros(xor) / 8;
+            final int trail = Long.numberOfTrailingZeros(xor) / 8;
+            out.write(lead << 4 | trail);
+            for (int shift = (7 - lead) * 8; shift >= trail * 8; shift -= 8)
+                out.write((int) (xor >>> shift));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Streaming decoder for packed integer values.
+     */
+    public static class IntDecoder {
+        private final byte[] data;
+        private int pos = 0;
+        private int count = 0;
+        private long prev = 0;
+        private long prevDelta = 0;
+
+        public IntDecoder(byte[] data) {
+            this.data = data;
+        }
+
+        public boolean hasNext() {
+            return pos < data.length;
+        }
+
+        public long next() {
+            final long dod = unzigzag(readVarint());
+            final long delta = prevDelta + dod;
+            final long value = prev + delta;
+            prevDelta = (count++ == 0 ? 0 : delta);
+            prev = value;
+            return value;
+        }
+
+        private long readVarint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= data.length)
+                    throw new DecodingException("packed integer truncated");
+                final int b = data[pos++] & 0xff;
+                v |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new DecodingException("packed integer too long");
+        }
+    }
+
+    /**
+     * Streaming decoder for packed floating point values.
+     */
+    public static class DoubleDecoder {
+        private final byte[] data;
+        private int pos = 0;
+        private long prev = 0;
+
+        public DoubleDecoder(byte[] data) {
+            this.data = data;
+        }
+
+        public boolean hasNext() {
+            return pos < data.length;
+        }
+
+        public double next() {
+            if (pos >= data.length)
+                throw new DecodingException("packed double truncated");
+            final int hdr = data[pos++] & 0xff;
+            if (hdr != DBL_SAME) {
+                final int lead = hdr >>> 4;
+                final int trail = hdr & 0xf;
+                if (lead + trail >= 8)
+                    throw new DecodingException("invalid packed double header");
+                if (pos + 8 - lead - trail > data.length)
+                    throw new DecodingException("packed double truncated");
+
+                long xor = 0;
+                for (int i = lead + trail; i < 8; ++i)
+                    xor = xor << 8 | (data[pos++] & 0xff);
+                prev ^= xor << (trail * 8);
+            }
+            return Double.longBitsToDouble(prev);
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
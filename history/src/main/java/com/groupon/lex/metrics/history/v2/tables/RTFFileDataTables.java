@@ -39,6 +39,7 @@ import com.groupon.lex.metrics.history.xdr.support.reader.SegmentReader;
 import com.groupon.lex.metrics.lib.sequence.ForwardSequence;
 import com.groupon.lex.metrics.lib.sequence.ObjectSequence;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
 import java.util.List;
@@ -48,6 +49,7 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import org.acplt.oncrpc.XdrAble;
+import org.joda.time.DateTime;
 
 @Getter(AccessLevel.PRIVATE)
 public final class RTFFileDataTables {
@@ -59,12 +61,12 @@ public final class RTFFileDataTables {
     private final boolean sorted;
     private final boolean distinct;
 
-    public RTFFileDataTables(@NonNull file_data_tables input, @NonNull SegmentReader.Factory<XdrAble> segmentFactory, boolean sorted, boolean distinct) {
+    public RTFFileDataTables(@NonNull file_data_tables input, @NonNull SegmentReader.Factory<XdrAble> segmentFactory, boolean sorted, boolean distinct, long cacheOwner, boolean packedMetrics) {
         this.sorted = sorted;
         this.distinct = distinct;
         this.input = input;
         this.blocks = new ForwardSequence(0, input.blocks.length)
-                .map(blockIdx -> new RTFFileDataTablesBlock(input.blocks[blockIdx], segmentFactory), true, true, true)
+                .map(blockIdx -> new RTFFileDataTablesBlock(input.blocks[blockIdx], segmentFactory, cacheOwner, packedMetrics), true, true, true)
                 .peek(RTFFileDataTablesBlock::validate)
                 .share();
         this.sequence = SegmentReader.ofSupplier(this::buildSequence)
@@ -75,7 +77,43 @@ public final class RTFFileDataTables {
     }
 
     private ObjectSequence<TimeSeriesCollection> buildSequence() {
-        ObjectSequence[] seq = blocks.stream().map(block -> block.getTsdata()).toArray(ObjectSequence[]::new);
+        return combineBlocks(blocks.stream().map(block -> block.getTsdata()).toArray(ObjectSequence[]::new));
+    }
+
+    /**
+     * Retrieve the sequence, restricted to the groups and metrics selected by
+     * the filter.
+     *
+     * @param filter The filter selecting groups and metrics.
+     * @return A sequence of time series collections, containing only data
+     * selected by the filter.
+     */
+    public ObjectSequence<TimeSeriesCollection> getSequence(@NonNull TimeSeriesMetricFilter filter) {
+        if (filter.equals(TimeSeriesMetricFilter.ALL_GROUPS))
+            return sequence.decodeOrThrow();
+        return combineBlocks(blocks.stream().map(block -> block.getTsdata(filter)).toArray(ObjectSequence[]::new));
+    }
+
+    /**
+     * Retrieve the sequence, restricted to blocks that overlap the range
+     * between begin and end (inclusive).
+     *
+     * Blocks outside the range are skipped, but the returned sequence may
+     * still contain collections outside the range.
+     *
+     * @param begin The timestamp of the first collection (inclusive).
+     * @param end The timestamp of the last collection (inclusive).
+     * @param filter The filter selecting groups and metrics.
+     * @return A sequence of time series collections.
+     */
+    public ObjectSequence<TimeSeriesCollection> getSequence(@NonNull DateTime begin, @NonNull DateTime end, @NonNull TimeSeriesMetricFilter filter) {
+        return combineBlocks(blocks.stream()
+                .filter(block -> block.overlaps(begin.getMillis(), end.getMillis()))
+                .map(block -> block.getTsdata(filter))
+                .toArray(ObjectSequence[]::new));
+    }
+
+    private ObjectSequence<TimeSeriesCollection> combineBlocks(ObjectSequence[] seq) {
         if (!sorted || !distinct)
             return Util.mergeSequences(seq);
         return ObjectSequence.concat(seq, sorted, distinct);
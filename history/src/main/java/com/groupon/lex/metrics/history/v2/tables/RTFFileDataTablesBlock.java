@@ -32,6 +32,8 @@
 package com.groupon.lex.metrics.history.v2.tables;
 
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricMatcher;
+import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.history.v2.xdr.FromXdr;
 import com.groupon.lex.metrics.history.v2.xdr.dictionary_delta;
@@ -41,19 +43,25 @@ import com.groupon.lex.metrics.history.v2.xdr.tables;
 import com.groupon.lex.metrics.history.v2.xdr.tables_group;
 import com.groupon.lex.metrics.history.xdr.support.DecodingException;
 import com.groupon.lex.metrics.history.xdr.support.FilePos;
+import com.groupon.lex.metrics.history.xdr.support.reader.BlockCache;
+import com.groupon.lex.metrics.history.xdr.support.reader.HeapSize;
 import com.groupon.lex.metrics.history.xdr.support.reader.SegmentReader;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
 import com.groupon.lex.metrics.lib.sequence.ForwardSequence;
 import com.groupon.lex.metrics.lib.sequence.ObjectSequence;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import gnu.trove.map.hash.THashMap;
 import java.util.Arrays;
 import static java.util.Collections.unmodifiableMap;
 import static java.util.Collections.unmodifiableSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import lombok.Getter;
+import lombok.NonNull;
 import org.acplt.oncrpc.XdrAble;
 
 @Getter
@@ -62,14 +70,19 @@ public class RTFFileDataTablesBlock {
     private final SegmentReader<Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>>> table;
     private final ObjectSequence<TimeSeriesCollection> tsdata;
 
-    public RTFFileDataTablesBlock(file_data_tables_block input, SegmentReader.Factory<XdrAble> segmentFactory) {
+    public RTFFileDataTablesBlock(file_data_tables_block input, SegmentReader.Factory<XdrAble> segmentFactory, long cacheOwner, boolean packedMetrics) {
         this.timestamps = FromXdr.timestamp_delta(input.tsd);
-        final SegmentReader<DictionaryDelta> dictionarySegment = segmentFactory.get(dictionary_delta::new, FromXdr.filePos(input.dictionary))
-                .map(DictionaryDelta::new)
-                .cache();
-        this.table = segmentFactory.get(tables::new, FromXdr.filePos(input.tables_data))
-                .combine(dictionarySegment, (xdrTables, dict) -> outerMap(xdrTables, dict, dictionarySegment, segmentFactory))
-                .cache();
+        final BlockCache blockCache = BlockCache.getDefault();
+        final FilePos dictionaryPos = FromXdr.filePos(input.dictionary);
+        final SegmentReader<DictionaryDelta> dictionarySegment = blockCache.cache(cacheOwner, dictionaryPos,
+                segmentFactory.get(dictionary_delta::new, dictionaryPos)
+                        .map(DictionaryDelta::new),
+                DictionaryDelta::getHeapBytes);
+        final FilePos tablesPos = FromXdr.filePos(input.tables_data);
+        this.table = blockCache.cache(cacheOwner, tablesPos,
+                segmentFactory.get(tables::new, tablesPos)
+                        .combine(dictionarySegment, (xdrTables, dict) -> outerMap(xdrTables, dict, dictionarySegment, segmentFactory, blockCache, cacheOwner, packedMetrics)),
+                RTFFileDataTablesBlock::tableHeapBytes);
         this.tsdata = new ForwardSequence(0, this.timestamps.length)
                 .map(idx -> newTSC(idx), true, true, true)
                 .share();
@@ -79,6 +92,33 @@ public class RTFFileDataTablesBlock {
         return timestamps.length;
     }
 
+    /**
+     * Test if any timestamp in this block lies between begin and end
+     * (inclusive).
+     *
+     * @param begin Lower bound of the range, in msec since epoch.
+     * @param end Upper bound of the range, in msec since epoch.
+     * @return True if the block holds a collection within the range.
+     */
+    public boolean overlaps(long begin, long end) {
+        return overlaps(timestamps, begin, end);
+    }
+
+    /**
+     * Test if any of the sorted timestamps lies between begin and end
+     * (inclusive).
+     *
+     * Timestamps are sorted when the block is written, so the first timestamp
+     * at or after begin decides.
+     */
+    static boolean overlaps(long[] timestamps, long begin, long end) {
+        final int idx = Arrays.binarySearch(timestamps, begin);
+        if (idx >= 0)
+            return begin <= end;
+        final int insertionPoint = -(idx + 1);
+        return insertionPoint < timestamps.length && timestamps[insertionPoint] <= end;
+    }
+
     public void validate() {
     }
 
@@ -86,6 +126,29 @@ public class RTFFileDataTablesBlock {
         return new RTFTimeSeriesCollection(idx, timestamps[idx], table);
     }
 
+    /**
+     * Retrieve the time series data, restricted to the groups and metrics
+     * selected by the filter.
+     *
+     * Group and metric tables that are not selected by the filter are not
+     * decoded.
+     *
+     * @param filter The filter selecting groups and metrics.
+     * @return A sequence of time series collections, containing only data
+     * selected by the filter.
+     */
+    public ObjectSequence<TimeSeriesCollection> getTsdata(@NonNull TimeSeriesMetricFilter filter) {
+        if (filter.equals(TimeSeriesMetricFilter.ALL_GROUPS))
+            return tsdata;
+
+        final SegmentReader<Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>>> filteredTable = table
+                .map(pathMap -> filterTable(pathMap, filter))
+                .cache();
+        return new ForwardSequence(0, this.timestamps.length)
+                .map(idx -> (TimeSeriesCollection) new RTFTimeSeriesCollection(idx, timestamps[idx], filteredTable), true, true, true)
+                .share();
+    }
+
     public Set<SimpleGroupPath> getAllPaths() {
         return unmodifiableSet(table.decodeOrThrow().keySet());
     }
@@ -96,11 +159,11 @@ public class RTFFileDataTablesBlock {
                 .collect(Collectors.toSet());
     }
 
-    private static Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>> outerMap(tables xdrTables, DictionaryDelta dictionary, SegmentReader<DictionaryDelta> dictionarySegment, SegmentReader.Factory<XdrAble> segmentFactory) {
+    private static Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>> outerMap(tables xdrTables, DictionaryDelta dictionary, SegmentReader<DictionaryDelta> dictionarySegment, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner, boolean packedMetrics) {
         return Arrays.stream(xdrTables.value)
                 .map(tg -> {
                     final SimpleGroupPath path = SimpleGroupPath.valueOf(dictionary.getPath(tg.group_ref));
-                    final Map<GroupName, SegmentReader<RTFGroupTable>> groups = unmodifiableMap(innerMap(path, tg, dictionary, dictionarySegment, segmentFactory));
+                    final Map<GroupName, SegmentReader<RTFGroupTable>> groups = unmodifiableMap(innerMap(path, tg, dictionary, dictionarySegment, segmentFactory, blockCache, cacheOwner, packedMetrics));
                     return SimpleMapEntry.create(path, groups);
                 })
                 .collect(Collectors.toMap(
@@ -112,21 +175,67 @@ public class RTFFileDataTablesBlock {
                         () -> new THashMap<>(1, 1)));
     }
 
-    private static Map<GroupName, SegmentReader<RTFGroupTable>> innerMap(SimpleGroupPath path, tables_group tg, DictionaryDelta dictionary, SegmentReader<DictionaryDelta> dictionarySegment, SegmentReader.Factory<XdrAble> segmentFactory) {
+    /**
+     * Estimate the heap space used by the table of groups.
+     *
+     * Group tables are not included, as they are cached separately.
+     *
+     * @param table The table of groups.
+     * @return The estimated size of the table, in bytes.
+     */
+    private static long tableHeapBytes(Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>> table) {
+        return HeapSize.openHashMap(table.size())
+                + table.values().stream()
+                        .mapToLong(groups -> {
+                            return HeapSize.align(HeapSize.OBJECT + 2 * HeapSize.REFERENCE)  // Unmodifiable wrapper.
+                                    + HeapSize.openHashMap(groups.size())
+                                    + groups.size() * HeapSize.SEGMENT_READER;  // Group names are interned.
+                        })
+                        .sum();
+    }
+
+    private static Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>> filterTable(Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>> pathMap, TimeSeriesMetricFilter filter) {
+        final Map<SimpleGroupPath, Map<GroupName, SegmentReader<RTFGroupTable>>> result = new THashMap<>(1, 1);
+        pathMap.forEach((path, groups) -> {
+            if (filter.getGroups().stream().anyMatch(matcher -> matcher.match(path.getPath()))) {
+                result.put(path, groups);
+                return;
+            }
+
+            final List<MetricMatcher> metricMatchers = filter.getMetrics().stream()
+                    .filter(matcher -> matcher.match(path))
+                    .collect(Collectors.toList());
+            if (metricMatchers.isEmpty())
+                return;
+            final Predicate<MetricName> metricFilter = (name) -> metricMatchers.stream().anyMatch(matcher -> matcher.match(name));
+            result.put(path, unmodifiableMap(groups.entrySet().stream()
+                    .collect(Collectors.toMap(
+                            Map.Entry::getKey,
+                            grpEntry -> grpEntry.getValue().map(grpTbl -> grpTbl.filter(metricFilter)).cache(),
+                            (a, b) -> {
+                                throw new IllegalStateException("duplicate group");
+                            },
+                            () -> new THashMap<>(1, 1)))));
+        });
+        return unmodifiableMap(result);
+    }
+
+    private static Map<GroupName, SegmentReader<RTFGroupTable>> innerMap(SimpleGroupPath path, tables_group tg, DictionaryDelta dictionary, SegmentReader<DictionaryDelta> dictionarySegment, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner, boolean packedMetrics) {
         return Arrays.stream(tg.tag_tbl)
                 .collect(Collectors.toMap(
                         tt -> GroupName.valueOf(path, dictionary.getTags(tt.tag_ref)),
-                        tt -> segmentFromFilePos(FromXdr.filePos(tt.pos), dictionarySegment, segmentFactory),
+                        tt -> segmentFromFilePos(FromXdr.filePos(tt.pos), dictionarySegment, segmentFactory, blockCache, cacheOwner, packedMetrics),
                         (a, b) -> {
                             throw new DecodingException("duplicate tag reference");
                         },
                         () -> new THashMap<>(1, 1)));
     }
 
-    private static SegmentReader<RTFGroupTable> segmentFromFilePos(FilePos fp, SegmentReader<DictionaryDelta> dictionarySegment, SegmentReader.Factory<XdrAble> segmentFactory) {
-        return segmentFactory.get(group_table::new, fp)
-                .combine(dictionarySegment, (gt, dictionary) -> new RTFGroupTable(gt, dictionary, segmentFactory))
-                .peek(RTFGroupTable::validate)
-                .share();
+    private static SegmentReader<RTFGroupTable> segmentFromFilePos(FilePos fp, SegmentReader<DictionaryDelta> dictionarySegment, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner, boolean packedMetrics) {
+        return blockCache.cache(cacheOwner, fp,
+                segmentFactory.get(group_table::new, fp)
+                        .combine(dictionarySegment, (gt, dictionary) -> new RTFGroupTable(gt, dictionary, segmentFactory, blockCache, cacheOwner, packedMetrics))
+                        .peek(RTFGroupTable::validate),
+                RTFGroupTable::getHeapBytes);
     }
 }
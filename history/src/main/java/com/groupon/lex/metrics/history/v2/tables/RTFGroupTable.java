@@ -35,17 +35,23 @@ import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.history.v2.xdr.FromXdr;
 import com.groupon.lex.metrics.history.v2.xdr.group_table;
 import com.groupon.lex.metrics.history.v2.xdr.metric_table;
+import com.groupon.lex.metrics.history.v2.xdr.metric_table_packed;
 import com.groupon.lex.metrics.history.v2.xdr.tables_metric;
 import com.groupon.lex.metrics.history.xdr.support.DecodingException;
+import com.groupon.lex.metrics.history.xdr.support.FilePos;
+import com.groupon.lex.metrics.history.xdr.support.reader.BlockCache;
+import com.groupon.lex.metrics.history.xdr.support.reader.HeapSize;
 import com.groupon.lex.metrics.history.xdr.support.reader.SegmentReader;
 import gnu.trove.map.hash.THashMap;
 import java.util.Arrays;
 import static java.util.Collections.unmodifiableSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.NonNull;
 import org.acplt.oncrpc.XdrAble;
 
 @Getter(AccessLevel.PACKAGE)
@@ -53,25 +59,57 @@ public class RTFGroupTable {
     private final boolean presence[];
     private final Map<MetricName, SegmentReader<RTFMetricTable>> metrics;
 
-    public RTFGroupTable(group_table input, DictionaryDelta dictionary, SegmentReader.Factory<XdrAble> segmentFactory) {
+    public RTFGroupTable(group_table input, DictionaryDelta dictionary, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner) {
+        this(input, dictionary, segmentFactory, blockCache, cacheOwner, false);
+    }
+
+    public RTFGroupTable(group_table input, DictionaryDelta dictionary, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner, boolean packedMetrics) {
         presence = FromXdr.bitset(input.presence);
-        metrics = metricsMap(input.metric_tbl, dictionary, segmentFactory);
+        metrics = metricsMap(input.metric_tbl, dictionary, segmentFactory, blockCache, cacheOwner, packedMetrics);
+    }
+
+    private RTFGroupTable(boolean presence[], Map<MetricName, SegmentReader<RTFMetricTable>> metrics) {
+        this.presence = presence;
+        this.metrics = metrics;
     }
 
-    private static Map<MetricName, SegmentReader<RTFMetricTable>> metricsMap(tables_metric tmArray[], DictionaryDelta dictionary, SegmentReader.Factory<XdrAble> segmentFactory) {
+    private static Map<MetricName, SegmentReader<RTFMetricTable>> metricsMap(tables_metric tmArray[], DictionaryDelta dictionary, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner, boolean packedMetrics) {
         return Arrays.stream(tmArray)
                 .collect(Collectors.toMap(
                         tm -> MetricName.valueOf(dictionary.getPath(tm.metric_ref)),
-                        tm -> segmentFactory.get(metric_table::new, FromXdr.filePos(tm.pos))
-                                .map(mt -> new RTFMetricTable(mt, dictionary))
-                                .peek(RTFMetricTable::validate)
-                                .cache(),
+                        tm -> metricSegment(FromXdr.filePos(tm.pos), dictionary, segmentFactory, blockCache, cacheOwner, packedMetrics),
                         (a, b) -> { throw new DecodingException("duplicate metric reference"); },
                         () -> new THashMap<>(1, 1)));
     }
 
+    private static SegmentReader<RTFMetricTable> metricSegment(FilePos pos, DictionaryDelta dictionary, SegmentReader.Factory<XdrAble> segmentFactory, BlockCache blockCache, long cacheOwner, boolean packedMetrics) {
+        final SegmentReader<RTFMetricTable> decoded;
+        if (packedMetrics) {
+            decoded = segmentFactory.get(metric_table_packed::new, pos)
+                    .map(mt -> new RTFMetricTable(mt, dictionary));
+        } else {
+            decoded = segmentFactory.get(metric_table::new, pos)
+                    .map(mt -> new RTFMetricTable(mt, dictionary));
+        }
+        return blockCache.cache(cacheOwner, pos, decoded.peek(RTFMetricTable::validate), RTFMetricTable::getHeapBytes);
+    }
+
     public void validate() {}
 
+    /**
+     * Estimate the heap space used by this group table.
+     *
+     * Metric tables are not included, as they are cached separately.
+     *
+     * @return The estimated size of this group table, in bytes.
+     */
+    public long getHeapBytes() {
+        return HeapSize.align(HeapSize.OBJECT + 2 * HeapSize.REFERENCE)
+                + HeapSize.array(presence.length, 1)
+                + HeapSize.openHashMap(metrics.size())
+                + metrics.size() * HeapSize.SEGMENT_READER;  // Metric names are interned.
+    }
+
     public boolean contains(int index) {
         return index >= 0 && index < presence.length && presence[index];
     }
@@ -83,4 +121,23 @@ public class RTFGroupTable {
     public SegmentReader<RTFMetricTable> getMetric(MetricName name) {
         return metrics.get(name);
     }
+
+    /**
+     * Create a view of this group table, holding only the selected metrics.
+     *
+     * Metric tables that are not selected will never be decoded through the
+     * returned view.
+     *
+     * @param metricFilter Predicate selecting which metrics to keep.
+     * @return A group table with the same presence, but fewer metrics.
+     */
+    public RTFGroupTable filter(@NonNull Predicate<? super MetricName> metricFilter) {
+        return new RTFGroupTable(presence, metrics.entrySet().stream()
+                .filter(metricEntry -> metricFilter.test(metricEntry.getKey()))
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                        Map.Entry::getValue,
+                        (a, b) -> { throw new IllegalStateException("duplicate metric"); },
+                        () -> new THashMap<>(1, 1))));
+    }
 }
@@ -36,17 +36,23 @@ import com.groupon.lex.metrics.history.v2.xdr.FromXdr;
 import com.groupon.lex.metrics.history.v2.xdr.bitset;
 import com.groupon.lex.metrics.history.v2.xdr.histogram;
 import com.groupon.lex.metrics.history.v2.xdr.metric_table;
+import com.groupon.lex.metrics.history.v2.xdr.metric_table_packed;
 import com.groupon.lex.metrics.history.v2.xdr.metric_value;
 import com.groupon.lex.metrics.history.v2.xdr.mt_16bit;
 import com.groupon.lex.metrics.history.v2.xdr.mt_32bit;
 import com.groupon.lex.metrics.history.v2.xdr.mt_64bit;
 import com.groupon.lex.metrics.history.v2.xdr.mt_bool;
 import com.groupon.lex.metrics.history.v2.xdr.mt_dbl;
+import com.groupon.lex.metrics.history.v2.xdr.mt_empty;
 import com.groupon.lex.metrics.history.v2.xdr.mt_hist;
 import com.groupon.lex.metrics.history.v2.xdr.mt_other;
+import com.groupon.lex.metrics.history.v2.xdr.mt_packed_dbl;
+import com.groupon.lex.metrics.history.v2.xdr.mt_packed_int;
 import com.groupon.lex.metrics.history.v2.xdr.mt_str;
 import com.groupon.lex.metrics.history.xdr.support.DecodingException;
 import com.groupon.lex.metrics.history.xdr.support.IntegrityException;
+import com.groupon.lex.metrics.history.xdr.support.reader.HeapSize;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
 public class RTFMetricTable {
@@ -68,7 +74,28 @@ public class RTFMetricTable {
         m_dbl = optimizeEmpty(new MtDblValues(input.metrics_dbl));
         m_str = optimizeEmpty(new MtStrValues(input.metrics_str, dictionary));
         m_hist = optimizeEmpty(new MtHistValues(input.metrics_hist));
-        m_empty = optimizeEmpty(new MtEmptyValues(input.metrics_hist));
+        m_empty = optimizeEmpty(new MtEmptyValues(input.metrics_empty));
+        m_other = optimizeEmpty(new MtOtherValues(input.metrics_other, dictionary));
+    }
+
+    /**
+     * Create a metric table from its packed encoding.
+     *
+     * Integer and floating point values are decoded in a single pass over
+     * their packed representation.
+     *
+     * @param input The packed metric table.
+     * @param dictionary Dictionary used to resolve string references.
+     */
+    public RTFMetricTable(metric_table_packed input, DictionaryDelta dictionary) {
+        m_bool = optimizeEmpty(new MtBoolValues(input.metrics_bool));
+        m_16bit = EMPTY_TABLE;
+        m_32bit = EMPTY_TABLE;
+        m_64bit = optimizeEmpty(new MtPackedIntValues(input.metrics_int));
+        m_dbl = optimizeEmpty(new MtPackedDblValues(input.metrics_dbl));
+        m_str = optimizeEmpty(new MtStrValues(input.metrics_str, dictionary));
+        m_hist = optimizeEmpty(new MtHistValues(input.metrics_hist));
+        m_empty = optimizeEmpty(new MtEmptyValues(input.metrics_empty));
         m_other = optimizeEmpty(new MtOtherValues(input.metrics_other, dictionary));
     }
 
@@ -140,6 +167,26 @@ public class RTFMetricTable {
                 .toArray(MetricValue[]::new);
     }
 
+    /**
+     * Estimate the heap space used by this table.
+     *
+     * The dictionary is not included, as it is shared with other tables.
+     *
+     * @return The estimated size of this table, in bytes.
+     */
+    public long getHeapBytes() {
+        return HeapSize.align(HeapSize.OBJECT + 9 * HeapSize.REFERENCE)
+                + m_bool.getHeapBytes()
+                + m_16bit.getHeapBytes()
+                + m_32bit.getHeapBytes()
+                + m_64bit.getHeapBytes()
+                + m_dbl.getHeapBytes()
+                + m_str.getHeapBytes()
+                + m_hist.getHeapBytes()
+                + m_empty.getHeapBytes()
+                + m_other.getHeapBytes();
+    }
+
     public void validate() {
         m_bool.validate();
         m_16bit.validate();
@@ -154,6 +201,7 @@ public class RTFMetricTable {
 
     private static abstract class MtTable {
         private final int[] map;
+        protected final int presenceCount;
 
         protected MtTable(bitset input) {
             boolean[] presence = FromXdr.bitset(input);
@@ -170,6 +218,7 @@ public class RTFMetricTable {
                     map[i] = -1;
             }
             assert (buildIdx == len);
+            presenceCount = len;
         }
 
         public final boolean contains(int index) {
@@ -197,16 +246,19 @@ public class RTFMetricTable {
         }
 
         public final boolean isEmpty() {
-            final int size = innerSize();
-            for (int idx = 0; idx < size; ++idx) {
-                if (contains(idx))
-                    return false;
-            }
-            return true;
+            return presenceCount == 0;
+        }
+
+        public long getHeapBytes() {
+            return HeapSize.align(HeapSize.OBJECT + HeapSize.REFERENCE + 4)
+                    + HeapSize.array(map.length, 4)
+                    + valuesHeapBytes();
         }
 
         protected abstract MetricValue doGet(int innerIdx);
 
+        protected abstract long valuesHeapBytes();
+
         protected abstract int innerSize();
     }
 
@@ -223,6 +275,11 @@ public class RTFMetricTable {
             return MetricValue.fromBoolean(values[idx]);
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 1);
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -242,6 +299,11 @@ public class RTFMetricTable {
             return MetricValue.fromIntValue(values[idx]);
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 2);
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -261,6 +323,11 @@ public class RTFMetricTable {
             return MetricValue.fromIntValue(values[idx]);
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 4);
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -280,6 +347,11 @@ public class RTFMetricTable {
             return MetricValue.fromIntValue(values[idx]);
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 8);
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -299,6 +371,69 @@ public class RTFMetricTable {
             return MetricValue.fromDblValue(values[idx]);
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 8);
+        }
+
+        @Override
+        protected int innerSize() {
+            return values.length;
+        }
+    }
+
+    private static class MtPackedIntValues extends MtTable {
+        private final long values[];
+
+        public MtPackedIntValues(mt_packed_int input) {
+            super(input.presence);
+            final PackedValues.IntDecoder decoder = new PackedValues.IntDecoder(input.values);
+            values = new long[presenceCount];
+            for (int i = 0; i < values.length; ++i)
+                values[i] = decoder.next();
+            if (decoder.hasNext())
+                throw new IntegrityException("mismatch in metric table encoding");
+        }
+
+        @Override
+        protected MetricValue doGet(int idx) {
+            return MetricValue.fromIntValue(values[idx]);
+        }
+
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 8);
+        }
+
+        @Override
+        protected int innerSize() {
+            return values.length;
+        }
+    }
+
+    private static class MtPackedDblValues extends MtTable {
+        private final double values[];
+
+        public MtPackedDblValues(mt_packed_dbl input) {
+            super(input.presence);
+            final PackedValues.DoubleDecoder decoder = new PackedValues.DoubleDecoder(input.values);
+            values = new double[presenceCount];
+            for (int i = 0; i < values.length; ++i)
+                values[i] = decoder.next();
+            if (decoder.hasNext())
+                throw new IntegrityException("mismatch in metric table encoding");
+        }
+
+        @Override
+        protected MetricValue doGet(int idx) {
+            return MetricValue.fromDblValue(values[idx]);
+        }
+
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, 8);
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -320,6 +455,11 @@ public class RTFMetricTable {
             return MetricValue.fromStrValue(dictionary.getString(values[idx]));
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.REFERENCE + HeapSize.array(values.length, 4);
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -339,6 +479,12 @@ public class RTFMetricTable {
             return MetricValue.fromHistValue(FromXdr.histogram(values[idx]));
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.array(values.length, HeapSize.REFERENCE)
+                    + Arrays.stream(values).mapToLong(RTFMetricTable::histogramHeapBytes).sum();
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
@@ -346,7 +492,7 @@ public class RTFMetricTable {
     }
 
     private static class MtEmptyValues extends MtTable {
-        public MtEmptyValues(mt_hist input) {
+        public MtEmptyValues(mt_empty input) {
             super(input.presence);
         }
 
@@ -359,6 +505,11 @@ public class RTFMetricTable {
         public void validateInner() {
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return 0;
+        }
+
         @Override
         protected int innerSize() {
             return 0;
@@ -380,12 +531,30 @@ public class RTFMetricTable {
             return FromXdr.metricValue(values[idx], dictionary::getString);
         }
 
+        @Override
+        protected long valuesHeapBytes() {
+            return HeapSize.REFERENCE
+                    + HeapSize.array(values.length, HeapSize.REFERENCE)
+                    + Arrays.stream(values).mapToLong(RTFMetricTable::metricValueHeapBytes).sum();
+        }
+
         @Override
         protected int innerSize() {
             return values.length;
         }
     }
 
+    private static long histogramHeapBytes(histogram h) {
+        return HeapSize.align(HeapSize.OBJECT + HeapSize.REFERENCE)
+                + HeapSize.array(h.value.length, HeapSize.REFERENCE)
+                + h.value.length * HeapSize.align(HeapSize.OBJECT + 3 * 8);
+    }
+
+    private static long metricValueHeapBytes(metric_value v) {
+        return HeapSize.align(HeapSize.OBJECT + 4 + 1 + 8 + 8 + 4 + HeapSize.REFERENCE)
+                + (v.hist_value == null ? 0 : histogramHeapBytes(v.hist_value));
+    }
+
     private static <T extends MtTable> MtTable optimizeEmpty(T table) {
         return (table.isEmpty() ? EMPTY_TABLE : table);
     }
@@ -402,5 +571,15 @@ public class RTFMetricTable {
         protected int innerSize() {
             return 0;
         }
+
+        @Override
+        public long getHeapBytes() {
+            return 0;  // Shared between all tables.
+        }
+
+        @Override
+        protected long valuesHeapBytes() {
+            return 0;
+        }
     };
 }
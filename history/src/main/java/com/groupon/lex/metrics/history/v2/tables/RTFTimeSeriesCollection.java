@@ -104,7 +104,7 @@ public class RTFTimeSeriesCollection extends AbstractTimeSeriesCollection {
 
     @Override
     public TimeSeriesValueSet getTSValue(SimpleGroupPath name) {
-        return new TimeSeriesValueSet(table.decodeOrThrow().get(name).entrySet().stream()
+        return new TimeSeriesValueSet(table.decodeOrThrow().getOrDefault(name, emptyMap()).entrySet().stream()
                 .map(grpEntry -> SimpleMapEntry.create(grpEntry.getKey(), grpEntry.getValue().decodeOrThrow()))
                 .filter(grpEntry -> grpEntry.getValue().contains(index))
                 .map(grpEntry -> newTSV(grpEntry.getKey(), grpEntry.getValue())));
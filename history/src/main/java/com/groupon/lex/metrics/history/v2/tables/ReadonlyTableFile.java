@@ -46,17 +46,23 @@ import static com.groupon.lex.metrics.history.xdr.Const.MIME_HEADER_LEN;
 import static com.groupon.lex.metrics.history.xdr.Const.validateHeaderOrThrow;
 import com.groupon.lex.metrics.history.xdr.support.FilePos;
 import com.groupon.lex.metrics.history.xdr.support.SequenceTSData;
+import com.groupon.lex.metrics.history.xdr.support.reader.BlockCache;
+import com.groupon.lex.metrics.history.xdr.support.reader.ByteBufferReader;
 import com.groupon.lex.metrics.history.xdr.support.reader.Crc32VerifyingFileReader;
 import com.groupon.lex.metrics.history.xdr.support.reader.FileChannelReader;
 import com.groupon.lex.metrics.history.xdr.support.reader.FileChannelSegmentReader;
+import com.groupon.lex.metrics.history.xdr.support.reader.FileReader;
+import com.groupon.lex.metrics.history.xdr.support.reader.MmapSegmentReader;
 import com.groupon.lex.metrics.history.xdr.support.reader.SegmentReader;
 import com.groupon.lex.metrics.history.xdr.support.reader.XdrDecodingFileReader;
 import com.groupon.lex.metrics.lib.GCCloseable;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
 import com.groupon.lex.metrics.lib.sequence.ObjectSequence;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import gnu.trove.list.TLongList;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -77,14 +83,21 @@ import org.joda.time.DateTimeZone;
 
 public class ReadonlyTableFile extends SequenceTSData implements ColumnMajorTSData {
     private static final short FILE_VERSION = 2;  // Only file version that uses Table format.
+    /** Files up to this size are memory mapped by default. */
+    public static final long DEFAULT_MMAP_MAX_SIZE = 1024L * 1024L * 1024L;
     private final SegmentReader<RTFFileDataTables> body;
     private final GCCloseable<FileChannel> fd;
     @Getter
     private final DateTime begin, end;
     @Getter
     private final long fileSize;
+    /** Number of bytes mapped into memory, 0 if the file is read using the file channel. */
+    @Getter
+    private final long mappedBytes;
     private final int version;
     private final SegmentReader.Factory<XdrAble> segmentFactory;
+    /** Identifies this file in the block cache. */
+    private final long cacheOwner = BlockCache.newOwner();
 
     @Override
     public boolean add(TimeSeriesCollection tsv) {
@@ -96,6 +109,16 @@ public class ReadonlyTableFile extends SequenceTSData implements ColumnMajorTSDa
         return body.decodeOrThrow().getSequence().decodeOrThrow();
     }
 
+    @Override
+    public ObjectSequence<TimeSeriesCollection> getSequence(TimeSeriesMetricFilter filter) {
+        return body.decodeOrThrow().getSequence(filter);
+    }
+
+    @Override
+    public ObjectSequence<TimeSeriesCollection> getSequence(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return selectRange(body.decodeOrThrow().getSequence(begin, end, filter), begin, end);
+    }
+
     @Override
     public short getMajor() {
         return Const.version_major(version);
@@ -121,13 +144,49 @@ public class ReadonlyTableFile extends SequenceTSData implements ColumnMajorTSDa
         return Optional.of(fd);
     }
 
+    /**
+     * Drop the segments of this file from the block cache.
+     *
+     * Cached segments reference the file, so this should be called when the
+     * file is no longer kept open.
+     */
+    public void invalidateBlockCache() {
+        BlockCache.getDefault().invalidate(cacheOwner);
+    }
+
     public ReadonlyTableFile(GCCloseable<FileChannel> file) throws IOException, OncRpcException {
+        this(file, DEFAULT_MMAP_MAX_SIZE);
+    }
+
+    /**
+     * Open a tables file.
+     *
+     * @param file The file to read.
+     * @param maxMappedSize The maximum size, in bytes, of files to memory map.
+     * Larger files are read using the file channel.  Use 0 to disable memory
+     * mapping.
+     */
+    public ReadonlyTableFile(GCCloseable<FileChannel> file, long maxMappedSize) throws IOException, OncRpcException {
         fileSize = file.get().size();
         fd = file;
         final tsfile_header hdr;
 
+        /* Optimized files are immutable, so small enough files are read from a memory mapping. */
+        final Optional<ByteBuffer> mapping;
+        if (fileSize > 0 && fileSize <= Math.min(maxMappedSize, Integer.MAX_VALUE))
+            mapping = Optional.of(MmapSegmentReader.map(file.get()));
+        else
+            mapping = Optional.empty();
+        mappedBytes = (mapping.isPresent() ? fileSize : 0);
+
+        final FileReader hdrReader;
+        if (mapping.isPresent())
+            hdrReader = new ByteBufferReader(mapping.get(), 0);
+        else
+            hdrReader = new FileChannelReader(file.get(), 0);
+
         /* Nest readers to handle CRC verification of the header. */
-        try (XdrDecodingFileReader reader = new XdrDecodingFileReader(new Crc32VerifyingFileReader(new FileChannelReader(file.get(), 0), MIME_HEADER_LEN + HDR_3_LEN, 0))) {
+        try (XdrDecodingFileReader reader = new XdrDecodingFileReader(new Crc32VerifyingFileReader(hdrReader, MIME_HEADER_LEN + HDR_3_LEN, 0))) {
             reader.beginDecoding();
 
             /* Check the mime header and version number first. */
@@ -150,14 +209,18 @@ public class ReadonlyTableFile extends SequenceTSData implements ColumnMajorTSDa
         final Compression compression = Compression.fromFlags(hdr.flags);
         final boolean distinct = ((hdr.flags & header_flags.DISTINCT) == header_flags.DISTINCT);
         final boolean sorted = ((hdr.flags & header_flags.SORTED) == header_flags.SORTED);
+        final boolean packedMetrics = ((hdr.flags & header_flags.PACKED_METRICS) == header_flags.PACKED_METRICS);
         begin = FromXdr.timestamp(hdr.first);
         end = FromXdr.timestamp(hdr.last);
 
-        segmentFactory = new FileChannelSegmentReader.Factory(file, compression);
+        if (mapping.isPresent())
+            segmentFactory = new MmapSegmentReader.Factory(mapping.get(), compression);
+        else
+            segmentFactory = new FileChannelSegmentReader.Factory(file, compression);
         final FilePos bodyPos = FromXdr.filePos(hdr.fdt);
 
         body = segmentFactory.get(file_data_tables::new, bodyPos)
-                .map(fdt -> new RTFFileDataTables(fdt, segmentFactory, sorted, distinct))
+                .map(fdt -> new RTFFileDataTables(fdt, segmentFactory, sorted, distinct, cacheOwner, packedMetrics))
                 .peek(RTFFileDataTables::validate)
                 .cache();
     }
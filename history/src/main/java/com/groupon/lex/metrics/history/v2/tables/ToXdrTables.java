@@ -50,11 +50,15 @@ import com.groupon.lex.metrics.history.v2.xdr.tables_metric;
 import com.groupon.lex.metrics.history.v2.xdr.tables_tag;
 import com.groupon.lex.metrics.history.v2.xdr.tsfile_header;
 import com.groupon.lex.metrics.history.xdr.ColumnMajorTSData;
+import static com.groupon.lex.metrics.history.xdr.Const.MAJOR;
 import static com.groupon.lex.metrics.history.xdr.Const.MIME_HEADER_LEN;
+import static com.groupon.lex.metrics.history.xdr.Const.MINOR;
 import static com.groupon.lex.metrics.history.xdr.Const.writeMimeHeader;
 import com.groupon.lex.metrics.history.xdr.support.FilePos;
+import com.groupon.lex.metrics.history.xdr.support.FutureUtil;
 import com.groupon.lex.metrics.history.xdr.support.Monitor;
 import com.groupon.lex.metrics.history.xdr.support.TmpFileBasedColumnMajorTSData;
+import com.groupon.lex.metrics.history.xdr.support.writer.AbstractSegmentWriter.EncodedSegment;
 import com.groupon.lex.metrics.history.xdr.support.writer.AbstractSegmentWriter.Writer;
 import com.groupon.lex.metrics.history.xdr.support.writer.Crc32AppendingFileWriter;
 import static com.groupon.lex.metrics.history.xdr.support.writer.Crc32AppendingFileWriter.CRC_LEN;
@@ -84,12 +88,12 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.OptionalInt;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntFunction;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import lombok.Getter;
@@ -110,12 +114,41 @@ import org.joda.time.DateTimeZone;
  * @author ariane
  */
 public class ToXdrTables implements Closeable {
-    private static final Logger LOG = Logger.getLogger(ToXdrTables.class.getName());
     private static final int HDR_SPACE = MIME_HEADER_LEN + HDR_3_LEN + CRC_LEN;
     private static final int MAX_BLOCK_RECORDS = 10000;
+    private static final int ENCODE_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    /**
+     * Thread pool on which segments are encoded and compressed.
+     *
+     * The queue is bounded, so encoding can't fall arbitrarily far behind the
+     * builders producing tables.  When it is full, the submitting thread
+     * encodes the segment itself.
+     */
+    private static final ExecutorService ENCODE_POOL = new ThreadPoolExecutor(ENCODE_CONCURRENCY, ENCODE_CONCURRENCY, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(4 * ENCODE_CONCURRENCY), (Runnable r) -> {
+        final Thread thr = new Thread(r);
+        thr.setName("ToXdrTables-encoder");
+        thr.setDaemon(true);
+        return thr;
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
 
     private final TmpFileBasedColumnMajorTSData.Builder tsdataBuilder = TmpFileBasedColumnMajorTSData.builder();
     private final Collection<ColumnMajorTSData> tsdataDirect = new ArrayList<>();
+    private final boolean packedMetrics;
+
+    public ToXdrTables() {
+        this(true);
+    }
+
+    /**
+     * Create a new table file writer.
+     *
+     * @param packedMetrics If set, metric tables are written using the packed
+     * encoding, which requires a reader supporting file version 2.1.
+     * Otherwise, the file is written using the 2.0 encoding.
+     */
+    public ToXdrTables(boolean packedMetrics) {
+        this.packedMetrics = packedMetrics;
+    }
 
     @Override
     public void close() throws IOException {
@@ -133,13 +166,49 @@ public class ToXdrTables implements Closeable {
             tsdataBuilder.with(tscCollection);
     }
 
+    /**
+     * Add data that has already been converted to column major form.
+     *
+     * This allows the (expensive) conversion to happen outside the writer,
+     * for example to decode multiple files in parallel.
+     *
+     * @param tsdata The column major data to add.
+     */
+    public void addColumnMajor(@NonNull ColumnMajorTSData tsdata) {
+        tsdataDirect.add(tsdata);
+    }
+
+    /**
+     * @return The number of bytes that were spilled to disk, while gathering
+     * the collections added to this writer.
+     */
+    public long getSpillBytes() {
+        return tsdataDirect.stream()
+                .filter(TmpFileBasedColumnMajorTSData.class::isInstance)
+                .map(TmpFileBasedColumnMajorTSData.class::cast)
+                .mapToLong(TmpFileBasedColumnMajorTSData::getSpillBytes)
+                .sum();
+    }
+
+    /**
+     * @return The number of spill files used to gather the collections added
+     * to this writer.
+     */
+    public int getSpillFiles() {
+        return tsdataDirect.stream()
+                .filter(TmpFileBasedColumnMajorTSData.class::isInstance)
+                .map(TmpFileBasedColumnMajorTSData.class::cast)
+                .mapToInt(TmpFileBasedColumnMajorTSData::getSpillFiles)
+                .sum();
+    }
+
     public DateTime build(FileChannel out, Compression compression) throws IOException {
         final tsfile_header header;
         final DateTime tsBegin, tsEnd;
 
         tsdataDirect.add(tsdataBuilder.build());
 
-        try (final Context ctx = new Context(out, HDR_SPACE, compression)) {
+        try (final Context ctx = new Context(out, HDR_SPACE, compression, packedMetrics)) {
             final List<TLongList> timestamps = partitionTimestamps(tsdataDirect.stream()
                     .map(ColumnMajorTSData::getTimestamps)
                     .flatMap(Collection::stream)
@@ -222,7 +291,7 @@ public class ToXdrTables implements Closeable {
                         return result;
                     });
 
-            header = deref(ctx.write(fdt)
+            header = FutureUtil.deref(ctx.write(fdt)
                     .thenApply(fileDataPos -> encodeHeader(fileDataPos, ctx.getFd().getOffset(), true, true, compression, tsBegin, tsEnd)));
         } catch (OncRpcException ex) {
             throw new IOException("encoding error", ex);
@@ -230,7 +299,7 @@ public class ToXdrTables implements Closeable {
 
         try (XdrEncodingFileWriter xdr = new XdrEncodingFileWriter(new Crc32AppendingFileWriter(new SizeVerifyingWriter(new FileChannelWriter(out, 0), HDR_SPACE), 0), HDR_SPACE)) {
             xdr.beginEncoding();
-            writeMimeHeader(xdr);
+            writeMimeHeader(xdr, MAJOR, (packedMetrics ? MINOR : (short) 0));
             header.xdrEncode(xdr);
             xdr.endEncoding();
         } catch (OncRpcException ex) {
@@ -477,7 +546,7 @@ public class ToXdrTables implements Closeable {
         }
 
         public CompletableFuture<tables_metric> build() {
-            return ctx.write(metricTable.encode())
+            return ctx.write(ctx.isPackedMetrics() ? metricTable.encodePacked() : metricTable.encode())
                     .thenApply(mtPos -> {
                         tables_metric result = new tables_metric();
                         result.metric_ref = metricRef;
@@ -564,6 +633,7 @@ public class ToXdrTables implements Closeable {
         hdr.flags = compression.compressionFlag
                 | (blocksAreDistinct ? header_flags.DISTINCT : 0)
                 | (blocksAreOrdered ? header_flags.SORTED : 0)
+                | (packedMetrics ? header_flags.PACKED_METRICS : 0)
                 | header_flags.KIND_TABLES;
         hdr.reserved = 0;
         hdr.file_size = fileSize;
@@ -571,25 +641,45 @@ public class ToXdrTables implements Closeable {
         return hdr;
     }
 
+    /**
+     * Write context.
+     *
+     * Segments are encoded and compressed on the {@link #ENCODE_POOL}, so
+     * multiple tables are encoded concurrently.  Only the actual file write
+     * is serialized, using a monitor.
+     */
     private static class Context implements AutoCloseable {
         @Getter
         private final ByteBuffer useBuffer;
         @Getter
         private final FileChannelWriter fd;
-        private final Monitor<XdrAble, FilePos> writer;
+        private final Compression compression;
+        private final Monitor<EncodedSegment, FilePos> writer;
+        @Getter
+        private final boolean packedMetrics;
 
-        public Context(FileChannel out, long fileOffset, Compression compression) {
+        public Context(FileChannel out, long fileOffset, Compression compression, boolean packedMetrics) {
+            this.packedMetrics = packedMetrics;
+            this.compression = compression;
             this.useBuffer = (compression == Compression.NONE ? ByteBuffer.allocate(65536) : ByteBuffer.allocateDirect(65536));
             this.fd = new FileChannelWriter(out, fileOffset);
             this.writer = new Monitor<>(new Writer(fd, compression, useBuffer, true)::write);
         }
 
         public CompletableFuture<FilePos> write(XdrAble data) {
-            return writer.enqueue(data);
+            final CompletableFuture<EncodedSegment> encoded = new CompletableFuture<>();
+            ENCODE_POOL.execute(() -> {
+                try {
+                    encoded.complete(Writer.encode(data, compression, true));
+                } catch (Exception | Error ex) {
+                    encoded.completeExceptionally(ex);
+                }
+            });
+            return writer.enqueueFuture(encoded);
         }
 
         public CompletableFuture<FilePos> write(CompletableFuture<? extends XdrAble> futureData) {
-            return writer.enqueueFuture(futureData);
+            return futureData.thenCompose(this::write);
         }
 
         @Override
@@ -605,28 +695,4 @@ public class ToXdrTables implements Closeable {
         private final MetricName metric;
         private final List<ColumnMajorTSData> tsdata;
     }
-
-    /**
-     * Dereference a future and if it failed, unwrap the exception.
-     */
-    private static <T> T deref(Future<T> future) throws IOException, OncRpcException {
-        for (;;) {
-            try {
-                return future.get();
-            } catch (InterruptedException ex) {
-                LOG.log(Level.WARNING, "interrupted while waiting for future", ex);
-            } catch (ExecutionException ex) {
-                Throwable cause = ex.getCause();
-                if (cause instanceof Error)
-                    throw (Error) cause;
-                if (cause instanceof RuntimeException)
-                    throw (RuntimeException) cause;
-                if (cause instanceof IOException)
-                    throw (IOException) cause;
-                if (cause instanceof OncRpcException)
-                    throw (OncRpcException) cause;
-                throw new IllegalStateException("unexpected exception type", ex);
-            }
-        }
-    }
 }
@@ -23,7 +23,7 @@ public class Const {
                                              's', 'o', 'o', 'n' };  // 12 chars
     public static final int MIME_HEADER_LEN = 16;  // Mime header is 16 bytes.
     public static final short MAJOR = 2;
-    public static final short MINOR = 0;
+    public static final short MINOR = 1;
 
     public static int version_from_majmin(short maj, short min) {
         if (maj < 0 || min < 0) throw new IllegalArgumentException("Java needs unsigned data types!");
@@ -5,6 +5,8 @@
  */
 package com.groupon.lex.metrics.history.xdr;
 
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.history.AbstractCollectHistory;
 import com.groupon.lex.metrics.history.xdr.TSDataFileChain.BatchAdd;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
@@ -13,9 +15,11 @@ import java.nio.file.Path;
 import java.util.Collection;
 import static java.util.Collections.unmodifiableCollection;
 import java.util.Comparator;
+import java.util.Map;
 import static java.util.Objects.requireNonNull;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import org.joda.time.Duration;
 
 /**
  *
@@ -23,6 +27,7 @@ import java.util.stream.Collectors;
  */
 public class DirCollectHistory extends AbstractCollectHistory<TSDataFileChain> {
     private Optional<Long> disk_usage_limit_ = Optional.empty();
+    private final Path dir_;
 
     private static TSDataFileChain scan_dir_(Path dir, Optional<Long> max_filesize) throws IOException {
         return TSDataFileChain.openDir(dir, max_filesize.orElse(TSDataFileChain.MAX_FILESIZE));
@@ -35,6 +40,7 @@ public class DirCollectHistory extends AbstractCollectHistory<TSDataFileChain> {
     public DirCollectHistory(Path dir, Optional<Long> disk_usage_limit, Optional<Long> max_filesize) throws IOException {
         super(scan_dir_(requireNonNull(dir), max_filesize.isPresent() ? max_filesize : disk_usage_limit.map(DirCollectHistory::automaticFileSizeBasedOnDiskUsage)));
         disk_usage_limit_ = requireNonNull(disk_usage_limit);
+        dir_ = dir;
     }
 
     public DirCollectHistory(Path dir) throws IOException {
@@ -49,6 +55,15 @@ public class DirCollectHistory extends AbstractCollectHistory<TSDataFileChain> {
         this(dir, Optional.of(disk_usage_limit), Optional.of(max_filesize));
     }
 
+    /**
+     * Checkpoints are stored in the history directory. The directory scan
+     * skips files that aren't history files.
+     */
+    @Override
+    public Optional<Path> getCheckpointDirectory() {
+        return Optional.of(dir_);
+    }
+
     public boolean hasPendingTasks() {
         return getTSData().hasPendingTasks();
     }
@@ -57,6 +72,57 @@ public class DirCollectHistory extends AbstractCollectHistory<TSDataFileChain> {
         getTSData().waitPendingTasks();
     }
 
+    /**
+     * Enable write-behind mode, in which scrapes are queued in memory and
+     * written to disk by a background thread.
+     *
+     * @param capacity The maximum number of queued scrapes.
+     * @param forceInterval Interval at which written data is forced to disk.
+     * Zero disables forcing.
+     * @throws IOException If scrapes queued previously could not be written.
+     */
+    public void enableWriteBehind(int capacity, Duration forceInterval) throws IOException {
+        getTSData().enableWriteBehind(capacity, forceInterval);
+    }
+
+    /**
+     * Disable write-behind mode, waiting for queued scrapes to be written.
+     *
+     * @throws IOException If the queued scrapes could not be written.
+     */
+    public void disableWriteBehind() throws IOException {
+        getTSData().disableWriteBehind();
+    }
+
+    /**
+     * Wait for all queued scrapes to be written.
+     *
+     * @throws IOException If the queued scrapes could not be written.
+     */
+    public void flushWriteBehind() throws IOException {
+        getTSData().flushWriteBehind();
+    }
+
+    /**
+     * Write all queued scrapes and force them to disk.
+     *
+     * Must be called before the process exits, if write-behind mode is
+     * enabled.
+     *
+     * @throws IOException If the queued scrapes could not be written.
+     */
+    public void close() throws IOException {
+        getTSData().close();
+    }
+
+    @Override
+    public Map<MetricName, MetricValue> getHistoryMetrics() {
+        final Map<MetricName, MetricValue> result = super.getHistoryMetrics();
+        result.put(MAPPED_BYTES, MetricValue.fromIntValue(getTSData().getMappedBytes()));
+        result.putAll(getTSData().getWriteBehindMetrics());
+        return result;
+    }
+
     protected Optional<TSDataFileChain.Key> selectOldestKey() {
         return getTSData().getKeys().stream()
                 .sorted(Comparator.comparing(TSDataFileChain.Key::getEnd))
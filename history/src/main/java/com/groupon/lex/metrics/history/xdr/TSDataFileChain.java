@@ -1,19 +1,28 @@
 package com.groupon.lex.metrics.history.xdr;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.history.TSData;
 import com.groupon.lex.metrics.history.v2.Compression;
 import com.groupon.lex.metrics.history.v2.list.RWListFile;
+import com.groupon.lex.metrics.history.v2.tables.ReadonlyTableFile;
 import com.groupon.lex.metrics.history.v2.xdr.Util;
 import com.groupon.lex.metrics.history.xdr.TSDataScanDir.MetaData;
 import com.groupon.lex.metrics.history.xdr.support.FileUtil;
+import com.groupon.lex.metrics.history.xdr.support.PrefetchIterator;
 import com.groupon.lex.metrics.history.xdr.support.SequenceTSData;
+import com.groupon.lex.metrics.history.xdr.support.WriteBehindJournal;
+import com.groupon.lex.metrics.history.xdr.support.reader.HeapSize;
 import com.groupon.lex.metrics.lib.GCCloseable;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
 import com.groupon.lex.metrics.lib.sequence.ObjectSequence;
+import com.groupon.lex.metrics.timeseries.ImmutableTimeSeriesValue;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
@@ -24,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -34,14 +44,26 @@ import java.util.Map;
 import static java.util.Objects.requireNonNull;
 import java.util.Optional;
 import java.util.Set;
+import static java.util.Spliterator.DISTINCT;
+import static java.util.Spliterator.IMMUTABLE;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterator.SORTED;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -50,6 +72,7 @@ import lombok.Value;
 import org.acplt.oncrpc.OncRpcException;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
 
 /**
  * A writeable TSDataFile, that uses multiple underlying files.
@@ -64,16 +87,39 @@ public class TSDataFileChain extends SequenceTSData {
     private final int max_filerecords_ = MAX_FILERECORDS;
     private List<Future<?>> pendingTasks = new ArrayList<>();
     private boolean optimizeOldFiles = false;
-    private static final LoadingCache<Key, SequenceTSData> FILES = CacheBuilder.newBuilder()
+    /**
+     * Maximum number of files kept open.
+     *
+     * Decoded file contents are kept in the BlockCache, so an open file
+     * only holds its index.  Files that are closed are dropped from the
+     * BlockCache.
+     */
+    public static final int MAX_OPEN_FILES = 256;
+    /**
+     * Default budget, in estimated heap bytes, of collections decoded ahead of
+     * the consumer, by the filtered stream methods.
+     */
+    public static final long DEFAULT_SCAN_READAHEAD_BYTES = 64L * 1024L * 1024L;
+    private static final int SCAN_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    private static final AtomicInteger SCAN_THR_IDX = new AtomicInteger();
+    private static final Executor SCAN_POOL = Executors.newFixedThreadPool(SCAN_CONCURRENCY, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thr = new Thread(r);
+            thr.setDaemon(true);
+            thr.setName("TSDataFileChain-scan-" + SCAN_THR_IDX.getAndIncrement());
+            return thr;
+        }
+    });
+    private static final Cache<Key, SequenceTSData> FILES = CacheBuilder.newBuilder()
             .concurrencyLevel(Runtime.getRuntime().availableProcessors())
             .weakKeys()
-            .softValues()
-            .build(new CacheLoader<Key, SequenceTSData>() {
-                @Override
-                public SequenceTSData load(Key key) throws IOException {
-                    return TSData.readonly(key.getFile());
-                }
-            });
+            .maximumSize(MAX_OPEN_FILES)
+            .removalListener((RemovalNotification<Key, SequenceTSData> notification) -> {
+                if (notification.getValue() instanceof ReadonlyTableFile)
+                    ((ReadonlyTableFile)notification.getValue()).invalidateBlockCache();
+            })
+            .build();
     private final Path dir_;
     private final Set<Key> readKeys = new HashSet<>();
     private Optional<AppendFile> appendFile = Optional.empty();
@@ -87,10 +133,35 @@ public class TSDataFileChain extends SequenceTSData {
     @Getter
     @Setter
     private volatile Compression optimizedCompression = Compression.DEFAULT_OPTIMIZED;
+    /**
+     * Budget, in estimated heap bytes, of collections decoded ahead of the
+     * consumer, by the filtered stream methods.
+     *
+     * Decoding happens on a shared pool, with a thread per processor.
+     * Set to 0 to decode on the consuming thread instead.
+     */
+    @Getter
+    @Setter
+    private volatile long scanReadaheadBytes = DEFAULT_SCAN_READAHEAD_BYTES;
+    /**
+     * Maximum size of optimized files that are memory mapped.
+     *
+     * Files larger than this size are read using the file channel.
+     * Only affects files opened after the change.
+     * Set to 0 to disable memory mapping.
+     */
+    @Getter
+    @Setter
+    private volatile long mmapMaxSize = ReadonlyTableFile.DEFAULT_MMAP_MAX_SIZE;
+    /**
+     * Write-behind journal. If present, added collections are queued and
+     * written to the append file in the background.
+     */
+    private volatile Optional<WriteBehindJournal> journal = Optional.empty();
 
-    private static SequenceTSData getFile(Key key) throws IOException {
+    private SequenceTSData getFile(Key key) throws IOException {
         try {
-            return FILES.get(key);
+            return FILES.get(key, () -> TSData.readonly(key.getFile(), mmapMaxSize));
         } catch (ExecutionException ex) {
             if (ex.getCause() instanceof IOException)
                 throw (IOException) ex.getCause();
@@ -263,6 +334,80 @@ public class TSDataFileChain extends SequenceTSData {
                 .toArray(ObjectSequence[]::new));
     }
 
+    @Override
+    public ObjectSequence<TimeSeriesCollection> getSequence(TimeSeriesMetricFilter filter) {
+        return Util.mergeSequences(getRawCollections().stream()
+                .map(tsdata -> tsdata.getSequence(filter))
+                .toArray(ObjectSequence[]::new));
+    }
+
+    /**
+     * Retrieve the sequence between the 'begin' and 'end' timestamps
+     * (inclusive).
+     *
+     * Only files that overlap the range are opened.
+     */
+    @Override
+    public ObjectSequence<TimeSeriesCollection> getSequence(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return Util.mergeSequences(getRawCollections(begin, end).stream()
+                .map(tsdata -> tsdata.getSequence(begin, end, filter))
+                .toArray(ObjectSequence[]::new));
+    }
+
+    /**
+     * Stream the sequence, decoding up to scanReadaheadBytes worth of
+     * collections ahead of the consumer.
+     *
+     * The sequence is iterated and decoded on the scan pool.  Collections are
+     * decoded in parallel, but emitted in chronological order.
+     * Closing the stream cancels decoding that has not started yet.
+     */
+    @Override
+    protected Stream<TimeSeriesCollection> streamSequence(ObjectSequence<TimeSeriesCollection> seq) {
+        final long readahead = scanReadaheadBytes;
+        if (readahead <= 0)
+            return seq.stream();
+
+        final PrefetchIterator<TimeSeriesCollection, TimeSeriesCollection> iter = new PrefetchIterator<>(seq.iterator(), TSDataFileChain::decode_, TSDataFileChain::estimateBytes_, SCAN_POOL, SCAN_CONCURRENCY, readahead);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED | DISTINCT | SORTED),
+                false)
+                .onClose(iter::close);
+    }
+
+    /**
+     * Decode all values in the collection.
+     */
+    private static TimeSeriesCollection decode_(TimeSeriesCollection tsc) {
+        return new SimpleTimeSeriesCollection(
+                tsc.getTimestamp(),
+                tsc.getTSValues().stream()
+                        .map(tsv -> new ImmutableTimeSeriesValue(tsv.getGroup(), tsv.getMetrics())));
+    }
+
+    /**
+     * Estimate the heap bytes of a decoded collection.
+     *
+     * Group and metric names are shared with the file tables, so only the
+     * values and the maps holding them are counted.
+     */
+    private static long estimateBytes_(TimeSeriesCollection tsc) {
+        return HeapSize.OBJECT + tsc.getTSValues().stream()
+                .mapToLong(tsv -> {
+                    final Map<MetricName, MetricValue> metrics = tsv.getMetrics();
+                    return HeapSize.align(HeapSize.OBJECT + 2 * HeapSize.REFERENCE)
+                            + HeapSize.MAP_ENTRY * metrics.size()
+                            + metrics.values().stream()
+                            .mapToLong(value -> {
+                                final String str = value.getStrValue();
+                                return HeapSize.align(HeapSize.OBJECT + 3 * 8 + 3 * HeapSize.REFERENCE)
+                                        + (str == null ? 0 : HeapSize.string(str));
+                            })
+                            .sum();
+                })
+                .sum();
+    }
+
     @Override
     public boolean canAddSingleRecord() {
         return true;
@@ -298,12 +443,36 @@ public class TSDataFileChain extends SequenceTSData {
         }
     }
 
+    /**
+     * Number of bytes memory mapped by the files of this chain.
+     *
+     * Only counts files that are currently open.
+     *
+     * @return The number of mapped bytes.
+     */
+    public long getMappedBytes() {
+        final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
+        lock.lock();
+        try {
+            return readKeys.stream()
+                    .map(FILES::getIfPresent)
+                    .filter(ReadonlyTableFile.class::isInstance)
+                    .mapToLong(tsdata -> ((ReadonlyTableFile)tsdata).getMappedBytes())
+                    .sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public DateTime getBegin() {
         final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
         lock.lock();
         try {
-            return Stream.concat(appendFile.map(fd -> fd.getTsdata().getBegin()).map(Stream::of).orElseGet(Stream::empty), readKeys.stream().map(Key::getBegin))
+            return Stream.concat(
+                    Stream.of(appendFile.map(fd -> fd.getTsdata().getBegin()), queuedCollections_().map(TSData::getBegin))
+                            .flatMap(opt -> opt.map(Stream::of).orElseGet(Stream::empty)),
+                    readKeys.stream().map(Key::getBegin))
                     .min(Comparator.naturalOrder())
                     .orElseGet(() -> new DateTime(0, DateTimeZone.UTC));
         } finally {
@@ -316,7 +485,10 @@ public class TSDataFileChain extends SequenceTSData {
         final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
         lock.lock();
         try {
-            return Stream.concat(appendFile.map(fd -> fd.getTsdata().getEnd()).map(Stream::of).orElseGet(Stream::empty), readKeys.stream().map(Key::getEnd))
+            return Stream.concat(
+                    Stream.of(appendFile.map(fd -> fd.getTsdata().getEnd()), queuedCollections_().map(TSData::getEnd))
+                            .flatMap(opt -> opt.map(Stream::of).orElseGet(Stream::empty)),
+                    readKeys.stream().map(Key::getEnd))
                     .max(Comparator.naturalOrder())
                     .orElseGet(() -> new DateTime(0, DateTimeZone.UTC));
         } finally {
@@ -340,7 +512,7 @@ public class TSDataFileChain extends SequenceTSData {
         final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
         lock.lock();
         try {
-            return appendFile.map(AppendFile::getTsdata).map(TSData::getMinor).orElse(Const.MINOR);
+            return appendFile.map(AppendFile::getTsdata).map(TSData::getMinor).orElse(RWListFile.FILE_MINOR);
         } finally {
             lock.unlock();
         }
@@ -381,6 +553,7 @@ public class TSDataFileChain extends SequenceTSData {
     private CompletableFuture<Void> optimize(Collection<TSData> tsdata, Collection<Key> erase) {
         final CompletableFuture<Void> task = new TSDataOptimizerTask(dir_, tsdata)
                 .withCompression(appendCompression)
+                .withMmapMaxSize(mmapMaxSize)
                 .run()
                 .thenAccept((newFile) -> {
                     final ReentrantReadWriteLock.WriteLock lock = guard.writeLock();
@@ -531,8 +704,135 @@ public class TSDataFileChain extends SequenceTSData {
         appendFile = Optional.of(newAppendFile);
     }
 
+    /**
+     * Enable write-behind mode.
+     *
+     * In write-behind mode, added collections are queued in memory and
+     * written to the append file by a background thread, in batches.
+     * Queued collections are visible to readers.
+     * Collections that are still queued are lost if the process terminates
+     * without calling {@link #close()}.
+     *
+     * @param capacity The maximum number of queued collections. If the queue
+     * is full, adding blocks until the writer catches up.
+     * @param forceInterval Interval at which the append file is forced to disk.
+     * Zero disables forcing.
+     * @throws IOException If the collections queued by a previous journal
+     * could not be written.
+     */
+    public void enableWriteBehind(int capacity, @NonNull Duration forceInterval) throws IOException {
+        final Optional<WriteBehindJournal> old = journal;
+        journal = Optional.of(new WriteBehindJournal(capacity, forceInterval, guard.writeLock(), new WriteBehindJournal.BatchWriter() {
+            @Override
+            public void write(List<TimeSeriesCollection> batch) throws IOException {
+                getAppendFileForWriting(batch.get(0).getTimestamp()).getTsdata().addAll(batch);
+            }
+
+            @Override
+            public Optional<GCCloseable<FileChannel>> getFileChannel() {
+                final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
+                lock.lock();
+                try {
+                    return appendFile.flatMap(fd -> fd.getTsdata().getFileChannel());
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }));
+        if (old.isPresent())
+            old.get().flush();
+    }
+
+    /**
+     * Disable write-behind mode.
+     *
+     * Waits until all queued collections have been written.
+     *
+     * @throws IOException If the queued collections could not be written.
+     * Write-behind mode stays enabled in that case.
+     */
+    public void disableWriteBehind() throws IOException {
+        final Optional<WriteBehindJournal> old = journal;
+        journal = Optional.empty();
+        if (old.isPresent()) {
+            try {
+                old.get().flush();
+            } catch (IOException ex) {
+                journal = old;  // Keep queued collections visible.
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Wait until all collections queued in write-behind mode have been
+     * written.
+     *
+     * @throws IOException If the queued collections could not be written.
+     */
+    public void flushWriteBehind() throws IOException {
+        final Optional<WriteBehindJournal> journal = this.journal;
+        if (journal.isPresent())
+            journal.get().flush();
+    }
+
+    /**
+     * Write all collections queued in write-behind mode and force the append
+     * file to disk.
+     *
+     * Must be called before the process exits, if write-behind mode is
+     * enabled.  The chain remains usable; write-behind mode is disabled.
+     *
+     * @throws IOException If the queued collections could not be written, or
+     * the append file could not be forced to disk.
+     */
+    public void close() throws IOException {
+        final Optional<WriteBehindJournal> old = journal;
+        journal = Optional.empty();
+        if (old.isPresent()) {
+            try {
+                old.get().close();
+            } catch (IOException ex) {
+                journal = old;  // Keep queued collections visible.
+                throw ex;
+            }
+        }
+
+        final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
+        lock.lock();
+        try {
+            final Optional<GCCloseable<FileChannel>> fd = appendFile.flatMap(f -> f.getTsdata().getFileChannel());
+            if (fd.isPresent())
+                fd.get().get().force(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve write-behind statistics.
+     *
+     * @return Metrics describing the write-behind journal, or an empty map if
+     * write-behind mode is disabled.
+     */
+    public Map<MetricName, MetricValue> getWriteBehindMetrics() {
+        return journal
+                .map(WriteBehindJournal::getMetrics)
+                .orElseGet(HashMap::new);
+    }
+
     @Override
     public boolean add(@NonNull TimeSeriesCollection e) {
+        final Optional<WriteBehindJournal> journal = this.journal;
+        if (journal.isPresent()) {
+            try {
+                journal.get().addAll(singletonList(e));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return true;
+        }
+
         final ReentrantReadWriteLock.WriteLock lock = guard.writeLock();
         lock.lock();
         try {
@@ -549,6 +849,16 @@ public class TSDataFileChain extends SequenceTSData {
         if (e.isEmpty())
             return false;
 
+        final Optional<WriteBehindJournal> journal = this.journal;
+        if (journal.isPresent()) {
+            try {
+                journal.get().addAll(e);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return true;
+        }
+
         final ReentrantReadWriteLock.WriteLock lock = guard.writeLock();
         lock.lock();
         try {
@@ -592,10 +902,26 @@ public class TSDataFileChain extends SequenceTSData {
     }
 
     public Collection<SequenceTSData> getRawCollections() {
+        return rawCollections_(key -> true);
+    }
+
+    /**
+     * Retrieve the files that may hold collections between the 'begin' and
+     * 'end' timestamps (inclusive).
+     *
+     * Files that are known to lie outside the range are not opened.
+     * The append file is always included.
+     */
+    public Collection<SequenceTSData> getRawCollections(@NonNull DateTime begin, @NonNull DateTime end) {
+        return rawCollections_(key -> !key.getEnd().isBefore(begin) && !key.getBegin().isAfter(end));
+    }
+
+    private Collection<SequenceTSData> rawCollections_(Predicate<? super Key> keyFilter) {
         final ReentrantReadWriteLock.ReadLock lock = guard.readLock();
         lock.lock();
         try {
             Stream<SequenceTSData> readSequences = readKeys.stream()
+                    .filter(keyFilter)
                     .flatMap(key -> {
                         try {
                             return Stream.of(getFile(key));
@@ -604,10 +930,9 @@ public class TSDataFileChain extends SequenceTSData {
                             return Stream.empty();
                         }
                     });
-            Stream<RWListFile> appendSequences = appendFile
-                    .map(AppendFile::getTsdata)
-                    .map(Stream::of)
-                    .orElseGet(Stream::empty);
+            Stream<SequenceTSData> appendSequences = Stream.concat(
+                    appendFile.map(AppendFile::getTsdata).map(Stream::<SequenceTSData>of).orElseGet(Stream::empty),
+                    queuedCollections_().map(Stream::of).orElseGet(Stream::empty));
 
             return Stream.concat(readSequences, appendSequences)
                     .parallel()
@@ -618,6 +943,19 @@ public class TSDataFileChain extends SequenceTSData {
         }
     }
 
+    /**
+     * Snapshot of collections in the write-behind journal that have not yet
+     * been written.
+     *
+     * Must be invoked with the guard held, so that collections don't move
+     * from the journal to the append file during the call.
+     */
+    private Optional<SequenceTSData> queuedCollections_() {
+        return journal
+                .map(WriteBehindJournal::snapshot)
+                .filter(queued -> !queued.isEmpty());
+    }
+
     @Override
     public Optional<GCCloseable<FileChannel>> getFileChannel() {
         return Optional.empty();
@@ -1,26 +1,38 @@
 package com.groupon.lex.metrics.history.xdr;
 
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.history.TSData;
 import com.groupon.lex.metrics.history.TSDataVersionDispatch.Releaseable;
 import com.groupon.lex.metrics.history.v2.Compression;
 import com.groupon.lex.metrics.history.v2.tables.ReadonlyTableFile;
 import com.groupon.lex.metrics.history.v2.tables.ToXdrTables;
 import com.groupon.lex.metrics.history.xdr.support.FileUtil;
+import com.groupon.lex.metrics.history.xdr.support.FutureUtil;
+import com.groupon.lex.metrics.history.xdr.support.TmpFileBasedColumnMajorTSData;
 import com.groupon.lex.metrics.lib.GCCloseable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import lombok.Getter;
@@ -39,24 +51,59 @@ public class TSDataOptimizerTask {
     private static final Logger LOG = Logger.getLogger(TSDataOptimizerTask.class.getName());
     private static final AtomicInteger TASK_POOL_IDX = new AtomicInteger();
     private static final AtomicInteger INSTALL_POOL_IDX = new AtomicInteger();
+    private static final AtomicInteger DECODE_POOL_IDX = new AtomicInteger();
+    private static final int DEFAULT_DECODE_CONCURRENCY = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final MetricName QUEUE_DEPTH = MetricName.valueOf("optimizer", "queue_depth");
+    public static final MetricName ACTIVE_TASKS = MetricName.valueOf("optimizer", "active_tasks");
+    public static final MetricName COMPLETED_TASKS = MetricName.valueOf("optimizer", "completed_tasks");
+    public static final MetricName FAILED_TASKS = MetricName.valueOf("optimizer", "failed_tasks");
+    public static final MetricName OPTIMIZED_FILES = MetricName.valueOf("optimizer", "optimized_files");
+    public static final MetricName TASK_TIME = MetricName.valueOf("optimizer", "task_time");
+    public static final MetricName SPILL_BYTES = MetricName.valueOf("optimizer", "spill_bytes");
+    private static final AtomicLong STAT_COMPLETED_TASKS = new AtomicLong();
+    private static final AtomicLong STAT_FAILED_TASKS = new AtomicLong();
+    private static final AtomicLong STAT_OPTIMIZED_FILES = new AtomicLong();
+    private static final AtomicLong STAT_TASK_MILLIS = new AtomicLong();
+    private static final AtomicLong STAT_SPILL_BYTES = new AtomicLong();
 
     /**
      * The task pool handles the creation of temporary files containing all
      * data. The task is highly CPU bound (especially the gathering of data
-     * stage in ToXdrTables). Limiting it to 1 thread ensures the tasks don't
-     * overwhelm the ForkJoinPool and the limit of 1 thread means multiple
+     * stage in ToXdrTables). By default, it is limited to 1 thread, which
+     * ensures the tasks don't overwhelm the ForkJoinPool and means multiple
      * compression actions will be queued one-after-the-other.
      *
-     * The task itself mainly uses the ForkJoinPool, so this thread spends most
-     * of the time waiting for work to complete (or new work to come in).
+     * The number of concurrent tasks can be changed using
+     * {@link #setTaskConcurrency(int)}.
+     *
+     * The task itself mainly uses the ForkJoinPool and the decode pool, so this
+     * thread spends most of the time waiting for work to complete (or new work
+     * to come in).
      */
-    private static final ExecutorService TASK_POOL = Executors.newFixedThreadPool(1, (Runnable r) -> {
+    private static final ThreadPoolExecutor TASK_POOL = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), (Runnable r) -> {
         Thread thr = new Thread(r);
         thr.setDaemon(true);
         thr.setName("TSDataOptimizerTask-TaskPool-" + TASK_POOL_IDX.incrementAndGet());
         return thr;
     });
 
+    /**
+     * The decode pool converts input files to column major form. The input
+     * files of a task are split into one run of consecutive files per decoder
+     * thread, so the runs are decoded in parallel. Each run is decoded into a
+     * single builder, which limits the number of spill files to the number of
+     * decoder threads.
+     *
+     * The number of threads can be changed using
+     * {@link #setDecodeConcurrency(int)}.
+     */
+    private static final ThreadPoolExecutor DECODE_POOL = new ThreadPoolExecutor(DEFAULT_DECODE_CONCURRENCY, DEFAULT_DECODE_CONCURRENCY, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), (Runnable r) -> {
+        Thread thr = new Thread(r);
+        thr.setDaemon(true);
+        thr.setName("TSDataOptimizerTask-DecodePool-" + DECODE_POOL_IDX.incrementAndGet());
+        return thr;
+    });
+
     /**
      * The install pool handles the file installation part of creating a new
      * tables file. It is IO bound, simply copying from a temporary file to the
@@ -93,6 +140,13 @@ public class TSDataOptimizerTask {
     @Setter
     private Compression compression = Compression.DEFAULT_OPTIMIZED;
 
+    /**
+     * Maximum size, in bytes, of the optimized file for it to be memory mapped.
+     */
+    @Getter
+    @Setter
+    private long mmapMaxSize = ReadonlyTableFile.DEFAULT_MMAP_MAX_SIZE;
+
     /**
      * List of files to add to the generated tables file.
      */
@@ -108,6 +162,7 @@ public class TSDataOptimizerTask {
                 }
                 INSTALL_POOL.shutdown();
                 TASK_POOL.shutdown();
+                DECODE_POOL.shutdown();
                 if (!INSTALL_POOL.awaitTermination(30, TimeUnit.SECONDS))
                     LOG.log(Level.WARNING, "Install pool did not shut down after 30 seconds.");
             } catch (InterruptedException ex) {
@@ -116,6 +171,74 @@ public class TSDataOptimizerTask {
         }));
     }
 
+    /**
+     * @return The number of optimizer tasks that may run concurrently.
+     */
+    public static int getTaskConcurrency() {
+        return TASK_POOL.getMaximumPoolSize();
+    }
+
+    /**
+     * Change the number of optimizer tasks that may run concurrently.
+     *
+     * Installation of a finished file always runs separately, so it overlaps
+     * with the next task regardless of this setting.
+     *
+     * @param n The number of concurrent optimizer tasks.
+     */
+    public static synchronized void setTaskConcurrency(int n) {
+        setPoolSize(TASK_POOL, n);
+    }
+
+    /**
+     * @return The number of threads used to decode input files.
+     */
+    public static int getDecodeConcurrency() {
+        return DECODE_POOL.getMaximumPoolSize();
+    }
+
+    /**
+     * Change the number of threads used to decode input files.
+     *
+     * @param n The number of decoder threads.
+     */
+    public static synchronized void setDecodeConcurrency(int n) {
+        setPoolSize(DECODE_POOL, n);
+    }
+
+    private static void setPoolSize(ThreadPoolExecutor pool, int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        // Order matters: the core size may never exceed the maximum size.
+        if (n > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(n);
+            pool.setCorePoolSize(n);
+        } else {
+            pool.setCorePoolSize(n);
+            pool.setMaximumPoolSize(n);
+        }
+    }
+
+    /**
+     * Retrieve optimizer statistics.
+     *
+     * @return A map of metrics describing the optimizer throughput and
+     * backlog.
+     */
+    public static Map<MetricName, MetricValue> getMetrics() {
+        final Map<MetricName, MetricValue> result = new HashMap<>();
+        synchronized (OUTSTANDING) {
+            result.put(QUEUE_DEPTH, MetricValue.fromIntValue(OUTSTANDING.size()));
+        }
+        result.put(ACTIVE_TASKS, MetricValue.fromIntValue(TASK_POOL.getActiveCount()));
+        result.put(COMPLETED_TASKS, MetricValue.fromIntValue(STAT_COMPLETED_TASKS.get()));
+        result.put(FAILED_TASKS, MetricValue.fromIntValue(STAT_FAILED_TASKS.get()));
+        result.put(OPTIMIZED_FILES, MetricValue.fromIntValue(STAT_OPTIMIZED_FILES.get()));
+        result.put(TASK_TIME, MetricValue.fromIntValue(STAT_TASK_MILLIS.get()));
+        result.put(SPILL_BYTES, MetricValue.fromIntValue(STAT_SPILL_BYTES.get()));
+        return result;
+    }
+
     /**
      * Create a new optimizer task and fill it with the given files.
      *
@@ -177,6 +300,18 @@ public class TSDataOptimizerTask {
         return this;
     }
 
+    /**
+     * Use the specified maximum size for memory mapping the optimized file.
+     *
+     * @param mmapMaxSize The maximum size, in bytes, of the optimized file for
+     * it to be memory mapped.
+     * @return this TSDataOptimizerTask.
+     */
+    public TSDataOptimizerTask withMmapMaxSize(long mmapMaxSize) {
+        setMmapMaxSize(mmapMaxSize);
+        return this;
+    }
+
     /**
      * Start creating the optimized file. This operation resets the state of the
      * optimizer task, so it can be re-used for subsequent invocations.
@@ -187,7 +322,7 @@ public class TSDataOptimizerTask {
         LOG.log(Level.FINE, "starting optimized file creation for {0} files", files.size());
         CompletableFuture<NewFile> fileCreation = new CompletableFuture<>();
         final List<TSData> fjpFiles = this.files;  // We clear out files below, which makes createTmpFile see an empty map if we don't use a separate variable.
-        TASK_POOL.execute(() -> createTmpFile(fileCreation, destDir, fjpFiles, getCompression()));
+        TASK_POOL.execute(() -> createTmpFile(fileCreation, destDir, fjpFiles, getCompression(), getMmapMaxSize()));
         synchronized (OUTSTANDING) {
             OUTSTANDING.add(fileCreation);
         }
@@ -205,9 +340,14 @@ public class TSDataOptimizerTask {
      * @param destDir the destination directory for the result; also used for
      * temporary file creation.
      * @param files the list of files that make up the resulting file.
+     * @param compression the compression to apply to the resulting file.
+     * @param mmapMaxSize the maximum size of the resulting file for it to be
+     * memory mapped.
      */
-    private static void createTmpFile(CompletableFuture<NewFile> fileCreation, Path destDir, List<TSData> files, Compression compression) {
+    private static void createTmpFile(CompletableFuture<NewFile> fileCreation, Path destDir, List<TSData> files, Compression compression, long mmapMaxSize) {
         LOG.log(Level.FINE, "starting temporary file creation...");
+        final long startNanos = System.nanoTime();
+        final int fileCount = files.size();
 
         try {
             Collections.sort(files, Comparator.comparing(TSData::getBegin));
@@ -216,24 +356,49 @@ public class TSDataOptimizerTask {
             try {
                 final DateTime begin;
                 try (ToXdrTables output = new ToXdrTables()) {
+                    // Files that are already in column major form don't need decoding.
+                    final List<TSData> rowMajor = new ArrayList<>(files.size());
                     while (!files.isEmpty()) {
-                        TSData tsdata = files.remove(0);
-                        if (fileCreation.isCancelled())
-                            throw new IOException("aborted due to canceled execution");
-                        output.addAll(tsdata);  // Takes a long time.
+                        final TSData tsdata = files.remove(0);
+                        if (tsdata instanceof ColumnMajorTSData)
+                            output.addColumnMajor((ColumnMajorTSData) tsdata);
+                        else
+                            rowMajor.add(tsdata);
+                    }
+
+                    // Decode runs of consecutive files in parallel.
+                    final List<Future<ColumnMajorTSData>> decoded = new ArrayList<>();
+                    for (List<TSData> run : splitRuns(rowMajor, getDecodeConcurrency()))
+                        decoded.add(DECODE_POOL.submit(() -> decodeRun(run)));
+
+                    try {
+                        for (Future<ColumnMajorTSData> columnMajor : decoded) {
+                            if (fileCreation.isCancelled())
+                                throw new IOException("aborted due to canceled execution");
+                            output.addColumnMajor(FutureUtil.deref(columnMajor));  // Takes a long time.
+                        }
+                    } finally {
+                        decoded.forEach(columnMajor -> columnMajor.cancel(true));
                     }
 
                     if (fileCreation.isCancelled())
                         throw new IOException("aborted due to canceled execution");
                     begin = output.build(fd, compression); // Writing output takes a lot of time.
+
+                    final long taskMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    STAT_OPTIMIZED_FILES.addAndGet(fileCount);
+                    STAT_TASK_MILLIS.addAndGet(taskMillis);
+                    STAT_SPILL_BYTES.addAndGet(output.getSpillBytes());
+                    LOG.log(Level.INFO, "optimized {0} files in {1} ms (spilled {2} MB using {3} spill files)",
+                            new Object[]{fileCount, taskMillis, output.getSpillBytes() / 1024.0 / 1024.0, output.getSpillFiles()});
                 }
 
                 if (fileCreation.isCancelled()) // Recheck after closing output.
                     throw new IOException("aborted due to canceled execution");
 
                 // Forward the temporary file to the installation, which will complete the operation.
-                INSTALL_POOL.execute(() -> install(fileCreation, destDir, fd, begin));
-            } catch (Error | RuntimeException | IOException ex) {
+                INSTALL_POOL.execute(() -> install(fileCreation, destDir, fd, begin, mmapMaxSize));
+            } catch (Error | RuntimeException | IOException | OncRpcException ex) {
                 try {
                     fd.close();
                 } catch (Error | RuntimeException | IOException ex1) {
@@ -241,8 +406,9 @@ public class TSDataOptimizerTask {
                 }
                 throw ex;
             }
-        } catch (Error | RuntimeException | IOException ex) {
+        } catch (Error | RuntimeException | IOException | OncRpcException ex) {
             LOG.log(Level.WARNING, "temporary file for optimization failure", ex);
+            STAT_FAILED_TASKS.incrementAndGet();
             synchronized (OUTSTANDING) {
                 OUTSTANDING.remove(fileCreation);
             }
@@ -263,8 +429,10 @@ public class TSDataOptimizerTask {
      * by this function.
      * @param begin a timestamp indicating where this file begins; used to
      * generate a pretty file name.
+     * @param mmapMaxSize the maximum size of the resulting file for it to be
+     * memory mapped.
      */
-    private static void install(CompletableFuture<NewFile> fileCreation, Path destDir, FileChannel tmpFile, DateTime begin) {
+    private static void install(CompletableFuture<NewFile> fileCreation, Path destDir, FileChannel tmpFile, DateTime begin, long mmapMaxSize) {
         try {
             try {
                 synchronized (OUTSTANDING) {
@@ -285,7 +453,8 @@ public class TSDataOptimizerTask {
                     out.get().force(true);  // Ensure new file is safely written to permanent storage.
 
                     // Complete future with newly created file.
-                    fileCreation.complete(new NewFile(newFile.getFileName(), new ReadonlyTableFile(new GCCloseable<>(out.release()))));
+                    STAT_COMPLETED_TASKS.incrementAndGet();
+                    fileCreation.complete(new NewFile(newFile.getFileName(), new ReadonlyTableFile(new GCCloseable<>(out.release()), mmapMaxSize)));
                 } catch (Error | RuntimeException | IOException | OncRpcException ex) {
                     // Ensure new file gets destroyed if an error occurs during copying.
                     try {
@@ -301,10 +470,43 @@ public class TSDataOptimizerTask {
             }
         } catch (Error | RuntimeException | IOException | OncRpcException ex) {
             LOG.log(Level.WARNING, "unable to install new file", ex);
+            STAT_FAILED_TASKS.incrementAndGet();
             fileCreation.completeExceptionally(ex);  // Propagate error to future.
         }
     }
 
+    /**
+     * Split files into at most n runs of consecutive files, of about equal
+     * length.
+     *
+     * @param files the files to split.
+     * @param n the maximum number of runs.
+     * @return a list of runs, none of which is empty.
+     */
+    private static List<List<TSData>> splitRuns(List<TSData> files, int n) {
+        final int runs = Math.min(n, files.size());
+        final List<List<TSData>> result = new ArrayList<>(runs);
+        for (int i = 0; i < runs; ++i)
+            result.add(files.subList(i * files.size() / runs, (i + 1) * files.size() / runs));
+        return result;
+    }
+
+    /**
+     * Decode a run of files into a single column major collection.
+     *
+     * @param run the files to decode.
+     * @return the column major form of all files in the run.
+     */
+    private static ColumnMajorTSData decodeRun(List<TSData> run) throws IOException {
+        final TmpFileBasedColumnMajorTSData.Builder builder = TmpFileBasedColumnMajorTSData.builder();
+        for (TSData tsdata : run) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("decoding canceled");
+            builder.with(tsdata);
+        }
+        return builder.build();
+    }
+
     /**
      * Compute a prefix for a to-be-installed file.
      *
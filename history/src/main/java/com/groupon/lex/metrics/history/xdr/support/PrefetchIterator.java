@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Iterator that applies a function to the elements of another iterator, ahead
+ * of the consumer.
+ *
+ * Both the underlying iterator and the function run on the executor: the
+ * underlying iterator one element at a time, the function for up to
+ * 'parallelism' elements at once.  Elements are emitted in the order of the
+ * underlying iterator.
+ *
+ * Read-ahead stops once the computed, but not yet consumed, elements weigh
+ * 'maxBytes' or more.  At least one element is always computed ahead, so
+ * elements larger than the budget are still emitted.
+ *
+ * The underlying iterator may not yield null elements.
+ *
+ * Closing the iterator cancels computations that have not started yet.
+ *
+ * @author ariane
+ * @param <T> The element type of the underlying iterator.
+ * @param <U> The element type of this iterator.
+ */
+public class PrefetchIterator<T, U> implements Iterator<U>, AutoCloseable {
+    private final Iterator<? extends T> iter;
+    private final Function<? super T, ? extends U> fn;
+    private final ToLongFunction<? super U> weigher;
+    private final Executor executor;
+    private final int parallelism;
+    private final long maxBytes;
+    private final Deque<Step<T, U>> pending = new ArrayDeque<>();
+    private CompletableFuture<Optional<T>> lastPull = CompletableFuture.completedFuture(null);
+    /** Number of steps whose function has not completed. */
+    private int running = 0;
+    /** Weight of the elements that are computed, but not yet consumed. */
+    private long bufferedBytes = 0;
+    private volatile boolean exhausted = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a prefetching iterator.
+     *
+     * @param iter The underlying iterator.
+     * @param fn The function applied to each element.
+     * @param weigher Estimates the size, in bytes, of a computed element.
+     * @param executor The executor on which the iterator and function run.
+     * @param parallelism Max number of elements computed at the same time.
+     * @param maxBytes The budget for elements that are computed ahead.
+     */
+    public PrefetchIterator(@NonNull Iterator<? extends T> iter, @NonNull Function<? super T, ? extends U> fn, @NonNull ToLongFunction<? super U> weigher, @NonNull Executor executor, int parallelism, long maxBytes) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("negative byte budget");
+        this.iter = iter;
+        this.fn = fn;
+        this.weigher = weigher;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean hasNext() {
+        final Step<T, U> head = head_();
+        return head != null && join_(head.pulled).isPresent();
+    }
+
+    @Override
+    public U next() {
+        final Step<T, U> head = head_();
+        if (head == null || !join_(head.pulled).isPresent())
+            throw new NoSuchElementException();
+
+        final Element<U> element;
+        try {
+            element = join_(head.result);
+        } finally {
+            synchronized (this) {
+                if (pending.peekFirst() == head)
+                    pending.removeFirst();
+            }
+        }
+
+        if (element == null)
+            throw new NoSuchElementException();  // Closed while waiting.
+        synchronized (this) {
+            bufferedBytes -= element.weight;
+            fill_();
+        }
+        return element.value;
+    }
+
+    /**
+     * Cancel all pending computations.
+     *
+     * The iterator yields no more elements after it is closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        pending.forEach(step -> step.result.cancel(false));
+        pending.clear();
+    }
+
+    private synchronized Step<T, U> head_() {
+        fill_();
+        return pending.peekFirst();
+    }
+
+    /**
+     * Start computing elements, until the budget is used up or the underlying
+     * iterator is exhausted.
+     *
+     * Must be called with the monitor held.
+     */
+    private void fill_() {
+        while (!closed && !exhausted && running < parallelism && (bufferedBytes < maxBytes || pending.isEmpty())) {
+            final CompletableFuture<Optional<T>> pulled = lastPull.thenApplyAsync(ignored -> pull_(), executor);
+            final CompletableFuture<Element<U>> result = pulled.handleAsync(this::apply_, executor);
+            lastPull = pulled;
+            ++running;
+            pending.addLast(new Step<>(pulled, result));
+        }
+    }
+
+    /**
+     * Retrieve the next element of the underlying iterator.
+     *
+     * Pulls are chained, so the underlying iterator is only used by one
+     * thread at a time.
+     */
+    private Optional<T> pull_() {
+        if (closed || exhausted || !iter.hasNext()) {
+            exhausted = true;
+            return Optional.empty();
+        }
+        return Optional.of(iter.next());
+    }
+
+    /**
+     * Compute the element and account for its weight.
+     */
+    private Element<U> apply_(Optional<T> next, Throwable exc) {
+        long weight = 0;
+        try {
+            if (exc != null)
+                throw (exc instanceof CompletionException ? (CompletionException) exc : new CompletionException(exc));
+            if (!next.isPresent() || closed)
+                return null;
+
+            final U value = fn.apply(next.get());
+            weight = weigher.applyAsLong(value);
+            return new Element<>(value, weight);
+        } finally {
+            synchronized (this) {
+                --running;
+                bufferedBytes += weight;
+                fill_();
+            }
+        }
+    }
+
+    private static <X> X join_(CompletableFuture<X> fut) {
+        try {
+            return fut.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            if (ex.getCause() instanceof Error)
+                throw (Error) ex.getCause();
+            throw ex;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Step<T, U> {
+        private final CompletableFuture<Optional<T>> pulled;
+        private final CompletableFuture<Element<U>> result;
+    }
+
+    @RequiredArgsConstructor
+    private static class Element<U> {
+        private final U value;
+        private final long weight;
+    }
+}
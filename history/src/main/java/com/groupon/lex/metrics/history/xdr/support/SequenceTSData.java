@@ -7,6 +7,7 @@ import com.groupon.lex.metrics.lib.sequence.EqualRange;
 import com.groupon.lex.metrics.lib.sequence.ForwardSequence;
 import com.groupon.lex.metrics.lib.sequence.ObjectSequence;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -24,6 +25,19 @@ import org.joda.time.DateTime;
 public abstract class SequenceTSData implements TSData {
     public abstract ObjectSequence<TimeSeriesCollection> getSequence();
 
+    /**
+     * Retrieve the sequence, restricted to the groups and metrics selected by
+     * the filter.
+     *
+     * The default implementation ignores the filter.
+     *
+     * @param filter The filter selecting groups and metrics.
+     * @return A sequence of time series collections.
+     */
+    public ObjectSequence<TimeSeriesCollection> getSequence(TimeSeriesMetricFilter filter) {
+        return getSequence();
+    }
+
     @Override
     public Iterator<TimeSeriesCollection> iterator() {
         return getSequence().iterator();
@@ -71,23 +85,79 @@ public abstract class SequenceTSData implements TSData {
         return getSequence().toArray(a);
     }
 
+    @Override
+    public Stream<TimeSeriesCollection> stream(TimeSeriesMetricFilter filter) {
+        return streamSequence(getSequence(filter));
+    }
+
     @Override
     public Stream<TimeSeriesCollection> stream(DateTime begin) {
-        if (getEnd().isBefore(begin))
+        final DateTime end = getEnd();
+        if (end.isBefore(begin))
             return ObjectSequence.<TimeSeriesCollection>empty().stream();
+        return getSequence(begin, end, TimeSeriesMetricFilter.ALL_GROUPS).stream();
+    }
 
-        ObjectSequence<TimeSeriesCollection> seq = getSequence();
-        if (getBegin().isBefore(begin))
-            seq = seq.skip(seq.equalRange((tsc) -> tsc.getTimestamp().compareTo(begin)).getBegin());
-        return seq.stream();
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, TimeSeriesMetricFilter filter) {
+        final DateTime end = getEnd();
+        if (end.isBefore(begin))
+            return ObjectSequence.<TimeSeriesCollection>empty().stream();
+        return streamSequence(getSequence(begin, end, filter));
     }
 
     @Override
     public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end) {
         if (getEnd().isBefore(begin) || getBegin().isAfter(end))
             return ObjectSequence.<TimeSeriesCollection>empty().stream();
+        return getSequence(begin, end, TimeSeriesMetricFilter.ALL_GROUPS).stream();
+    }
 
-        ObjectSequence<TimeSeriesCollection> seq = getSequence();
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        if (getEnd().isBefore(begin) || getBegin().isAfter(end))
+            return ObjectSequence.<TimeSeriesCollection>empty().stream();
+        return streamSequence(getSequence(begin, end, filter));
+    }
+
+    /**
+     * Create a stream of a sequence, for the filtered stream methods.
+     *
+     * The filtered stream methods are used to evaluate expressions, where the
+     * consumer will read all selected metrics of each collection.
+     * Implementations may override this to decode collections ahead of the
+     * consumer.
+     *
+     * @param seq The sequence to stream.
+     * @return A stream, iterating the sequence in order.
+     */
+    protected Stream<TimeSeriesCollection> streamSequence(ObjectSequence<TimeSeriesCollection> seq) {
+        return seq.stream();
+    }
+
+    /**
+     * Retrieve the sequence between the 'begin' and 'end' timestamps
+     * (inclusive), restricted to the groups and metrics selected by the
+     * filter.
+     *
+     * The default implementation performs a binary search on the filtered
+     * sequence.  Implementations that can skip data outside the range without
+     * decoding it, should override this method.
+     *
+     * @param begin The timestamp of the first collection (inclusive).
+     * @param end The timestamp of the last collection (inclusive).
+     * @param filter The filter selecting groups and metrics.
+     * @return A sequence of time series collections within the range.
+     */
+    public ObjectSequence<TimeSeriesCollection> getSequence(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return selectRange(getSequence(filter), begin, end);
+    }
+
+    /**
+     * Select the range of collections between the 'begin' and 'end'
+     * timestamps (inclusive) from a sorted sequence.
+     */
+    protected static ObjectSequence<TimeSeriesCollection> selectRange(ObjectSequence<TimeSeriesCollection> seq, DateTime begin, DateTime end) {
         EqualRange range = seq.equalRange((tsc) -> {
             if (tsc.getTimestamp().isBefore(begin))
                 return -1;
@@ -97,8 +167,7 @@ public abstract class SequenceTSData implements TSData {
         });
         return seq
                 .limit(range.getEnd())
-                .skip(range.getBegin())
-                .stream();
+                .skip(range.getBegin());
     }
 
     @Override
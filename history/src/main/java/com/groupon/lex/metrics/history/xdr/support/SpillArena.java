@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.NonNull;
+
+/**
+ * An append-only temporary file, shared by many writers.
+ *
+ * Writers append chunks of data and are handed the position of each chunk,
+ * which they use to read the chunk back later.
+ * Appends may be done concurrently; each append reserves its own range in the
+ * file, so chunks never interleave.
+ *
+ * The file is deleted when the arena is closed.
+ *
+ * @author ariane
+ */
+public class SpillArena implements Closeable {
+    private final FileChannel fd;
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicInteger chunks = new AtomicInteger(0);
+
+    public SpillArena(@NonNull Path dir) throws IOException {
+        this.fd = FileUtil.createTempFile(dir, "monsoon", ".spill");
+    }
+
+    public SpillArena() throws IOException {
+        this.fd = FileUtil.createTempFile("monsoon", ".spill");
+    }
+
+    /**
+     * Append a chunk of data to the arena.
+     *
+     * @param data The data to write. All remaining bytes are written.
+     * @return The position of the chunk in the arena.
+     * @throws IOException if the write fails.
+     */
+    public FilePos append(@NonNull ByteBuffer data) throws IOException {
+        final long len = data.remaining();
+        final long offset = size.getAndAdd(len);
+        long pos = offset;
+        while (data.hasRemaining())
+            pos += fd.write(data, pos);
+        chunks.incrementAndGet();
+        return new FilePos(offset, len);
+    }
+
+    /**
+     * Read back a chunk of data.
+     *
+     * @param pos The position of the chunk, as returned by
+     * {@link #append(java.nio.ByteBuffer) append}.
+     * @return A buffer holding the chunk, positioned at its start.
+     * @throws IOException if the read fails.
+     */
+    public ByteBuffer read(@NonNull FilePos pos) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(Math.toIntExact(pos.getLen()));
+        long offset = pos.getOffset();
+        while (buf.hasRemaining()) {
+            final int rlen = fd.read(buf, offset);
+            if (rlen == -1)
+                throw new EOFException("spill arena truncated");
+            offset += rlen;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return The number of bytes appended to this arena.
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return The number of chunks appended to this arena.
+     */
+    public int getChunkCount() {
+        return chunks.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fd.close();
+    }
+}
@@ -4,7 +4,6 @@ import com.google.common.collect.Iterators;
 import com.groupon.lex.metrics.GroupName;
 import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.MetricValue;
-import com.groupon.lex.metrics.history.v2.Compression;
 import com.groupon.lex.metrics.history.v2.DictionaryForWrite;
 import com.groupon.lex.metrics.history.v2.tables.DictionaryDelta;
 import com.groupon.lex.metrics.history.v2.xdr.FromXdr;
@@ -18,7 +17,9 @@ import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import gnu.trove.iterator.TLongIterator;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.ArrayList;
@@ -32,7 +33,9 @@ import static java.util.Collections.unmodifiableSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -53,10 +56,10 @@ import org.joda.time.DateTimeZone;
 
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
-    private static final Compression TMP_FILE_COMPRESSION = Compression.NONE;
     private final TLongList timestamps;
     private final Map<GroupName, Group> groups;
     private final Map<GroupName, Set<DateTime>> timestampsByGroup;
+    private final Optional<GCCloseable<SpillArena>> arena;
 
     public static Builder builder() {
         return new Builder();
@@ -66,6 +69,11 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
         private final TLongList timestamps = new TLongArrayList();
         private final Map<GroupName, GroupWriter> writers = new ConcurrentHashMap<>();
         private final Map<GroupName, Set<DateTime>> timestampsByGroup = new ConcurrentHashMap<>();
+        /**
+         * All metrics share a single spill file, created when the first
+         * collection is added.
+         */
+        private GCCloseable<SpillArena> arena = null;
 
         private Builder() {
             /* SKIP */
@@ -76,6 +84,9 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
         }
 
         public Builder with(Collection<? extends TimeSeriesCollection> tsdata) throws IOException {
+            if (arena == null)
+                arena = new GCCloseable<>(new SpillArena());
+
             try {
                 for (final TimeSeriesCollection tsc : tsdata) {
                     tsc.getTSValues().parallelStream()
@@ -86,7 +97,7 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
                             .forEach(tsv -> {
                                 final GroupWriter groupWriter = writers.computeIfAbsent(
                                         tsv.getGroup(),
-                                        (g) -> new GroupWriter());
+                                        (g) -> new GroupWriter(arena));
 
                                 try {
                                     groupWriter.add(timestamps.size(), tsv.getMetrics());
@@ -148,10 +159,24 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
                 throw ex.getEx();
             }
 
-            return new TmpFileBasedColumnMajorTSData(timestamps, groups, timestampsByGroup);
+            return new TmpFileBasedColumnMajorTSData(timestamps, groups, timestampsByGroup, Optional.ofNullable(arena));
         }
     }
 
+    /**
+     * @return The number of bytes in the spill file backing this data.
+     */
+    public long getSpillBytes() {
+        return arena.map(a -> a.get().getSize()).orElse(0L);
+    }
+
+    /**
+     * @return The number of spill files backing this data.
+     */
+    public int getSpillFiles() {
+        return (arena.isPresent() ? 1 : 0);
+    }
+
     @Override
     public Collection<DateTime> getTimestamps() {
         Collection<DateTime> result = new ArrayList<>(timestamps.size());
@@ -226,7 +251,10 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
         }
     }
 
+    @RequiredArgsConstructor
     private static class GroupWriter {
+        @NonNull
+        private final GCCloseable<SpillArena> arena;
         private final Map<MetricName, MetricWriter> metrics = new ConcurrentHashMap<>();
 
         public void add(int index, Map<MetricName, MetricValue> tsv) throws IOException {
@@ -235,13 +263,7 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
                         .forEach(entry -> {
                             final MetricWriter f = metrics.computeIfAbsent(
                                     entry.getKey(),
-                                    (m) -> {
-                                        try {
-                                            return new MetricWriter();
-                                        } catch (IOException ex) {
-                                            throw new RuntimeIOException(ex);
-                                        }
-                                    });
+                                    (m) -> new MetricWriter(arena));
 
                             try {
                                 f.fixBacklog(index);
@@ -294,15 +316,26 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
         }
     }
 
+    /**
+     * Writes the values of a single metric.
+     *
+     * Values are run-length encoded and collected in a small in-memory chunk,
+     * which is appended to the shared spill arena once it fills up.
+     * The writer only keeps the positions of its chunks, so a large number
+     * of metrics does not translate into a large number of open files.
+     */
     private static class MetricWriter {
-        private final GCCloseable<TmpFile<XdrAbleMetricEntry>> tmpFile;
+        private static final int CHUNK_SIZE = 1024;
+        private final GCCloseable<SpillArena> arena;
+        private final List<FilePos> chunks = new ArrayList<>();
         private final DictionaryForWrite dictionary = new DictionaryForWrite();
+        private ChunkEncoder pending = null;
         private Optional<MetricValue> lastValue = Optional.empty();
         private int repeatValue = 0;
         private int writtenCount = 0;
 
-        public MetricWriter() throws IOException {
-            this.tmpFile = new GCCloseable<>(new TmpFile<>(TMP_FILE_COMPRESSION));
+        public MetricWriter(@NonNull GCCloseable<SpillArena> arena) {
+            this.arena = arena;
         }
 
         private void addOptMetric(@NonNull Optional<MetricValue> metric, int count) throws IOException {
@@ -313,15 +346,27 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
                 return;
             }
 
+            write_(new XdrAbleMetricEntry(dictionary, lastValue, repeatValue));
+            writtenCount += repeatValue;
+
+            lastValue = metric;
+            repeatValue = count;
+        }
+
+        private void write_(XdrAbleMetricEntry entry) throws IOException {
+            if (pending == null) pending = new ChunkEncoder();
             try {
-                tmpFile.get().add(new XdrAbleMetricEntry(dictionary, lastValue, repeatValue));
-                writtenCount += repeatValue;
+                entry.xdrEncode(pending);
             } catch (OncRpcException ex) {
                 throw new IOException(ex);
             }
+            if (pending.size() >= CHUNK_SIZE) flush_();
+        }
 
-            lastValue = metric;
-            repeatValue = count;
+        private void flush_() throws IOException {
+            if (pending != null && pending.size() > 0)
+                chunks.add(arena.get().append(pending.toByteBuffer()));
+            pending = null;  // Release the buffer, instead of keeping its capacity around.
         }
 
         public void add(@NonNull MetricValue metric) throws IOException {
@@ -338,23 +383,24 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
         }
 
         public Metric asReader() throws IOException {
-            try {
-                if (repeatValue > 0) {
-                    tmpFile.get().add(new XdrAbleMetricEntry(dictionary, lastValue, repeatValue));
-                    writtenCount += repeatValue;
-                    repeatValue = 0;
-                }
-            } catch (OncRpcException ex) {
-                throw new IOException(ex);
+            if (repeatValue > 0) {
+                write_(new XdrAbleMetricEntry(dictionary, lastValue, repeatValue));
+                writtenCount += repeatValue;
+                repeatValue = 0;
             }
+            flush_();
 
-            return new Metric(tmpFile);
+            return new Metric(arena, chunks.toArray(new FilePos[chunks.size()]));
         }
     }
 
     @RequiredArgsConstructor
     private static class Metric {
-        private final GCCloseable<TmpFile<XdrAbleMetricEntry>> tmpFile;
+        /*
+         * Bind the lifetime of the arena to the lifetime of this metric.
+         */
+        private final GCCloseable<SpillArena> arena;
+        private final FilePos[] chunks;
 
         public Iterator<TimestampedMetric> iterator(TLongList timestamps) {
             final TLongIterator timestampIter = timestamps.iterator();
@@ -364,40 +410,79 @@ public class TmpFileBasedColumnMajorTSData implements ColumnMajorTSData {
         }
 
         public Iterator<Optional<MetricValue>> iterator() {
-            return Iterators.concat(new IteratorImpl(tmpFile));
+            return Iterators.concat(new IteratorImpl(arena, chunks));
         }
 
         private static class IteratorImpl implements Iterator<Iterator<Optional<MetricValue>>> {
-            private final Iterator<XdrAbleMetricEntry> inner;
+            private final GCCloseable<SpillArena> arena;
+            private final FilePos[] chunks;
+            private int nextChunk = 0;
+            private XdrBufferDecodingStream decoder = null;
             private DictionaryDelta dictionary = new DictionaryDelta();
 
-            /*
-             * Bind the lifetime of tmpFile to the lifetime of this iterator.
-             */
-            private final GCCloseable<TmpFile<XdrAbleMetricEntry>> tmpFile;
-
-            public IteratorImpl(@NonNull GCCloseable<TmpFile<XdrAbleMetricEntry>> tmpFile) {
-                this.tmpFile = tmpFile;
-                try {
-                    inner = this.tmpFile.get().iterator(XdrAbleMetricEntry::new);
-                } catch (IOException | OncRpcException ex) {
-                    throw new DecodingException("cannot read: decoding failed", ex);
-                }
+            public IteratorImpl(@NonNull GCCloseable<SpillArena> arena, @NonNull FilePos[] chunks) {
+                this.arena = arena;
+                this.chunks = chunks;
             }
 
             @Override
             public boolean hasNext() {
-                return inner.hasNext();
+                try {
+                    while ((decoder == null || decoder.avail() == 0) && nextChunk < chunks.length)
+                        decoder = new XdrBufferDecodingStream(arena.get().read(chunks[nextChunk++]));
+                } catch (IOException ex) {
+                    throw new DecodingException("cannot read: spill arena read failed", ex);
+                }
+                return decoder != null && decoder.avail() > 0;
             }
 
             @Override
             public Iterator<Optional<MetricValue>> next() {
-                return inner.next()
-                        .decode(dictionary, (updatedDictionary) -> dictionary = updatedDictionary);
+                if (!hasNext())
+                    throw new NoSuchElementException("cannot read: at end of metric");
+
+                final XdrAbleMetricEntry entry = new XdrAbleMetricEntry();
+                try {
+                    entry.xdrDecode(decoder);
+                } catch (IOException | OncRpcException ex) {
+                    throw new DecodingException("cannot read: decoding failed", ex);
+                }
+                return entry.decode(dictionary, (updatedDictionary) -> dictionary = updatedDictionary);
             }
         }
     }
 
+    /**
+     * Encodes XDR data into a growable, in-memory buffer.
+     */
+    private static class ChunkEncoder extends XdrEncodingStream {
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+
+        @Override
+        public void xdrEncodeInt(int value) {
+            buf.write(value >>> 24);
+            buf.write(value >>> 16);
+            buf.write(value >>> 8);
+            buf.write(value);
+        }
+
+        @Override
+        public void xdrEncodeOpaque(byte[] value, int offset, int length) {
+            if (length < 0) throw new IllegalArgumentException("negative length");
+            buf.write(value, offset, length);
+            for (int pad_len = (4 - length % 4) % 4; pad_len > 0; --pad_len)
+                buf.write(0);
+        }
+
+        public int size() {
+            return buf.size();
+        }
+
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf.toByteArray());
+        }
+    }
+
     private static class XdrAbleMetricEntry implements XdrAble {
         private boolean present = false;
         private metric_value metric;
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support;
+
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.history.v2.list.RWListFile;
+import static com.groupon.lex.metrics.history.v2.xdr.Util.fixSequence;
+import com.groupon.lex.metrics.history.xdr.Const;
+import com.groupon.lex.metrics.lib.GCCloseable;
+import com.groupon.lex.metrics.lib.sequence.ForwardSequence;
+import com.groupon.lex.metrics.lib.sequence.ObjectSequence;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+
+/**
+ * Write-behind journal for append files.
+ *
+ * Collections added to the journal are queued in memory and written out in
+ * batches by a background thread, so the adding thread does not wait for
+ * encoding, compression or disk IO. Queued collections remain visible through
+ * {@link #snapshot()} until they have been written.
+ *
+ * The queue is bounded: if the writer falls behind, adding blocks until space
+ * becomes available.
+ *
+ * If a batch cannot be written, it stays queued and the writer stops.  The
+ * failure is reported by the next call to {@link #addAll(Collection)} or
+ * {@link #flush()}, which also retry writing the queued collections.
+ *
+ * The writer runs on daemon threads, so {@link #close()} must be called
+ * before the process exits, to ensure queued collections are written.
+ *
+ * @author ariane
+ */
+public class WriteBehindJournal {
+    private static final Logger LOG = Logger.getLogger(WriteBehindJournal.class.getName());
+    private static final AtomicInteger WRITER_THR_IDX = new AtomicInteger();
+    private static final ExecutorService WRITER_POOL = Executors.newCachedThreadPool((Runnable r) -> {
+        Thread thr = new Thread(r);
+        thr.setDaemon(true);
+        thr.setName("WriteBehindJournal-" + WRITER_THR_IDX.incrementAndGet());
+        return thr;
+    });
+    public static final MetricName QUEUE_DEPTH = MetricName.valueOf("journal", "queue_depth");
+    public static final MetricName QUEUE_CAPACITY = MetricName.valueOf("journal", "queue_capacity");
+    public static final MetricName LAST_BATCH_SIZE = MetricName.valueOf("journal", "last_batch_size");
+    public static final MetricName BATCHES = MetricName.valueOf("journal", "batches");
+    public static final MetricName WRITTEN = MetricName.valueOf("journal", "written");
+    public static final MetricName FAILED_WRITES = MetricName.valueOf("journal", "failed_writes");
+    public static final MetricName FSYNC_COUNT = MetricName.valueOf("journal", "fsync", "count");
+    public static final MetricName FSYNC_LAST_LATENCY = MetricName.valueOf("journal", "fsync", "last_latency");
+    public static final MetricName FSYNC_TOTAL_LATENCY = MetricName.valueOf("journal", "fsync", "total_latency");
+
+    /**
+     * The destination of the journal.
+     */
+    public static interface BatchWriter {
+        /**
+         * Write a batch of collections.
+         *
+         * Invoked with the lock of the journal held.
+         *
+         * @param batch The collections to write, in the order they were added.
+         * @throws IOException If the batch could not be written.
+         */
+        public void write(List<TimeSeriesCollection> batch) throws IOException;
+
+        /**
+         * Retrieve the file that is currently being written to, for the
+         * purpose of forcing its contents to disk.
+         *
+         * @return The file currently written to, if any.
+         */
+        public Optional<GCCloseable<FileChannel>> getFileChannel();
+    }
+
+    /**
+     * Maximum number of collections in the queue.
+     */
+    @Getter
+    private final int capacity;
+    /**
+     * Interval at which written data is forced to disk. If zero, data is only
+     * forced when the operating system decides to do so.
+     */
+    @Getter
+    private final Duration forceInterval;
+    private final BatchWriter writer;
+    /**
+     * Lock that is held while a batch is written and removed from the queue.
+     * Readers that hold the counterpart of this lock will see each collection
+     * either in the queue or in the destination, never both.
+     */
+    private final Lock writeLock;
+    /**
+     * Queued collections. Access is {@code synchronized(queue)}.
+     */
+    private final LinkedList<TimeSeriesCollection> queue = new LinkedList<>();
+    private boolean draining = false;  // Protected by queue.
+    /**
+     * Failure of the last write, not yet reported.  Protected by queue.
+     */
+    private IOException failure = null;
+    private volatile long lastForceNanos = System.nanoTime();  // Updated by the writer and by close().
+
+    private int lastBatchSize = 0;
+    private long batches = 0;
+    private long written = 0;
+    private long failedWrites = 0;
+    private long fsyncCount = 0;
+    private long fsyncLastMillis = 0;
+    private long fsyncTotalMillis = 0;
+
+    public WriteBehindJournal(int capacity, @NonNull Duration forceInterval, @NonNull Lock writeLock, @NonNull BatchWriter writer) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        if (forceInterval.getMillis() < 0)
+            throw new IllegalArgumentException("negative force interval");
+        this.capacity = capacity;
+        this.forceInterval = forceInterval;
+        this.writeLock = writeLock;
+        this.writer = writer;
+    }
+
+    /**
+     * Queue collections for writing.
+     *
+     * Blocks while the queue is full.
+     *
+     * The collections are copied, so the caller may modify or reuse them
+     * once this method returns.
+     *
+     * @param tsc The collections to add.
+     * @throws IOException If a previous write failed.  The collections are
+     * not added in that case, but collections that were queued before are
+     * retained and writing them is retried.
+     */
+    public void addAll(@NonNull Collection<? extends TimeSeriesCollection> tsc) throws IOException {
+        if (tsc.isEmpty())
+            return;
+
+        final List<TimeSeriesCollection> copy = tsc.stream()
+                .map(WriteBehindJournal::copy_)
+                .collect(Collectors.toList());
+
+        boolean interrupted = false;
+        IOException exc = null;
+        synchronized (queue) {
+            while (failure == null && queue.size() >= capacity) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+            if (failure != null) {
+                exc = failure;
+                failure = null;
+            } else {
+                queue.addAll(copy);
+            }
+            startWriter_();
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (exc != null)
+            throw new IOException("write-behind journal failed to write queued collections", exc);
+    }
+
+    /**
+     * Start a writer, unless one is running or there is nothing to write.
+     */
+    private void startWriter_() {
+        assert Thread.holdsLock(queue);
+
+        if (!draining && !queue.isEmpty()) {
+            draining = true;
+            WRITER_POOL.execute(this::drain_);
+        }
+    }
+
+    /**
+     * Create an immutable copy of a collection.
+     */
+    private static TimeSeriesCollection copy_(TimeSeriesCollection tsc) {
+        return new SimpleTimeSeriesCollection(
+                tsc.getTimestamp(),
+                tsc.getTSValues().stream().map(TimeSeriesValue::clone));
+    }
+
+    /**
+     * Wait until all queued collections have been written.
+     *
+     * If a previous write failed, writing is retried first.
+     *
+     * @throws IOException If the queued collections could not be written.
+     * They remain queued in that case.
+     */
+    public void flush() throws IOException {
+        boolean interrupted = false;
+        IOException exc = null;
+        synchronized (queue) {
+            failure = null;  // Retried below.
+            startWriter_();
+            while (draining) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+            if (failure != null) {
+                exc = failure;
+                failure = null;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (exc != null)
+            throw new IOException("write-behind journal failed to write queued collections", exc);
+    }
+
+    /**
+     * Write all queued collections and force the current file to disk.
+     *
+     * Must be called before the process exits, since the writer runs on
+     * daemon threads.
+     *
+     * @throws IOException If the queued collections could not be written, or
+     * the file could not be forced to disk.
+     */
+    public void close() throws IOException {
+        flush();
+        force_(System.nanoTime());
+    }
+
+    /**
+     * @return The number of collections waiting to be written.
+     */
+    public int getQueueDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Create a read-only view of the collections that are not yet written.
+     *
+     * @return A TSData containing the queued collections.
+     */
+    public SequenceTSData snapshot() {
+        final List<TimeSeriesCollection> copy;
+        synchronized (queue) {
+            copy = new ArrayList<>(queue);
+        }
+        return new Snapshot(copy);
+    }
+
+    /**
+     * Retrieve journal statistics.
+     *
+     * @return A map of metrics describing the journal.
+     */
+    public Map<MetricName, MetricValue> getMetrics() {
+        final Map<MetricName, MetricValue> result = new HashMap<>();
+        synchronized (queue) {
+            result.put(QUEUE_DEPTH, MetricValue.fromIntValue(queue.size()));
+            result.put(QUEUE_CAPACITY, MetricValue.fromIntValue(capacity));
+            result.put(LAST_BATCH_SIZE, MetricValue.fromIntValue(lastBatchSize));
+            result.put(BATCHES, MetricValue.fromIntValue(batches));
+            result.put(WRITTEN, MetricValue.fromIntValue(written));
+            result.put(FAILED_WRITES, MetricValue.fromIntValue(failedWrites));
+            result.put(FSYNC_COUNT, MetricValue.fromIntValue(fsyncCount));
+            result.put(FSYNC_LAST_LATENCY, MetricValue.fromIntValue(fsyncLastMillis));
+            result.put(FSYNC_TOTAL_LATENCY, MetricValue.fromIntValue(fsyncTotalMillis));
+        }
+        return result;
+    }
+
+    /**
+     * Writer loop: writes everything that is queued in a single batch, until
+     * the queue is empty or a write fails.
+     */
+    private void drain_() {
+        try {
+            drainLoop_();
+        } catch (Error ex) {
+            synchronized (queue) {
+                draining = false;  // Next add will start a new writer.
+                queue.notifyAll();
+            }
+            throw ex;
+        }
+    }
+
+    private void drainLoop_() {
+        for (;;) {
+            final List<TimeSeriesCollection> batch;
+            synchronized (queue) {
+                if (queue.isEmpty()) {
+                    draining = false;
+                    queue.notifyAll();
+                    return;
+                }
+                batch = new ArrayList<>(queue);
+            }
+
+            writeLock.lock();
+            try {
+                writer.write(batch);
+
+                // Remove the batch while still holding the write lock, so readers never see it twice.
+                synchronized (queue) {
+                    queue.subList(0, batch.size()).clear();
+                    lastBatchSize = batch.size();
+                    ++batches;
+                    written += batch.size();
+                    queue.notifyAll();
+                }
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.SEVERE, "unable to write " + batch.size() + " collections, keeping them queued", ex);
+                synchronized (queue) {
+                    failure = (ex instanceof IOException ? (IOException)ex : new IOException(ex));
+                    ++failedWrites;
+                    draining = false;  // Next add or flush will retry.
+                    queue.notifyAll();
+                }
+                return;
+            } finally {
+                writeLock.unlock();
+            }
+
+            maybeForce_();
+        }
+    }
+
+    /**
+     * Force the current file to disk, if the force interval has expired.
+     */
+    private void maybeForce_() {
+        if (forceInterval.getMillis() == 0)
+            return;
+        final long now = System.nanoTime();
+        if (now - lastForceNanos < TimeUnit.MILLISECONDS.toNanos(forceInterval.getMillis()))
+            return;
+
+        try {
+            force_(now);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "unable to force journal to disk", ex);
+        }
+    }
+
+    /**
+     * Force the current file to disk.
+     */
+    private void force_(long now) throws IOException {
+        lastForceNanos = now;
+
+        final Optional<GCCloseable<FileChannel>> fd = writer.getFileChannel();
+        if (!fd.isPresent())
+            return;
+
+        fd.get().get().force(true);
+
+        final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - now);
+        synchronized (queue) {
+            ++fsyncCount;
+            fsyncLastMillis = latency;
+            fsyncTotalMillis += latency;
+        }
+    }
+
+    /**
+     * Read-only view of queued collections.
+     */
+    private static class Snapshot extends SequenceTSData {
+        private final ObjectSequence<TimeSeriesCollection> sequence;
+
+        public Snapshot(@NonNull List<TimeSeriesCollection> tsdata) {
+            this.sequence = fixSequence(new ForwardSequence(0, tsdata.size())
+                    .map(tsdata::get, false, true, false));
+        }
+
+        @Override
+        public ObjectSequence<TimeSeriesCollection> getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public DateTime getBegin() {
+            if (sequence.isEmpty())
+                return new DateTime(0, DateTimeZone.UTC);
+            return sequence.get(0).getTimestamp();
+        }
+
+        @Override
+        public DateTime getEnd() {
+            if (sequence.isEmpty())
+                return new DateTime(0, DateTimeZone.UTC);
+            return sequence.get(sequence.size() - 1).getTimestamp();
+        }
+
+        @Override
+        public long getFileSize() {
+            return 0;
+        }
+
+        @Override
+        public short getMajor() {
+            return Const.MAJOR;
+        }
+
+        @Override
+        public short getMinor() {
+            return RWListFile.FILE_MINOR;
+        }
+
+        @Override
+        public boolean canAddSingleRecord() {
+            return false;
+        }
+
+        @Override
+        public boolean isOptimized() {
+            return false;
+        }
+
+        @Override
+        public boolean add(TimeSeriesCollection tsv) {
+            throw new UnsupportedOperationException("journal snapshot is read-only");
+        }
+
+        @Override
+        public Optional<GCCloseable<FileChannel>> getFileChannel() {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.reader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.history.xdr.support.FilePos;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.acplt.oncrpc.OncRpcException;
+
+/**
+ * Size bounded cache of decoded file segments.
+ *
+ * The budget is expressed in heap bytes.  Segments are weighed by an estimate
+ * of their decoded size, computed from the decoded value when it is loaded
+ * (see {@link HeapSize}).  When the total weight exceeds the budget, the least
+ * recently used segments are evicted.
+ *
+ * Files are identified by an owner ID, obtained from {@link #newOwner()}, so
+ * that cache keys do not keep the file open.
+ *
+ * @author ariane
+ */
+public class BlockCache {
+    /** Default budget, in heap bytes, of the shared cache. */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+    public static final MetricName HITS = MetricName.valueOf("cache", "hits");
+    public static final MetricName MISSES = MetricName.valueOf("cache", "misses");
+    public static final MetricName EVICTIONS = MetricName.valueOf("cache", "evictions");
+    public static final MetricName LOAD_TIME = MetricName.valueOf("cache", "load_time");
+    public static final MetricName ENTRIES = MetricName.valueOf("cache", "entries");
+    public static final MetricName BYTES = MetricName.valueOf("cache", "bytes");
+    public static final MetricName MAX_BYTES = MetricName.valueOf("cache", "max_bytes");
+    private static final int CONCURRENCY = 4;
+    private static final AtomicLong OWNER_IDX = new AtomicLong();
+    private static volatile BlockCache defaultCache = new BlockCache(DEFAULT_MAX_BYTES);
+    @Getter
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final Cache<Key, Entry> cache;
+
+    public BlockCache(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("negative cache size");
+        this.maxBytes = maxBytes;
+        this.cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(CONCURRENCY)  // Budget is split between segments, so keep this low.
+                .maximumWeight(maxBytes)
+                .<Key, Entry>weigher((key, entry) -> entry.getWeight())
+                .removalListener(notification -> bytes.addAndGet(-notification.getValue().getWeight()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Retrieve the cache shared by all files.
+     *
+     * @return The shared block cache.
+     */
+    public static BlockCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Replace the cache shared by all files.
+     *
+     * Files that are already opened keep using the previous cache.
+     *
+     * @param maxBytes The budget of the new cache, in heap bytes.
+     */
+    public static void setDefaultMaxBytes(long maxBytes) {
+        final BlockCache old = defaultCache;
+        defaultCache = new BlockCache(maxBytes);
+        old.invalidateAll();
+    }
+
+    /**
+     * Allocate an owner ID, used to identify a file in the cache.
+     *
+     * @return A new, unique owner ID.
+     */
+    public static long newOwner() {
+        return OWNER_IDX.incrementAndGet();
+    }
+
+    /**
+     * Wrap a segment reader, such that its decoded value is kept in the
+     * cache.
+     *
+     * @param <T> The type of the segment.
+     * @param owner The owner ID of the file, see {@link #newOwner()}.
+     * @param pos The position of the segment in the file.
+     * @param in The reader that decodes the segment.
+     * @param heapBytes Estimates the heap bytes used by the decoded segment.
+     * @return A segment reader that uses the cache.
+     */
+    public <T> SegmentReader<T> cache(long owner, @NonNull FilePos pos, @NonNull SegmentReader<T> in, @NonNull ToLongFunction<? super T> heapBytes) {
+        final Key key = new Key(owner, pos.getOffset());
+        return () -> get_(key, in, heapBytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get_(Key key, SegmentReader<T> in, ToLongFunction<? super T> heapBytes) throws IOException, OncRpcException {
+        try {
+            return (T)cache.get(key, () -> {
+                final T value = in.decode();
+                final Entry entry = new Entry(value, (int)Long.min(Integer.MAX_VALUE, Long.max(1, heapBytes.applyAsLong(value))));
+                bytes.addAndGet(entry.getWeight());
+                return entry;
+            }).getValue();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException)ex.getCause();
+            if (ex.getCause() instanceof OncRpcException)
+                throw (OncRpcException)ex.getCause();
+            throw new IllegalStateException("exception not recognized", ex);  // Should never happen.
+        } catch (UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException)ex.getCause();
+            throw ex;
+        }
+    }
+
+    /**
+     * Remove all segments of a file from the cache.
+     *
+     * Cached segments may reference the file, so this should be called when
+     * the file is closed.
+     *
+     * @param owner The owner ID of the file.
+     */
+    public void invalidate(long owner) {
+        cache.asMap().keySet().removeIf(key -> key.owner == owner);
+    }
+
+    /** Remove all segments from the cache. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /** @return The estimated weight of all cached segments, in heap bytes. */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Express the cache statistics as metrics.
+     *
+     * @return Metrics describing the cache.
+     */
+    public Map<MetricName, MetricValue> getMetrics() {
+        final CacheStats stats = getStats();
+        final Map<MetricName, MetricValue> result = new HashMap<>();
+        result.put(HITS, MetricValue.fromIntValue(stats.hitCount()));
+        result.put(MISSES, MetricValue.fromIntValue(stats.missCount()));
+        result.put(EVICTIONS, MetricValue.fromIntValue(stats.evictionCount()));
+        result.put(LOAD_TIME, MetricValue.fromIntValue(TimeUnit.NANOSECONDS.toMillis(stats.totalLoadTime())));
+        result.put(ENTRIES, MetricValue.fromIntValue(cache.size()));
+        result.put(BYTES, MetricValue.fromIntValue(getBytes()));
+        result.put(MAX_BYTES, MetricValue.fromIntValue(getMaxBytes()));
+        return result;
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+        private final long owner;
+        private final long offset;
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    private static class Entry {
+        private final Object value;
+        private final int weight;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.reader;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import lombok.NonNull;
+
+/**
+ * Reads from a byte buffer, such as a memory mapped file.
+ *
+ * The reader uses its own view of the buffer, so the position and limit of
+ * the buffer are not modified.
+ */
+public class ByteBufferReader implements FileReader {
+    private final ByteBuffer buf;
+
+    public ByteBufferReader(@NonNull ByteBuffer buf, long offset) throws EOFException {
+        if (offset < 0 || offset > buf.limit())
+            throw new EOFException("offset " + offset + " outside buffer");
+        this.buf = buf.duplicate();
+        this.buf.position((int)offset);
+    }
+
+    @Override
+    public int read(ByteBuffer data) throws EOFException {
+        if (!buf.hasRemaining())
+            throw new EOFException("no more data (buffer end)");
+
+        final int rlen = Math.min(data.remaining(), buf.remaining());
+        final ByteBuffer src = buf.duplicate();
+        src.limit(src.position() + rlen);
+        data.put(src);
+        buf.position(buf.position() + rlen);
+        return rlen;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public ByteBuffer allocateByteBuffer(int size) {
+        return ByteBuffer.allocate(size);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.reader;
+
+import java.util.Collection;
+
+/**
+ * Estimates of the heap space used by decoded file contents.
+ *
+ * Sizes follow the object layout of a 64-bit JVM without compressed
+ * references, with objects aligned to 8 bytes.  With compressed references
+ * objects are smaller, so the estimates err on the high side.
+ *
+ * @author ariane
+ */
+public final class HeapSize {
+    private HeapSize() {}
+
+    /** Size of an object header. */
+    public static final long OBJECT = 16;
+    /** Size of a reference. */
+    public static final long REFERENCE = 8;
+    /** Size of an array header, including its length. */
+    public static final long ARRAY = 24;
+    /**
+     * Size of a hash map entry, including its slot in the table, excluding
+     * the key and value.
+     */
+    public static final long MAP_ENTRY = OBJECT + 3 * REFERENCE + 8 + REFERENCE;
+
+    /**
+     * Size of a lazily decoded segment, that is not yet decoded.
+     *
+     * A segment is a chain of a few small reader objects: the file reader,
+     * its mapping and validation steps, and the cache lookup with its key.
+     */
+    public static final long SEGMENT_READER = 4 * align(OBJECT + 3 * REFERENCE) + align(OBJECT + 2 * 8);
+
+    /**
+     * Round up to the object alignment.
+     *
+     * @param bytes A size in bytes.
+     * @return The size, rounded up to a multiple of 8.
+     */
+    public static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Size of an array.
+     *
+     * @param length The number of elements in the array.
+     * @param elementBytes The size of each element.
+     * @return The size of the array, excluding objects referenced by it.
+     */
+    public static long array(long length, long elementBytes) {
+        return align(ARRAY + length * elementBytes);
+    }
+
+    /**
+     * Size of a list backed by an array, such as an ArrayList.
+     *
+     * @param length The number of elements in the list.
+     * @return The size of the list, excluding its elements.
+     */
+    public static long list(long length) {
+        return align(OBJECT + 8 + REFERENCE) + array(length, REFERENCE);
+    }
+
+    /**
+     * Size of an open addressing hash map, such as a THashMap.
+     *
+     * @param size The number of entries in the map.
+     * @return The size of the map, excluding its keys and values.
+     */
+    public static long openHashMap(long size) {
+        return align(OBJECT + 4 * 4 + 2 * REFERENCE) + 2 * array(size + 1, REFERENCE);
+    }
+
+    /**
+     * Size of a string.
+     *
+     * @param s A string.
+     * @return The size of the string, including its character array.
+     */
+    public static long string(String s) {
+        return align(OBJECT + 8 + REFERENCE) + array(s.length(), 2);
+    }
+
+    /**
+     * Size of all strings in a collection.
+     *
+     * @param strings Strings.
+     * @return The sum of the sizes of the strings.
+     */
+    public static long strings(Collection<String> strings) {
+        return strings.stream().mapToLong(HeapSize::string).sum();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.reader;
+
+import com.groupon.lex.metrics.history.v2.Compression;
+import com.groupon.lex.metrics.history.xdr.support.FilePos;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.acplt.oncrpc.OncRpcException;
+import org.acplt.oncrpc.XdrAble;
+
+/**
+ * Segment reader that decodes from a memory mapped file.
+ *
+ * The CRC is computed over the mapping and uncompressed segments are decoded
+ * straight from it, without copying the segment to the heap first.
+ * Compressed segments are handed to the decompressor from the mapping.
+ * Only suitable for files that are no longer modified.
+ */
+@AllArgsConstructor
+public class MmapSegmentReader<T extends XdrAble> implements SegmentReader<T> {
+    private static final Logger LOG = Logger.getLogger(MmapSegmentReader.class.getName());
+    @NonNull
+    private final Supplier<T> type;
+    @NonNull
+    private final ByteBuffer mapping;
+    @NonNull
+    private final FilePos pos;
+    @Getter
+    private final Compression compression;
+
+    @Override
+    public T decode() throws IOException, OncRpcException {
+        final ByteBuffer data = verifiedSegment(mapping, pos);
+        final XdrDecodingFileReader reader;
+        if (compression == Compression.NONE)
+            reader = new XdrDecodingFileReader(data);
+        else
+            reader = new XdrDecodingFileReader(compression.wrap(new ByteBufferReader(data, 0)));
+
+        try {
+            reader.beginDecoding();
+            T instance = type.get();
+            LOG.log(Level.FINEST, "decoding {0} at {1}", new Object[]{instance.getClass(), pos});
+            instance.xdrDecode(reader);
+            reader.endDecoding();
+            return instance;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Validate the padding and CRC of a segment in the mapping.
+     *
+     * Segments are laid out as the data, zero padding up to a multiple of 4
+     * bytes and the CRC32 of data and padding.
+     *
+     * @param mapping The mapped file.
+     * @param pos The position of the segment.
+     * @return A view of the mapping, holding only the data of the segment.
+     * @throws IOException If the segment is outside the mapping, or its
+     * padding or CRC is invalid.
+     */
+    private static ByteBuffer verifiedSegment(ByteBuffer mapping, FilePos pos) throws IOException {
+        final long padLen = (pos.getLen() % 4 == 0 ? 0 : 4 - pos.getLen() % 4);
+        final long crcOffset = pos.getOffset() + pos.getLen() + padLen;
+        if (pos.getOffset() < 0 || pos.getLen() < 0 || crcOffset + Crc32Reader.CRC_LEN > mapping.limit())
+            throw new EOFException("segment " + pos + " outside mapping");
+
+        final ByteBuffer segment = mapping.duplicate();
+        segment.position((int)pos.getOffset());
+        segment.limit((int)crcOffset);
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(segment.duplicate());
+        final int expectedCRC = mapping.duplicate().order(ByteOrder.BIG_ENDIAN).getInt((int)crcOffset);
+        if ((int)crc32.getValue() != expectedCRC)
+            throw new Crc32VerifyingFileReader.IOCrcMismatchException((int)crc32.getValue(), expectedCRC);
+        for (int i = (int)(pos.getOffset() + pos.getLen()); i < crcOffset; ++i) {
+            if (mapping.get(i) != (byte)0)
+                throw new Crc32VerifyingFileReader.IOPaddingException();
+        }
+
+        segment.limit((int)(pos.getOffset() + pos.getLen()));
+        return segment.slice();
+    }
+
+    /**
+     * Map a file into memory.
+     *
+     * The mapping is released once the buffer is garbage collected.
+     *
+     * @param fd The file to map.
+     * @return A read-only mapping of the file.
+     * @throws IOException If the file could not be mapped.
+     */
+    public static ByteBuffer map(@NonNull FileChannel fd) throws IOException {
+        return fd.map(FileChannel.MapMode.READ_ONLY, 0, fd.size());
+    }
+
+    @RequiredArgsConstructor
+    public static class Factory implements SegmentReader.Factory<XdrAble> {
+        private final ByteBuffer mapping;
+        private final Compression compression;
+
+        @Override
+        public <T extends XdrAble> SegmentReader<T> get(Supplier<T> type, FilePos pos) {
+            return new MmapSegmentReader<>(type, mapping, pos, compression);
+        }
+    }
+}
@@ -32,6 +32,7 @@
 package com.groupon.lex.metrics.history.xdr.support.reader;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import static java.lang.Math.min;
 import java.net.InetAddress;
@@ -44,7 +45,7 @@ import org.acplt.oncrpc.XdrDecodingStream;
 public class XdrDecodingFileReader extends XdrDecodingStream implements Closeable {
     private static final int MIN_BUFSIZ = 4;
     private static final int DEFAULT_BUFSIZ = 128;
-    private final FileReader in;
+    private final FileReader in;  // Null if decoding from a buffer.
     private final ByteBuffer buf;
 
     public XdrDecodingFileReader(@NonNull FileReader in, int bufSiz) {
@@ -65,6 +66,21 @@ public class XdrDecodingFileReader extends XdrDecodingStream implements Closeabl
         setCharacterEncoding("UTF-8");
     }
 
+    /**
+     * Decode directly from a buffer, without copying.
+     *
+     * The decoder uses its own view of the buffer, so the position and limit
+     * of the buffer are not modified.
+     *
+     * @param data The bytes to decode, from position to limit.
+     */
+    public XdrDecodingFileReader(@NonNull ByteBuffer data) {
+        this.in = null;
+        this.buf = data.slice();
+        this.buf.order(ByteOrder.BIG_ENDIAN);
+        setCharacterEncoding("UTF-8");
+    }
+
     @Override
     public void beginDecoding() {}
     @Override
@@ -76,7 +92,9 @@ public class XdrDecodingFileReader extends XdrDecodingStream implements Closeabl
     public int getSenderPort() { return 0; }
 
     @Override
-    public void close() throws IOException { in.close(); }
+    public void close() throws IOException {
+        if (in != null) in.close();
+    }
 
     @Override
     public int xdrDecodeInt() throws OncRpcException, IOException {
@@ -113,6 +131,8 @@ public class XdrDecodingFileReader extends XdrDecodingStream implements Closeabl
     }
 
     private void readMore() throws IOException {
+        if (in == null)
+            throw new EOFException("no more data (buffer end)");
         buf.compact();
         in.read(buf);
         buf.flip();
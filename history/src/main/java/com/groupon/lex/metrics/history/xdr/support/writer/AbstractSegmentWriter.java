@@ -38,10 +38,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
+import lombok.Value;
 import org.acplt.oncrpc.OncRpcException;
 import org.acplt.oncrpc.XdrAble;
 
 public abstract class AbstractSegmentWriter {
+    private static final int ENCODE_BUFSIZ = 4096;
+
     public abstract XdrAble encode(long timestamps[]);
 
     public FilePos write(Writer writer, long timestamps[]) throws OncRpcException, IOException {
@@ -75,5 +78,62 @@ public abstract class AbstractSegmentWriter {
                 return new FilePos(initPos, outerWriter.getWritten());
             }
         }
+
+        /**
+         * Write a segment that was encoded using
+         * {@link #encode(org.acplt.oncrpc.XdrAble, com.groupon.lex.metrics.history.v2.Compression, boolean) encode}.
+         *
+         * @param segment The encoded segment.
+         * @return The position of the segment in the file.
+         * @throws IOException if the write fails.
+         */
+        public FilePos write(EncodedSegment segment) throws IOException {
+            final long initPos = out.getOffset();
+            final ByteBuffer data = segment.getData().duplicate();
+            while (data.hasRemaining())
+                out.write(data);
+            return new FilePos(initPos, segment.getLen());
+        }
+
+        /**
+         * Encode a segment in memory.
+         *
+         * The encoded segment holds the same bytes that
+         * {@link #write(org.acplt.oncrpc.XdrAble) write} would emit, but the
+         * (expensive) encoding and compression can run on any thread.
+         *
+         * @param object The object to encode.
+         * @param compression The compression to apply to the segment.
+         * @param highestCompression If set, use the highest compression level.
+         * @return The encoded segment.
+         */
+        public static EncodedSegment encode(XdrAble object, Compression compression, boolean highestCompression) throws IOException, OncRpcException {
+            final MemoryFileWriter buffer = new MemoryFileWriter();
+            final long len;
+
+            try (Crc32AppendingFileWriter outerWriter = new Crc32AppendingFileWriter(new CloseInhibitingWriter(buffer), 4)) {
+                try (XdrEncodingFileWriter writer = new XdrEncodingFileWriter(compression.wrap(new CloseInhibitingWriter(outerWriter), highestCompression), ENCODE_BUFSIZ)) {
+                    writer.beginEncoding();
+                    object.xdrEncode(writer);
+                    writer.endEncoding();
+                }
+
+                len = outerWriter.getWritten();
+            }
+
+            return new EncodedSegment(buffer.toByteBuffer(), len);
+        }
+    }
+
+    /**
+     * A segment, encoded in memory, waiting to be written.
+     */
+    @Value
+    public static class EncodedSegment {
+        /** The segment data, including padding and CRC. */
+        @NonNull
+        private final ByteBuffer data;
+        /** The length of the segment, excluding padding and CRC. */
+        private final long len;
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A file writer that collects all data in memory.
+ */
+public class MemoryFileWriter implements FileWriter {
+    private final ByteArrayOutputStream buffer;
+
+    public MemoryFileWriter() {
+        this(4096);
+    }
+
+    public MemoryFileWriter(int initialSize) {
+        this.buffer = new ByteArrayOutputStream(initialSize);
+    }
+
+    @Override
+    public int write(ByteBuffer data) {
+        final int wlen = data.remaining();
+        if (data.hasArray()) {
+            buffer.write(data.array(), data.arrayOffset() + data.position(), wlen);
+            data.position(data.limit());
+        } else {
+            final byte[] tmp = new byte[wlen];
+            data.get(tmp);
+            buffer.write(tmp, 0, wlen);
+        }
+        return wlen;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public ByteBuffer allocateByteBuffer(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * @return A buffer holding all written data.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer.toByteArray());
+    }
+}
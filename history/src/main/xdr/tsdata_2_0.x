@@ -46,6 +46,12 @@ enum header_flags {
     KIND_LIST = 0x0,
     KIND_TABLES = 0x1,
 
+    /*
+     * indicate metric tables are encoded as metric_table_packed
+     * (tables only, requires minor version 1 or later)
+     */
+    PACKED_METRICS = 0x100,
+
     /* indicate if opaque segments are compressed (gzip) */
     COMPRESSION_MASK = 0x3f000000,
     LZO_1X1          = 0x10000000,
@@ -232,6 +238,42 @@ struct metric_table {
     mt_other metrics_other;  /* Allow for future expansion of types. */
 };
 
+/*
+ * Packed integer values.
+ *
+ * The first value is emitted as is, the second as the delta to the first,
+ * every value after that as the delta-of-delta with its two predecessors.
+ * Each emitted value is zigzag encoded and written as a little-endian
+ * base-128 varint (7 bits per byte, high bit set on all but the last byte).
+ */
+struct mt_packed_int {
+    bitset presence;  /* bitset indices correspond to indices in main timestamp array. */
+    opaque values<>;  /* packed values, only emitted for presence is true. */
+};
+/*
+ * Packed floating point values.
+ *
+ * Each value is XOR-ed with the bits of its predecessor (the first with 0).
+ * If the XOR is zero, a single byte 0x80 is emitted.
+ * Otherwise, a header byte (lead << 4 | trail) is emitted, where lead and
+ * trail are the number of leading and trailing zero bytes of the XOR,
+ * followed by the remaining (8 - lead - trail) bytes of the XOR, big endian.
+ */
+struct mt_packed_dbl {
+    bitset presence;  /* bitset indices correspond to indices in main timestamp array. */
+    opaque values<>;  /* packed values, only emitted for presence is true. */
+};
+/* encode all metric values in a set, if header_flags.PACKED_METRICS is set */
+struct metric_table_packed {
+    mt_bool       metrics_bool;
+    mt_packed_int metrics_int;
+    mt_packed_dbl metrics_dbl;
+    mt_str        metrics_str;
+    mt_hist       metrics_hist;
+    mt_empty      metrics_empty;
+    mt_other      metrics_other;  /* Allow for future expansion of types. */
+};
+
 struct tsfile_header {
     timestamp_msec first;
     timestamp_msec last;
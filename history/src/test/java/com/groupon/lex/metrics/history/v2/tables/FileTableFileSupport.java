@@ -33,6 +33,7 @@ package com.groupon.lex.metrics.history.v2.tables;
 
 import com.groupon.lex.metrics.history.TSDataVersionDispatch;
 import com.groupon.lex.metrics.history.v2.Compression;
+import com.groupon.lex.metrics.history.xdr.Const;
 import com.groupon.lex.metrics.history.xdr.support.FileSupport;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import java.io.IOException;
@@ -59,7 +60,7 @@ public class FileTableFileSupport implements FileSupport.Writer {
 
     @Override
     public short getMinor() {
-        return (short) 0;
+        return Const.MINOR;
     }
 
     @Override
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.v2.tables;
+
+import com.groupon.lex.metrics.history.xdr.support.DecodingException;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PackedValuesTest {
+    private static long[] decodeInts(byte[] data, int len) {
+        final PackedValues.IntDecoder decoder = new PackedValues.IntDecoder(data);
+        final long[] result = new long[len];
+        for (int i = 0; i < len; ++i)
+            result[i] = decoder.next();
+        assertFalse(decoder.hasNext());
+        return result;
+    }
+
+    private static double[] decodeDoubles(byte[] data, int len) {
+        final PackedValues.DoubleDecoder decoder = new PackedValues.DoubleDecoder(data);
+        final double[] result = new double[len];
+        for (int i = 0; i < len; ++i)
+            result[i] = decoder.next();
+        assertFalse(decoder.hasNext());
+        return result;
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, PackedValues.encodeInts(new long[0], 0).length);
+        assertEquals(0, PackedValues.encodeDoubles(new double[0], 0).length);
+    }
+
+    @Test
+    public void intRoundTrip() {
+        final long[] values = new long[]{ 0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 17, 17, 17, Long.MIN_VALUE, Long.MAX_VALUE, 5 };
+
+        assertArrayEquals(values, decodeInts(PackedValues.encodeInts(values, values.length), values.length));
+    }
+
+    @Test
+    public void intPrefix() {
+        final long[] values = new long[]{ 3, 4, 5, 1000 };
+
+        assertArrayEquals(Arrays.copyOf(values, 3), decodeInts(PackedValues.encodeInts(values, 3), 3));
+    }
+
+    @Test
+    public void regularIntervalsPackTightly() {
+        final long[] values = new long[1000];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = 1500000000000L + 60000L * i;
+
+        final byte[] encoded = PackedValues.encodeInts(values, values.length);
+        assertTrue(encoded.length < values.length + 16);
+        assertArrayEquals(values, decodeInts(encoded, values.length));
+    }
+
+    @Test
+    public void doubleRoundTrip() {
+        final double[] values = new double[]{ 0.0, -0.0, 1.0, 1.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE, 0.1, 0.2, 0.3 };
+        final double[] decoded = decodeDoubles(PackedValues.encodeDoubles(values, values.length), values.length);
+
+        assertEquals(values.length, decoded.length);
+        for (int i = 0; i < values.length; ++i)
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoded[i]));
+    }
+
+    @Test
+    public void repeatedDoublesPackTightly() {
+        final double[] values = new double[100];
+        Arrays.fill(values, 42.5);
+
+        final byte[] encoded = PackedValues.encodeDoubles(values, values.length);
+        assertTrue(encoded.length < 16 + values.length);
+        assertArrayEquals(values, decodeDoubles(encoded, values.length), 0.0);
+    }
+
+    @Test(expected = DecodingException.class)
+    public void truncatedInt() {
+        final byte[] encoded = PackedValues.encodeInts(new long[]{ Long.MAX_VALUE }, 1);
+        new PackedValues.IntDecoder(Arrays.copyOf(encoded, encoded.length - 1)).next();
+    }
+
+    @Test(expected = DecodingException.class)
+    public void truncatedDouble() {
+        final byte[] encoded = PackedValues.encodeDoubles(new double[]{ Math.PI }, 1);
+        new PackedValues.DoubleDecoder(Arrays.copyOf(encoded, encoded.length - 1)).next();
+    }
+}
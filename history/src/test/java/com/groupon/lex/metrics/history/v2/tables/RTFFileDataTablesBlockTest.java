@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.v2.tables;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RTFFileDataTablesBlockTest {
+    private static final long[] TIMESTAMPS = new long[]{ 10, 20, 30 };
+
+    @Test
+    public void overlapsAtTimestamp() {
+        assertTrue(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 10, 10));
+        assertTrue(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 30, 40));
+        assertTrue(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 0, 10));
+    }
+
+    @Test
+    public void overlapsBetweenTimestamps() {
+        assertTrue(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 15, 25));
+        assertTrue(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 0, 100));
+        assertFalse(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 11, 19));
+    }
+
+    @Test
+    public void outsideBlock() {
+        assertFalse(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 0, 9));
+        assertFalse(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 31, 100));
+        assertFalse(RTFFileDataTablesBlock.overlaps(new long[0], 0, 100));
+    }
+
+    @Test
+    public void emptyRange() {
+        assertFalse(RTFFileDataTablesBlock.overlaps(TIMESTAMPS, 20, 10));
+    }
+}
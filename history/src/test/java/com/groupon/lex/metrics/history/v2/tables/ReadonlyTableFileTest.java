@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.v2.tables;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricMatcher;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.PathMatcher;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import com.groupon.lex.metrics.history.v2.Compression;
+import com.groupon.lex.metrics.history.xdr.Const;
+import com.groupon.lex.metrics.history.xdr.support.FileSupport;
+import com.groupon.lex.metrics.lib.GCCloseable;
+import com.groupon.lex.metrics.timeseries.ImmutableTimeSeriesValue;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadonlyTableFileTest {
+    private static final DateTime NOW = new DateTime(DateTimeZone.UTC);
+    private static final GroupName FOO_BAR = GroupName.valueOf(SimpleGroupPath.valueOf("foo", "bar"));
+    private static final GroupName BAZ = GroupName.valueOf(SimpleGroupPath.valueOf("baz"));
+    private Path tmpdir, tmpfile;
+    private List<TimeSeriesCollection> tsdata;
+
+    @Before
+    public void setup() throws Exception {
+        tmpdir = Files.createTempDirectory("monsoon-ReadonlyTableFileTest");
+        tmpdir.toFile().deleteOnExit();
+        tmpfile = tmpdir.resolve("test.tsd");
+
+        tsdata = IntStream.range(0, 10)
+                .mapToObj(i -> new SimpleTimeSeriesCollection(NOW.plusMinutes(i), Stream.of(
+                        new ImmutableTimeSeriesValue(
+                                FOO_BAR,
+                                singletonMap(MetricName.valueOf("x"), MetricValue.fromIntValue(i))),
+                        new ImmutableTimeSeriesValue(
+                                BAZ,
+                                new HashMap<MetricName, MetricValue>() {
+                                    {
+                                        put(MetricName.valueOf("x"), MetricValue.fromIntValue(i));
+                                        put(MetricName.valueOf("y"), MetricValue.fromIntValue(-i));
+                                    }
+                                }))))
+                .collect(Collectors.toList());
+        new FileSupport(new FileTableFileSupport(), true).create_file(tmpfile, tsdata);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.deleteIfExists(tmpfile);
+        Files.deleteIfExists(tmpdir);
+    }
+
+    private ReadonlyTableFile open(long maxMappedSize) throws Exception {
+        return new ReadonlyTableFile(new GCCloseable<>(FileChannel.open(tmpfile, StandardOpenOption.READ)), maxMappedSize);
+    }
+
+    @Test
+    public void mapped() throws Exception {
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+
+        assertEquals(Files.size(tmpfile), fd.getMappedBytes());
+        assertEquals(tsdata, fd.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void notMappedAboveLimit() throws Exception {
+        final ReadonlyTableFile fd = open(Files.size(tmpfile) - 1);
+
+        assertEquals(0, fd.getMappedBytes());
+        assertEquals(tsdata, fd.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void defaultMapped() throws Exception {
+        final ReadonlyTableFile fd = new ReadonlyTableFile(new GCCloseable<>(FileChannel.open(tmpfile, StandardOpenOption.READ)));
+
+        assertEquals(Files.size(tmpfile), fd.getMappedBytes());
+    }
+
+    @Test
+    public void mappingDisabled() throws Exception {
+        final ReadonlyTableFile fd = open(0);
+
+        assertEquals(0, fd.getMappedBytes());
+        assertEquals(tsdata, fd.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void filterGroups() throws Exception {
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withGroup(new PathMatcher(new PathMatcher.LiteralNameMatch("foo"), new PathMatcher.LiteralNameMatch("bar")));
+
+        final List<TimeSeriesCollection> expected = tsdata.stream()
+                .map(tsc -> new SimpleTimeSeriesCollection(tsc.getTimestamp(), Stream.of(tsc.get(FOO_BAR).get())))
+                .collect(Collectors.toList());
+        assertEquals(expected, fd.stream(filter).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void filterMetrics() throws Exception {
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withMetric(new MetricMatcher(new PathMatcher(new PathMatcher.LiteralNameMatch("baz")), new PathMatcher(new PathMatcher.LiteralNameMatch("y"))));
+
+        final List<TimeSeriesCollection> expected = tsdata.stream()
+                .map(tsc -> new SimpleTimeSeriesCollection(tsc.getTimestamp(), Stream.of(
+                        new ImmutableTimeSeriesValue(BAZ, singletonMap(MetricName.valueOf("y"), tsc.get(BAZ).get().findMetric(MetricName.valueOf("y")).get())))))
+                .collect(Collectors.toList());
+        assertEquals(expected, fd.stream(filter).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void filterRange() throws Exception {
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withGroup(new PathMatcher(new PathMatcher.LiteralNameMatch("baz")));
+
+        final List<TimeSeriesCollection> expected = tsdata.subList(2, 6).stream()
+                .map(tsc -> new SimpleTimeSeriesCollection(tsc.getTimestamp(), Stream.of(tsc.get(BAZ).get())))
+                .collect(Collectors.toList());
+        assertEquals(expected, fd.stream(NOW.plusMinutes(2), NOW.plusMinutes(5), filter).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void streamRange() throws Exception {
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+
+        assertEquals(tsdata.subList(3, 10), fd.stream(NOW.plusMinutes(3)).collect(Collectors.toList()));
+        assertEquals(tsdata.subList(3, 4), fd.stream(NOW.plusMinutes(3), NOW.plusMinutes(3)).collect(Collectors.toList()));
+        assertEquals(emptyList(), fd.stream(NOW.plusMinutes(10), NOW.plusMinutes(20)).collect(Collectors.toList()));
+        assertEquals(emptyList(), fd.stream(NOW.minusMinutes(20), NOW.minusMinutes(10)).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void filterAll() throws Exception {
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+
+        assertEquals(tsdata, fd.stream(TimeSeriesMetricFilter.ALL_GROUPS).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void packedMetrics() throws Exception {
+        final List<TimeSeriesCollection> mixed = mixedData();
+        writeTables(mixed, true);
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+
+        assertEquals(Const.MINOR, fd.getMinor());
+        assertEquals(mixed, fd.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void unpackedMetrics() throws Exception {
+        final List<TimeSeriesCollection> mixed = mixedData();
+        writeTables(mixed, false);
+        final ReadonlyTableFile fd = open(Long.MAX_VALUE);
+
+        assertEquals(0, fd.getMinor());
+        assertEquals(mixed, fd.stream().collect(Collectors.toList()));
+    }
+
+    private void writeTables(List<TimeSeriesCollection> data, boolean packedMetrics) throws Exception {
+        try (FileChannel out = FileChannel.open(tmpfile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ToXdrTables tables = new ToXdrTables(packedMetrics)) {
+            tables.addAll(data);
+            tables.build(out, Compression.NONE);
+        }
+    }
+
+    private static List<TimeSeriesCollection> mixedData() {
+        return IntStream.range(0, 40)
+                .mapToObj(i -> {
+                    final Map<MetricName, MetricValue> metrics = new HashMap<>();
+                    if (i % 7 != 3)
+                        metrics.put(MetricName.valueOf("counter"), MetricValue.fromIntValue(Long.MAX_VALUE - 1000 + 17 * i));
+                    metrics.put(MetricName.valueOf("gauge"), MetricValue.fromIntValue(i % 5 == 0 ? Integer.MIN_VALUE : (i % 3) - 1));
+                    if (i % 4 == 0)
+                        metrics.put(MetricName.valueOf("dbl"), MetricValue.fromDblValue(0.5 * (i / 8)));
+                    else if (i % 4 == 1)
+                        metrics.put(MetricName.valueOf("dbl"), MetricValue.fromDblValue(i == 1 ? Double.MIN_VALUE : -1e300 / i));
+                    else if (i % 4 == 2)
+                        metrics.put(MetricName.valueOf("dbl"), MetricValue.fromStrValue("s" + (i % 3)));
+                    else
+                        metrics.put(MetricName.valueOf("dbl"), MetricValue.EMPTY);
+                    metrics.put(MetricName.valueOf("flag"), MetricValue.fromBoolean(i % 2 == 0));
+                    return new SimpleTimeSeriesCollection(NOW.plusSeconds(i), Stream.of(new ImmutableTimeSeriesValue(FOO_BAR, metrics)));
+                })
+                .collect(Collectors.toList());
+    }
+}
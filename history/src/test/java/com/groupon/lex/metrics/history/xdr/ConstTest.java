@@ -53,7 +53,6 @@ public class ConstTest {
     }
 
     @Test
-    @Ignore // enable once MINOR bump happens
     public void past_minor() {
         hdr.version_number = VERSION - 1;
         assertEquals(Const.Validation.OLD_MINOR, Const.validateHeader(hdr));
@@ -112,7 +111,6 @@ public class ConstTest {
     }
 
     @Test
-    @Ignore  // Enable when the first MINOR bump happens.
     public void happy_validate_or_throw_for_write() throws Exception {
         assertFalse(Const.validateHeaderOrThrowForWrite(hdr));
         hdr.version_number = VERSION - 1;  // old MINOR
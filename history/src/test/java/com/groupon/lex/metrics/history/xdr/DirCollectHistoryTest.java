@@ -6,9 +6,11 @@
 package com.groupon.lex.metrics.history.xdr;
 
 import static com.groupon.lex.metrics.history.xdr.TSDataFileChainTest.CHAIN_WIDTH;
+import com.groupon.lex.metrics.PathMatcher;
 import com.groupon.lex.metrics.history.xdr.support.FileSupport;
 import com.groupon.lex.metrics.history.xdr.support.StreamedCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -108,6 +110,21 @@ public class DirCollectHistoryTest {
         assertEquals(tsdata, hist.streamReversed().collect(Collectors.toList()));
     }
 
+    @Test
+    public void filtered() throws Exception {
+        List<TimeSeriesCollection> tsdata = create_tsdata_().limit(100).collect(Collectors.toList());
+        hist.addAll(tsdata);
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withGroup(new PathMatcher(new PathMatcher.LiteralNameMatch("test"), new PathMatcher.LiteralNameMatch("histogram")));
+
+        assertEquals(
+                tsdata.stream().map(filter::apply).collect(Collectors.toList()),
+                hist.stream(filter).collect(Collectors.toList()));
+        assertEquals(
+                tsdata.subList(10, 21).stream().map(filter::apply).collect(Collectors.toList()),
+                hist.stream(tsdata.get(10).getTimestamp(), tsdata.get(20).getTimestamp(), filter).collect(Collectors.toList()));
+    }
+
     /**
      * Get the size of all files in tmpdir.
      */
@@ -8,7 +8,9 @@ package com.groupon.lex.metrics.history.xdr;
 import com.groupon.lex.metrics.history.TSData;
 import com.groupon.lex.metrics.history.xdr.support.FileSupport;
 import com.groupon.lex.metrics.history.xdr.support.StreamedCollection;
+import com.groupon.lex.metrics.history.xdr.support.WriteBehindJournal;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -25,9 +27,11 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -79,7 +83,7 @@ public class TSDataFileChainTest {
     public void versioning() {
         fill_(1);
         assertEquals(Const.MAJOR, fd.getMajor());
-        assertEquals(Const.MINOR, fd.getMinor());
+        assertEquals(0, fd.getMinor());  // Append files use the list format, which is still 2.0.
     }
 
     @Test
@@ -97,6 +101,25 @@ public class TSDataFileChainTest {
         assertFalse(actual.hasNext());
     }
 
+    @Test
+    public void writeBehind() throws Exception {
+        final int COUNT = LARGE_COUNT;
+        fd.enableWriteBehind(16, Duration.millis(1));
+        fill_(COUNT);
+
+        // Queued collections are visible before they are written.
+        assertEquals(create_tsdata_().limit(COUNT).collect(Collectors.toList()), fd.stream().collect(Collectors.toList()));
+        assertEquals(create_tsdata_().skip(COUNT - 1).findAny().get().getTimestamp(), fd.getEnd());
+
+        fd.flushWriteBehind();
+        assertEquals(Long.valueOf(0), fd.getWriteBehindMetrics().get(WriteBehindJournal.QUEUE_DEPTH).getIntValue());
+        assertEquals(Long.valueOf(COUNT), fd.getWriteBehindMetrics().get(WriteBehindJournal.WRITTEN).getIntValue());
+
+        fd.disableWriteBehind();
+        assertTrue(fd.getWriteBehindMetrics().isEmpty());
+        assertEquals(create_tsdata_().limit(COUNT).collect(Collectors.toList()), fd.stream().collect(Collectors.toList()));
+    }
+
     @Test
     public void size() {
         assertTrue(fd.isEmpty());
@@ -167,6 +190,28 @@ public class TSDataFileChainTest {
         assertFalse(actual.hasNext());
     }
 
+    @Test
+    public void raw_collections_with_begin_and_end() {
+        final int COUNT = LARGE_COUNT;
+        fill_(COUNT);
+
+        final DateTime begin = create_tsdata_().skip(COUNT - 2).findAny().get().getTimestamp();
+        final DateTime end = create_tsdata_().skip(COUNT - 1).findAny().get().getTimestamp();
+
+        assertThat(fd.getRawCollections(begin, end).size(), lessThan(fd.getRawCollections().size()));
+        assertEquals(create_tsdata_().limit(COUNT).skip(COUNT - 2).collect(Collectors.toList()),
+                fd.stream(begin, end).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void stream_with_filter() {
+        final int COUNT = LARGE_COUNT;
+        fill_(COUNT);
+
+        assertEquals(create_tsdata_().limit(COUNT).collect(Collectors.toList()),
+                fd.stream(TimeSeriesMetricFilter.ALL_GROUPS).collect(Collectors.toList()));
+    }
+
     @Test
     public void contains() {
         final int COUNT = LARGE_COUNT;
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchIteratorTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void keepsOrder() {
+        final List<Integer> input = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        final Iterator<String> iter = new PrefetchIterator<>(input.iterator(), String::valueOf, x -> 1, executor, 4, 16);
+
+        final List<String> result = new ArrayList<>();
+        iter.forEachRemaining(result::add);
+        assertEquals(input.stream().map(String::valueOf).collect(Collectors.toList()), result);
+    }
+
+    @Test
+    public void boundedBytes() {
+        final AtomicInteger consumed = new AtomicInteger();
+        final AtomicInteger started = new AtomicInteger();
+        final Iterator<Integer> iter = new PrefetchIterator<>(
+                IntStream.range(0, 100).iterator(),
+                x -> {
+                    started.incrementAndGet();
+                    return x;
+                },
+                x -> 10,
+                executor, 4, 80);
+
+        while (iter.hasNext()) {
+            iter.next();
+            consumed.incrementAndGet();
+            // At most 80 bytes buffered, plus the elements being computed.
+            assertThat(started.get() - consumed.get(), lessThanOrEqualTo(8 + 4));
+        }
+        assertEquals(100, consumed.get());
+    }
+
+    @Test
+    public void elementLargerThanBudget() {
+        final List<Integer> input = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+        final Iterator<Integer> iter = new PrefetchIterator<>(input.iterator(), x -> x, x -> 1000, executor, 4, 10);
+
+        final List<Integer> result = new ArrayList<>();
+        iter.forEachRemaining(result::add);
+        assertEquals(input, result);
+    }
+
+    @Test
+    public void iteratesOnExecutor() {
+        final Thread consumer = Thread.currentThread();
+        final AtomicInteger onConsumer = new AtomicInteger();
+        final Iterator<Integer> underlying = new Iterator<Integer>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (Thread.currentThread() == consumer)
+                    onConsumer.incrementAndGet();
+                return i < 100;
+            }
+
+            @Override
+            public Integer next() {
+                if (Thread.currentThread() == consumer)
+                    onConsumer.incrementAndGet();
+                return i++;
+            }
+        };
+
+        final Iterator<Integer> iter = new PrefetchIterator<>(underlying, x -> x, x -> 1, executor, 4, 16);
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            ++count;
+        }
+        assertEquals(100, count);
+        assertEquals(0, onConsumer.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void propagatesException() {
+        final Iterator<Integer> iter = new PrefetchIterator<>(
+                Arrays.asList(1, 2, 3).iterator(),
+                x -> {
+                    if (x == 2)
+                        throw new IllegalStateException("failed");
+                    return x;
+                },
+                x -> 1,
+                executor, 2, 2);
+
+        assertEquals(Integer.valueOf(1), iter.next());
+        iter.next();
+    }
+
+    @Test
+    public void closeCancelsPending() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            final PrefetchIterator<Integer, Integer> iter = new PrefetchIterator<>(
+                    IntStream.range(0, 100).iterator(),
+                    x -> {
+                        started.incrementAndGet();
+                        try {
+                            blocked.await();
+                        } catch (InterruptedException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                        return x;
+                    },
+                    x -> 1,
+                    single, 8, 8);
+
+            assertTrue(iter.hasNext());
+            iter.close();
+            blocked.countDown();
+            single.shutdown();
+            assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertFalse(iter.hasNext());
+            assertThat(started.get(), lessThanOrEqualTo(1));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void empty() {
+        final Iterator<Integer> iter = new PrefetchIterator<>(new ArrayList<Integer>().iterator(), x -> x, x -> 1, executor, 2, 2);
+
+        assertFalse(iter.hasNext());
+        iter.next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badParallelism() {
+        new PrefetchIterator<>(new ArrayList<Integer>().iterator(), x -> x, x -> 1, executor, 0, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badBudget() {
+        new PrefetchIterator<>(new ArrayList<Integer>().iterator(), x -> x, x -> 1, executor, 2, -1);
+    }
+}
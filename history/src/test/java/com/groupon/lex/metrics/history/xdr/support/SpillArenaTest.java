@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillArenaTest {
+    private SpillArena arena;
+
+    @Before
+    public void setup() throws Exception {
+        arena = new SpillArena();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        arena.close();
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(ByteBuffer buf) {
+        final byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, arena.getSize());
+        assertEquals(0, arena.getChunkCount());
+    }
+
+    @Test
+    public void appendAndRead() throws Exception {
+        final FilePos foo = arena.append(bytes("foo"));
+        final FilePos barbaz = arena.append(bytes("barbaz"));
+
+        assertEquals(new FilePos(0, 3), foo);
+        assertEquals(new FilePos(3, 6), barbaz);
+        assertEquals(9, arena.getSize());
+        assertEquals(2, arena.getChunkCount());
+        assertEquals("barbaz", string(arena.read(barbaz)));
+        assertEquals("foo", string(arena.read(foo)));
+    }
+
+    @Test
+    public void concurrentAppends() throws Exception {
+        final List<FilePos> positions = IntStream.range(0, 1000)
+                .parallel()
+                .mapToObj(i -> {
+                    try {
+                        return arena.append(bytes("chunk-" + i));
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                })
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < positions.size(); ++i)
+            assertEquals("chunk-" + i, string(arena.read(positions.get(i))));
+        assertEquals(1000, arena.getChunkCount());
+        assertEquals(positions.stream().mapToLong(FilePos::getLen).sum(), arena.getSize());
+    }
+}
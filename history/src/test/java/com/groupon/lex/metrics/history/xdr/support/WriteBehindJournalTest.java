@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support;
+
+import com.groupon.lex.metrics.lib.GCCloseable;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class WriteBehindJournalTest {
+    private final List<TimeSeriesCollection> input = IntStream.range(0, 10)
+            .mapToObj(i -> new SimpleTimeSeriesCollection(new DateTime(1000000L * i, DateTimeZone.UTC), Stream.empty()))
+            .collect(Collectors.toList());
+
+    @Test
+    public void writesInBatches() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingWriter writer = new RecordingWriter(release);
+        final WriteBehindJournal journal = new WriteBehindJournal(100, Duration.ZERO, new ReentrantLock(), writer);
+
+        for (TimeSeriesCollection tsc : input)
+            journal.addAll(singletonList(tsc));
+        // Everything is still queued, since the writer is blocked.
+        assertEquals(input, journal.snapshot().stream().collect(Collectors.toList()));
+
+        release.countDown();
+        journal.flush();
+
+        assertEquals(0, journal.getQueueDepth());
+        assertEquals(input, writer.written);
+        // First batch holds only the first element, the remainder is written as one batch.
+        assertTrue(writer.batches <= 2);
+        assertEquals(Long.valueOf(input.size()), journal.getMetrics().get(WriteBehindJournal.WRITTEN).getIntValue());
+        assertTrue(journal.snapshot().isEmpty());
+    }
+
+    @Test
+    public void callerMayReuseCollection() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingWriter writer = new RecordingWriter(release);
+        final WriteBehindJournal journal = new WriteBehindJournal(100, Duration.ZERO, new ReentrantLock(), writer);
+        final TimeSeriesCollection reused = Mockito.mock(TimeSeriesCollection.class);
+        Mockito.when(reused.getTimestamp()).thenReturn(input.get(0).getTimestamp());
+        Mockito.when(reused.getTSValues()).thenReturn(emptyList());
+
+        journal.addAll(singletonList(reused));
+        // Refill the collection, the way the push registry does on its next cycle.
+        Mockito.when(reused.getTimestamp()).thenReturn(input.get(1).getTimestamp());
+
+        release.countDown();
+        journal.flush();
+        assertEquals(singletonList(input.get(0)), writer.written);
+    }
+
+    @Test
+    public void failedBatchIsKeptAndRetried() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final List<TimeSeriesCollection> written = new ArrayList<>();
+        final WriteBehindJournal journal = new WriteBehindJournal(100, Duration.ZERO, new ReentrantLock(), new WriteBehindJournal.BatchWriter() {
+            @Override
+            public void write(List<TimeSeriesCollection> batch) throws IOException {
+                if (failing.get())
+                    throw new IOException("expected failure");
+                written.addAll(batch);
+            }
+
+            @Override
+            public Optional<GCCloseable<FileChannel>> getFileChannel() {
+                return Optional.empty();
+            }
+        });
+
+        journal.addAll(input);
+        try {
+            journal.flush();
+            fail("flush should report the failed write");
+        } catch (IOException ex) {
+            /* SKIP */
+        }
+
+        assertEquals(input.size(), journal.getQueueDepth());
+        assertEquals(input, journal.snapshot().stream().collect(Collectors.toList()));
+        assertTrue(journal.getMetrics().get(WriteBehindJournal.FAILED_WRITES).getIntValue() >= 1);
+
+        failing.set(false);
+        journal.close();
+        assertEquals(0, journal.getQueueDepth());
+        assertEquals(input, written);
+    }
+
+    @Test(expected = IOException.class)
+    public void failedBatchIsReportedToAdd() throws Exception {
+        // Capacity 1: the second add waits for the writer, which fails.
+        final WriteBehindJournal journal = new WriteBehindJournal(1, Duration.ZERO, new ReentrantLock(), new WriteBehindJournal.BatchWriter() {
+            @Override
+            public void write(List<TimeSeriesCollection> batch) throws IOException {
+                throw new IOException("expected failure");
+            }
+
+            @Override
+            public Optional<GCCloseable<FileChannel>> getFileChannel() {
+                return Optional.empty();
+            }
+        });
+
+        journal.addAll(singletonList(input.get(0)));
+        journal.addAll(singletonList(input.get(1)));
+    }
+
+    @Test
+    public void boundedQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingWriter writer = new RecordingWriter(release);
+        final WriteBehindJournal journal = new WriteBehindJournal(2, Duration.ZERO, new ReentrantLock(), writer);
+
+        final Thread producer = new Thread(() -> {
+            try {
+                for (TimeSeriesCollection tsc : input)
+                    journal.addAll(singletonList(tsc));
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());  // Blocked on full queue.
+        assertTrue(journal.getQueueDepth() <= 2);
+
+        release.countDown();
+        producer.join();
+        journal.flush();
+        assertEquals(input, writer.written);
+    }
+
+    private static class RecordingWriter implements WriteBehindJournal.BatchWriter {
+        private final CountDownLatch release;
+        public final List<TimeSeriesCollection> written = new ArrayList<>();
+        public int batches = 0;
+
+        public RecordingWriter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void write(List<TimeSeriesCollection> batch) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            written.addAll(batch);
+            ++batches;
+        }
+
+        @Override
+        public Optional<GCCloseable<FileChannel>> getFileChannel() {
+            return Optional.empty();
+        }
+    }
+}
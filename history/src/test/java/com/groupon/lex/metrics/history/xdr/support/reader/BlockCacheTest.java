@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.reader;
+
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.history.xdr.support.DecodingException;
+import com.groupon.lex.metrics.history.xdr.support.FilePos;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class BlockCacheTest {
+    private static final ToLongFunction<Object> HEAP_BYTES = value -> 100;
+    private final long owner = BlockCache.newOwner();
+    private final AtomicInteger decodeCount = new AtomicInteger();
+
+    private SegmentReader<Object> counting(Object value) {
+        return () -> {
+            decodeCount.incrementAndGet();
+            return value;
+        };
+    }
+
+    @Test
+    public void cached() throws Exception {
+        final BlockCache cache = new BlockCache(1000000);
+        final Object value = new Object();
+        final SegmentReader<Object> reader = cache.cache(owner, new FilePos(0, 100), counting(value), HEAP_BYTES);
+
+        assertSame(value, reader.decode());
+        assertSame(value, reader.decode());
+        assertEquals(1, decodeCount.get());
+        assertEquals(100, cache.getBytes());
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(1, cache.getStats().missCount());
+    }
+
+    @Test
+    public void sharedBetweenReaders() throws Exception {
+        final BlockCache cache = new BlockCache(1000000);
+        final Object value = new Object();
+
+        assertSame(value, cache.cache(owner, new FilePos(0, 100), counting(value), HEAP_BYTES).decode());
+        assertSame(value, cache.cache(owner, new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode());
+        assertEquals(1, decodeCount.get());
+    }
+
+    @Test
+    public void distinctOwners() throws Exception {
+        final BlockCache cache = new BlockCache(1000000);
+
+        cache.cache(owner, new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode();
+        cache.cache(BlockCache.newOwner(), new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode();
+        assertEquals(2, decodeCount.get());
+    }
+
+    @Test
+    public void evictWhenFull() throws Exception {
+        final BlockCache cache = new BlockCache(250);
+        final SegmentReader<Object> first = cache.cache(owner, new FilePos(0, 100), counting(new Object()), HEAP_BYTES);
+
+        first.decode();
+        for (int i = 1; i <= 4; ++i)
+            cache.cache(owner, new FilePos(i * 100, 100), counting(new Object()), HEAP_BYTES).decode();
+        first.decode();
+
+        assertEquals(6, decodeCount.get());
+        assertThat(cache.getBytes(), lessThanOrEqualTo(250L));
+        assertThat(cache.getMetrics(), hasEntry(BlockCache.MAX_BYTES, MetricValue.fromIntValue(250)));
+    }
+
+    @Test
+    public void weighedByDecodedValue() throws Exception {
+        final BlockCache cache = new BlockCache(1000000);
+
+        cache.cache(owner, new FilePos(0, 10), counting(new int[1000]), value -> HeapSize.array(((int[])value).length, 4)).decode();
+        assertEquals(HeapSize.array(1000, 4), cache.getBytes());
+    }
+
+    @Test
+    public void invalidateOwner() throws Exception {
+        final BlockCache cache = new BlockCache(1000000);
+        final long other = BlockCache.newOwner();
+
+        cache.cache(owner, new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode();
+        cache.cache(other, new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode();
+        cache.invalidate(owner);
+
+        assertEquals(100, cache.getBytes());
+        cache.cache(owner, new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode();
+        cache.cache(other, new FilePos(0, 100), counting(new Object()), HEAP_BYTES).decode();
+        assertEquals(3, decodeCount.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void ioException() throws Exception {
+        new BlockCache(1000000).cache(owner, new FilePos(0, 100), () -> {
+            throw new IOException("test");
+        }, HEAP_BYTES).decode();
+    }
+
+    @Test(expected = DecodingException.class)
+    public void runtimeException() throws Exception {
+        new BlockCache(1000000).cache(owner, new FilePos(0, 100), () -> {
+            throw new DecodingException("test");
+        }, HEAP_BYTES).decode();
+    }
+
+    @Test
+    public void setDefault() {
+        final long orig = BlockCache.getDefault().getMaxBytes();
+        try {
+            BlockCache.setDefaultMaxBytes(17);
+            assertEquals(17, BlockCache.getDefault().getMaxBytes());
+        } finally {
+            BlockCache.setDefaultMaxBytes(orig);
+        }
+    }
+}
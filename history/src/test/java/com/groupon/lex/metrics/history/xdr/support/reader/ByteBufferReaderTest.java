@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.history.xdr.support.reader;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ByteBufferReaderTest {
+    private ByteBuffer data;
+
+    @Before
+    public void setup() {
+        data = ByteBuffer.allocate(8);
+        data.order(ByteOrder.BIG_ENDIAN);
+        data.putInt(17);
+        data.putInt(19);
+        data.flip();
+    }
+
+    @Test
+    public void read() throws Exception {
+        try (ByteBufferReader reader = new ByteBufferReader(data, 0)) {
+            ByteBuffer buf = reader.allocateByteBuffer(32);
+            buf.order(ByteOrder.BIG_ENDIAN);
+
+            int rlen = reader.read(buf);
+            buf.flip();
+
+            assertEquals(8, rlen);
+            assertEquals(17, buf.getInt());
+            assertEquals(19, buf.getInt());
+        }
+
+        // Buffer position is not modified.
+        assertEquals(0, data.position());
+        assertEquals(8, data.limit());
+    }
+
+    @Test
+    public void readAtPos() throws Exception {
+        try (ByteBufferReader reader = new ByteBufferReader(data, 4)) {
+            ByteBuffer buf = reader.allocateByteBuffer(32);
+            buf.order(ByteOrder.BIG_ENDIAN);
+
+            int rlen = reader.read(buf);
+            buf.flip();
+
+            assertEquals(4, rlen);
+            assertEquals(19, buf.getInt());
+        }
+    }
+
+    @Test
+    public void readContinue() throws Exception {
+        try (ByteBufferReader reader = new ByteBufferReader(data, 0)) {
+            ByteBuffer buf = reader.allocateByteBuffer(4);
+            buf.order(ByteOrder.BIG_ENDIAN);
+
+            assertEquals(4, reader.read(buf));
+            buf.flip();
+            assertEquals(17, buf.getInt());
+
+            buf.clear();
+            assertEquals(4, reader.read(buf));
+            buf.flip();
+            assertEquals(19, buf.getInt());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void eof() throws Exception {
+        try (ByteBufferReader reader = new ByteBufferReader(data, 4)) {
+            ByteBuffer buf = reader.allocateByteBuffer(32);
+
+            while (buf.hasRemaining())
+                reader.read(buf);
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void offsetBeyondEnd() throws Exception {
+        new ByteBufferReader(data, 9);
+    }
+}
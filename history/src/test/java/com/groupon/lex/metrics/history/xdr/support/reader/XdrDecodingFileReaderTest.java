@@ -31,6 +31,7 @@
  */
 package com.groupon.lex.metrics.history.xdr.support.reader;
 
+import java.io.EOFException;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -86,4 +87,26 @@ public class XdrDecodingFileReaderTest {
             }
         }
     }
+
+    @Test
+    public void decodeFromBuffer() throws Exception {
+        try (FileChannel fd = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer data = fd.map(FileChannel.MapMode.READ_ONLY, 0, fd.size());
+            try (XdrDecodingFileReader reader = new XdrDecodingFileReader(data)) {
+                reader.beginDecoding();
+                assertEquals(EXPECT_INT, reader.xdrDecodeInt());
+                assertArrayEquals(EXPECT_OPAQUE, reader.xdrDecodeDynamicOpaque());
+                reader.endDecoding();
+            }
+            assertEquals(0, data.position());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void decodePastBufferEnd() throws Exception {
+        final ByteBuffer data = ByteBuffer.allocate(2);
+        try (XdrDecodingFileReader reader = new XdrDecodingFileReader(data)) {
+            reader.xdrDecodeInt();
+        }
+    }
 }
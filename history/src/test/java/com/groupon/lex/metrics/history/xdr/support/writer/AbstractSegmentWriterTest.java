@@ -84,6 +84,27 @@ public class AbstractSegmentWriterTest {
         assertEquals(xdrAble, new FileChannelSegmentReader<>(XdrAbleImpl::new, fd, pos, Compression.DEFAULT_APPEND).decode());
     }
 
+    @Test
+    public void writeEncoded() throws Exception {
+        GCCloseable<FileChannel> fd = new GCCloseable<>(FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        AbstractSegmentWriter.Writer writer = new AbstractSegmentWriter.Writer(fd.get(), 0, Compression.DEFAULT_APPEND, false);
+        FilePos pos1 = writer.write(AbstractSegmentWriter.Writer.encode(xdrAble, Compression.DEFAULT_APPEND, false));
+        FilePos pos2 = writer.write(AbstractSegmentWriter.Writer.encode(xdrAble, Compression.DEFAULT_APPEND, true));
+
+        assertEquals(xdrAble, new FileChannelSegmentReader<>(XdrAbleImpl::new, fd, pos1, Compression.DEFAULT_APPEND).decode());
+        assertEquals(xdrAble, new FileChannelSegmentReader<>(XdrAbleImpl::new, fd, pos2, Compression.DEFAULT_APPEND).decode());
+    }
+
+    @Test
+    public void encodeMatchesWrite() throws Exception {
+        GCCloseable<FileChannel> fd = new GCCloseable<>(FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        FilePos pos = new AbstractSegmentWriter.Writer(fd.get(), 0, Compression.NONE, false).write(xdrAble);
+        AbstractSegmentWriter.EncodedSegment encoded = AbstractSegmentWriter.Writer.encode(xdrAble, Compression.NONE, false);
+
+        assertEquals(pos.getLen(), encoded.getLen());
+        assertEquals(fd.get().size(), encoded.getData().remaining());
+    }
+
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
@@ -1,6 +1,8 @@
 package com.groupon.lex.metrics.history;
 
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import static com.groupon.lex.metrics.history.HistoryContext.LOOK_BACK;
 import static com.groupon.lex.metrics.history.HistoryContext.LOOK_FORWARD;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
@@ -11,7 +13,9 @@ import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
 import com.groupon.lex.metrics.timeseries.expression.Context;
+import java.nio.file.Path;
 import java.util.Collection;
+import static java.util.Collections.emptyMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
@@ -44,6 +48,25 @@ public interface CollectHistory {
 
     public long getFileSize();
 
+    /**
+     * Get metrics describing the operation of the history module, such as
+     * cache usage.
+     */
+    public default Map<MetricName, MetricValue> getHistoryMetrics() {
+        return emptyMap();
+    }
+
+    /**
+     * Get the directory in which consumers of the history may store
+     * checkpoints of state derived from the history.
+     *
+     * @return The checkpoint directory, or empty if the history has no
+     * location on disk.
+     */
+    public default Optional<Path> getCheckpointDirectory() {
+        return Optional.empty();
+    }
+
     /**
      * Get the highest timestamp covered by this TSData series.
      */
@@ -120,11 +143,67 @@ public interface CollectHistory {
                 .filter(ts -> !ts.getTimestamp().isBefore(begin) && !ts.getTimestamp().isAfter(end));
     }
 
+    /**
+     * Stream the history, holding only data selected by the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(TimeSeriesMetricFilter filter) {
+        return stream().map(filter::apply);
+    }
+
+    /**
+     * Stream the history, starting at the 'begin' timestamp (inclusive),
+     * holding only data selected by the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(DateTime begin, TimeSeriesMetricFilter filter) {
+        return stream(begin).map(filter::apply);
+    }
+
+    /**
+     * Stream the history, between the 'begin' timestamp (inclusive) and the
+     * 'end' timestamp (inclusive), holding only data selected by the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return stream(begin, end).map(filter::apply);
+    }
+
+    /**
+     * Stream the history, holding only data selected by the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(Duration stepsize, TimeSeriesMetricFilter filter) {
+        return stream(stepsize).map(filter::apply);
+    }
+
+    /**
+     * Stream the history, starting at the 'begin' timestamp (inclusive),
+     * holding only data selected by the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(DateTime begin, Duration stepsize, TimeSeriesMetricFilter filter) {
+        return stream(begin, stepsize).map(filter::apply);
+    }
+
+    /**
+     * Stream the history, between the 'begin' timestamp (inclusive) and the
+     * 'end' timestamp (inclusive), holding only data selected by the filter.
+     */
+    public default Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, Duration stepsize, TimeSeriesMetricFilter filter) {
+        return stream(begin, end, stepsize).map(filter::apply);
+    }
+
+    /**
+     * Stream a single group, holding only metrics selected by the filter.
+     */
+    public default Stream<Map.Entry<DateTime, TimeSeriesValue>> streamGroup(DateTime begin, GroupName group, TimeSeriesMetricFilter filter) {
+        return streamGroup(begin, group)
+                .map(entry -> filter.apply(entry.getValue()).map(tsv -> SimpleMapEntry.create(entry.getKey(), tsv)))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
     /**
      * Return a History Context for evaluating expressions.
      */
     public default Stream<Context> getContext(Duration stepsize, ExpressionLookBack lookback, TimeSeriesMetricFilter filter) {
-        return HistoryContext.stream(stream(stepsize), lookback);
+        return HistoryContext.stream(stream(stepsize, filter), lookback);
     }
 
     /**
@@ -132,7 +211,7 @@ public interface CollectHistory {
      * 'begin' timestamp (inclusive).
      */
     public default Stream<Context> getContext(DateTime begin, Duration stepsize, ExpressionLookBack lookback, TimeSeriesMetricFilter filter) {
-        return HistoryContext.stream(stream(begin.minus(lookback.hintDuration()), stepsize), lookback)
+        return HistoryContext.stream(stream(begin.minus(lookback.hintDuration()), stepsize, filter), lookback)
                 .filter(ctx -> !ctx.getTSData().getCurrentCollection().getTimestamp().isBefore(begin));
     }
 
@@ -141,7 +220,7 @@ public interface CollectHistory {
      * timestamp (inclusive) and the 'end' timestamp (inclusive).
      */
     public default Stream<Context> getContext(DateTime begin, DateTime end, Duration stepsize, ExpressionLookBack lookback, TimeSeriesMetricFilter filter) {
-        return HistoryContext.stream(stream(begin.minus(lookback.hintDuration()), end, stepsize), lookback)
+        return HistoryContext.stream(stream(begin.minus(lookback.hintDuration()), end, stepsize, filter), lookback)
                 .filter(ctx -> !ctx.getTSData().getCurrentCollection().getTimestamp().isBefore(begin));
     }
 
@@ -70,6 +70,7 @@ import ConfigBnf;
     import java.util.function.BiFunction;
     import java.util.function.Consumer;
     import java.util.Optional;
+    import java.util.OptionalInt;
     import org.joda.time.Duration;
     import com.groupon.lex.metrics.lib.Any2;
     import com.groupon.lex.metrics.lib.Any3;
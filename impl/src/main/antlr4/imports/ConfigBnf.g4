@@ -71,6 +71,7 @@ parser grammar ConfigBnf;
  *     import java.util.function.BiFunction;
  *     import java.util.function.Consumer;
  *     import java.util.Optional;
+ *     import java.util.OptionalInt;
  *     import org.joda.time.Duration;
  *     import com.groupon.lex.metrics.lib.Any2;
  *     import com.groupon.lex.metrics.lib.Any3;
@@ -125,13 +126,17 @@ collect_statement returns [ MonitorStatement s ]
                        throw new FailedPredicateException(this, "collector " + builderName + " is not instantiable", ex.getMessage());
                      }
                    }
-                   collect_stmt_parse[ builderInst ]
-                   { $s = new CollectorBuilderWrapper(builderName, builderInst); }
+                   parsed=collect_stmt_parse[ builderInst ]
+                   { $s = new CollectorBuilderWrapper(builderName, builderInst, $parsed.threads); }
                  ;
-collect_stmt_parse [ CollectorBuilder builder ]
+collect_stmt_parse [ CollectorBuilder builder ] returns [ OptionalInt threads ]
                  : collect_stmt_parse_main[ $builder ]
                    collect_stmt_parse_asPath[ $builder ]
+                   collect_stmt_parse_include[ $builder ]
+                   collect_stmt_parse_concurrency[ $builder ]
+                   thr=collect_stmt_parse_threads
                    collect_stmt_parse_tagSet[ $builder ]
+                   { $threads = $thr.threads; }
                  ;
 collect_stmt_parse_main [ CollectorBuilder builder ]
                  @init{
@@ -165,6 +170,36 @@ collect_stmt_parse_asPath [ CollectorBuilder builder ]
                    | /* SKIP */
                    )
                  ;
+collect_stmt_parse_include [ CollectorBuilder builder ]
+                 @init{
+                   List<List<String>> paths = new ArrayList<>();
+                 }
+                 : ( { $builder instanceof AcceptIncludePaths }?
+                     ( { _input.LT(1).getText().equals("include") }? ID
+                       path1=raw_dotted_identifier{ paths.add($path1.s); }
+                       ( COMMA_LIT pathN=raw_dotted_identifier{ paths.add($pathN.s); } )*
+                     )?
+                     { ((AcceptIncludePaths)$builder).setInclude(paths); }
+                   | /* SKIP */
+                   )
+                 ;
+collect_stmt_parse_concurrency [ CollectorBuilder builder ]
+                 : ( { $builder instanceof AcceptConcurrency }?
+                     ( { _input.LT(1).getText().equals("concurrency") }? ID n=uint_val
+                       { $n.s >= 1 && $n.s <= Integer.MAX_VALUE }?
+                       { ((AcceptConcurrency)$builder).setConcurrency(OptionalInt.of((int)$n.s)); }
+                     | { ((AcceptConcurrency)$builder).setConcurrency(OptionalInt.empty()); }
+                     )
+                   | /* SKIP */
+                   )
+                 ;
+collect_stmt_parse_threads returns [ OptionalInt threads ]
+                 : ( { _input.LT(1).getText().equals("threads") }? ID n=uint_val
+                     { $n.s >= 1 && $n.s <= Integer.MAX_VALUE }?
+                     { $threads = OptionalInt.of((int)$n.s); }
+                   | { $threads = OptionalInt.empty(); }
+                   )
+                 ;
 collect_stmt_parse_tagSet [ CollectorBuilder builder ]
                  : ( { $builder instanceof AcceptTagSet }?
                      tuples=opt_tuple_body
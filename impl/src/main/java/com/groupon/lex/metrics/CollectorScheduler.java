@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Schedules collector work on bounded, per-collector-type executors.
+ *
+ * Each collector type gets its own lane: a fixed number of threads, with a
+ * bounded queue in front. A collector that blocks can thus only exhaust the
+ * threads of its own type, instead of starving all other collectors. Work
+ * that doesn't fit in the queue is rejected.
+ *
+ * @author ariane
+ */
+public class CollectorScheduler implements AutoCloseable {
+    /**
+     * Default number of threads per collector type.
+     */
+    public static final int DEFAULT_CONCURRENCY = 32;
+    /**
+     * Default number of tasks that can wait for a thread, per collector type.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final AtomicLong THREAD_ID = new AtomicLong();
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> concurrency = new ConcurrentHashMap<>();
+    private final int defaultConcurrency;
+    private final int queueCapacity;
+
+    public CollectorScheduler() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Create a scheduler.
+     *
+     * @param defaultConcurrency The number of threads per collector type, for
+     * types that have no concurrency set.
+     * @param queueCapacity The number of tasks that can wait for a thread, per
+     * collector type.
+     */
+    public CollectorScheduler(int defaultConcurrency, int queueCapacity) {
+        if (defaultConcurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("queue capacity must be at least 1");
+        this.defaultConcurrency = defaultConcurrency;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Set the concurrency for a given collector type.
+     *
+     * If the lane for the collector type already exists, its pool is resized.
+     *
+     * @param type The collector type.
+     * @param threads The max number of threads for the collector type.
+     */
+    public void setConcurrency(@NonNull String type, int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        concurrency.put(type, threads);
+        lanes.computeIfPresent(type, (t, lane) -> {
+            lane.setThreads(threads);
+            return lane;
+        });
+    }
+
+    /**
+     * Retrieve the executor for the given collector type.
+     *
+     * @param type The collector type.
+     * @return An executor, that runs tasks on the lane for the collector type.
+     */
+    public Lane getExecutor(@NonNull String type) {
+        return lanes.computeIfAbsent(type, t -> new Lane(t, concurrency.getOrDefault(t, defaultConcurrency), queueCapacity));
+    }
+
+    /**
+     * Retrieve metrics for each collector type.
+     *
+     * @return Metrics, keyed by collector type.
+     */
+    public Map<String, Map<MetricName, MetricValue>> getMetrics() {
+        return lanes.values().stream()
+                .collect(Collectors.toMap(Lane::getType, Lane::getMetrics));
+    }
+
+    @Override
+    public void close() {
+        lanes.values().forEach(lane -> lane.pool.shutdown());
+    }
+
+    /**
+     * Executor for a single collector type.
+     */
+    public static class Lane implements Executor {
+        @Getter
+        private final String type;
+        private final int capacity;
+        private final ThreadPoolExecutor pool;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong queueWaitLast = new AtomicLong();
+        private final AtomicLong queueWaitTotal = new AtomicLong();
+
+        private Lane(String type, int threads, int capacity) {
+            this.type = type;
+            this.capacity = capacity;
+            this.pool = new ThreadPoolExecutor(threads, threads,
+                    5L, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<>(capacity),
+                    (Runnable r) -> {
+                        Thread thr = new Thread(r);
+                        thr.setDaemon(true);
+                        thr.setName("collector-" + type + "-0x" + Long.toUnsignedString(THREAD_ID.incrementAndGet() - 1L, 16));
+                        return thr;
+                    });
+            this.pool.allowCoreThreadTimeOut(true);
+        }
+
+        private void setThreads(int threads) {
+            // Order matters: the core size may never exceed the maximum size.
+            if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            final long tSubmit = System.nanoTime();
+            try {
+                pool.execute(() -> {
+                    final long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tSubmit);
+                    queueWaitLast.set(wait);
+                    queueWaitTotal.addAndGet(wait);
+                    command.run();
+                });
+            } catch (RejectedExecutionException ex) {
+                rejected.incrementAndGet();
+                throw ex;
+            }
+        }
+
+        private Map<MetricName, MetricValue> getMetrics() {
+            final int active = pool.getActiveCount();
+            final Map<MetricName, MetricValue> result = new HashMap<>();
+            result.put(MetricName.valueOf("concurrency"), MetricValue.fromIntValue(pool.getMaximumPoolSize()));
+            result.put(MetricName.valueOf("active"), MetricValue.fromIntValue(active));
+            result.put(MetricName.valueOf("saturated"), MetricValue.fromBoolean(active >= pool.getMaximumPoolSize()));
+            result.put(MetricName.valueOf("queue", "depth"), MetricValue.fromIntValue(pool.getQueue().size()));
+            result.put(MetricName.valueOf("queue", "capacity"), MetricValue.fromIntValue(capacity));
+            result.put(MetricName.valueOf("queue", "wait", "last"), MetricValue.fromIntValue(queueWaitLast.get()));
+            result.put(MetricName.valueOf("queue", "wait", "total"), MetricValue.fromIntValue(queueWaitTotal.get()));
+            result.put(MetricName.valueOf("rejected"), MetricValue.fromIntValue(rejected.get()));
+            result.put(MetricName.valueOf("completed"), MetricValue.fromIntValue(pool.getCompletedTaskCount()));
+            return result;
+        }
+    }
+
+    /**
+     * Latency of a single generator: the time between the start of the
+     * scrape and the generator completing all its groups.
+     */
+    public static class Latency {
+        private final AtomicLong last = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * Record the time a generator took to produce all its groups.
+         *
+         * @param msec Latency in milliseconds.
+         */
+        public void record(long msec) {
+            last.set(msec);
+            total.addAndGet(msec);
+            count.incrementAndGet();
+        }
+
+        public Map<MetricName, MetricValue> getMetrics() {
+            final Map<MetricName, MetricValue> result = new HashMap<>();
+            result.put(MetricName.valueOf("latency", "last"), MetricValue.fromIntValue(last.get()));
+            result.put(MetricName.valueOf("latency", "total"), MetricValue.fromIntValue(total.get()));
+            result.put(MetricName.valueOf("latency", "count"), MetricValue.fromIntValue(count.get()));
+            return result;
+        }
+    }
+}
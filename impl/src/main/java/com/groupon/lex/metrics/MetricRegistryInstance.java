@@ -33,7 +33,6 @@ package com.groupon.lex.metrics;
 
 import com.groupon.lex.metrics.api.endpoints.ListMetrics;
 import com.groupon.lex.metrics.httpd.EndpointRegistration;
-import com.groupon.lex.metrics.lib.Any2;
 import com.groupon.lex.metrics.misc.MonitorMonitor;
 import com.groupon.lex.metrics.timeseries.Alert;
 import com.groupon.lex.metrics.timeseries.ExpressionLookBack;
@@ -43,31 +42,30 @@ import com.groupon.lex.metrics.timeseries.TimeSeriesTransformer;
 import com.groupon.lex.metrics.timeseries.expression.Context;
 import com.groupon.lex.metrics.timeseries.expression.MutableContext;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singleton;
+import static java.util.Collections.unmodifiableMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import static java.util.Objects.requireNonNull;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.servlet.http.HttpServlet;
 import lombok.NonNull;
+import lombok.Value;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
@@ -77,24 +75,23 @@ import org.joda.time.Duration;
  */
 public abstract class MetricRegistryInstance implements MetricRegistry, AutoCloseable {
     private static final Logger LOG = Logger.getLogger(MetricRegistryInstance.class.getName());
-    private static final AtomicLong THREADPOOL_ID = new AtomicLong();
-    private static final ExecutorService THREADPOOL = new ThreadPoolExecutor(4, 1000,
-            5L, TimeUnit.MINUTES,
-            new SynchronousQueue<>(),
-            (Runnable r) -> {
-                Thread thr = new Thread(r);
-                thr.setDaemon(true);
-                thr.setName("metric-registry-thread-0x" + Long.toUnsignedString(THREADPOOL_ID.incrementAndGet() - 1L, 16));
-                return thr;
-            });
     private static final long MAX_COLLECTOR_WAIT_MSEC = 29 * 1000;  // msec
     private static final long COLLECTOR_POST_TIMEOUT_MSEC = 1 * 1000;  // msec
-    private final Collection<GroupGenerator> generators_ = new ArrayList<>();
-    private long failed_collections_ = 0;
+    private final List<ScheduledGenerator> generators_ = new ArrayList<>();
+    private final CollectorScheduler scheduler_ = new CollectorScheduler();
+    /**
+     * Held for the duration of a scrape, so generators never run concurrently
+     * with themselves.  This is separate from the registry lock, so that the
+     * registry stays usable while a scrape is in progress.
+     */
+    private final Object scrape_lock_ = new Object();
+    private volatile long failed_collections_ = 0;
     private final boolean has_config_;
-    private Optional<Duration> scrape_duration_ = Optional.empty();
+    private volatile Optional<Duration> scrape_duration_ = Optional.empty();
+    private volatile Optional<Duration> merge_duration_ = Optional.empty();
     private Optional<Duration> rule_eval_duration_ = Optional.empty();
     private Optional<Duration> processor_duration_ = Optional.empty();
+    private Map<GroupName, Map<MetricName, MetricValue>> processor_metrics_ = emptyMap();
     private final EndpointRegistration api_;
     private final Collection<TimeSeriesTransformer> decorators_ = new ArrayList<>();
     private Supplier<DateTime> now_;
@@ -122,13 +119,40 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
         return api_;
     }
 
-    public synchronized GroupGenerator add(GroupGenerator g) {
-        generators_.add(g);
+    public GroupGenerator add(GroupGenerator g) {
+        return add(g.getClass().getName(), g);
+    }
+
+    /**
+     * Add a generator, that is to run on the executor of the given collector
+     * type.
+     *
+     * @param collectorType The collector type, used to select the executor.
+     * @param g The generator to add.
+     * @return The generator.
+     */
+    public synchronized GroupGenerator add(@NonNull String collectorType, @NonNull GroupGenerator g) {
+        generators_.add(new ScheduledGenerator(collectorType, g));
         return g;
     }
 
     public synchronized void remove(GroupGenerator g) {
-        generators_.remove(g);
+        final Iterator<ScheduledGenerator> iter = generators_.iterator();
+        while (iter.hasNext()) {
+            if (Objects.equals(iter.next().getGenerator(), g)) {
+                iter.remove();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the scheduler that runs the collectors.
+     *
+     * @return The collector scheduler.
+     */
+    public CollectorScheduler getScheduler() {
+        return scheduler_;
     }
 
     /**
@@ -150,6 +174,15 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
         return scrape_duration_;
     }
 
+    /**
+     * Retrieve timing for merging the scraped data.
+     *
+     * @return The duration it took to merge the results of all scrapes.
+     */
+    public Optional<Duration> getMergeDuration() {
+        return merge_duration_;
+    }
+
     /**
      * Retrieve timing for rule evaluation.
      *
@@ -177,55 +210,118 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
         processor_duration_ = Optional.of(duration);
     }
 
-    private synchronized Stream<MutableTimeSeriesValue> streamGroups(DateTime now) {
-        final long t0 = System.nanoTime();
+    /**
+     * Retrieve metrics reported by processors.
+     *
+     * @return Processor metrics, keyed by the group under which they are
+     * published.
+     */
+    public Map<GroupName, Map<MetricName, MetricValue>> getProcessorMetrics() {
+        return processor_metrics_;
+    }
+
+    /**
+     * Retrieve latency metrics of each generator.
+     *
+     * Generators are identified by their collector type and their position
+     * among the generators of that type.
+     *
+     * @return Generator metrics, keyed by the group under which they are
+     * published.
+     */
+    public Map<GroupName, Map<MetricName, MetricValue>> getGeneratorMetrics() {
+        final List<ScheduledGenerator> generators;
+        synchronized (this) {
+            generators = new ArrayList<>(generators_);
+        }
+
+        final Map<String, Integer> typeIndex = new HashMap<>();
+        final Map<GroupName, Map<MetricName, MetricValue>> result = new HashMap<>();
+        for (ScheduledGenerator scheduled : generators) {
+            final int idx = typeIndex.merge(scheduled.getType(), 1, Integer::sum) - 1;
+            result.put(MonitorMonitor.generatorGroup(scheduled.getType(), idx), scheduled.getLatency().getMetrics());
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve metrics describing the history module.
+     *
+     * @return History metrics, or an empty map if there is no history.
+     */
+    public Map<MetricName, MetricValue> getHistoryMetrics() {
+        return emptyMap();
+    }
 
-        final CompletableFuture<GroupGenerator.TimeoutObject> timeout = new CompletableFuture<>();
-        Collection<MetricGroup> collections = derefFutures(generators_.stream()
-                .map(generator -> {
-                    try {
-                        return generator.getGroups(THREADPOOL, timeout);
-                    } catch (Exception ex) {
-                        CompletableFuture<? extends Collection<? extends MetricGroup>> failure = new CompletableFuture<>();
-                        failure.completeExceptionally(ex);
-                        return singleton(failure);
-                    }
-                })
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList()),
-                t0,
-                timeout);
-
-        /* Measure end time of collections. */
-        final long t_collections = System.nanoTime();
-        scrape_duration_ = Optional.of(Duration.millis(TimeUnit.NANOSECONDS.toMillis(t_collections - t0)));
-
-        Stream<MutableTimeSeriesValue> groups = collections.stream()
-                .collect(Collectors.toMap(MetricGroup::getName, Function.identity(), (x, y) -> y)) // Resolve group-name conflict, such that latest metric wins.
-                .values()
-                .stream()
-                .map((mg) -> new MutableTimeSeriesValue(mg.getName(), Arrays.stream(mg.getMetrics()), Metric::getName, Metric::getValue));
-        return groups;
+    /**
+     * Update the metrics reported by processors.
+     *
+     * @param metrics The most recent processor metrics.
+     */
+    public void updateProcessorMetrics(Map<GroupName, Map<MetricName, MetricValue>> metrics) {
+        processor_metrics_ = unmodifiableMap(requireNonNull(metrics));
+    }
+
+    private Collection<MutableTimeSeriesValue> streamGroups(DateTime now) {
+        synchronized (scrape_lock_) {
+            final long t0 = System.nanoTime();
+            final List<ScheduledGenerator> generators;
+            synchronized (this) {
+                generators = new ArrayList<>(generators_);
+            }
+
+            final CompletableFuture<GroupGenerator.TimeoutObject> timeout = new CompletableFuture<>();
+            final ShardedGroupMerge merge = derefFutures(generators.stream()
+                    .map(scheduled -> {
+                        try {
+                            final CollectorScheduler.Lane lane = scheduler_.getExecutor(scheduled.getType());
+                            final Collection<CompletableFuture<? extends Collection<? extends MetricGroup>>> futures = scheduled.getGenerator().getGroups(lane, timeout);
+                            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                                    .whenComplete((ignored, exc) -> scheduled.getLatency().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0)));
+                            return futures;
+                        } catch (Exception ex) {
+                            CompletableFuture<? extends Collection<? extends MetricGroup>> failure = new CompletableFuture<>();
+                            failure.completeExceptionally(ex);
+                            return singleton(failure);
+                        }
+                    })
+                    .flatMap(Collection::stream)
+                    .collect(Collectors.toList()),
+                    t0,
+                    timeout);
+
+            /* Measure end time of collections. */
+            final long t_collections = System.nanoTime();
+            scrape_duration_ = Optional.of(Duration.millis(TimeUnit.NANOSECONDS.toMillis(t_collections - t0)));
+
+            final List<MutableTimeSeriesValue> groups = merge.toTimeSeriesValues();
+            final long t_merge = System.nanoTime();
+            merge_duration_ = Optional.of(Duration.millis(TimeUnit.NANOSECONDS.toMillis(t_merge - t_collections)));
+            return groups;
+        }
     }
 
     /**
      * Handles collecting the future arguments, correctly firing the timeout.
      * This function also updates the failed_collections_ member variable.
      *
+     * Results are merged as the futures complete. Results that complete after
+     * the grace period are discarded.
+     *
      * @param futures The futures of MetricGroups to dereference.
      * @param t0_nsec The starting time of the scrape.
      * @param timeout The future that informs collectors of the timeout event.
-     * @return The dereferenced data from all futures that completed
-     * successfully and on time.
+     * @return The merged data from all futures that completed successfully
+     * and on time.
      */
-    private Collection<MetricGroup> derefFutures(Collection<CompletableFuture<? extends Collection<? extends MetricGroup>>> futures,
-                                                 long t0_nsec,
-                                                 CompletableFuture<GroupGenerator.TimeoutObject> timeout) {
+    private ShardedGroupMerge derefFutures(Collection<CompletableFuture<? extends Collection<? extends MetricGroup>>> futures,
+                                           long t0_nsec,
+                                           CompletableFuture<GroupGenerator.TimeoutObject> timeout) {
         long tDeadline1 = t0_nsec + TimeUnit.MILLISECONDS.toNanos(MAX_COLLECTOR_WAIT_MSEC);
         long tDeadline2 = t0_nsec + TimeUnit.MILLISECONDS.toNanos(COLLECTOR_POST_TIMEOUT_MSEC);
 
-        final List<MetricGroup> result = new ArrayList<>();
-        final BlockingQueue<Any2<Collection<? extends MetricGroup>, Throwable>> readyQueue = new LinkedBlockingQueue<>();
+        final ShardedGroupMerge result = new ShardedGroupMerge();
+        final BlockingQueue<Optional<Throwable>> readyQueue = new LinkedBlockingQueue<>();
         int failCount = 0;
         int pendingCount = futures.size();
         futures.forEach(fut -> {
@@ -233,10 +329,10 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
                 if (exc != null) {
                     if (!(exc instanceof CancellationException))
                         LOG.log(Level.INFO, "collector failed", exc);
-                    readyQueue.add(Any2.right(exc));
+                    readyQueue.add(Optional.of(exc));
                 }
                 if (value != null)
-                    readyQueue.add(Any2.left(value));
+                    result.deposit(value, () -> readyQueue.add(Optional.empty()));
                 return null;
             });
         });
@@ -246,7 +342,7 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
             final long tNow = System.nanoTime();
             if (tDeadline1 - tNow <= 0) break;  // GUARD
 
-            final Any2<Collection<? extends MetricGroup>, Throwable> readyItem;
+            final Optional<Throwable> readyItem;
             try {
                 readyItem = readyQueue.poll(tDeadline1 - tNow, TimeUnit.NANOSECONDS);
             } catch (InterruptedException ex) {
@@ -254,8 +350,7 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
                 continue;
             }
             if (readyItem != null) {
-                readyItem.getLeft().ifPresent(result::addAll);
-                if (readyItem.getRight().isPresent())
+                if (readyItem.isPresent())
                     ++failCount;
                 --pendingCount;
             }
@@ -269,7 +364,7 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
             final long tNow = System.nanoTime();
             if (tDeadline2 - tNow <= 0) break;  // GUARD
 
-            final Any2<Collection<? extends MetricGroup>, Throwable> readyItem;
+            final Optional<Throwable> readyItem;
             try {
                 readyItem = readyQueue.poll(tDeadline2 - tNow, TimeUnit.NANOSECONDS);
             } catch (InterruptedException ex) {
@@ -277,20 +372,20 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
                 continue;
             }
             if (readyItem != null) {
-                readyItem.getLeft().ifPresent(result::addAll);
-                if (readyItem.getRight().isPresent())
+                if (readyItem.isPresent())
                     ++failCount;
                 --pendingCount;
             }
         }
 
+        // Stop accepting data; every accepted deposit is now in readyQueue.
+        result.seal();
+
         // Collect everything that is present.
         while (pendingCount > 0) {
-            final Any2<Collection<? extends MetricGroup>, Throwable> readyItem
-                    = readyQueue.poll();
+            final Optional<Throwable> readyItem = readyQueue.poll();
             if (readyItem == null) break;  // GUARD
-            readyItem.getLeft().ifPresent(result::addAll);
-            if (readyItem.getRight().isPresent())
+            if (readyItem.isPresent())
                 ++failCount;
             --pendingCount;
         }
@@ -309,13 +404,14 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
      */
     @Override
     public void close() {
-        generators_.forEach((g) -> {
+        generators_.stream().map(ScheduledGenerator::getGenerator).forEach((g) -> {
             try {
                 g.close();
             } catch (Exception e) {
                 LOG.log(Level.SEVERE, "failed to close group generator " + g, e);
             }
         });
+        scheduler_.close();
         if (api_ instanceof AutoCloseable) {
             try {
                 ((AutoCloseable) api_).close();
@@ -388,4 +484,11 @@ public abstract class MetricRegistryInstance implements MetricRegistry, AutoClos
         // Return tsdata.
         return tsdata.getCurrentCollection();
     }
+
+    @Value
+    private static class ScheduledGenerator {
+        private final String type;
+        private final GroupGenerator generator;
+        private final CollectorScheduler.Latency latency = new CollectorScheduler.Latency();
+    }
 }
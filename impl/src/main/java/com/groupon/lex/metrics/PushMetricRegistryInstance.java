@@ -89,6 +89,20 @@ public class PushMetricRegistryInstance extends MetricRegistryInstance {
         return history_;
     }
 
+    @Override
+    public Map<MetricName, MetricValue> getHistoryMetrics() {
+        final Map<MetricName, MetricValue> lookBackMetrics = data_.getLookBackMetrics();
+        final Map<MetricName, MetricValue> historyMetrics = getHistory()
+                .map(CollectHistory::getHistoryMetrics)
+                .orElseGet(super::getHistoryMetrics);
+        if (lookBackMetrics.isEmpty())
+            return historyMetrics;
+
+        final Map<MetricName, MetricValue> result = new HashMap<>(historyMetrics);
+        result.putAll(lookBackMetrics);
+        return result;
+    }
+
     public TimeSeriesCollection getCollectionData() {
         return data_.getCurrentCollection();
     }
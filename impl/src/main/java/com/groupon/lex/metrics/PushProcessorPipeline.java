@@ -31,9 +31,11 @@
  */
 package com.groupon.lex.metrics;
 
+import com.groupon.lex.metrics.misc.MonitorMonitor;
 import com.groupon.lex.metrics.timeseries.Alert;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import java.util.ArrayList;
+import java.util.HashMap;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.unmodifiableList;
 import static java.util.Collections.unmodifiableMap;
@@ -104,6 +106,7 @@ public class PushProcessorPipeline extends AbstractProcessor<PushMetricRegistryI
 
             final long t_processor = System.nanoTime();
             registry_.updateProcessorDuration(Duration.millis(TimeUnit.NANOSECONDS.toMillis(t_processor - t0)));
+            registry_.updateProcessorMetrics(processorMetrics_());
         } catch (Throwable t) {
             /*
              * We catch any and all throwables.
@@ -114,6 +117,22 @@ public class PushProcessorPipeline extends AbstractProcessor<PushMetricRegistryI
         }
     }
 
+    /**
+     * Gather the metrics of each processor.
+     *
+     * Each processor is published under a group tagged with its class name.
+     */
+    private Map<GroupName, Map<MetricName, MetricValue>> processorMetrics_() {
+        final Map<GroupName, Map<MetricName, MetricValue>> result = new HashMap<>();
+        processors_.forEach(p -> {
+            final Map<MetricName, MetricValue> metrics = p.getProcessorMetrics();
+            if (metrics == null || metrics.isEmpty()) return;
+            result.computeIfAbsent(MonitorMonitor.processorGroup(p.getClass().getSimpleName()), k -> new HashMap<>())
+                    .putAll(metrics);
+        });
+        return result;
+    }
+
     public final int getIntervalSeconds() { return interval_seconds_; }
 
     private synchronized void stop_() {
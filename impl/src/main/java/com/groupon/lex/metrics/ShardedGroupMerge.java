@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics;
+
+import com.groupon.lex.metrics.timeseries.MutableTimeSeriesValue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Collects metric groups from collectors, as they complete.
+ *
+ * Groups are spread over a number of shards, based on their name. Each shard
+ * resolves group-name conflicts independently, such that the latest deposit
+ * wins. Once sealed, further deposits are rejected, so late collectors
+ * cannot modify the scrape while it is being converted.
+ *
+ * @author ariane
+ */
+public final class ShardedGroupMerge {
+    /**
+     * Number of shards used by a merge. Always a power of 2.
+     */
+    private static final int SHARD_COUNT = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+    private static final long SEALED = Long.MIN_VALUE;
+    private final ConcurrentHashMap<GroupName, Deposit>[] shards;
+    private final AtomicLong seq = new AtomicLong();
+    /**
+     * Number of in-flight deposits, with the sign bit set once sealed.
+     * Its monitor is used to wait for in-flight deposits, when sealing.
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public ShardedGroupMerge() {
+        shards = new ConcurrentHashMap[SHARD_COUNT];
+        for (int i = 0; i < shards.length; ++i)
+            shards[i] = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add groups to the merge.
+     *
+     * @param groups The groups to add.
+     * @param onAccept Invoked after the groups have been added, before the
+     * merge can be sealed.
+     * @return True if the groups were added, false if the merge was already
+     * sealed.
+     */
+    public boolean deposit(@NonNull Collection<? extends MetricGroup> groups, @NonNull Runnable onAccept) {
+        if (!enter_()) return false;
+        try {
+            final long depositSeq = seq.incrementAndGet();
+            for (MetricGroup group : groups) {
+                shards[shardIndex_(group.getName())].merge(
+                        group.getName(),
+                        new Deposit(depositSeq, group),
+                        (x, y) -> (x.getSeq() > y.getSeq() ? x : y));  // Resolve group-name conflict, such that latest metric wins.
+            }
+            onAccept.run();
+            return true;
+        } finally {
+            if (state.decrementAndGet() == SEALED) {
+                // Last in-flight deposit after sealing: wake up seal().
+                synchronized (state) {
+                    state.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reject all future deposits and wait for in-flight deposits to
+     * complete.
+     */
+    public void seal() {
+        long s;
+        do {
+            s = state.get();
+            if ((s & SEALED) != 0) break;
+        } while (!state.compareAndSet(s, s | SEALED));
+
+        boolean interrupted = false;
+        synchronized (state) {
+            while (state.get() != SEALED) {
+                try {
+                    state.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Convert all merged groups to time series values.
+     *
+     * Shards are converted in parallel.
+     *
+     * @return Time series values for each merged group.
+     */
+    public List<MutableTimeSeriesValue> toTimeSeriesValues() {
+        return Arrays.stream(shards)
+                .parallel()
+                .flatMap(shard -> shard.values().stream())
+                .map(Deposit::getGroup)
+                .map(mg -> new MutableTimeSeriesValue(mg.getName(), Arrays.stream(mg.getMetrics()), Metric::getName, Metric::getValue))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Number of distinct groups in the merge.
+     *
+     * @return The number of groups.
+     */
+    public int size() {
+        return Arrays.stream(shards).mapToInt(ConcurrentHashMap::size).sum();
+    }
+
+    private boolean enter_() {
+        long s;
+        do {
+            s = state.get();
+            if ((s & SEALED) != 0) return false;
+        } while (!state.compareAndSet(s, s + 1));
+        return true;
+    }
+
+    private static int shardIndex_(GroupName name) {
+        final int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (SHARD_COUNT - 1);
+    }
+
+    @Value
+    private static class Deposit {
+        private final long seq;
+        private final MetricGroup group;
+    }
+}
@@ -34,13 +34,15 @@ package com.groupon.lex.metrics.config;
 import static com.groupon.lex.metrics.ConfigSupport.collectorConfigString;
 import com.groupon.lex.metrics.MetricRegistryInstance;
 import com.groupon.lex.metrics.builders.collector.CollectorBuilder;
+import java.util.OptionalInt;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
+import lombok.NonNull;
 
 /**
  * CollectorBuilderWrapper wraps a builder.
  */
-@RequiredArgsConstructor
+@AllArgsConstructor
 @Getter
 public class CollectorBuilderWrapper implements MonitorStatement {
     /**
@@ -51,15 +53,26 @@ public class CollectorBuilderWrapper implements MonitorStatement {
      * Builder implementation.
      */
     private final CollectorBuilder builder;
+    /**
+     * Number of scheduler threads for the collector type.
+     */
+    @NonNull
+    private final OptionalInt threads;
+
+    public CollectorBuilderWrapper(String name, CollectorBuilder builder) {
+        this(name, builder, OptionalInt.empty());
+    }
 
     @Override
     public void apply(MetricRegistryInstance registry) throws Exception {
-        registry.add(builder.build(registry::addEndpoint));
+        // Configure the lane before the collector is added, so its first scrape uses the configured threads.
+        threads.ifPresent(n -> registry.getScheduler().setConcurrency(name, n));
+        registry.add(name, builder.build(registry::addEndpoint));
     }
 
     @Override
     public StringBuilder configString() {
-        return collectorConfigString(name, builder)
+        return collectorConfigString(name, builder, threads)
                 .append('\n');
     }
 }
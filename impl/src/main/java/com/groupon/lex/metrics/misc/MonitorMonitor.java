@@ -36,12 +36,15 @@ import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.MetricRegistryInstance;
 import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.MutableTimeSeriesCollectionPair;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import com.groupon.lex.metrics.Tags;
 import com.groupon.lex.metrics.timeseries.Alert;
 import com.groupon.lex.metrics.timeseries.ExpressionLookBack;
 import com.groupon.lex.metrics.timeseries.TimeSeriesTransformer;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
 import com.groupon.lex.metrics.timeseries.expression.Context;
 import static java.util.Collections.EMPTY_MAP;
+import static java.util.Collections.singletonMap;
 import java.util.HashMap;
 import java.util.Map;
 import static java.util.Objects.requireNonNull;
@@ -67,11 +70,16 @@ public class MonitorMonitor implements TimeSeriesTransformer {
     public static final GroupName MONITOR_DOWN_ALERT = GroupName.valueOf(ROOT_GROUP, "down");
     public static final GroupName HAS_CONFIG_ALERT = GroupName.valueOf(ROOT_GROUP, "configuration_missing");
     public static final GroupName MONITOR_FAIL_ALERT = MONITOR_GROUP;
+    public static final SimpleGroupPath PROCESSOR_PATH = SimpleGroupPath.valueOf(ROOT_GROUP, "processor");
+    public static final SimpleGroupPath SCHEDULER_PATH = SimpleGroupPath.valueOf(ROOT_GROUP, "scheduler");
+    public static final SimpleGroupPath GENERATOR_PATH = SimpleGroupPath.valueOf(ROOT_GROUP, "scheduler", "generator");
+    public static final GroupName HISTORY_GROUP = GroupName.valueOf(ROOT_GROUP, "history");
     public static final MetricName FAILED_COLLECTIONS_METRIC = MetricName.valueOf("failed_collections");
     public static final MetricName GROUP_COUNT_METRIC = MetricName.valueOf("groups");
     public static final MetricName METRIC_COUNT_METRIC = MetricName.valueOf("metric");
     public static final MetricName CONFIG_PRESENT_METRIC = MetricName.valueOf("has_config_file");
     public static final MetricName SCRAPE_DURATION = MetricName.valueOf("timing", "collectors");
+    public static final MetricName MERGE_DURATION = MetricName.valueOf("timing", "merge");
     public static final MetricName RULE_EVAL_DURATION = MetricName.valueOf("timing", "rule_eval");
     public static final MetricName PROCESSOR_DURATION = MetricName.valueOf("timing", "processor");
     public static final MetricName UPTIME_DURATION = MetricName.valueOf("scrape", "uptime");
@@ -98,6 +106,7 @@ public class MonitorMonitor implements TimeSeriesTransformer {
         final long failed_collections = registry_.getFailedCollections();
         final boolean has_config = registry_.hasConfig();
         final Optional<Duration> scrape_duration = registry_.getScrapeDuration();
+        final Optional<Duration> merge_duration = registry_.getMergeDuration();
         final Optional<Duration> rule_eval_duration = registry_.getRuleEvalDuration();
         final Optional<Duration> processor_duration = registry_.getProcessorDuration();
         first_scrape_ts_.compareAndSet(null, now);  // First time, register the timestamp.
@@ -119,6 +128,7 @@ public class MonitorMonitor implements TimeSeriesTransformer {
         result.put(METRIC_COUNT_METRIC, MetricValue.fromIntValue(metric_count));
         result.put(CONFIG_PRESENT_METRIC, MetricValue.fromBoolean(has_config));
         result.put(SCRAPE_DURATION, opt_duration_to_metricvalue_(scrape_duration));
+        result.put(MERGE_DURATION, opt_duration_to_metricvalue_(merge_duration));
         result.put(RULE_EVAL_DURATION, opt_duration_to_metricvalue_(rule_eval_duration));
         result.put(PROCESSOR_DURATION, opt_duration_to_metricvalue_(processor_duration));
         result.put(UPTIME_DURATION, duration_to_metricvalue_(uptime));
@@ -128,6 +138,42 @@ public class MonitorMonitor implements TimeSeriesTransformer {
         return result;
     }
 
+    /**
+     * Create the group name under which processor metrics are published.
+     *
+     * @param processor The name of the processor.
+     * @return The group name for the processor metrics.
+     */
+    public static GroupName processorGroup(String processor) {
+        return GroupName.valueOf(PROCESSOR_PATH, Tags.valueOf(singletonMap("processor", MetricValue.fromStrValue(processor))));
+    }
+
+    /**
+     * Create the group name under which collector scheduler metrics are
+     * published.
+     *
+     * @param collectorType The collector type.
+     * @return The group name for the scheduler metrics of the collector type.
+     */
+    public static GroupName schedulerGroup(String collectorType) {
+        return GroupName.valueOf(SCHEDULER_PATH, Tags.valueOf(singletonMap("collector", MetricValue.fromStrValue(collectorType))));
+    }
+
+    /**
+     * Create the group name under which generator metrics are published.
+     *
+     * @param collectorType The collector type of the generator.
+     * @param index The position of the generator among the generators of
+     * its collector type.
+     * @return The group name for the generator metrics.
+     */
+    public static GroupName generatorGroup(String collectorType, int index) {
+        final Map<String, MetricValue> tags = new HashMap<>();
+        tags.put("collector", MetricValue.fromStrValue(collectorType));
+        tags.put("generator", MetricValue.fromIntValue(index));
+        return GroupName.valueOf(GENERATOR_PATH, Tags.valueOf(tags));
+    }
+
     /**
      * Emit an alert monitor.down, which is in the OK state.
      *
@@ -138,6 +184,12 @@ public class MonitorMonitor implements TimeSeriesTransformer {
         DateTime now = ctx.getTSData().getCurrentCollection().getTimestamp();
 
         ctx.getTSData().getCurrentCollection().addMetrics(MONITOR_GROUP, get_metrics_(now, ctx));
+        registry_.getProcessorMetrics().forEach(ctx.getTSData().getCurrentCollection()::addMetrics);
+        registry_.getScheduler().getMetrics().forEach((type, metrics) -> ctx.getTSData().getCurrentCollection().addMetrics(schedulerGroup(type), metrics));
+        registry_.getGeneratorMetrics().forEach(ctx.getTSData().getCurrentCollection()::addMetrics);
+        final Map<MetricName, MetricValue> history_metrics = registry_.getHistoryMetrics();
+        if (!history_metrics.isEmpty())
+            ctx.getTSData().getCurrentCollection().addMetrics(HISTORY_GROUP, history_metrics);
 
         ctx.getAlertManager().accept(new Alert(now, MONITOR_DOWN_ALERT, () -> "builtin rule", Optional.of(false), Duration.ZERO, "builtin rule: monitor is not running for some time", EMPTY_MAP));
     }
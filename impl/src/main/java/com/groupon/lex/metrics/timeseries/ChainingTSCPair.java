@@ -1,6 +1,8 @@
 package com.groupon.lex.metrics.timeseries;
 
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.lib.ForwardIterator;
@@ -8,7 +10,6 @@ import com.groupon.lex.metrics.lib.LazyMap;
 import gnu.trove.TLongCollection;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
-import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.TObjectLongMap;
 import gnu.trove.map.hash.THashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
@@ -16,13 +17,26 @@ import gnu.trove.map.hash.TObjectLongHashMap;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 import static java.lang.Long.min;
-import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,22 +44,186 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
 
 public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
     private static final Logger LOG = Logger.getLogger(ChainingTSCPair.class.getName());
+    /**
+     * Default interval at which the look back window is checkpointed.
+     */
+    public static final Duration DEFAULT_CHECKPOINT_INTERVAL = Duration.standardMinutes(5);
+    /**
+     * Default age, relative to the end of history, after which checkpoints
+     * are considered stale and not used.
+     */
+    public static final Duration DEFAULT_CHECKPOINT_MAX_AGE = Duration.standardHours(1);
+    /**
+     * Name of the checkpoint file in the checkpoint directory of the history.
+     */
+    public static final String CHECKPOINT_FILE = "lookback.checkpoint";
+    /**
+     * Default number of bytes the value store may use, before group data is
+     * evicted.
+     *
+     * Values are weighed by an estimate of their heap size, see
+     * {@link #estimateBytes(TimeSeriesValue)}.
+     */
+    public static final long DEFAULT_VALUE_STORE_MAX_BYTES = 256L * 1024 * 1024;
+    /**
+     * Default fraction of the limit that the value store is reduced to, when
+     * evicting.
+     */
+    public static final double DEFAULT_VALUE_STORE_LOW_WATERMARK = 0.9;
+    private static final long[] EMPTY_TS = new long[0];
+    private static final TimeSeriesValue[] EMPTY_VALUES = new TimeSeriesValue[0];
+    private static final AtomicInteger CHECKPOINT_THR_IDX = new AtomicInteger();
+    private static final ExecutorService CHECKPOINT_POOL = Executors.newSingleThreadExecutor((Runnable r) -> {
+        final Thread thr = new Thread(r);
+        thr.setDaemon(true);
+        thr.setName("ChainingTSCPair-checkpoint-" + CHECKPOINT_THR_IDX.incrementAndGet());
+        return thr;
+    });
+
     @NonNull
     private final CollectHistory history;
     private final TimestampChain timestamps;
     private final Map<GroupName, TsvChain> data = new THashMap<>();
     private final TObjectLongMap<GroupName> activeGroups;
+    private final Optional<Path> checkpointFile;
+    private final Duration checkpointInterval;
+    private final long valueStoreMaxBytes;
+    private final double valueStoreLowWatermark;
+    /**
+     * Completes when the most recently started checkpoint has been written.
+     */
+    private volatile CompletableFuture<Void> lastCheckpoint = CompletableFuture.completedFuture(null);
+    private long lastCheckpointNanos = System.nanoTime();
+    private final Object limitLock = new Object();
+    private final AtomicLong storeBytes = new AtomicLong();
+    private final AtomicLong storeEvictions = new AtomicLong();
+    private final AtomicLong storeFaults = new AtomicLong();
+    private final AtomicLong accessClock = new AtomicLong();
+    /**
+     * Time taken to recover the look back window on construction.
+     */
+    @Getter
+    private final Duration recoveryTime;
+    /**
+     * True if the look back window was recovered from a checkpoint.
+     */
+    @Getter
+    private final boolean recoveredFromCheckpoint;
 
     public ChainingTSCPair(@NonNull CollectHistory history, @NonNull ExpressionLookBack lookback) {
+        this(history, lookback, Optional.empty());
+    }
+
+    /**
+     * Create a new pair, without checkpointing, with a value store of the
+     * given size.
+     *
+     * @param history The history that holds past collections.
+     * @param lookback The look back window to maintain.
+     * @param valueStoreMaxBytes Number of bytes the value store may use, see
+     * {@link #DEFAULT_VALUE_STORE_MAX_BYTES}.
+     * @param valueStoreLowWatermark Fraction of the limit that the value
+     * store is reduced to, when evicting.
+     */
+    public ChainingTSCPair(@NonNull CollectHistory history, @NonNull ExpressionLookBack lookback, long valueStoreMaxBytes, double valueStoreLowWatermark) {
+        this(history, lookback, Optional.empty(), DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_MAX_AGE, valueStoreMaxBytes, valueStoreLowWatermark);
+    }
+
+    /**
+     * Create a new pair, with the look back window checkpointed to the given
+     * file.
+     *
+     * If the checkpoint file exists and is usable, it is used to initialize
+     * the look back window, instead of scanning the history. Otherwise the
+     * history is scanned.
+     *
+     * @param history The history that holds past collections.
+     * @param lookback The look back window to maintain.
+     * @param checkpointFile The file in which the look back window is
+     * checkpointed.
+     */
+    public ChainingTSCPair(@NonNull CollectHistory history, @NonNull ExpressionLookBack lookback, @NonNull Optional<Path> checkpointFile) {
+        this(history, lookback, checkpointFile, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_MAX_AGE);
+    }
+
+    /**
+     * Create a new pair, with the look back window checkpointed to the given
+     * file at the given interval.
+     *
+     * @param history The history that holds past collections.
+     * @param lookback The look back window to maintain.
+     * @param checkpointFile The file in which the look back window is
+     * checkpointed.
+     * @param checkpointInterval Interval at which the look back window is
+     * checkpointed.
+     * @param checkpointMaxAge Checkpoints that are older than this, relative
+     * to the end of history, are considered stale and not used.
+     */
+    public ChainingTSCPair(@NonNull CollectHistory history, @NonNull ExpressionLookBack lookback, @NonNull Optional<Path> checkpointFile, @NonNull Duration checkpointInterval, @NonNull Duration checkpointMaxAge) {
+        this(history, lookback, checkpointFile, checkpointInterval, checkpointMaxAge, DEFAULT_VALUE_STORE_MAX_BYTES, DEFAULT_VALUE_STORE_LOW_WATERMARK);
+    }
+
+    /**
+     * Create a new pair, specifying all tunables.
+     *
+     * @param history The history that holds past collections.
+     * @param lookback The look back window to maintain.
+     * @param checkpointFile The file in which the look back window is
+     * checkpointed.
+     * @param checkpointInterval Interval at which the look back window is
+     * checkpointed.
+     * @param checkpointMaxAge Checkpoints that are older than this, relative
+     * to the end of history, are considered stale and not used.
+     * @param valueStoreMaxBytes Number of bytes the value store may use, see
+     * {@link #DEFAULT_VALUE_STORE_MAX_BYTES}.
+     * @param valueStoreLowWatermark Fraction of the limit that the value
+     * store is reduced to, when evicting.
+     */
+    public ChainingTSCPair(@NonNull CollectHistory history, @NonNull ExpressionLookBack lookback, @NonNull Optional<Path> checkpointFile, @NonNull Duration checkpointInterval, @NonNull Duration checkpointMaxAge, long valueStoreMaxBytes, double valueStoreLowWatermark) {
+        if (valueStoreMaxBytes < 0)
+            throw new IllegalArgumentException("negative value store limit");
+        if (valueStoreLowWatermark < 0 || valueStoreLowWatermark > 1)
+            throw new IllegalArgumentException("value store low watermark must be between 0 and 1");
         this.history = history;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+        this.valueStoreMaxBytes = valueStoreMaxBytes;
+        this.valueStoreLowWatermark = valueStoreLowWatermark;
+
+        final long startNanos = System.nanoTime();
+        final Optional<TscStreamReductor> fromCheckpoint = checkpointFile
+                .flatMap(file -> recoverFromCheckpoint(history, lookback, file, checkpointMaxAge));
+        final TscStreamReductor reduction = fromCheckpoint
+                .orElseGet(() -> recoverFromHistory(history, lookback));
+        this.timestamps = new TimestampChain(reduction.timestamps);
+        this.activeGroups = reduction.groups;
+        this.recoveredFromCheckpoint = fromCheckpoint.isPresent();
+        this.recoveryTime = Duration.millis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        LOG.log(Level.INFO, "recovered {0} scrapes from {1} in {2} ms",
+                new Object[]{timestamps.size(), recoveredFromCheckpoint ? "checkpoint" : "history", recoveryTime.getMillis()});
+
+        // Fill data with empty, faultable group data.
+        activeGroups.forEachKey(group -> {
+            data.put(group, new TsvChain());
+            return true;
+        });
+
+        validatePrevious();  // Should never trigger.
+    }
 
+    /**
+     * Recover the look back window by scanning history.
+     */
+    private static TscStreamReductor recoverFromHistory(CollectHistory history, ExpressionLookBack lookback) {
         Stream<TimeSeriesCollection> filtered;
         try {
             filtered = lookback.filter(new ForwardIterator<>(history.streamReversed().iterator()));
@@ -56,19 +234,68 @@ public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
             filtered = history.stream(begin, end);
         }
 
-        final TscStreamReductor reduction = filtered
+        return filtered
                 .collect(TscStreamReductor::new, TscStreamReductor::add, TscStreamReductor::addAll);
-        this.timestamps = new TimestampChain(reduction.timestamps);
-        this.activeGroups = reduction.groups;
-        LOG.log(Level.INFO, "recovered {0} scrapes from history", timestamps.size());
+    }
 
-        // Fill data with empty, faultable group data.
-        activeGroups.forEachKey(group -> {
-            data.put(group, new TsvChain());
-            return true;
-        });
+    /**
+     * Recover the look back window from a checkpoint, plus the collections
+     * that were added to history after the checkpoint was written.
+     *
+     * @return The recovered window, or empty if the checkpoint is missing or
+     * unusable.
+     */
+    private static Optional<TscStreamReductor> recoverFromCheckpoint(CollectHistory history, ExpressionLookBack lookback, Path file, Duration maxAge) {
+        if (!Files.exists(file))
+            return Optional.empty();
+
+        final LookBackCheckpoint checkpoint;
+        try {
+            checkpoint = LookBackCheckpoint.read(file);
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.WARNING, "unable to read checkpoint " + file + ", scanning history instead", ex);
+            return Optional.empty();
+        }
 
-        validatePrevious();  // Should never trigger.
+        if (checkpoint.getTimestamps().isEmpty())
+            return Optional.empty();
+        if (!checkpoint.getLookBackHint().equals(lookback.hintDuration())) {
+            LOG.log(Level.INFO, "look back changed since checkpoint was written, scanning history instead");
+            return Optional.empty();
+        }
+
+        final DateTime newest = new DateTime(LongStream.of(checkpoint.getTimestamps().toArray()).max().getAsLong(), DateTimeZone.UTC);
+        final DateTime end = history.getEnd();
+        if (newest.isAfter(end) || newest.isBefore(end.minus(maxAge))) {
+            LOG.log(Level.INFO, "checkpoint {0} is stale, scanning history instead", file);
+            return Optional.empty();
+        }
+
+        // Add everything that was written after the checkpoint.
+        final TscStreamReductor reduction = history.stream(newest.plus(1), end)
+                .collect(
+                        () -> new TscStreamReductor(new TLongHashSet(checkpoint.getTimestamps()), new TObjectLongHashMap<>(checkpoint.getGroups())),
+                        TscStreamReductor::add,
+                        TscStreamReductor::addAll);
+
+        // Apply the look back; if it wants to go past the oldest checkpointed
+        // timestamp, the checkpoint may be too short and we have to scan.
+        final long[] sortedTs = reduction.timestamps.toArray();
+        Arrays.sort(sortedTs);
+        final ExhaustionTrackingIterator probe = new ExhaustionTrackingIterator(sortedTs);
+        final TLongHashSet retainTs = lookback.filter(new ForwardIterator<>(probe))
+                .map(TimeSeriesCollection::getTimestamp)
+                .mapToLong(DateTime::getMillis)
+                .collect(TLongHashSet::new, TLongHashSet::add, TLongHashSet::addAll);
+        if (retainTs.isEmpty() || (probe.isExhausted() && retainTs.contains(sortedTs[0]))) {
+            LOG.log(Level.INFO, "checkpoint {0} does not cover look back, scanning history instead", file);
+            return Optional.empty();
+        }
+
+        reduction.timestamps.retainAll(retainTs);
+        final long oldestTs = LongStream.of(retainTs.toArray()).min().getAsLong();
+        reduction.groups.retainEntries((group, ts) -> ts >= oldestTs);
+        return Optional.of(reduction);
     }
 
     @Override
@@ -121,7 +348,51 @@ public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
         // Drop inactive groups.
         final long oldestTs = timestamps.backLong();
         activeGroups.retainEntries((group, ts) -> ts >= oldestTs);
-        data.keySet().retainAll(activeGroups.keySet());
+        data.entrySet().removeIf(entry -> {
+            if (activeGroups.containsKey(entry.getKey()))
+                return false;
+            entry.getValue().evict();  // Release accounted bytes.
+            return true;
+        });
+    }
+
+    /**
+     * Write a checkpoint in the background, if the checkpoint interval has
+     * expired.
+     */
+    private void maybeCheckpoint_(ExpressionLookBack lookback) {
+        if (!checkpointFile.isPresent())
+            return;
+        final long now = System.nanoTime();
+        if (now - lastCheckpointNanos < TimeUnit.MILLISECONDS.toNanos(checkpointInterval.getMillis()))
+            return;
+        if (!lastCheckpoint.isDone())
+            return;  // Previous checkpoint is still being written.
+        lastCheckpointNanos = now;
+
+        final LookBackCheckpoint checkpoint = new LookBackCheckpoint(
+                new TLongHashSet(timestamps.stream().toArray()),
+                new TObjectLongHashMap<>(activeGroups),
+                lookback.hintDuration());
+        final Path file = checkpointFile.get();
+        lastCheckpoint = CompletableFuture.runAsync(() -> {
+            try {
+                checkpoint.write(file);
+                LOG.log(Level.FINE, "wrote checkpoint {0}", file);
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.WARNING, "unable to write checkpoint " + file, ex);
+            }
+        }, CHECKPOINT_POOL);
+    }
+
+    /**
+     * Retrieve the most recently started checkpoint write.
+     *
+     * @return A future that completes once the checkpoint has been written,
+     * or writing it failed.
+     */
+    CompletableFuture<Void> getLastCheckpoint() {
+        return lastCheckpoint;
     }
 
     private void validatePrevious() {
@@ -137,6 +408,8 @@ public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
     protected final void update(TimeSeriesCollection tsc, ExpressionLookBack lookback, Runnable doBeforeValidation) {
         update_(tsc);
         apply_lookback_(lookback);
+        enforceLimit_();
+        maybeCheckpoint_(lookback);
         doBeforeValidation.run();
 
         validatePrevious();
@@ -210,82 +483,251 @@ public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
         }
     }
 
+    /** Size of an object header. */
+    private static final long OBJECT_BYTES = 16;
+    /** Size of a reference. */
+    private static final long REFERENCE_BYTES = 8;
+    /**
+     * Size of a hash map entry, including its slot in the table, excluding
+     * the key and value.
+     */
+    private static final long MAP_ENTRY_BYTES = OBJECT_BYTES + 4 + 3 * REFERENCE_BYTES + REFERENCE_BYTES;
+
+    /**
+     * Estimate the heap bytes a value uses in the store.
+     *
+     * Sizes follow the object layout of a 64-bit JVM without compressed
+     * references.  Group and metric names are interned, so only references
+     * to them are counted.
+     *
+     * @param tsv A group value.
+     * @return The estimated size of the value, in bytes.
+     */
+    static long estimateBytes(TimeSeriesValue tsv) {
+        long bytes = OBJECT_BYTES + 3 * REFERENCE_BYTES  // Value, with its name and metrics map.
+                + OBJECT_BYTES + 4 * REFERENCE_BYTES;  // Metrics map.
+        for (MetricValue value : tsv.getMetrics().values())
+            bytes += MAP_ENTRY_BYTES + estimateBytes(value);
+        return bytes;
+    }
+
+    private static long estimateBytes(MetricValue value) {
+        long bytes = OBJECT_BYTES + 8;
+        if (value.getStrValue() != null)
+            bytes += OBJECT_BYTES + 8 + OBJECT_BYTES + 8 + 2L * value.getStrValue().length();  // String and its characters.
+        if (value.getHistValue() != null)
+            bytes += OBJECT_BYTES + REFERENCE_BYTES + OBJECT_BYTES + 8  // Histogram and its bucket list.
+                    + value.getHistValue().stream().count() * (REFERENCE_BYTES + OBJECT_BYTES + 3 * 8 + OBJECT_BYTES + 2 * 8);  // Bucket and its range.
+        return bytes;
+    }
+
+    /**
+     * Evict least recently accessed group data until the store fits within
+     * its byte limit.
+     *
+     * Eviction shrinks the store to the low watermark fraction of the limit,
+     * so that eviction does not run on every update once the limit is
+     * reached. Evicted data is faulted back in from history on the next
+     * access.
+     */
+    private void enforceLimit_() {
+        final long limit = valueStoreMaxBytes;
+        if (storeBytes.get() <= limit)
+            return;
+
+        synchronized (limitLock) {
+            if (storeBytes.get() <= limit)
+                return;
+            final long target = (long)(limit * valueStoreLowWatermark);
+
+            final List<TsvChain> candidates = data.values().stream()
+                    .filter(TsvChain::isLoaded)
+                    .sorted(Comparator.comparingLong(TsvChain::getLastAccess))
+                    .collect(Collectors.toList());
+            int evicted = 0;
+            for (TsvChain tsvChain : candidates) {
+                if (storeBytes.get() <= target)
+                    break;
+                tsvChain.evict();
+                ++evicted;
+            }
+            storeEvictions.addAndGet(evicted);
+            LOG.log(Level.FINE, "evicted {0} groups, value store now holds {1} bytes", new Object[]{evicted, storeBytes.get()});
+        }
+    }
+
+    /**
+     * Retrieve metrics describing the look back window and its value store.
+     *
+     * @return Metrics describing the look back window.
+     */
+    public Map<MetricName, MetricValue> getMetrics() {
+        final Map<MetricName, MetricValue> result = new HashMap<>();
+        result.put(MetricName.valueOf("lookback", "scrapes"), MetricValue.fromIntValue(timestamps.size()));
+        result.put(MetricName.valueOf("lookback", "groups"), MetricValue.fromIntValue(data.size()));
+        result.put(MetricName.valueOf("lookback", "recovery_time"), MetricValue.fromIntValue(recoveryTime.getMillis()));
+        result.put(MetricName.valueOf("lookback", "recovered_from_checkpoint"), MetricValue.fromBoolean(recoveredFromCheckpoint));
+        result.put(MetricName.valueOf("lookback", "store", "bytes"), MetricValue.fromIntValue(storeBytes.get()));
+        result.put(MetricName.valueOf("lookback", "store", "max_bytes"), MetricValue.fromIntValue(valueStoreMaxBytes));
+        result.put(MetricName.valueOf("lookback", "store", "evictions"), MetricValue.fromIntValue(storeEvictions.get()));
+        result.put(MetricName.valueOf("lookback", "store", "faults"), MetricValue.fromIntValue(storeFaults.get()));
+        return result;
+    }
+
+    /**
+     * Estimated number of bytes used by the value store.
+     *
+     * @return The size of the value store, in bytes.
+     */
+    public long getValueStoreBytes() {
+        return storeBytes.get();
+    }
+
+    /**
+     * Values of a single group, for each retained timestamp.
+     *
+     * Timestamps are kept in a primitive array, sorted in ascending order,
+     * with the values in a parallel array. A chain is either loaded, in which
+     * case it holds all retained values of the group, or evicted, in which
+     * case values are faulted in from history on access.
+     */
     private class TsvChain {
+        private long[] ts = EMPTY_TS;
+        private TimeSeriesValue[] values = EMPTY_VALUES;
+        private int len = 0;
+        private boolean loaded;
+        private long bytes = 0;
         /**
-         * tailRefForAccess is used to access the value from requests for data
-         * access only. The internal clock in the soft reference is thus only
-         * advanced if the data is used, as opposed to when it is updated. This
-         * allows the GC to make intelligent decision on when to expire the
-         * referenced object.
-         */
-        private SoftReference<TLongObjectMap<TimeSeriesValue>> tailRefForAccess;
-        /**
-         * tailRefForUpdate is used to access the value for updates only. By
-         * using the weak reference, we don't impose a restriction on the GC to
-         * maintain the referenced object, allowing it to be collected if it
-         * hasn't been used in a while.
-         *
-         * It is important that the updates don't keep the object alive, hence
-         * we cannot access it through the tailRefForAccess pointer.
-         *
-         * This pointer is always kept in sync with tailRefForAccess (setting
-         * both by the code, while cleaning both by the GC).
+         * Access clock at last read access. Updates don't count as access, so
+         * data that is only maintained but never read is evicted first.
          */
-        private WeakReference<TLongObjectMap<TimeSeriesValue>> tailRefForUpdate;
+        @Getter
+        private volatile long lastAccess = 0;
 
         public TsvChain() {
-            tailRefForAccess = new SoftReference<>(null);
-            tailRefForUpdate = new WeakReference<>(null);
+            loaded = false;
         }
 
         public TsvChain(@NonNull DateTime initTs, @NonNull TimeSeriesValue initTsv) {
-            final TLongObjectHashMap<TimeSeriesValue> tail = new TLongObjectHashMap<>();
-            tail.put(initTs.getMillis(), initTsv);
-            tailRefForAccess = new SoftReference<>(tail);
-            tailRefForUpdate = new WeakReference<>(tail);
-        }
-
-        public synchronized void add(@NonNull DateTime ts, @NonNull TimeSeriesValue tv) {
-            final TLongObjectMap<TimeSeriesValue> tail = tailRefForUpdate.get();
-            if (tail != null)
-                tail.put(ts.getMillis(), tv);
-        }
-
-        public synchronized Optional<TimeSeriesValue> get(GroupName name, long ts) {
-            {
-                final TLongObjectMap<TimeSeriesValue> tail = tailRefForAccess.get();
-                /*
-                 * Use the tail values immediately, if any of the following is true:
-                 * - The timestamp ought to be included due to timestamps retention.
-                 * - The timestamp is present in tail.
-                 * - The tail contains at least one timestamp before/at the sought timestamp.
-                 */
-                if (tail != null && (timestamps.backLong() <= ts || tail.containsKey(ts) || !tail.keySet().forEach(v -> v > ts)))
-                    return Optional.ofNullable(tail.get(ts));
+            loaded = true;
+            add(initTs, initTsv);
+        }
+
+        public synchronized boolean isLoaded() {
+            return loaded;
+        }
+
+        public synchronized void add(@NonNull DateTime timestamp, @NonNull TimeSeriesValue tv) {
+            if (!loaded)
+                return;  // Value will be faulted in from history.
+
+            final long tsMillis = timestamp.getMillis();
+            final int idx;
+            if (len == 0 || ts[len - 1] < tsMillis) {
+                idx = len;
+            } else {
+                final int bsPos = Arrays.binarySearch(ts, 0, len, tsMillis);
+                if (bsPos >= 0) {
+                    updateBytes_(estimateBytes(tv) - estimateBytes(values[bsPos]));
+                    values[bsPos] = tv;
+                    return;
+                }
+                idx = -(bsPos + 1);
+            }
+
+            if (len == ts.length) {
+                final int newCap = Math.max(4, len * 2);
+                ts = Arrays.copyOf(ts, newCap);
+                values = Arrays.copyOf(values, newCap);
+            }
+            System.arraycopy(ts, idx, ts, idx + 1, len - idx);
+            System.arraycopy(values, idx, values, idx + 1, len - idx);
+            ts[idx] = tsMillis;
+            values[idx] = tv;
+            ++len;
+            updateBytes_(estimateBytes(tv));
+        }
+
+        public synchronized Optional<TimeSeriesValue> get(GroupName name, long tsMillis) {
+            lastAccess = accessClock.incrementAndGet();
+
+            /*
+             * Use the loaded values immediately, if any of the following is true:
+             * - The timestamp ought to be included due to timestamps retention.
+             * - The timestamp is present.
+             * - The chain contains at least one timestamp before/at the sought timestamp.
+             */
+            if (loaded) {
+                final int bsPos = Arrays.binarySearch(ts, 0, len, tsMillis);
+                if (bsPos >= 0)
+                    return Optional.of(values[bsPos]);
+                if (timestamps.backLong() <= tsMillis || (len > 0 && ts[0] <= tsMillis))
+                    return Optional.empty();
             }
 
             final DateTime streamStart;
             if (timestamps.isEmpty())
-                streamStart = new DateTime(ts, DateTimeZone.UTC);
+                streamStart = new DateTime(tsMillis, DateTimeZone.UTC);
             else
-                streamStart = new DateTime(min(timestamps.backLong(), ts), DateTimeZone.UTC);
+                streamStart = new DateTime(min(timestamps.backLong(), tsMillis), DateTimeZone.UTC);
 
-            final TLongObjectHashMap<TimeSeriesValue> tail = history.streamGroup(streamStart, name)
+            final TLongObjectHashMap<TimeSeriesValue> faulted = history.streamGroup(streamStart, name)
                     .unordered()
                     .parallel()
                     .collect(TLongObjectHashMap<TimeSeriesValue>::new,
                             (map, tsvEntry) -> map.put(tsvEntry.getKey().getMillis(), tsvEntry.getValue()),
                             TLongObjectHashMap::putAll);
-            tailRefForAccess = new SoftReference<>(tail);
-            tailRefForUpdate = new WeakReference<>(tail);
+            storeFaults.incrementAndGet();
+
+            final long[] newTs = faulted.keys();
+            Arrays.sort(newTs);
+            final TimeSeriesValue[] newValues = new TimeSeriesValue[newTs.length];
+            long newBytes = 0;
+            for (int i = 0; i < newTs.length; ++i) {
+                newValues[i] = faulted.get(newTs[i]);
+                newBytes += estimateBytes(newValues[i]);
+            }
+            ts = newTs;
+            values = newValues;
+            len = newTs.length;
+            loaded = true;
+            updateBytes_(newBytes - bytes);
+
+            return Optional.ofNullable(faulted.get(tsMillis));
+        }
 
-            return Optional.ofNullable(tail.get(ts));
+        public synchronized void retainAll(TLongCollection retain) {
+            int out = 0;
+            long removedBytes = 0;
+            for (int i = 0; i < len; ++i) {
+                if (retain.contains(ts[i])) {
+                    ts[out] = ts[i];
+                    values[out] = values[i];
+                    ++out;
+                } else {
+                    removedBytes += estimateBytes(values[i]);
+                }
+            }
+            Arrays.fill(values, out, len, null);
+            len = out;
+            updateBytes_(-removedBytes);
         }
 
-        public synchronized void retainAll(TLongCollection timestamps) {
-            final TLongObjectMap<TimeSeriesValue> tail = tailRefForUpdate.get();
-            if (tail != null)
-                tail.retainEntries((ts, value) -> timestamps.contains(ts));
+        /**
+         * Release all values, which will be faulted in from history on the
+         * next access.
+         */
+        public synchronized void evict() {
+            ts = EMPTY_TS;
+            values = EMPTY_VALUES;
+            len = 0;
+            loaded = false;
+            updateBytes_(-bytes);
+        }
+
+        private void updateBytes_(long delta) {
+            bytes += delta;
+            storeBytes.addAndGet(delta);
         }
     }
 
@@ -360,7 +802,9 @@ public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
                 final TsvChain tsvChain = data.get(name);
                 if (tsvChain == null)
                     return Optional.empty();
-                return tsvChain.get(name, ts);
+                final Optional<TimeSeriesValue> result = tsvChain.get(name, ts);
+                enforceLimit_();  // Faulting may have grown the store.
+                return result;
             } catch (Exception ex) {
                 LOG.log(Level.WARNING, "error while retrieving historical data", ex);
                 return Optional.empty(); // Pretend data is absent.
@@ -368,6 +812,37 @@ public abstract class ChainingTSCPair implements TimeSeriesCollectionPair {
         }
     }
 
+    /**
+     * Iterates timestamps in reverse chronological order, recording if the
+     * consumer tried to read past the last element.
+     */
+    private static class ExhaustionTrackingIterator implements Iterator<TimeSeriesCollection> {
+        private final long[] sortedTs;
+        private int idx;
+        @Getter
+        private boolean exhausted = false;
+
+        public ExhaustionTrackingIterator(long[] sortedTs) {
+            this.sortedTs = sortedTs;
+            this.idx = sortedTs.length;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (idx > 0)
+                return true;
+            exhausted = true;
+            return false;
+        }
+
+        @Override
+        public TimeSeriesCollection next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return new EmptyTimeSeriesCollection(new DateTime(sortedTs[--idx], DateTimeZone.UTC));
+        }
+    }
+
     @RequiredArgsConstructor
     private static class TscStreamReductor {
         private final TLongSet timestamps;
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.timeseries;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import com.groupon.lex.metrics.lib.SimpleMapEntry;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.joda.time.Duration;
+
+/**
+ * Checkpoint of the look back window of {@link ChainingTSCPair}.
+ *
+ * The checkpoint holds the retained timestamps and, for each active group,
+ * the most recent timestamp at which it was seen. Values are not stored: they
+ * are faulted in from history on demand.
+ *
+ * The file is written to a temporary file and then moved in place, so a crash
+ * during writing leaves the previous checkpoint intact. A CRC protects
+ * against truncated or damaged files.
+ *
+ * @author ariane
+ */
+@RequiredArgsConstructor
+@Getter
+public class LookBackCheckpoint {
+    private static final int MAGIC = 0x4d4c4243;  // "MLBC"
+    private static final int VERSION = 1;
+    private static final byte TAG_BOOL = 0;
+    private static final byte TAG_INT = 1;
+    private static final byte TAG_FLT = 2;
+    private static final byte TAG_STR = 3;
+
+    /**
+     * Retained timestamps, in milliseconds since the epoch.
+     */
+    @NonNull
+    private final TLongSet timestamps;
+    /**
+     * Active groups, mapped to the most recent timestamp they occur at.
+     */
+    @NonNull
+    private final TObjectLongMap<GroupName> groups;
+    /**
+     * The duration hint of the look back that created the checkpoint.
+     */
+    @NonNull
+    private final Duration lookBackHint;
+
+    /**
+     * Read a checkpoint file.
+     *
+     * @param file The file to read.
+     * @return The checkpoint in the file.
+     * @throws IOException If the file can't be read, or is damaged.
+     */
+    public static LookBackCheckpoint read(@NonNull Path file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream fileIn = new BufferedInputStream(Files.newInputStream(file))) {
+            final DataInputStream in = new DataInputStream(new CheckedInputStream(fileIn, crc));
+
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a checkpoint file: " + file);
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported checkpoint version " + version);
+
+            final Duration lookBackHint = Duration.millis(in.readLong());
+
+            final int tsCount = in.readInt();
+            final TLongSet timestamps = new TLongHashSet(tsCount);
+            for (int i = 0; i < tsCount; ++i)
+                timestamps.add(in.readLong());
+
+            final int groupCount = in.readInt();
+            final TObjectLongMap<GroupName> groups = new TObjectLongHashMap<>(groupCount);
+            for (int i = 0; i < groupCount; ++i) {
+                final GroupName group = readGroup_(in);
+                groups.put(group, in.readLong());
+            }
+
+            final long expectedCrc = crc.getValue();
+            if (new DataInputStream(fileIn).readLong() != expectedCrc)
+                throw new IOException("checkpoint CRC mismatch: " + file);
+
+            return new LookBackCheckpoint(timestamps, groups, lookBackHint);
+        }
+    }
+
+    /**
+     * Write the checkpoint to file, replacing the file atomically.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file can't be written, or the checkpoint
+     * contains groups with tags that can't be stored.
+     */
+    public void write(@NonNull Path file) throws IOException {
+        final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            final CRC32 crc = new CRC32();
+            try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tmpFile))) {
+                final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(lookBackHint.getMillis());
+
+                out.writeInt(timestamps.size());
+                for (long ts : timestamps.toArray())
+                    out.writeLong(ts);
+
+                out.writeInt(groups.size());
+                for (GroupName group : groups.keySet()) {
+                    writeGroup_(out, group);
+                    out.writeLong(groups.get(group));
+                }
+                out.flush();
+
+                new DataOutputStream(fileOut).writeLong(crc.getValue());
+            }
+
+            Files.move(tmpFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private static GroupName readGroup_(DataInputStream in) throws IOException {
+        final int pathLen = in.readInt();
+        final List<String> path = new ArrayList<>(pathLen);
+        for (int i = 0; i < pathLen; ++i)
+            path.add(in.readUTF());
+
+        final int tagCount = in.readInt();
+        final List<Map.Entry<String, MetricValue>> tags = new ArrayList<>(tagCount);
+        for (int i = 0; i < tagCount; ++i) {
+            final String name = in.readUTF();
+            final MetricValue value;
+            final byte type = in.readByte();
+            switch (type) {
+                case TAG_BOOL:
+                    value = MetricValue.fromBoolean(in.readBoolean());
+                    break;
+                case TAG_INT:
+                    value = MetricValue.fromIntValue(in.readLong());
+                    break;
+                case TAG_FLT:
+                    value = MetricValue.fromDblValue(in.readDouble());
+                    break;
+                case TAG_STR:
+                    value = MetricValue.fromStrValue(in.readUTF());
+                    break;
+                default:
+                    throw new IOException("unrecognized tag type " + type);
+            }
+            tags.add(SimpleMapEntry.create(name, value));
+        }
+
+        return GroupName.valueOf(SimpleGroupPath.valueOf(path), tags.stream());
+    }
+
+    private static void writeGroup_(DataOutputStream out, GroupName group) throws IOException {
+        final List<String> path = group.getPath().getPath();
+        out.writeInt(path.size());
+        for (String elem : path)
+            out.writeUTF(elem);
+
+        final Map<String, MetricValue> tags = group.getTags().asMap();
+        out.writeInt(tags.size());
+        for (Map.Entry<String, MetricValue> tag : tags.entrySet()) {
+            final MetricValue value = tag.getValue();
+            out.writeUTF(tag.getKey());
+            if (value.getBoolValue() != null) {
+                out.writeByte(TAG_BOOL);
+                out.writeBoolean(value.getBoolValue());
+            } else if (value.getIntValue() != null) {
+                out.writeByte(TAG_INT);
+                out.writeLong(value.getIntValue());
+            } else if (value.getFltValue() != null) {
+                out.writeByte(TAG_FLT);
+                out.writeDouble(value.getFltValue());
+            } else if (value.getStrValue() != null) {
+                out.writeByte(TAG_STR);
+                out.writeUTF(value.getStrValue());
+            } else {
+                throw new IOException("unsupported tag value for checkpoint: " + group);
+            }
+        }
+    }
+}
@@ -32,10 +32,15 @@
 package com.groupon.lex.metrics.timeseries;
 
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.MutableTimeSeriesCollectionPair;
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.history.CollectHistory;
+import static com.groupon.lex.metrics.timeseries.ChainingTSCPair.CHECKPOINT_FILE;
+import static java.util.Collections.emptyMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import lombok.Getter;
 import lombok.ToString;
@@ -135,8 +140,22 @@ public final class TimeSeriesCollectionPairInstance implements MutableTimeSeries
         return impl.size();
     }
 
+    /**
+     * Retrieve metrics describing the look back window.
+     *
+     * @return Look back metrics, or an empty map if the look back window is
+     * not backed by history.
+     */
+    public Map<MetricName, MetricValue> getLookBackMetrics() {
+        return impl.getMetrics();
+    }
+
     private static interface Impl extends TimeSeriesCollectionPair {
         public void startNewCycle(ExpressionLookBack lookback, Runnable doBeforeValidation);
+
+        public default Map<MetricName, MetricValue> getMetrics() {
+            return emptyMap();
+        }
     }
 
     @ToString(callSuper = true)
@@ -157,7 +176,7 @@ public final class TimeSeriesCollectionPairInstance implements MutableTimeSeries
     @ToString(callSuper = true)
     private class HistoryBackedImplementation extends ChainingTSCPair implements Impl {
         public HistoryBackedImplementation(CollectHistory history, ExpressionLookBack lookback) {
-            super(history, lookback);
+            super(history, lookback, history.getCheckpointDirectory().map(dir -> dir.resolve(CHECKPOINT_FILE)));
         }
 
         @Override
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollectorSchedulerTest {
+    private CollectorScheduler scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = new CollectorScheduler();
+    }
+
+    @After
+    public void cleanup() {
+        scheduler.close();
+    }
+
+    @Test
+    public void sameLanePerType() {
+        assertSame(scheduler.getExecutor("jmx"), scheduler.getExecutor("jmx"));
+        assertNotSame(scheduler.getExecutor("jmx"), scheduler.getExecutor("tcp"));
+        assertEquals(new HashSet<>(Arrays.asList("jmx", "tcp")), scheduler.getMetrics().keySet());
+    }
+
+    @Test
+    public void blockedLaneDoesNotAffectOthers() throws Exception {
+        scheduler.setConcurrency("blocked", 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        scheduler.getExecutor("blocked").execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        scheduler.getExecutor("other").execute(done::countDown);
+
+        try {
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(MetricValue.TRUE, scheduler.getMetrics().get("blocked").get(MetricName.valueOf("saturated")));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void setConcurrencyResizesExistingLane() {
+        scheduler.getExecutor("jmx");
+        scheduler.setConcurrency("jmx", 4);
+        assertEquals(Long.valueOf(4), scheduler.getMetrics().get("jmx").get(MetricName.valueOf("concurrency")).getIntValue());
+
+        scheduler.setConcurrency("jmx", 64);
+        assertEquals(Long.valueOf(64), scheduler.getMetrics().get("jmx").get(MetricName.valueOf("concurrency")).getIntValue());
+    }
+
+    @Test
+    public void setConcurrencyBeforeLaneExists() {
+        scheduler.setConcurrency("jmx", 3);
+        scheduler.getExecutor("jmx");
+        assertEquals(Long.valueOf(3), scheduler.getMetrics().get("jmx").get(MetricName.valueOf("concurrency")).getIntValue());
+    }
+
+    @Test
+    public void latency() {
+        final CollectorScheduler.Latency latency = new CollectorScheduler.Latency();
+        latency.record(10);
+        latency.record(30);
+
+        final Map<MetricName, MetricValue> metrics = latency.getMetrics();
+        assertEquals(Long.valueOf(30), metrics.get(MetricName.valueOf("latency", "last")).getIntValue());
+        assertEquals(Long.valueOf(40), metrics.get(MetricName.valueOf("latency", "total")).getIntValue());
+        assertEquals(Long.valueOf(2), metrics.get(MetricName.valueOf("latency", "count")).getIntValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badQueueCapacity() {
+        new CollectorScheduler(1, 0);
+    }
+
+    @Test
+    public void rejectWhenQueueFull() throws Exception {
+        scheduler.close();
+        scheduler = new CollectorScheduler(CollectorScheduler.DEFAULT_CONCURRENCY, 1);
+        scheduler.setConcurrency("full", 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final CollectorScheduler.Lane lane = scheduler.getExecutor("full");
+            lane.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            lane.execute(() -> {});  // Queued.
+            try {
+                lane.execute(() -> {});
+                throw new AssertionError("expected rejection");
+            } catch (RejectedExecutionException ex) {
+                // Expected.
+            }
+
+            final Map<MetricName, MetricValue> metrics = scheduler.getMetrics().get("full");
+            assertEquals(Long.valueOf(1), metrics.get(MetricName.valueOf("rejected")).getIntValue());
+            assertEquals(Long.valueOf(1), metrics.get(MetricName.valueOf("queue", "depth")).getIntValue());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -32,6 +32,7 @@
 package com.groupon.lex.metrics;
 
 import com.groupon.lex.metrics.httpd.EndpointRegistration;
+import com.groupon.lex.metrics.misc.MonitorMonitor;
 import com.groupon.lex.metrics.timeseries.Alert;
 import com.groupon.lex.metrics.timeseries.MutableTimeSeriesValue;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollectionPair;
@@ -41,6 +42,7 @@ import java.io.IOException;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
@@ -117,6 +119,7 @@ public class MetricRegistryInstanceTest {
         try (MetricRegistryInstance mr = create(true)) {
             assertTrue(mr.hasConfig());
 
+            assertEquals(Optional.empty(), mr.getMergeDuration());
             assertEquals(Optional.empty(), mr.getRuleEvalDuration());
             assertEquals(Optional.empty(), mr.getProcessorDuration());
         }
@@ -155,6 +158,25 @@ public class MetricRegistryInstanceTest {
         verify(generator, times(1)).close();
     }
 
+    @Test
+    public void generator_latency_per_generator() throws Exception {
+        when(generator.getGroups(Mockito.any(), Mockito.any()))
+                .thenReturn(singleton(CompletableFuture.completedFuture(singleton(new SimpleMetricGroup(GroupName.valueOf("test"), Stream.of(new SimpleMetric(MetricName.valueOf("x"), 17)))))));
+        when(extra_generator.getGroups(Mockito.any(), Mockito.any()))
+                .thenReturn(singleton(CompletableFuture.completedFuture(singleton(new SimpleMetricGroup(GroupName.valueOf("extra"), Stream.of(new SimpleMetric(MetricName.valueOf("x"), 19)))))));
+
+        try (MetricRegistryInstance mr = create(false)) {
+            mr.add("jmx", generator);
+            mr.add("jmx", extra_generator);
+            mr.updateCollection();
+
+            final Map<GroupName, Map<MetricName, MetricValue>> metrics = mr.getGeneratorMetrics();
+            assertEquals(2, metrics.size());
+            assertEquals(MetricValue.fromIntValue(1), metrics.get(MonitorMonitor.generatorGroup("jmx", 0)).get(MetricName.valueOf("latency", "count")));
+            assertEquals(MetricValue.fromIntValue(1), metrics.get(MonitorMonitor.generatorGroup("jmx", 1)).get(MetricName.valueOf("latency", "count")));
+        }
+    }
+
     @Test
     public void collectionContext_handling() throws Exception {
         try (MetricRegistryInstance mr = create(false)) {
@@ -175,6 +197,7 @@ public class MetricRegistryInstanceTest {
         try (MetricRegistryInstance mr = create(false)) {
             mr.add(generator);
             mr.updateCollection();
+            assertTrue(mr.getMergeDuration().isPresent());
         }
 
         verify(generator, times(1)).getGroups(Mockito.any(), Mockito.any());
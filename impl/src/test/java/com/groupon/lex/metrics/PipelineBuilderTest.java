@@ -4,6 +4,7 @@ import com.groupon.lex.metrics.api.ApiServer;
 import com.groupon.lex.metrics.config.Configuration;
 import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.httpd.EndpointRegistration;
+import java.util.Optional;
 import java.util.stream.Stream;
 import static org.hamcrest.Matchers.instanceOf;
 import org.joda.time.DateTime;
@@ -39,6 +40,7 @@ public class PipelineBuilderTest {
         when(history.stream()).thenAnswer((invocation) -> Stream.empty());
         when(history.stream(Mockito.any(DateTime.class), Mockito.any(DateTime.class))).thenAnswer((invocation) -> Stream.empty());
         when(history.getEnd()).thenReturn(DateTime.now(DateTimeZone.UTC));
+        when(history.getCheckpointDirectory()).thenReturn(Optional.empty());
     }
 
     @Test
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics;
+
+import com.groupon.lex.metrics.timeseries.MutableTimeSeriesValue;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ShardedGroupMergeTest {
+    private static MetricGroup group(String name, long value) {
+        return new SimpleMetricGroup(GroupName.valueOf(name), Stream.of(new SimpleMetric(MetricName.valueOf("x"), value)));
+    }
+
+    @Test
+    public void merge() {
+        final ShardedGroupMerge merge = new ShardedGroupMerge();
+        final AtomicInteger accepted = new AtomicInteger();
+        assertTrue(merge.deposit(asList(group("foo", 1), group("bar", 2)), accepted::incrementAndGet));
+        assertTrue(merge.deposit(singleton(group("foo", 3)), accepted::incrementAndGet));
+        merge.seal();
+
+        final Map<GroupName, MutableTimeSeriesValue> values = merge.toTimeSeriesValues().stream()
+                .collect(Collectors.toMap(MutableTimeSeriesValue::getGroup, Function.identity()));
+        assertEquals(2, accepted.get());
+        assertEquals(2, merge.size());
+        assertEquals(Long.valueOf(3), values.get(GroupName.valueOf("foo")).findMetric(MetricName.valueOf("x")).get().getIntValue());
+        assertEquals(Long.valueOf(2), values.get(GroupName.valueOf("bar")).findMetric(MetricName.valueOf("x")).get().getIntValue());
+    }
+
+    @Test
+    public void sealRejectsDeposits() {
+        final ShardedGroupMerge merge = new ShardedGroupMerge();
+        merge.seal();
+
+        assertFalse(merge.deposit(singleton(group("foo", 1)), () -> {
+            throw new AssertionError("rejected deposit must not be accepted");
+        }));
+        assertEquals(0, merge.size());
+    }
+
+    @Test(timeout = 10000)
+    public void sealWaitsForInFlightDeposit() throws Exception {
+        final ShardedGroupMerge merge = new ShardedGroupMerge();
+        final CountDownLatch inDeposit = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread depositor = new Thread(() -> {
+            merge.deposit(singleton(group("foo", 1)), () -> {
+                inDeposit.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        });
+        depositor.start();
+        inDeposit.await();
+
+        final Thread sealer = new Thread(merge::seal);
+        sealer.start();
+        sealer.join(200);
+        assertTrue(sealer.isAlive());  // Blocked on the in-flight deposit.
+
+        release.countDown();
+        sealer.join();
+        depositor.join();
+        assertEquals(1, merge.size());
+    }
+
+    @Test
+    public void concurrentDeposits() {
+        final ShardedGroupMerge merge = new ShardedGroupMerge();
+        IntStream.range(0, 1000)
+                .parallel()
+                .forEach(i -> merge.deposit(singleton(group("group" + i, i)), () -> {}));
+        merge.seal();
+
+        final List<MutableTimeSeriesValue> values = merge.toTimeSeriesValues();
+        assertEquals(1000, values.size());
+        assertEquals(1000, values.stream().map(MutableTimeSeriesValue::getGroup).distinct().count());
+    }
+}
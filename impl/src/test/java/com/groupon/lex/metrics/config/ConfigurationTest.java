@@ -35,6 +35,7 @@ import static com.groupon.lex.metrics.ConfigSupport.maybeQuoteIdentifier;
 import static com.groupon.lex.metrics.ConfigSupport.quotedString;
 import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.PushMetricRegistryInstance;
+import com.groupon.lex.metrics.collector.httpget.UrlJsonBuilder;
 import com.groupon.lex.metrics.expression.LiteralGroupExpression;
 import com.groupon.lex.metrics.httpd.EndpointRegistration;
 import com.groupon.lex.metrics.jmx.JmxBuilder;
@@ -44,6 +45,7 @@ import java.io.FileWriter;
 import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.OptionalInt;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import javax.management.ObjectName;
@@ -51,6 +53,7 @@ import org.hamcrest.Matchers;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
@@ -130,6 +133,49 @@ public class ConfigurationTest {
                 hasProperty("builder", hasProperty("main", contains("java.lang:*"))));
     }
 
+    @Test
+    public void listenerStatementWithConcurrency() throws Exception {
+        Configuration cfg = Configuration.readFromFile(null, new StringReader("collect jmx_listener \"java.lang:*\" concurrency 8;"));
+
+        MonitorStatement mon = cfg.getMonitors().iterator().next();
+        assertThat("monitor builder is a jmx builder", mon,
+                hasProperty("builder", instanceOf(JmxBuilder.class)));
+        assertThat("monitor uses concurrency 8", mon,
+                hasProperty("builder", hasProperty("concurrency", equalTo(OptionalInt.of(8)))));
+        assertEquals("collect jmx_listener \"java.lang:*\" concurrency 8;\n", mon.configString().toString());
+    }
+
+    @Test
+    public void listenerStatementWithoutConcurrency() throws Exception {
+        Configuration cfg = Configuration.readFromFile(null, new StringReader("collect jmx_listener \"java.lang:*\";"));
+
+        assertThat("monitor uses default concurrency", cfg.getMonitors().iterator().next(),
+                hasProperty("builder", hasProperty("concurrency", equalTo(OptionalInt.empty()))));
+    }
+
+    @Test
+    public void collectStatementWithThreads() throws Exception {
+        Configuration cfg = Configuration.readFromFile(null, new StringReader("collect jmx_listener \"java.lang:*\" threads 4;"));
+
+        MonitorStatement mon = cfg.getMonitors().iterator().next();
+        assertThat("monitor uses 4 threads", mon, hasProperty("threads", equalTo(OptionalInt.of(4))));
+        assertEquals("collect jmx_listener \"java.lang:*\" threads 4;\n", mon.configString().toString());
+    }
+
+    @Test
+    public void jsonUrlStatementWithInclude() throws Exception {
+        Configuration cfg = Configuration.readFromFile(null, new StringReader("collect json_url \"http://localhost/\" as json include data.stats, 'tag';"));
+
+        MonitorStatement mon = cfg.getMonitors().iterator().next();
+        assertThat("monitor builder is a json_url builder", mon,
+                hasProperty("builder", instanceOf(UrlJsonBuilder.class)));
+        assertThat("monitor includes paths", mon,
+                hasProperty("builder", hasProperty("include", contains(Arrays.asList("data", "stats"), Arrays.asList("tag")))));
+
+        Configuration reparsed = Configuration.readFromFile(null, new StringReader(cfg.configString().toString()));
+        assertEquals(cfg.configString().toString(), reparsed.configString().toString());
+    }
+
     @Test
     public void multilineListenerStatement() throws Exception {
         final Collection expected = new TreeSet<ObjectName>(Arrays.asList(new ObjectName("java.lang:*"), new ObjectName("metrics:*"))).stream()
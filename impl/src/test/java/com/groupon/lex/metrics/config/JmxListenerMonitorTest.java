@@ -90,7 +90,7 @@ public class JmxListenerMonitorTest {
     private Set<ObjectName> one_name, two_names;
     private CollectorBuilderWrapper mon_oneName, mon_twoNames;
     /**
-     * mri.add(GroupGenerator) adds to this collection.
+     * mri.add(String, GroupGenerator) adds to this collection.
      */
     private List<GroupGenerator> listeners;
     private ExecutorService threadpool;
@@ -116,8 +116,8 @@ public class JmxListenerMonitorTest {
         mon_twoNames = new CollectorBuilderWrapper("jmx_listener", newJmxBuilder(two_names, nbr));
 
         listeners = new ArrayList<>();
-        when(mri.add(Mockito.isA(GroupGenerator.class))).then(invocation -> {
-            final GroupGenerator g = invocation.getArgumentAt(0, GroupGenerator.class);
+        when(mri.add(Mockito.eq("jmx_listener"), Mockito.isA(GroupGenerator.class))).then(invocation -> {
+            final GroupGenerator g = invocation.getArgumentAt(1, GroupGenerator.class);
             listeners.add(g);
             return g;
         });
@@ -205,7 +205,7 @@ public class JmxListenerMonitorTest {
                                 listener("localhost", "9999", one_name, EMPTY_LIST, Tags.EMPTY)))));
 
         verify(nbr, times(1)).resolve();
-        verify(mri, times(1)).add(Mockito.any());
+        verify(mri, times(1)).add(Mockito.eq("jmx_listener"), Mockito.any());
         verifyNoMoreInteractions(mri, nbr);
     }
 
@@ -228,7 +228,7 @@ public class JmxListenerMonitorTest {
                                 listener("localhost", "9999", two_names, EMPTY_LIST, Tags.EMPTY)))));
 
         verify(nbr, times(1)).resolve();
-        verify(mri, times(1)).add(Mockito.any());
+        verify(mri, times(1)).add(Mockito.eq("jmx_listener"), Mockito.any());
         verifyNoMoreInteractions(mri, nbr);
     }
 
@@ -281,7 +281,7 @@ public class JmxListenerMonitorTest {
                 ));
 
         verify(nbr, times(1)).resolve();
-        verify(mri, times(1)).add(Mockito.any());
+        verify(mri, times(1)).add(Mockito.eq("jmx_listener"), Mockito.any());
         verifyNoMoreInteractions(mri, nbr);
     }
 
@@ -332,7 +332,7 @@ public class JmxListenerMonitorTest {
                 ));
 
         verify(nbr, times(1)).resolve();
-        verify(mri, times(1)).add(Mockito.any());
+        verify(mri, times(1)).add(Mockito.eq("jmx_listener"), Mockito.any());
         verifyNoMoreInteractions(mri, nbr);
     }
 
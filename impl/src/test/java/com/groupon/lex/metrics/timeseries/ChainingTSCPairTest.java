@@ -1,21 +1,31 @@
 package com.groupon.lex.metrics.timeseries;
 
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.lib.SimpleMapEntry;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import static java.util.Collections.EMPTY_MAP;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -100,4 +110,125 @@ public class ChainingTSCPairTest {
 
         verify(runnable, times(1)).run();
     }
+
+    @Test
+    public void checkpoint() throws Exception {
+        final Path checkpointFile = Files.createTempDirectory("monsoon-ChainingTSCPairTest").resolve(ChainingTSCPair.CHECKPOINT_FILE);
+        checkpointFile.getParent().toFile().deleteOnExit();
+        checkpointFile.toFile().deleteOnExit();
+        final TimeSeriesCollection update = new SimpleTimeSeriesCollection(TS0.minus(Duration.standardSeconds(15)), singleton(tsv1));
+        when(history.getEnd()).thenReturn(update.getTimestamp());
+        when(history.stream(Mockito.any(DateTime.class), Mockito.any(DateTime.class))).thenAnswer((invocation) -> Stream.empty());
+
+        try {
+            class Impl extends ChainingTSCPair {
+                public Impl() {
+                    super(history, ExpressionLookBack.fromScrapeCount(3), Optional.of(checkpointFile), Duration.ZERO, ChainingTSCPair.DEFAULT_CHECKPOINT_MAX_AGE);
+                }
+
+                @Override
+                public TimeSeriesCollection getCurrentCollection() {
+                    return current;
+                }
+
+                public void updateCycle() {
+                    update(update, ExpressionLookBack.fromScrapeCount(3), runnable);
+                }
+            }
+
+            final Impl first = new Impl();
+            assertFalse(first.isRecoveredFromCheckpoint());
+            first.updateCycle();
+            first.getLastCheckpoint().get(10, TimeUnit.SECONDS);
+            assertTrue(Files.exists(checkpointFile));
+
+            final Impl second = new Impl();
+            assertTrue(second.isRecoveredFromCheckpoint());
+            verify(history, times(1)).streamReversed();  // Only the first instance scanned history.
+            assertEquals(3, second.size() - 1);
+            assertEquals(update.getTimestamp(), second.getPreviousCollection(1).get().getTimestamp());
+            assertEquals(tsc1.getTimestamp(), second.getPreviousCollection(2).get().getTimestamp());
+            assertEquals(tsc2.getTimestamp(), second.getPreviousCollection(3).get().getTimestamp());
+        } finally {
+            Files.deleteIfExists(checkpointFile);
+        }
+    }
+
+    @Test
+    public void staleCheckpoint() throws Exception {
+        final Path checkpointFile = Files.createTempFile("monsoon-ChainingTSCPairTest", ".checkpoint");
+        checkpointFile.toFile().deleteOnExit();
+        final TObjectLongHashMap<GroupName> groups = new TObjectLongHashMap<>();
+        groups.put(GROUP_NAME, TS0.minus(Duration.standardDays(1)).getMillis());
+        new LookBackCheckpoint(new TLongHashSet(new long[]{TS0.minus(Duration.standardDays(1)).getMillis()}), groups, Duration.ZERO)
+                .write(checkpointFile);
+        when(history.getEnd()).thenReturn(tsc1.getTimestamp());
+
+        ChainingTSCPair tsdata = new ChainingTSCPair(history, ExpressionLookBack.fromScrapeCount(3), Optional.of(checkpointFile)) {
+            @Override
+            public TimeSeriesCollection getCurrentCollection() {
+                return current;
+            }
+        };
+
+        assertFalse(tsdata.isRecoveredFromCheckpoint());
+        assertEquals(3, tsdata.size());
+        assertEquals(tsc1, tsdata.getPreviousCollection());
+    }
+
+    @Test
+    public void valueStoreLimit() {
+        final TimeSeriesCollection update = new SimpleTimeSeriesCollection(TS0.minus(Duration.standardSeconds(15)), singleton(tsv1));
+        class Impl extends ChainingTSCPair {
+            public Impl(CollectHistory history, ExpressionLookBack lookback) {
+                super(history, lookback, 0, ChainingTSCPair.DEFAULT_VALUE_STORE_LOW_WATERMARK);
+            }
+
+            @Override
+            public TimeSeriesCollection getCurrentCollection() {
+                return current;
+            }
+
+            public void updateCycle() {
+                update(update, ExpressionLookBack.fromScrapeCount(3), runnable);
+            }
+        }
+
+        Impl tsdata = new Impl(history, ExpressionLookBack.fromScrapeCount(3));
+        assertEquals(tsv1, tsdata.getPreviousCollection().get(GROUP_NAME).get());
+        verify(history, times(1)).streamGroup(Mockito.any(), Mockito.eq(GROUP_NAME));
+        assertEquals(0, tsdata.getValueStoreBytes());  // Evicted immediately.
+
+        tsdata.updateCycle();
+        assertEquals(0, tsdata.getValueStoreBytes());
+        assertEquals(tsv2, tsdata.getPreviousCollection(3).get().get(GROUP_NAME).get());
+        verify(history, times(2)).streamGroup(Mockito.any(), Mockito.eq(GROUP_NAME));
+        assertEquals(Long.valueOf(2), tsdata.getMetrics().get(MetricName.valueOf("lookback", "store", "faults")).getIntValue());
+        assertEquals(Long.valueOf(2), tsdata.getMetrics().get(MetricName.valueOf("lookback", "store", "evictions")).getIntValue());
+    }
+
+    @Test
+    public void valueStoreWithinLimit() {
+        ChainingTSCPair tsdata = new ChainingTSCPair(history, ExpressionLookBack.fromScrapeCount(3)) {
+            @Override
+            public TimeSeriesCollection getCurrentCollection() {
+                return current;
+            }
+        };
+
+        assertEquals(tsv1, tsdata.getPreviousCollection().get(GROUP_NAME).get());
+        assertEquals(tsv2, tsdata.getPreviousCollection(2).get().get(GROUP_NAME).get());
+        verify(history, times(1)).streamGroup(Mockito.any(), Mockito.eq(GROUP_NAME));
+        assertTrue(tsdata.getValueStoreBytes() > 0);
+    }
+
+    @Test
+    public void estimateBytesGrowsWithValues() {
+        final TimeSeriesValue small = new ImmutableTimeSeriesValue(GROUP_NAME, singletonMap(MetricName.valueOf("x"), MetricValue.fromStrValue("a")));
+        final TimeSeriesValue longString = new ImmutableTimeSeriesValue(GROUP_NAME, singletonMap(MetricName.valueOf("x"), MetricValue.fromStrValue("a very much longer string value")));
+
+        assertTrue(ChainingTSCPair.estimateBytes(tsv1) > 0);
+        assertTrue(ChainingTSCPair.estimateBytes(small) > ChainingTSCPair.estimateBytes(tsv1));
+        assertTrue(ChainingTSCPair.estimateBytes(longString) > ChainingTSCPair.estimateBytes(small));
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.timeseries;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import com.groupon.lex.metrics.Tags;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.joda.time.Duration;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LookBackCheckpointTest {
+    private Path file;
+
+    @Before
+    public void setup() throws Exception {
+        file = Files.createTempFile("monsoon-LookBackCheckpointTest", ".checkpoint");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private static LookBackCheckpoint create() {
+        final Map<String, MetricValue> tags = new HashMap<>();
+        tags.put("bool", MetricValue.TRUE);
+        tags.put("int", MetricValue.fromIntValue(17));
+        tags.put("flt", MetricValue.fromDblValue(0.5));
+        tags.put("str", MetricValue.fromStrValue("foobar"));
+
+        final TObjectLongHashMap<GroupName> groups = new TObjectLongHashMap<>();
+        groups.put(GroupName.valueOf("foo", "bar"), 1000);
+        groups.put(GroupName.valueOf(SimpleGroupPath.valueOf("tagged"), Tags.valueOf(tags)), 2000);
+        return new LookBackCheckpoint(new TLongHashSet(new long[]{1000, 2000, 3000}), groups, Duration.standardMinutes(10));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final LookBackCheckpoint expected = create();
+        expected.write(file);
+
+        final LookBackCheckpoint actual = LookBackCheckpoint.read(file);
+        assertEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertEquals(expected.getGroups(), actual.getGroups());
+        assertEquals(expected.getLookBackHint(), actual.getLookBackHint());
+    }
+
+    @Test(expected = IOException.class)
+    public void damaged() throws Exception {
+        create().write(file);
+        try (FileChannel fd = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            fd.write(ByteBuffer.wrap(new byte[]{0x7f}), 20);
+        }
+
+        LookBackCheckpoint.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void notACheckpoint() throws Exception {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        LookBackCheckpoint.read(file);
+    }
+}
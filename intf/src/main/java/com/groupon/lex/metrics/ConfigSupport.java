@@ -32,6 +32,8 @@
 package com.groupon.lex.metrics;
 
 import com.groupon.lex.metrics.builders.collector.AcceptAsPath;
+import com.groupon.lex.metrics.builders.collector.AcceptConcurrency;
+import com.groupon.lex.metrics.builders.collector.AcceptIncludePaths;
 import com.groupon.lex.metrics.builders.collector.AcceptOptAsPath;
 import com.groupon.lex.metrics.builders.collector.AcceptTagSet;
 import com.groupon.lex.metrics.builders.collector.CollectorBuilder;
@@ -40,7 +42,10 @@ import com.groupon.lex.metrics.builders.collector.MainString;
 import com.groupon.lex.metrics.builders.collector.MainStringList;
 import com.groupon.lex.metrics.resolver.NameBoundResolver;
 import static java.util.Collections.unmodifiableSet;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalInt;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -247,6 +252,21 @@ public class ConfigSupport {
      *     The string will not have a trailing new-line.
      */
     public static StringBuilder collectorConfigString(@NonNull String name, @NonNull CollectorBuilder builder) {
+        return collectorConfigString(name, builder, OptionalInt.empty());
+    }
+
+    /**
+     * Create a config string for a builder.
+     *
+     * The function may fail if the builder has not been fully initialized.
+     * @param name The name of the collector.
+     * @param builder The builder implementation used to create collectors.
+     * @param threads The number of scheduler threads for the collector type.
+     * @return A string with the collect statement.
+     *     The statement will be closed (either with a tag set or a semi-colon).
+     *     The string will not have a trailing new-line.
+     */
+    public static StringBuilder collectorConfigString(@NonNull String name, @NonNull CollectorBuilder builder, @NonNull OptionalInt threads) {
         StringBuilder buf = new StringBuilder()
                 .append("collect ")
                 .append(name);
@@ -287,6 +307,44 @@ public class ConfigSupport {
                     });
         }
 
+        /*
+         * Handle include paths.
+         * If no paths are included, the clause is omitted.
+         */
+        if (builder instanceof AcceptIncludePaths) {
+            final Collection<List<String>> include = ((AcceptIncludePaths)builder).getInclude();
+            if (!include.isEmpty()) {
+                buf
+                        .append(" include ")
+                        .append(include.stream()
+                                .map(path -> path.stream()
+                                        .map(ConfigSupport::maybeQuoteIdentifier)
+                                        .collect(Collectors.joining(".")))
+                                .collect(Collectors.joining(", ")));
+            }
+        }
+
+        /*
+         * Handle concurrency argument.
+         */
+        if (builder instanceof AcceptConcurrency) {
+            ((AcceptConcurrency)builder).getConcurrency()
+                    .ifPresent(concurrency -> {
+                        buf
+                                .append(" concurrency ")
+                                .append(concurrency);
+                    });
+        }
+
+        /*
+         * Handle scheduler threads.
+         */
+        threads.ifPresent(n -> {
+            buf
+                    .append(" threads ")
+                    .append(n);
+        });
+
         /*
          * Handle tag set.
          * If the collector has no tag set, the collector is closed using a semi-colon.
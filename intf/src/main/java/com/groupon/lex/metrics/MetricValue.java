@@ -57,9 +57,29 @@ public abstract class MetricValue implements Comparable<MetricValue>, Serializab
     public static final Optional<MetricValue> OPTIONAL_TRUE = Optional.of(TRUE);
     public static final Optional<MetricValue> OPTIONAL_FALSE = Optional.of(FALSE);
 
+    /** Integer values in the range [INT_CACHE_LOW, INT_CACHE_HIGH] are shared. */
+    private static final int INT_CACHE_LOW = -128;
+    private static final int INT_CACHE_HIGH = 1024;
+    private static final MetricValue INT_CACHE[] = new MetricValue[INT_CACHE_HIGH - INT_CACHE_LOW + 1];
+    private static final MetricValue DBL_ZERO = new DblMetricValue(0d);
+    private static final MetricValue DBL_ONE = new DblMetricValue(1d);
+
+    static {
+        for (int i = 0; i < INT_CACHE.length; ++i)
+            INT_CACHE[i] = new IntMetricValue(INT_CACHE_LOW + i);
+    }
+
     public static MetricValue fromBoolean(boolean b) { return (b ? TRUE : FALSE); }
-    public static MetricValue fromIntValue(long int_value) { return new IntMetricValue(int_value); }
-    public static MetricValue fromDblValue(double flt_value) { return new DblMetricValue(flt_value); }
+    public static MetricValue fromIntValue(long int_value) {
+        if (int_value >= INT_CACHE_LOW && int_value <= INT_CACHE_HIGH)
+            return INT_CACHE[(int)(int_value - INT_CACHE_LOW)];
+        return new IntMetricValue(int_value);
+    }
+    public static MetricValue fromDblValue(double flt_value) {
+        if (Double.doubleToRawLongBits(flt_value) == 0L) return DBL_ZERO;  // Excludes -0.0
+        if (flt_value == 1d) return DBL_ONE;
+        return new DblMetricValue(flt_value);
+    }
     public static MetricValue fromStrValue(String str_value) { return new StringMetricValue(str_value); }
     public static MetricValue fromHistValue(Histogram hist_value) { return new HistogramMetricValue(hist_value); }
 
@@ -184,6 +204,44 @@ public abstract class MetricValue implements Comparable<MetricValue>, Serializab
         return true;
     }
 
+    /**
+     * Test if this holds a numeric value.
+     *
+     * Boolean values are treated as integral values, with 1 == true, 0 == false.
+     * If this returns true, longValue() and doubleValue() can be used to
+     * access the value without boxing.
+     * @return True if value() would return a number.
+     */
+    public boolean isNumeric() { return false; }
+
+    /**
+     * Test if this holds an integer value.
+     * @return True if getIntValue() would return a non-null value.
+     */
+    public boolean isInt() { return false; }
+
+    /**
+     * Test if this holds a floating point value.
+     * @return True if getFltValue() would return a non-null value.
+     */
+    public boolean isFloat() { return false; }
+
+    /**
+     * Primitive numeric getter, returns the numeric value as a long.
+     *
+     * Floating point values are truncated.
+     * @return The numeric value of this MetricValue.
+     * @throws IllegalStateException if this holds no numeric value.
+     */
+    public long longValue() { throw new IllegalStateException("not a numeric value: " + this); }
+
+    /**
+     * Primitive numeric getter, returns the numeric value as a double.
+     * @return The numeric value of this MetricValue.
+     * @throws IllegalStateException if this holds no numeric value.
+     */
+    public double doubleValue() { throw new IllegalStateException("not a numeric value: " + this); }
+
     public boolean isInfinite() { return false; }
     public boolean isNaN() { return false; }
     public boolean isInfiniteOrNaN() { return isInfinite() || isNaN(); }
@@ -230,6 +288,12 @@ public abstract class MetricValue implements Comparable<MetricValue>, Serializab
         @Override
         public Boolean getBoolValue() { return bool_; }
         @Override
+        public boolean isNumeric() { return true; }
+        @Override
+        public long longValue() { return bool_ ? 1L : 0L; }
+        @Override
+        public double doubleValue() { return bool_ ? 1d : 0d; }
+        @Override
         public Optional<Boolean> asBool() { return Optional.of(bool_); }
         @Override
         public Optional<String> asString() { return Optional.of(bool_ ? "true" : "false"); }
@@ -264,6 +328,14 @@ public abstract class MetricValue implements Comparable<MetricValue>, Serializab
         @Override
         public Long getIntValue() { return value_; }
         @Override
+        public boolean isNumeric() { return true; }
+        @Override
+        public boolean isInt() { return true; }
+        @Override
+        public long longValue() { return value_; }
+        @Override
+        public double doubleValue() { return value_; }
+        @Override
         public Optional<String> asString() { return Optional.of(String.valueOf(value_)); }
         @Override
         public int hashCode() { return Long.hashCode(value_); }
@@ -294,6 +366,14 @@ public abstract class MetricValue implements Comparable<MetricValue>, Serializab
         @Override
         public Double getFltValue() { return value_; }
         @Override
+        public boolean isNumeric() { return true; }
+        @Override
+        public boolean isFloat() { return true; }
+        @Override
+        public long longValue() { return (long)value_; }
+        @Override
+        public double doubleValue() { return value_; }
+        @Override
         public Optional<Boolean> asBool() { return Optional.of(Double.compare(value_, 0d) != 0); }
         @Override
         public Optional<String> asString() { return Optional.of(String.valueOf(value_)); }
@@ -2,10 +2,20 @@ package com.groupon.lex.metrics;
 
 import com.groupon.lex.metrics.timeseries.Alert;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import static java.util.Collections.emptyMap;
 import java.util.Map;
 
 public interface PushProcessor extends AutoCloseable {
     public void accept(TimeSeriesCollection tsdata, Map<GroupName, Alert> alerts, long failed_collections) throws Exception;
+
+    /**
+     * Metrics describing the processor itself.
+     *
+     * The monitor publishes these under the monsoon.processor group.
+     * @return Metrics of this processor, keyed by metric name.
+     */
+    public default Map<MetricName, MetricValue> getProcessorMetrics() { return emptyMap(); }
+
     @Override
     public default void close() throws Exception {}
 }
@@ -530,4 +530,72 @@ public class MetricValueTest {
         assertFalse(MetricValue.fromHistValue(hist42).equals(null));
         assertFalse(MetricValue.fromHistValue(hist42).equals(new Object()));
     }
+
+    @Test
+    public void primitiveInt() {
+        final MetricValue mv = MetricValue.fromIntValue(-17);
+
+        assertTrue(mv.isNumeric());
+        assertTrue(mv.isInt());
+        assertFalse(mv.isFloat());
+        assertEquals(-17L, mv.longValue());
+        assertEquals(-17d, mv.doubleValue(), 0d);
+    }
+
+    @Test
+    public void primitiveFloat() {
+        final MetricValue mv = MetricValue.fromDblValue(2.5);
+
+        assertTrue(mv.isNumeric());
+        assertFalse(mv.isInt());
+        assertTrue(mv.isFloat());
+        assertEquals(2L, mv.longValue());
+        assertEquals(2.5d, mv.doubleValue(), 0d);
+    }
+
+    @Test
+    public void primitiveBool() {
+        assertTrue(MetricValue.TRUE.isNumeric());
+        assertFalse(MetricValue.TRUE.isInt());
+        assertFalse(MetricValue.TRUE.isFloat());
+        assertEquals(1L, MetricValue.TRUE.longValue());
+        assertEquals(0d, MetricValue.FALSE.doubleValue(), 0d);
+    }
+
+    @Test
+    public void primitiveNonNumeric() {
+        for (MetricValue mv : new MetricValue[]{ MetricValue.EMPTY, MetricValue.fromStrValue("7"), MetricValue.fromHistValue(hist42) }) {
+            assertFalse(mv.isNumeric());
+            assertFalse(mv.isInt());
+            assertFalse(mv.isFloat());
+            try {
+                mv.longValue();
+                fail("longValue() on non-numeric value " + mv);
+            } catch (IllegalStateException ex) {
+                /* SKIP */
+            }
+            try {
+                mv.doubleValue();
+                fail("doubleValue() on non-numeric value " + mv);
+            } catch (IllegalStateException ex) {
+                /* SKIP */
+            }
+        }
+    }
+
+    @Test
+    public void smallIntsAreShared() {
+        assertSame(MetricValue.fromIntValue(0), MetricValue.fromIntValue(0));
+        assertSame(MetricValue.fromIntValue(-128), MetricValue.fromIntValue(-128));
+        assertSame(MetricValue.fromIntValue(1024), MetricValue.fromIntValue(1024));
+        assertEquals(MetricValue.fromIntValue(1025), MetricValue.fromIntValue(1025));
+        assertEquals(MetricValue.fromIntValue(-129), MetricValue.fromIntValue(-129));
+    }
+
+    @Test
+    public void commonDoublesAreShared() {
+        assertSame(MetricValue.fromDblValue(0), MetricValue.fromDblValue(0));
+        assertSame(MetricValue.fromDblValue(1), MetricValue.fromDblValue(1));
+        assertEquals(Double.valueOf(-0d), MetricValue.fromDblValue(-0d).getFltValue());
+    }
 }
@@ -38,21 +38,35 @@ public final class BufferedIterator<T> {
     private Exception exception = null;
     private boolean at_end_;
     private final int queue_size_;
+    /**
+     * Consulted before reading ahead into a non-empty queue; read ahead stops
+     * while it returns false.
+     */
+    private final BooleanSupplier read_ahead_;
     private boolean running_ = false;
     private Runnable wakeup_ = null;
 
-    public BufferedIterator(Executor work_queue, Iterator<? extends T> iter, int queue_size) {
+    public BufferedIterator(Executor work_queue, Iterator<? extends T> iter, int queue_size, BooleanSupplier read_ahead) {
         if (queue_size <= 0)
             throw new IllegalArgumentException("queue size must be at least 1");
         work_queue_ = requireNonNull(work_queue);
         iter_ = requireNonNull(iter);
         queue_size_ = queue_size;
+        read_ahead_ = requireNonNull(read_ahead);
         queue_ = new LinkedList<>();
         at_end_ = false;
 
         fire_();
     }
 
+    public BufferedIterator(Executor work_queue, Iterator<? extends T> iter, int queue_size) {
+        this(work_queue, iter, queue_size, () -> true);
+    }
+
+    public BufferedIterator(Iterator<? extends T> iter, int queue_size, BooleanSupplier read_ahead) {
+        this(DFL_WORK_QUEUE, iter, queue_size, read_ahead);
+    }
+
     public BufferedIterator(Iterator<? extends T> iter, int queue_size) {
         this(DFL_WORK_QUEUE, iter, queue_size);
     }
@@ -135,6 +149,7 @@ public final class BufferedIterator<T> {
         if (at_end_) return;
         if (queue_.size() >= queue_size_) return;
         if (exception != null) return;
+        if (!may_read_ahead_()) return;
 
         if (!running_) {
             running_ = true;
@@ -142,12 +157,19 @@ public final class BufferedIterator<T> {
         }
     }
 
+    /**
+     * An empty queue is always filled, so a consumer is never starved.
+     */
+    private synchronized boolean may_read_ahead_() {
+        return queue_.isEmpty() || read_ahead_.getAsBoolean();
+    }
+
     private void add_next_iter_() {
         final long deadline = System.currentTimeMillis() + 50;  // Don't hog the queue, requeue once deadline expires.
 
         try {
             boolean stop_loop = false;
-            while (!stop_loop && queue_.size() < queue_size_) {
+            while (!stop_loop && queue_.size() < queue_size_ && may_read_ahead_()) {
                 if (iter_.hasNext()) {
                     final T next = iter_.next();
                     final Optional<Runnable> wakeup;
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -69,6 +70,23 @@ public class BufferedIteratorTest {
         assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), stream.limit(10).collect(Collectors.toList()));
     }
 
+    @Test(timeout = 8000)
+    public void read_ahead_stops_when_disallowed() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final BufferedIterator<Integer> iter = new BufferedIterator<>(
+                Stream.iterate(0, i -> i + 1).peek(i -> reads.incrementAndGet()).iterator(),
+                16,
+                () -> false);
+
+        iter.waitAvail();
+        assertEquals(1, reads.get());  // Only the empty queue is filled.
+
+        assertEquals(Integer.valueOf(0), iter.next());
+        iter.waitAvail();
+        assertEquals(2, reads.get());
+        assertEquals(Integer.valueOf(1), iter.next());
+    }
+
     private static <T> Iterator<T> blockingIterator(Iterator<T> iter) {
         return new BlockingIterator<>(new BufferedIterator<>(iter));
     }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.processors.wavefront;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import lombok.Getter;
+
+/**
+ * Encodes time series collections into wavefront lines.
+ *
+ * The encoder produces the same lines as {@link WavefrontStrings}, but writes
+ * them directly into a reusable direct buffer.  Group and metric names are
+ * converted once and kept in byte form between collections, so encoding a
+ * collection with known groups and metrics does not create a string per line.
+ *
+ * This class is not thread safe.
+ */
+class WavefrontEncoder {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private final ByteBuffer buf_;
+    private final byte[] digits_ = new byte[20];
+    /**
+     * Group prefix (the wavefront name of the group path) and suffix (the
+     * source and tags) for each group.
+     *
+     * Each collection only retains the entries it used, so groups that
+     * disappear are dropped from the cache.
+     */
+    private Map<GroupName, byte[][]> group_cache_ = new HashMap<>();
+    private Map<MetricName, byte[]> metric_cache_ = new HashMap<>();
+    @Getter
+    private long lines = 0;
+    @Getter
+    private long bytes = 0;
+
+    public WavefrontEncoder() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public WavefrontEncoder(int buffer_size) {
+        buf_ = ByteBuffer.allocateDirect(buffer_size);
+    }
+
+    /**
+     * Write all metrics in the collection to the channel.
+     *
+     * @param tsdata The collection to encode.
+     * @param out The channel receiving the wavefront lines.
+     * @throws IOException if the channel fails to write.
+     */
+    public void encode(TimeSeriesCollection tsdata, WritableByteChannel out) throws IOException {
+        final Map<GroupName, byte[][]> group_cache = new HashMap<>();
+        final Map<MetricName, byte[]> metric_cache = new HashMap<>();
+        final byte[] timestamp = (' ' + WavefrontStrings.timestamp(tsdata.getTimestamp()) + ' ').getBytes(UTF_8);
+
+        buf_.clear();
+        try {
+            for (TimeSeriesValue tsv : tsdata.getTSValues()) {
+                final byte[][] group = group_cache.computeIfAbsent(tsv.getGroup(), this::encodeGroup_);
+
+                for (Map.Entry<MetricName, MetricValue> metric : tsv.getMetrics().entrySet()) {
+                    final MetricValue value = metric.getValue();
+                    // Omit NaN and Inf.
+                    if (value.isInfiniteOrNaN()) continue;
+                    final Optional<Number> number = value.value();
+                    if (!number.isPresent()) continue;
+
+                    put_(out, group[0]);
+                    put_(out, metric_cache.computeIfAbsent(metric.getKey(), this::encodeMetric_));
+                    putNumber_(out, number.get());
+                    put_(out, timestamp);
+                    put_(out, group[1]);
+                    ++lines;
+                }
+            }
+            flush_(out);
+        } finally {
+            buf_.clear();
+        }
+
+        group_cache_ = group_cache;
+        metric_cache_ = metric_cache;
+    }
+
+    private byte[][] encodeGroup_(GroupName group) {
+        final byte[][] cached = group_cache_.get(group);
+        if (cached != null) return cached;
+
+        final String path = WavefrontStrings.name(String.join(".", group.getPath().getPath()));
+        final String prefix = (path.isEmpty() ? "" : path + '.');
+        final String suffix = WavefrontStrings.sourceAndTags(group.getTags()) + '\n';
+        return new byte[][]{ prefix.getBytes(UTF_8), suffix.getBytes(UTF_8) };
+    }
+
+    private byte[] encodeMetric_(MetricName metric) {
+        final byte[] cached = metric_cache_.get(metric);
+        if (cached != null) return cached;
+
+        return (WavefrontStrings.name(String.join(".", metric.getPath())) + ' ').getBytes(UTF_8);
+    }
+
+    private void putNumber_(WritableByteChannel out, Number number) throws IOException {
+        if (number instanceof Long) {
+            putLong_(out, number.longValue());
+        } else {
+            final String s = number.toString();
+            if (buf_.remaining() < s.length()) {
+                flush_(out);
+                if (buf_.remaining() < s.length()) {
+                    // Too large for the buffer, write it directly.
+                    put_(out, s.getBytes(US_ASCII));
+                    return;
+                }
+            }
+            for (int i = 0; i < s.length(); ++i)
+                buf_.put((byte)s.charAt(i));  // Numbers only contain ASCII characters.
+        }
+    }
+
+    private void putLong_(WritableByteChannel out, long v) throws IOException {
+        if (v == Long.MIN_VALUE) {  // Cannot be negated.
+            put_(out, Long.toString(v).getBytes(UTF_8));
+            return;
+        }
+
+        int pos = digits_.length;
+        final boolean negative = (v < 0);
+        if (negative) v = -v;
+        do {
+            digits_[--pos] = (byte)('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (negative) digits_[--pos] = '-';
+
+        if (buf_.remaining() < digits_.length - pos) {
+            flush_(out);
+            if (buf_.remaining() < digits_.length - pos) {
+                // Too large for the buffer, write it directly.
+                write_(out, ByteBuffer.wrap(digits_, pos, digits_.length - pos));
+                return;
+            }
+        }
+        buf_.put(digits_, pos, digits_.length - pos);
+    }
+
+    private void put_(WritableByteChannel out, byte[] data) throws IOException {
+        if (buf_.remaining() < data.length) {
+            flush_(out);
+
+            if (buf_.remaining() < data.length) {
+                // Too large for the buffer, write it directly.
+                write_(out, ByteBuffer.wrap(data));
+                return;
+            }
+        }
+        buf_.put(data);
+    }
+
+    private void flush_(WritableByteChannel out) throws IOException {
+        buf_.flip();
+        write_(out, buf_);
+        buf_.clear();
+    }
+
+    private void write_(WritableByteChannel out, ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            bytes += out.write(data);
+    }
+}
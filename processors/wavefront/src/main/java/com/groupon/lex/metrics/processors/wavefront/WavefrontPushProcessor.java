@@ -32,57 +32,187 @@
 package com.groupon.lex.metrics.processors.wavefront;
 
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.PushProcessor;
 import com.groupon.lex.metrics.timeseries.Alert;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import static java.net.InetAddress.getLoopbackAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import lombok.Getter;
 import lombok.NonNull;
 
-@Getter
+/**
+ * Pushes metrics to a wavefront proxy.
+ *
+ * The processor keeps a single connection to the proxy open between pushes,
+ * reconnecting when the connection is lost.  Collections are handed to a
+ * writer thread through a bounded queue; if the writer falls behind, new
+ * collections are dropped instead of blocking the push pipeline.
+ */
 public class WavefrontPushProcessor implements PushProcessor {
     private static final Logger LOG = Logger.getLogger(WavefrontPushProcessor.class.getName());
     public static final Charset CHARSET = Charset.forName("UTF-8");
     public static final int DEFAULT_PORT = 2878;
     public static final int CONNECT_TIMEOUT_SECONDS = 15;
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+    public static final MetricName QUEUE_DEPTH = MetricName.valueOf("queue", "depth");
+    public static final MetricName QUEUE_DROPPED = MetricName.valueOf("queue", "dropped");
+    public static final MetricName CONNECT_COUNT = MetricName.valueOf("connection", "connects");
+    public static final MetricName WRITE_ERRORS = MetricName.valueOf("connection", "errors");
+    public static final MetricName LINES_WRITTEN = MetricName.valueOf("write", "lines");
+    public static final MetricName BYTES_WRITTEN = MetricName.valueOf("write", "bytes");
+    public static final MetricName WRITE_DURATION = MetricName.valueOf("timing", "write");
+    @Getter
     private final InetSocketAddress host;
+    private final ThreadPoolExecutor writer_;
+    private final WavefrontEncoder encoder_ = new WavefrontEncoder();
+    /** Only accessed from the writer thread. */
+    private SocketChannel channel_ = null;
+    private final AtomicLong dropped_ = new AtomicLong();
+    private final AtomicLong connects_ = new AtomicLong();
+    private final AtomicLong errors_ = new AtomicLong();
+    private volatile long last_write_msec_ = -1;
 
     public WavefrontPushProcessor() {
         this(new InetSocketAddress(getLoopbackAddress(), DEFAULT_PORT));
     }
 
     public WavefrontPushProcessor(@NonNull InetSocketAddress host) {
+        this(host, DEFAULT_QUEUE_SIZE);
+    }
+
+    public WavefrontPushProcessor(@NonNull InetSocketAddress host, int queue_size) {
+        if (queue_size <= 0) throw new IllegalArgumentException("queue size must be positive");
         this.host = host;
+        this.writer_ = new ThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue_size),
+                (Runnable r) -> {
+                    Thread thr = new Thread(r, "wavefront writer " + host);
+                    thr.setDaemon(true);
+                    return thr;
+                },
+                (Runnable r, ThreadPoolExecutor executor) -> {
+                    dropped_.incrementAndGet();
+                    LOG.log(Level.WARNING, "wavefront writer falling behind, dropping collection");
+                });
     }
 
     @Override
-    public void accept(TimeSeriesCollection tsdata, Map<GroupName, Alert> alerts, long failed_collections) throws IOException {
-        /*
-         * Write a line for each metric out to wavefront.
-         * Since the documentation for wavefront doesn't claim to reply, we don't bother reading the reply either.
-         */
-        try (Socket socket = new Socket()) {
-            socket.connect(getHost(), CONNECT_TIMEOUT_SECONDS * 1000);
+    public void accept(TimeSeriesCollection tsdata, Map<GroupName, Alert> alerts, long failed_collections) {
+        // The push pipeline clears and refills the same collection on its next
+        // cycle, so the writer thread gets its own copy.
+        final TimeSeriesCollection copy = new SimpleTimeSeriesCollection(
+                tsdata.getTimestamp(),
+                tsdata.getTSValues().stream().map(TimeSeriesValue::clone));
+        writer_.execute(() -> write_(copy));
+    }
+
+    /**
+     * Write a collection to wavefront.
+     *
+     * Runs on the writer thread.
+     * Since the documentation for wavefront doesn't claim to reply, we don't bother reading the reply either.
+     */
+    private void write_(TimeSeriesCollection tsdata) {
+        final long t0 = System.nanoTime();
+        final long lines0 = encoder_.getLines();
+        try {
+            encoder_.encode(tsdata, connection_());
+            LOG.log(Level.FINE, "sent {0} lines", encoder_.getLines() - lines0);
+        } catch (IOException ex) {
+            errors_.incrementAndGet();
+            LOG.log(Level.WARNING, "failed to write to wavefront at " + host + ", some or all metrics may be missed this cycle", ex);
+            disconnect_();
+        } finally {
+            last_write_msec_ = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Get the current connection, connecting if required.
+     */
+    private SocketChannel connection_() throws IOException {
+        if (channel_ != null && !isAlive_(channel_)) disconnect_();
+
+        if (channel_ == null) {
+            final SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().connect(host, CONNECT_TIMEOUT_SECONDS * 1000);
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+            connects_.incrementAndGet();
+            channel_ = channel;
+        }
+        return channel_;
+    }
 
-            try (OutputStreamWriter out = new OutputStreamWriter(socket.getOutputStream(), CHARSET)) {
-                final Iterator<String> wavefrontStrings = tsdata.getTSValues().stream()
-                        .flatMap(tsv -> WavefrontStrings.wavefrontLine(tsdata.getTimestamp(), tsv))
-                        .iterator();
-                while (wavefrontStrings.hasNext()) {
-                    final String line = wavefrontStrings.next();
-                    LOG.log(Level.FINE, "sending line: {0}", line);
-                    out.write(line + '\n');
-                }
+    /**
+     * Test if the proxy closed the connection.
+     *
+     * Since the proxy never sends data, a read either yields nothing (the
+     * connection is alive) or end-of-stream (the proxy closed it).
+     */
+    private static boolean isAlive_(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            try {
+                return channel.read(ByteBuffer.allocate(64)) >= 0;
+            } finally {
+                channel.configureBlocking(true);
             }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void disconnect_() {
+        if (channel_ == null) return;
+        try {
+            channel_.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "error closing wavefront connection", ex);
         }
+        channel_ = null;
+    }
+
+    @Override
+    public Map<MetricName, MetricValue> getProcessorMetrics() {
+        final Map<MetricName, MetricValue> result = new HashMap<>();
+        result.put(QUEUE_DEPTH, MetricValue.fromIntValue(writer_.getQueue().size()));
+        result.put(QUEUE_DROPPED, MetricValue.fromIntValue(dropped_.get()));
+        result.put(CONNECT_COUNT, MetricValue.fromIntValue(connects_.get()));
+        result.put(WRITE_ERRORS, MetricValue.fromIntValue(errors_.get()));
+        result.put(LINES_WRITTEN, MetricValue.fromIntValue(encoder_.getLines()));
+        result.put(BYTES_WRITTEN, MetricValue.fromIntValue(encoder_.getBytes()));
+        final long last_write_msec = last_write_msec_;
+        result.put(WRITE_DURATION, (last_write_msec < 0 ? MetricValue.EMPTY : MetricValue.fromIntValue(last_write_msec)));
+        return result;
+    }
+
+    @Override
+    public void close() throws Exception {
+        writer_.shutdown();
+        if (writer_.awaitTermination(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            disconnect_();
+        else
+            LOG.log(Level.WARNING, "wavefront writer did not finish pending writes");
     }
 }
@@ -170,10 +170,29 @@ public class WavefrontStrings {
                 });
     }
 
+    /**
+     * Create the source and tags portion of a wavefront line.
+     *
+     * The returned string starts with the 'source' tag, followed by all other
+     * tags.
+     */
+    public static String sourceAndTags(Tags tags) {
+        final Map<String, String> tag_map = tags(tags);
+        final String source = extractTagSource(tag_map);  // Modifies tag_map.
+        return new StringBuilder()
+                .append("source=").append(source)
+                .append(' ')
+                .append(tag_map.entrySet().stream()
+                        .map(entry -> entry.getKey() + "=\"" + entry.getValue() + '\"')
+                        .collect(Collectors.joining(" "))
+                )
+                .toString();
+    }
+
     /**
      * Build the wavefront line from its parts.
      */
-    private static String wavefrontLine(DateTime ts, SimpleGroupPath group, MetricName metric, String value, String source, Map<String, String> tag_map) {
+    private static String wavefrontLine(DateTime ts, SimpleGroupPath group, MetricName metric, String value, String source_and_tags) {
         return new StringBuilder()
                 .append(name(group, metric))
                 .append(' ')
@@ -181,12 +200,7 @@ public class WavefrontStrings {
                 .append(' ')
                 .append(timestamp(ts))
                 .append(' ')
-                .append("source=").append(source)
-                .append(' ')
-                .append(tag_map.entrySet().stream()
-                        .map(entry -> entry.getKey() + "=\"" + entry.getValue() + '\"')
-                        .collect(Collectors.joining(" "))
-                )
+                .append(source_and_tags)
                 .toString();
     }
 
@@ -199,11 +213,7 @@ public class WavefrontStrings {
      */
     public static Optional<String> wavefrontLine(DateTime ts, GroupName group, MetricName metric, MetricValue metric_value) {
         return wavefrontValue(metric_value)
-                .map(value -> {
-                    final Map<String, String> tag_map = tags(group.getTags());
-                    final String source = extractTagSource(tag_map);  // Modifies tag_map.
-                    return wavefrontLine(ts, group.getPath(), metric, value, source, tag_map);
-                });
+                .map(value -> wavefrontLine(ts, group.getPath(), metric, value, sourceAndTags(group.getTags())));
     }
 
     private static Stream<String> wavefrontLineForMetric(DateTime ts, GroupName group, Map.Entry<MetricName, MetricValue> metricEntry) {
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.processors.wavefront;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import com.groupon.lex.metrics.Tags;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertEquals;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author ariane
+ */
+public class WavefrontEncoderTest {
+    private static final DateTime NOW = new DateTime(2017, 1, 1, 12, 0, DateTimeZone.UTC);
+
+    private static TimeSeriesValue tsv(GroupName group, Map<MetricName, MetricValue> metrics) {
+        final TimeSeriesValue tsv = Mockito.mock(TimeSeriesValue.class);
+        Mockito.when(tsv.getGroup()).thenReturn(group);
+        Mockito.when(tsv.getMetrics()).thenReturn(metrics);
+        return tsv;
+    }
+
+    private static TimeSeriesCollection collection() {
+        final Map<MetricName, MetricValue> metrics = new HashMap<>();
+        metrics.put(MetricName.valueOf("int"), MetricValue.fromIntValue(-17));
+        metrics.put(MetricName.valueOf("min"), MetricValue.fromIntValue(Long.MIN_VALUE));
+        metrics.put(MetricName.valueOf("dbl"), MetricValue.fromDblValue(0.5));
+        metrics.put(MetricName.valueOf("bool"), MetricValue.TRUE);
+        metrics.put(MetricName.valueOf("nan"), MetricValue.fromDblValue(Double.NaN));
+        metrics.put(MetricName.valueOf("str"), MetricValue.fromStrValue("skipped"));
+        metrics.put(MetricName.valueOf("empty"), MetricValue.EMPTY);
+        metrics.put(MetricName.valueOf("Metric", "With Spaces"), MetricValue.fromIntValue(0));
+
+        final Map<String, MetricValue> tags = new HashMap<>();
+        tags.put("cluster", MetricValue.fromStrValue("foo\"bar"));
+        tags.put("host", MetricValue.fromStrValue("höst"));
+
+        return new SimpleTimeSeriesCollection(NOW, Arrays.asList(
+                tsv(GroupName.valueOf("com", "example", "Group"), metrics),
+                tsv(GroupName.valueOf(SimpleGroupPath.valueOf("tagged"), Tags.valueOf(tags)), metrics)));
+    }
+
+    private static String expected(TimeSeriesCollection tsdata) {
+        return tsdata.getTSValues().stream()
+                .flatMap(tsv -> WavefrontStrings.wavefrontLine(tsdata.getTimestamp(), tsv))
+                .map(line -> line + '\n')
+                .collect(Collectors.joining());
+    }
+
+    private static String encode(WavefrontEncoder encoder, TimeSeriesCollection tsdata) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(tsdata, Channels.newChannel(out));
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void sameAsWavefrontStrings() throws Exception {
+        final TimeSeriesCollection tsdata = collection();
+
+        assertEquals(expected(tsdata), encode(new WavefrontEncoder(), tsdata));
+    }
+
+    @Test
+    public void smallBuffer() throws Exception {
+        final TimeSeriesCollection tsdata = collection();
+
+        assertEquals(expected(tsdata), encode(new WavefrontEncoder(16), tsdata));
+    }
+
+    @Test
+    public void numbersLargerThanBuffer() throws Exception {
+        final Map<MetricName, MetricValue> metrics = new HashMap<>();
+        metrics.put(MetricName.valueOf("long"), MetricValue.fromIntValue(Long.MAX_VALUE));
+        metrics.put(MetricName.valueOf("dbl"), MetricValue.fromDblValue(-1.2345678901234567E-300));
+        final TimeSeriesCollection tsdata = new SimpleTimeSeriesCollection(NOW, Arrays.asList(tsv(GroupName.valueOf("x"), metrics)));
+
+        assertEquals(expected(tsdata), encode(new WavefrontEncoder(4), tsdata));
+    }
+
+    @Test
+    public void reuseEncoder() throws Exception {
+        final TimeSeriesCollection tsdata = collection();
+        final WavefrontEncoder encoder = new WavefrontEncoder();
+
+        final String first = encode(encoder, tsdata);
+        final String second = encode(encoder, tsdata);
+
+        assertEquals(expected(tsdata), second);
+        assertEquals(first, second);
+        assertEquals(2 * first.split("\n").length, encoder.getLines());
+        assertEquals(2 * first.getBytes(UTF_8).length, encoder.getBytes());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.metrics.processors.wavefront;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import static java.net.InetAddress.getLoopbackAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.EMPTY_MAP;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author ariane
+ */
+public class WavefrontPushProcessorTest {
+    private static final DateTime NOW = new DateTime(2017, 1, 1, 12, 0, DateTimeZone.UTC);
+    private ServerSocket server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new ServerSocket(0, 10, getLoopbackAddress());
+        server.setSoTimeout(10000);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.close();
+    }
+
+    private static TimeSeriesValue tsv(long value) {
+        final TimeSeriesValue tsv = Mockito.mock(TimeSeriesValue.class);
+        Mockito.when(tsv.getGroup()).thenReturn(GroupName.valueOf("foo"));
+        Mockito.when(tsv.getMetrics()).thenReturn(singletonMap(MetricName.valueOf("bar"), MetricValue.fromIntValue(value)));
+        Mockito.when(tsv.clone()).thenReturn(tsv);
+        return tsv;
+    }
+
+    private static TimeSeriesCollection collection(long value) {
+        return new SimpleTimeSeriesCollection(NOW, singletonList(tsv(value)));
+    }
+
+    private static String line(long value) {
+        return "foo.bar " + value + " " + NOW.getMillis() / 1000 + " source=monsoon ";
+    }
+
+    @Test(timeout = 20000)
+    public void keepsConnection() throws Exception {
+        try (WavefrontPushProcessor processor = new WavefrontPushProcessor(new InetSocketAddress(getLoopbackAddress(), server.getLocalPort()))) {
+            processor.accept(collection(1), EMPTY_MAP, 0);
+            try (Socket socket = server.accept()) {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+                assertEquals(line(1), in.readLine());
+
+                processor.accept(collection(2), EMPTY_MAP, 0);
+                assertEquals(line(2), in.readLine());
+            }
+
+            final Map<MetricName, MetricValue> metrics = processor.getProcessorMetrics();
+            assertEquals(MetricValue.fromIntValue(1), metrics.get(WavefrontPushProcessor.CONNECT_COUNT));
+            assertEquals(MetricValue.fromIntValue(2), metrics.get(WavefrontPushProcessor.LINES_WRITTEN));
+            assertEquals(MetricValue.fromIntValue(0), metrics.get(WavefrontPushProcessor.QUEUE_DROPPED));
+            assertEquals(MetricValue.fromIntValue(0), metrics.get(WavefrontPushProcessor.WRITE_ERRORS));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void callerMayReuseCollection() throws Exception {
+        final TimeSeriesCollection first = collection(1), second = collection(2);
+        final TimeSeriesCollection tsdata = Mockito.mock(TimeSeriesCollection.class);
+        Mockito.when(tsdata.getTimestamp()).thenReturn(NOW);
+        Mockito.when(tsdata.getTSValues()).thenReturn(first.getTSValues());
+
+        try (WavefrontPushProcessor processor = new WavefrontPushProcessor(new InetSocketAddress(getLoopbackAddress(), server.getLocalPort()))) {
+            processor.accept(tsdata, EMPTY_MAP, 0);
+            // Refill the collection, the way the push pipeline does on its next cycle.
+            Mockito.when(tsdata.getTimestamp()).thenReturn(NOW.plusMinutes(1));
+            Mockito.when(tsdata.getTSValues()).thenReturn(second.getTSValues());
+
+            try (Socket socket = server.accept()) {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+                assertEquals(line(1), in.readLine());
+            }
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void reconnects() throws Exception {
+        try (WavefrontPushProcessor processor = new WavefrontPushProcessor(new InetSocketAddress(getLoopbackAddress(), server.getLocalPort()))) {
+            processor.accept(collection(1), EMPTY_MAP, 0);
+            try (Socket socket = server.accept()) {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+                assertEquals(line(1), in.readLine());
+            }
+
+            // Give the processor time to notice the connection being closed.
+            Thread.sleep(100);
+
+            processor.accept(collection(2), EMPTY_MAP, 0);
+            try (Socket socket = server.accept()) {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+                assertEquals(line(2), in.readLine());
+            }
+
+            assertEquals(MetricValue.fromIntValue(2), processor.getProcessorMetrics().get(WavefrontPushProcessor.CONNECT_COUNT));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void dropsWhenQueueFull() throws Exception {
+        server.close();  // Connect attempts will fail.
+
+        try (WavefrontPushProcessor processor = new WavefrontPushProcessor(new InetSocketAddress(getLoopbackAddress(), server.getLocalPort()), 1)) {
+            for (int i = 0; i < 20; ++i)
+                processor.accept(collection(i), EMPTY_MAP, 0);
+            processor.close();
+
+            final Map<MetricName, MetricValue> metrics = processor.getProcessorMetrics();
+            final long dropped = metrics.get(WavefrontPushProcessor.QUEUE_DROPPED).getIntValue();
+            final long errors = metrics.get(WavefrontPushProcessor.WRITE_ERRORS).getIntValue();
+            assertEquals(20, dropped + errors);
+            assertTrue(errors >= 1);
+        }
+    }
+}
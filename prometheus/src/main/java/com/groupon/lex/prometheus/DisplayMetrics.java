@@ -32,6 +32,8 @@
 package com.groupon.lex.prometheus;
 import com.groupon.lex.metrics.PullProcessorPipeline;
 import java.io.IOException;
+import static java.util.Objects.requireNonNull;
+import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -48,8 +50,19 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
  */
 public class DisplayMetrics extends AbstractHandler {
     private final PullProcessorPipeline registry_;
+    private final Optional<PrometheusSnapshot> snapshot_;
     public DisplayMetrics(PullProcessorPipeline registry ){
         registry_ = registry;
+        snapshot_ = Optional.empty();
+    }
+
+    /**
+     * Create a handler that serves scrapes from a snapshot.
+     * @param snapshot The snapshot from which to serve scrapes.
+     */
+    public DisplayMetrics(PrometheusSnapshot snapshot) {
+        registry_ = null;
+        snapshot_ = Optional.of(requireNonNull(snapshot));
     }
 
     /**
@@ -66,6 +79,10 @@ public class DisplayMetrics extends AbstractHandler {
                        HttpServletRequest request,
                        HttpServletResponse response)
         throws IOException, ServletException {
+        if (snapshot_.isPresent()) {
+            handleSnapshot_(snapshot_.get(), baseRequest, request, response);
+            return;
+        }
 
         Stream<PrometheusMetric> metrics;
         try {
@@ -89,4 +106,82 @@ public class DisplayMetrics extends AbstractHandler {
             return;
         }
     }
+
+    /**
+     * Serve the pre-rendered body of the snapshot.
+     *
+     * If the client accepts gzip encoding and the snapshot holds a compressed
+     * body, the compressed body is sent.
+     */
+    private static void handleSnapshot_(PrometheusSnapshot snapshot,
+                                        Request baseRequest,
+                                        HttpServletRequest request,
+                                        HttpServletResponse response)
+        throws IOException {
+        final Optional<PrometheusSnapshot.Body> body = snapshot.get();
+        if (!body.isPresent()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "no snapshot available yet");
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        final Optional<byte[]> gzip = (acceptsGzip(request.getHeader("Accept-Encoding")) ?
+                body.get().getGzip() :
+                Optional.empty());
+
+        response.setContentType("text/plain;charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setDateHeader("Last-Modified", body.get().getTimestamp().getMillis());
+        if (body.get().getGzip().isPresent())
+            response.setHeader("Vary", "Accept-Encoding");  // Caches must not hand gzip to clients that didn't ask for it.
+        baseRequest.setHandled(true);
+
+        final byte[] bytes;
+        if (gzip.isPresent()) {
+            response.setHeader("Content-Encoding", "gzip");
+            bytes = gzip.get();
+        } else {
+            bytes = body.get().getPlain();
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    /**
+     * Test if an Accept-Encoding header allows gzip.
+     *
+     * A coding with a quality value of 0 is refused.  An explicit gzip entry
+     * takes precedence over the '*' wildcard.
+     *
+     * @param accept_encoding The value of the Accept-Encoding header, may be
+     * null.
+     * @return True if the client accepts a gzip encoded response.
+     */
+    static boolean acceptsGzip(String accept_encoding) {
+        if (accept_encoding == null) return false;
+
+        Optional<Boolean> gzip = Optional.empty();
+        Optional<Boolean> wildcard = Optional.empty();
+        for (String entry : accept_encoding.split(",")) {
+            final String[] params = entry.split(";");
+            final String coding = params[0].trim();
+            boolean accepted = true;
+            for (int i = 1; i < params.length; ++i) {
+                final String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2).trim()) > 0;
+                    } catch (NumberFormatException ex) {
+                        accepted = false;
+                    }
+                }
+            }
+
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip"))
+                gzip = Optional.of(accepted);
+            else if (coding.equals("*"))
+                wildcard = Optional.of(accepted);
+        }
+        return gzip.orElse(wildcard.orElse(false));
+    }
 }
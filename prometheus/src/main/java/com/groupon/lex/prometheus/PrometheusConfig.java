@@ -45,6 +45,8 @@ import java.util.Optional;
 public class PrometheusConfig {
     private short port = 9001;
     private String path = "/metrics";
+    private int snapshot_interval = 0;
+    private boolean gzip = false;
 
     public void setPort(short p) { port = p; }
 
@@ -53,6 +55,22 @@ public class PrometheusConfig {
     public String getPath() { return path; };
 
     public void setPath(String p) { path = p; }
+
+    /**
+     * Interval between snapshot collections.
+     * @return The interval in seconds, or 0 if each scrape runs a collection.
+     */
+    public int getSnapshotInterval() { return snapshot_interval; }
+
+    public void setSnapshotInterval(int s) {
+        if (s < 0) throw new IllegalArgumentException("snapshot interval cannot be negative");
+        snapshot_interval = s;
+    }
+
+    /** Returns true if snapshots keep a gzip compressed copy of the body. */
+    public boolean isGzip() { return gzip; }
+
+    public void setGzip(boolean g) { gzip = g; }
     private File config_file_;
 
 
@@ -80,8 +98,10 @@ public class PrometheusConfig {
     public String toString() {
         return new StringBuilder()
             .append("(")
-            .append("prometheus_path=").append(getPort()).append(",")
-            .append("prometheus_path=").append(getPath())
+            .append("prometheus_port=").append(getPort()).append(",")
+            .append("prometheus_path=").append(getPath()).append(",")
+            .append("prometheus_snapshot_interval=").append(getSnapshotInterval()).append(",")
+            .append("prometheus_gzip=").append(isGzip()).append(",")
             .append("config=").append(getConfigFile())
             .append(")")
             .toString();
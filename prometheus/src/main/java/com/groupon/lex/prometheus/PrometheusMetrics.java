@@ -85,14 +85,14 @@ public class PrometheusMetrics {
      * is no forbidden characters and remove the if necessary.
      *
      */
-    private static String toPrometheusString_(List<String> s) {
+    static String toPrometheusString_(List<String> s) {
          return String.join("_",
                 s.stream()
                 .map(PrometheusMetrics::escapeprometheus)
                 .collect(Collectors.toList()));
     }
 
-    private static String escapeLabelValue_(String v) {
+    static String escapeLabelValue_(String v) {
         return '"' + v.replaceAll("[\\\\\n\"]", "\\$0") + '"';
     }
 
@@ -100,7 +100,7 @@ public class PrometheusMetrics {
      * [a-zA-Z_:][a-zA-Z0-9_:]* This is what i need to match
      * Removing all characters that do not meet the regex.
      */
-    private static String escapeprometheus(String s) {
+    static String escapeprometheus(String s) {
        s = s.replaceAll("^[^a-zA-Z_:]+", "");
        s = s.replaceAll("[^a-zA-Z0-9_:]+", "");
        return s.toLowerCase();
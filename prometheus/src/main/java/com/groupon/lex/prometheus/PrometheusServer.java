@@ -65,6 +65,14 @@ public class PrometheusServer {
             }
         });
         put("prometheus_path=", PrometheusConfig::setPath);
+        put("prometheus_snapshot_interval=", (PrometheusConfig, interval) -> {
+            try {
+                PrometheusConfig.setSnapshotInterval(Integer.parseInt(interval));
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("error processing Prometheus snapshot interval " + interval, ex);
+            }
+        });
+        put("prometheus_gzip=", (PrometheusConfig, gzip) -> PrometheusConfig.setGzip(Boolean.parseBoolean(gzip)));
         put("prometheus_port=", (PrometheusConfig, port) -> {
             try {
                 PrometheusConfig.setPort(Short.valueOf(port));
@@ -104,9 +112,22 @@ public class PrometheusServer {
         ContextHandler context = new ContextHandler();
         context.setClassLoader(Thread.currentThread().getContextClassLoader());
         context.setContextPath(cfg.getPath());
-        context.setHandler(new DisplayMetrics(registry_));
+        final Optional<PrometheusSnapshot> snapshot;
+        if (cfg.getSnapshotInterval() > 0) {
+            snapshot = Optional.of(new PrometheusSnapshot(registry_, cfg.getSnapshotInterval(), cfg.isGzip()));
+            snapshot.get().start();
+            Runtime.getRuntime().addShutdownHook(new Thread(snapshot.get()::close));
+            context.setHandler(new DisplayMetrics(snapshot.get()));
+        } else {
+            snapshot = Optional.empty();
+            context.setHandler(new DisplayMetrics(registry_));
+        }
         server.setHandler(context);
-        server.start();
-        server.join();
+        try {
+            server.start();
+            server.join();
+        } finally {
+            snapshot.ifPresent(PrometheusSnapshot::close);
+        }
     }
 }
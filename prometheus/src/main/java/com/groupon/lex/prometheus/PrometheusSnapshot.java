@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.prometheus;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.MutableTimeSeriesCollectionPair;
+import com.groupon.lex.metrics.PullProcessorPipeline;
+import com.groupon.lex.metrics.misc.MonitorMonitor;
+import com.groupon.lex.metrics.timeseries.ExpressionLookBack;
+import com.groupon.lex.metrics.timeseries.TimeSeriesTransformer;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import com.groupon.lex.metrics.timeseries.expression.Context;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.HashMap;
+import java.util.Map;
+import static java.util.Objects.requireNonNull;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import lombok.Getter;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Snapshot mode for the prometheus exporter.
+ *
+ * Instead of running a collection on each scrape, the snapshot collects on
+ * its own schedule and keeps a pre-rendered exposition body (and optionally
+ * a gzip compressed copy of it).  Scrapes are served from the most recent
+ * body, so multiple prometheus instances scraping the same exporter no longer
+ * multiply the load on the monitored targets.
+ *
+ * The snapshot publishes its age and render time as metrics under the
+ * monsoon.prometheus group.
+ * @author ariane
+ */
+public class PrometheusSnapshot implements Runnable, AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(PrometheusSnapshot.class.getName());
+    public static final GroupName SNAPSHOT_GROUP = GroupName.valueOf(MonitorMonitor.ROOT_GROUP, "prometheus");
+    public static final MetricName SNAPSHOT_AGE = MetricName.valueOf("snapshot", "age");
+    public static final MetricName SNAPSHOT_RENDER_DURATION = MetricName.valueOf("timing", "render");
+    public static final MetricName SNAPSHOT_SIZE = MetricName.valueOf("snapshot", "bytes");
+    public static final MetricName SNAPSHOT_GZIP_SIZE = MetricName.valueOf("snapshot", "gzip_bytes");
+    private final PullProcessorPipeline registry_;
+    private final int interval_seconds_;
+    private final boolean gzip_;
+    private final AtomicReference<Body> body_ = new AtomicReference<>();
+    private final ScheduledExecutorService executor_;
+    /**
+     * Cache of rendered group prefixes and metric names.
+     *
+     * Only accessed from the snapshot thread.  Each render only retains the
+     * entries it used, so groups that disappear are dropped from the cache.
+     */
+    private Map<GroupName, String[]> group_cache_ = new HashMap<>();
+    private Map<MetricName, String> metric_cache_ = new HashMap<>();
+
+    /**
+     * A pre-rendered exposition body.
+     */
+    @Getter
+    public static final class Body {
+        private final DateTime timestamp;
+        private final byte[] plain;
+        private final byte[] gzip;
+        private final Duration renderDuration;
+
+        private Body(DateTime timestamp, byte[] plain, byte[] gzip, Duration renderDuration) {
+            this.timestamp = requireNonNull(timestamp);
+            this.plain = requireNonNull(plain);
+            this.gzip = gzip;
+            this.renderDuration = requireNonNull(renderDuration);
+        }
+
+        public Optional<byte[]> getGzip() { return Optional.ofNullable(gzip); }
+    }
+
+    public PrometheusSnapshot(PullProcessorPipeline registry, int interval_seconds, boolean gzip) {
+        if (interval_seconds <= 0) throw new IllegalArgumentException("snapshot interval must be positive");
+        registry_ = requireNonNull(registry);
+        interval_seconds_ = interval_seconds;
+        gzip_ = gzip;
+        registry_.getMetricRegistry().decorate(new SnapshotMetrics());
+        executor_ = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread t = new Thread(r, "prometheus snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Start periodic collection. */
+    public void start() {
+        executor_.scheduleAtFixedRate(this, 0, interval_seconds_, TimeUnit.SECONDS);
+    }
+
+    public int getIntervalSeconds() { return interval_seconds_; }
+
+    /**
+     * Retrieve the most recent snapshot.
+     * @return The most recently rendered body, or an empty optional if no
+     *     collection has completed yet.
+     */
+    public Optional<Body> get() {
+        return Optional.ofNullable(body_.get());
+    }
+
+    /**
+     * Run a collection and replace the current snapshot.
+     */
+    @Override
+    public void run() {
+        try {
+            final DateTime timestamp = registry_.getMetricRegistry().now();
+            final Iterable<TimeSeriesValue> tsv = registry_.get();
+
+            final long t0 = System.nanoTime();
+            final byte[] plain = render_(tsv);
+            final byte[] gzip = (gzip_ ? gzip_(plain) : null);
+            final long t_render = System.nanoTime();
+
+            body_.set(new Body(timestamp, plain, gzip, Duration.millis(TimeUnit.NANOSECONDS.toMillis(t_render - t0))));
+        } catch (Throwable t) {
+            /*
+             * We catch any and all throwables.
+             * If we don't and let an exception or error escape,
+             * the scheduled executor service will _silently_ drop our task.
+             */
+            LOG.log(Level.SEVERE, "failed to update prometheus snapshot", t);
+        }
+    }
+
+    /**
+     * Render the exposition body.
+     *
+     * Produces the same output as printing each PrometheusMetric, but
+     * escapes each group and metric name only once.
+     */
+    private byte[] render_(Iterable<TimeSeriesValue> tsv) throws IOException {
+        final Map<GroupName, String[]> group_cache = new HashMap<>();
+        final Map<MetricName, String> metric_cache = new HashMap<>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+        try (Writer w = new OutputStreamWriter(out, UTF_8)) {
+            for (TimeSeriesValue i : tsv) {
+                final String[] group = group_cache.computeIfAbsent(i.getGroup(), this::renderGroup_);
+
+                for (Map.Entry<MetricName, MetricValue> kv : i.getMetrics().entrySet()) {
+                    final Optional<Number> value = kv.getValue().value();
+                    if (!value.isPresent()) continue;
+
+                    w.write(group[0]);
+                    w.write('_');
+                    w.write(metric_cache.computeIfAbsent(kv.getKey(), this::renderMetric_));
+                    w.write(group[1]);
+                    w.write(' ');
+                    w.write(value.get().toString());
+                    w.write('\n');
+                }
+            }
+        }
+
+        group_cache_ = group_cache;
+        metric_cache_ = metric_cache;
+        return out.toByteArray();
+    }
+
+    /**
+     * Render the group path and tag set.
+     * @return Array with the rendered path at index 0 and the rendered tags at index 1.
+     */
+    private String[] renderGroup_(GroupName group) {
+        final String[] cached = group_cache_.get(group);
+        if (cached != null) return cached;
+
+        final String path = PrometheusMetrics.toPrometheusString_(group.getPath().getPath());
+        final String tags = group.getTags().stream()
+                .filter(tag -> tag.getValue().asString().isPresent())
+                .map(tag -> PrometheusMetrics.escapeprometheus(tag.getKey()) + "=" + PrometheusMetrics.escapeLabelValue_(tag.getValue().asString().get()))
+                .collect(Collectors.joining(","));
+        // Like PrometheusMetric, omit the label block if no tag has a string value.
+        return new String[]{ path, (tags.isEmpty() ? "" : "{" + tags + "}") };
+    }
+
+    private String renderMetric_(MetricName metric) {
+        final String cached = metric_cache_.get(metric);
+        if (cached != null) return cached;
+        return PrometheusMetrics.toPrometheusString_(metric.getPath());
+    }
+
+    private static byte[] gzip_(byte[] plain) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(plain);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        executor_.shutdown();
+    }
+
+    /**
+     * Publishes snapshot metrics during rule evaluation.
+     *
+     * Since the decorator runs as part of the collection, the values describe
+     * the snapshot that was being served up to this collection.
+     */
+    private class SnapshotMetrics implements TimeSeriesTransformer {
+        @Override
+        public void transform(Context<MutableTimeSeriesCollectionPair> ctx) {
+            final DateTime now = ctx.getTSData().getCurrentCollection().getTimestamp();
+            final Map<MetricName, MetricValue> metrics = new HashMap<>();
+
+            final Body body = body_.get();
+            if (body != null) {
+                metrics.put(SNAPSHOT_AGE, MetricValue.fromIntValue(new Duration(body.getTimestamp(), now).getMillis()));
+                metrics.put(SNAPSHOT_RENDER_DURATION, MetricValue.fromIntValue(body.getRenderDuration().getMillis()));
+                metrics.put(SNAPSHOT_SIZE, MetricValue.fromIntValue(body.getPlain().length));
+                body.getGzip().ifPresent(gz -> metrics.put(SNAPSHOT_GZIP_SIZE, MetricValue.fromIntValue(gz.length)));
+            } else {
+                metrics.put(SNAPSHOT_AGE, MetricValue.EMPTY);
+                metrics.put(SNAPSHOT_RENDER_DURATION, MetricValue.EMPTY);
+            }
+
+            ctx.getTSData().getCurrentCollection().addMetrics(SNAPSHOT_GROUP, metrics);
+        }
+
+        @Override
+        public ExpressionLookBack getLookBack() {
+            return ExpressionLookBack.EMPTY;
+        }
+    }
+}
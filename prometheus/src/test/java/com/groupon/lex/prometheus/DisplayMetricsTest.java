@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.prometheus;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.PullMetricRegistryInstance;
+import com.groupon.lex.metrics.PullProcessorPipeline;
+import com.groupon.lex.metrics.timeseries.ImmutableTimeSeriesValue;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DisplayMetricsTest {
+    private static final DateTime T0 = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    @Mock
+    private PullMetricRegistryInstance registry;
+    @Mock
+    private Request baseRequest;
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+
+    private PullProcessorPipeline pipeline;
+    private StringWriter writer;
+    private ByteArrayOutputStream out;
+
+    @Before
+    public void setup() throws Exception {
+        when(registry.now()).thenReturn(T0);
+        when(registry.updateCollection()).thenReturn(new SimpleTimeSeriesCollection(T0, singletonList(
+                new ImmutableTimeSeriesValue(GroupName.valueOf("foo"), singletonMap(MetricName.valueOf("bar"), MetricValue.fromIntValue(7))))));
+        pipeline = new PullProcessorPipeline(registry);
+
+        writer = new StringWriter();
+        out = new ByteArrayOutputStream();
+        when(response.getWriter()).thenReturn(new PrintWriter(writer, true));
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void collectOnScrape() throws Exception {
+        new DisplayMetrics(pipeline).handle("/metrics", baseRequest, request, response);
+
+        assertEquals(String.format("foo_bar 7%n"), writer.toString());
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(baseRequest).setHandled(true);
+    }
+
+    @Test
+    public void collectionFailure() throws Exception {
+        when(registry.updateCollection()).thenThrow(new IllegalStateException("collection failed"));
+
+        new DisplayMetrics(pipeline).handle("/metrics", baseRequest, request, response);
+
+        verify(response).sendError(Matchers.eq(500), Matchers.anyString());
+    }
+
+    @Test
+    public void noSnapshotYet() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, false)) {
+            new DisplayMetrics(snapshot).handle("/metrics", baseRequest, request, response);
+        }
+
+        verify(response).sendError(Matchers.eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), Matchers.anyString());
+        verify(baseRequest).setHandled(true);
+    }
+
+    @Test
+    public void servePlainSnapshot() throws Exception {
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");  // Ignored: snapshot has no gzip body.
+
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, false)) {
+            snapshot.run();
+            new DisplayMetrics(snapshot).handle("/metrics", baseRequest, request, response);
+        }
+
+        assertEquals("foo_bar 7\n", new String(out.toByteArray(), UTF_8));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response).setDateHeader("Last-Modified", T0.getMillis());
+        verify(response, never()).setHeader(Matchers.eq("Content-Encoding"), Matchers.anyString());
+    }
+
+    @Test
+    public void serveGzipSnapshot() throws Exception {
+        when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip");
+
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, true)) {
+            snapshot.run();
+            new DisplayMetrics(snapshot).handle("/metrics", baseRequest, request, response);
+
+            assertArrayEquals(snapshot.get().get().getGzip().get(), out.toByteArray());
+        }
+
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Encoding");
+    }
+
+    @Test
+    public void gzipRefusedByQuality() throws Exception {
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, identity");
+
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, true)) {
+            snapshot.run();
+            new DisplayMetrics(snapshot).handle("/metrics", baseRequest, request, response);
+        }
+
+        assertEquals("foo_bar 7\n", new String(out.toByteArray(), UTF_8));
+        verify(response, never()).setHeader(Matchers.eq("Content-Encoding"), Matchers.anyString());
+        verify(response).setHeader("Vary", "Accept-Encoding");
+    }
+
+    @Test
+    public void acceptsGzip() {
+        assertTrue(DisplayMetrics.acceptsGzip("gzip"));
+        assertTrue(DisplayMetrics.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(DisplayMetrics.acceptsGzip("x-gzip"));
+        assertTrue(DisplayMetrics.acceptsGzip("*"));
+        assertFalse(DisplayMetrics.acceptsGzip(null));
+        assertFalse(DisplayMetrics.acceptsGzip("identity"));
+        assertFalse(DisplayMetrics.acceptsGzip("gzip;q=0"));
+        assertFalse(DisplayMetrics.acceptsGzip("gzip; q=0.000"));
+        assertFalse(DisplayMetrics.acceptsGzip("*, gzip;q=0"));
+        assertFalse(DisplayMetrics.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void gzipNotAccepted() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, true)) {
+            snapshot.run();
+            new DisplayMetrics(snapshot).handle("/metrics", baseRequest, request, response);
+        }
+
+        assertEquals("foo_bar 7\n", new String(out.toByteArray(), UTF_8));
+        verify(response, never()).setHeader(Matchers.eq("Content-Encoding"), Matchers.anyString());
+    }
+}
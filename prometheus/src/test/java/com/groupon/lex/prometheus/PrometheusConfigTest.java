@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.prometheus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PrometheusConfigTest {
+    @Test
+    public void defaults() throws Exception {
+        final PrometheusConfig cfg = new PrometheusConfig();
+
+        assertEquals(9001, cfg.getPort());
+        assertEquals("/metrics", cfg.getPath());
+        assertEquals(0, cfg.getSnapshotInterval());
+        assertFalse(cfg.isGzip());
+        assertFalse(cfg.getConfiguration().isPresent());
+    }
+
+    @Test
+    public void setters() throws Exception {
+        final File file = File.createTempFile("monsoon-", "-prometheus.cfg");
+        file.deleteOnExit();
+        final PrometheusConfig cfg = new PrometheusConfig();
+        cfg.setPort((short)9100);
+        cfg.setPath("/prom");
+        cfg.setSnapshotInterval(30);
+        cfg.setGzip(true);
+        cfg.setConfigFile(file.getAbsolutePath());
+
+        assertEquals(9100, cfg.getPort());
+        assertEquals("/prom", cfg.getPath());
+        assertEquals(30, cfg.getSnapshotInterval());
+        assertTrue(cfg.isGzip());
+        assertEquals(file.getCanonicalFile(), cfg.getConfiguration().get());
+        assertEquals(
+                "(prometheus_port=9100,prometheus_path=/prom,prometheus_snapshot_interval=30,prometheus_gzip=true,config=" + file.getCanonicalPath() + ")",
+                cfg.toString());
+    }
+
+    @Test
+    public void clearConfigFile() throws Exception {
+        final File file = File.createTempFile("monsoon-", "-prometheus.cfg");
+        file.deleteOnExit();
+        final PrometheusConfig cfg = new PrometheusConfig();
+        cfg.setConfigFile(file.getAbsolutePath());
+        cfg.setConfigFile((String)null);
+
+        assertFalse(cfg.getConfiguration().isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSnapshotInterval() {
+        new PrometheusConfig().setSnapshotInterval(-1);
+    }
+
+    @Test(expected = IOException.class)
+    public void relativeConfigFile() throws Exception {
+        new PrometheusConfig().setConfigFile("relative.cfg");
+    }
+
+    @Test(expected = IOException.class)
+    public void missingConfigFile() throws Exception {
+        final File file = File.createTempFile("monsoon-", "-prometheus.cfg");
+        file.delete();
+        new PrometheusConfig().setConfigFile(file.getAbsolutePath());
+    }
+
+    @Test(expected = IOException.class)
+    public void directoryConfigFile() throws Exception {
+        final File dir = Files.createTempDirectory("monsoon-").toFile();
+        dir.deleteOnExit();
+        new PrometheusConfig().setConfigFile(dir.getAbsolutePath());
+    }
+}
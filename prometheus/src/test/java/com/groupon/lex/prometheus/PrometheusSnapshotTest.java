@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.lex.prometheus;
+
+import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.MutableTimeSeriesCollectionPair;
+import com.groupon.lex.metrics.PullMetricRegistryInstance;
+import com.groupon.lex.metrics.PullProcessorPipeline;
+import com.groupon.lex.metrics.SimpleGroupPath;
+import com.groupon.lex.metrics.Tags;
+import com.groupon.lex.metrics.timeseries.ExpressionLookBack;
+import com.groupon.lex.metrics.timeseries.ImmutableTimeSeriesValue;
+import com.groupon.lex.metrics.timeseries.MutableTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
+import com.groupon.lex.metrics.timeseries.TimeSeriesTransformer;
+import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import com.groupon.lex.metrics.timeseries.expression.Context;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static java.util.Collections.singletonMap;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PrometheusSnapshotTest {
+    private static final DateTime T0 = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    @Mock
+    private PullMetricRegistryInstance registry;
+
+    private PullProcessorPipeline pipeline;
+
+    @Before
+    public void setup() {
+        final Map<MetricName, MetricValue> metrics = new HashMap<>();
+        metrics.put(MetricName.valueOf("int", "value"), MetricValue.fromIntValue(17));
+        metrics.put(MetricName.valueOf("dbl-value"), MetricValue.fromDblValue(0.5));
+        metrics.put(MetricName.valueOf("str"), MetricValue.fromStrValue("not a number"));
+        metrics.put(MetricName.valueOf("empty"), MetricValue.EMPTY);
+
+        final List<TimeSeriesValue> tsv = Arrays.asList(
+                new ImmutableTimeSeriesValue(GroupName.valueOf("untagged", "group"), metrics),
+                new ImmutableTimeSeriesValue(GroupName.valueOf(SimpleGroupPath.valueOf("tagged"), Tags.valueOf(singletonMap("host", MetricValue.fromStrValue("a.b")))), metrics),
+                new ImmutableTimeSeriesValue(GroupName.valueOf(SimpleGroupPath.valueOf("numeric", "tags"), Tags.valueOf(singletonMap("port", MetricValue.fromIntValue(80)))), metrics));
+
+        when(registry.now()).thenReturn(T0);
+        when(registry.updateCollection()).thenReturn(new SimpleTimeSeriesCollection(T0, tsv));
+        pipeline = new PullProcessorPipeline(registry);
+    }
+
+    /**
+     * Render the metrics in the same way DisplayMetrics does without
+     * snapshot.
+     */
+    private String expected() throws Exception {
+        return PrometheusMetrics.filteredMetrics(pipeline)
+                .map(m -> m.toString() + "\n")
+                .collect(Collectors.joining());
+    }
+
+    @Test
+    public void matchesPrometheusMetric() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, false)) {
+            snapshot.run();
+
+            final PrometheusSnapshot.Body body = snapshot.get().get();
+            assertEquals(expected(), new String(body.getPlain(), UTF_8));
+            assertEquals(T0, body.getTimestamp());
+            assertFalse(body.getGzip().isPresent());
+        }
+    }
+
+    @Test
+    public void renderedLines() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, false)) {
+            snapshot.run();
+
+            final List<String> lines = Arrays.asList(new String(snapshot.get().get().getPlain(), UTF_8).split("\n"));
+            assertEquals(6, lines.size());
+            assertTrue(lines.contains("untagged_group_int_value 17"));
+            assertTrue(lines.contains("untagged_group_dblvalue 0.5"));
+            assertTrue(lines.contains("tagged_int_value{host=\"a.b\"} 17"));
+            assertTrue(lines.contains("numeric_tags_dblvalue{port=\"80\"} 0.5"));
+        }
+    }
+
+    @Test
+    public void cachedRenderIsStable() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, false)) {
+            snapshot.run();
+            final byte[] first = snapshot.get().get().getPlain();
+            snapshot.run();
+
+            assertArrayEquals(first, snapshot.get().get().getPlain());
+        }
+    }
+
+    @Test
+    public void gzip() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, true)) {
+            snapshot.run();
+
+            final PrometheusSnapshot.Body body = snapshot.get().get();
+            assertArrayEquals(body.getPlain(), gunzip(body.getGzip().get()));
+        }
+    }
+
+    @Test
+    public void noSnapshotBeforeFirstRun() {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, false)) {
+            assertFalse(snapshot.get().isPresent());
+        }
+    }
+
+    @Test
+    public void snapshotMetrics() throws Exception {
+        try (PrometheusSnapshot snapshot = new PrometheusSnapshot(pipeline, 60, true)) {
+            final ArgumentCaptor<TimeSeriesTransformer> decorator = ArgumentCaptor.forClass(TimeSeriesTransformer.class);
+            verify(registry).decorate(decorator.capture());
+            assertEquals(ExpressionLookBack.EMPTY, decorator.getValue().getLookBack());
+
+            // Before the first snapshot, the metrics are empty.
+            final MutableTimeSeriesCollection before = new MutableTimeSeriesCollection(T0);
+            decorator.getValue().transform(context(before));
+            assertEquals(MetricValue.EMPTY, before.get(PrometheusSnapshot.SNAPSHOT_GROUP).get().findMetric(PrometheusSnapshot.SNAPSHOT_AGE).get());
+
+            snapshot.run();
+            final MutableTimeSeriesCollection after = new MutableTimeSeriesCollection(T0.plusSeconds(5));
+            decorator.getValue().transform(context(after));
+            final TimeSeriesValue tsv = after.get(PrometheusSnapshot.SNAPSHOT_GROUP).get();
+            assertEquals(MetricValue.fromIntValue(5000), tsv.findMetric(PrometheusSnapshot.SNAPSHOT_AGE).get());
+            assertEquals(MetricValue.fromIntValue(snapshot.get().get().getPlain().length), tsv.findMetric(PrometheusSnapshot.SNAPSHOT_SIZE).get());
+            assertEquals(MetricValue.fromIntValue(snapshot.get().get().getGzip().get().length), tsv.findMetric(PrometheusSnapshot.SNAPSHOT_GZIP_SIZE).get());
+        }
+    }
+
+    private static Context<MutableTimeSeriesCollectionPair> context(MutableTimeSeriesCollection current) {
+        final MutableTimeSeriesCollectionPair pair = mock(MutableTimeSeriesCollectionPair.class);
+        when(pair.getCurrentCollection()).thenReturn(current);
+        final Context<MutableTimeSeriesCollectionPair> ctx = mock(Context.class);
+        when(ctx.getTSData()).thenReturn(pair);
+        return ctx;
+    }
+
+    private static byte[] gunzip(byte[] gz) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            final byte[] buf = new byte[4096];
+            for (int n = in.read(buf); n != -1; n = in.read(buf))
+                out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
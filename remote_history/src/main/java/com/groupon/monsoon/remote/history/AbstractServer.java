@@ -31,14 +31,17 @@
  */
 package com.groupon.monsoon.remote.history;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.groupon.lex.metrics.GroupName;
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
 import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.lib.BufferedIterator;
+import com.groupon.lex.metrics.lib.SimpleMapEntry;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import com.groupon.monsoon.remote.history.xdr.compressed_page;
 import com.groupon.monsoon.remote.history.xdr.duration_msec;
 import com.groupon.monsoon.remote.history.xdr.evaluate_iter_response;
 import com.groupon.monsoon.remote.history.xdr.evaluate_response;
@@ -48,26 +51,32 @@ import com.groupon.monsoon.remote.history.xdr.list_of_timeseries_collection;
 import com.groupon.monsoon.remote.history.xdr.literals_group_name;
 import com.groupon.monsoon.remote.history.xdr.named_evaluation_map;
 import com.groupon.monsoon.remote.history.xdr.rh_protoServerStub;
+import com.groupon.monsoon.remote.history.xdr.session_iter_response;
+import com.groupon.monsoon.remote.history.xdr.session_response;
+import com.groupon.monsoon.remote.history.xdr.stream_filtered_args;
 import com.groupon.monsoon.remote.history.xdr.stream_iter_tsc_response;
 import com.groupon.monsoon.remote.history.xdr.stream_response;
+import com.groupon.monsoon.remote.history.xdr.timeseries_metric_filter;
 import com.groupon.monsoon.remote.history.xdr.timestamp_msec;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import org.acplt.oncrpc.OncRpcException;
 import org.acplt.oncrpc.server.OncRpcCallInformation;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 
 public abstract class AbstractServer extends rh_protoServerStub {
@@ -85,6 +94,10 @@ public abstract class AbstractServer extends rh_protoServerStub {
     public static final Duration MAX_REQUEST_DURATION = Duration.millis(8000);
 
     private static final Logger LOG = Logger.getLogger(AbstractServer.class.getName());
+    /**
+     * Start of time, for filtered streams without a begin timestamp.
+     */
+    private static final DateTime EPOCH = new DateTime(0, DateTimeZone.UTC);
     /**
      * Default port for the RPC server.
      */
@@ -92,7 +105,12 @@ public abstract class AbstractServer extends rh_protoServerStub {
     /**
      * Limit TimeSeriesCollection fetch size.
      */
-    private static final int MAX_TSC_FETCH = 50;
+    private static final int MAX_TSC_FETCH = 500;
+    /**
+     * Default limit on TimeSeriesCollection fetch size, in (estimated) encoded
+     * bytes.
+     */
+    public static final long DEFAULT_MAX_TSC_FETCH_BYTES = 4 * 1024 * 1024;
     /**
      * Limit evaluation fetch size.
      */
@@ -114,40 +132,33 @@ public abstract class AbstractServer extends rh_protoServerStub {
      */
     private static final int GROUP_STREAM_QUEUE_SIZE = 512;
     /**
-     * Cache iterators, so subsequent requests can refer to existing iterator.
+     * Default limit on the number of bytes buffered by open cursors.
      */
-    private static final Cache<Long, IteratorAndCookie<TimeSeriesCollection>> TSC_ITERS = CacheBuilder.newBuilder()
-            .expireAfterAccess(5, TimeUnit.MINUTES)
-            .softValues()
-            .build();
+    public static final long DEFAULT_MAX_CURSOR_BYTES = 256 * 1024 * 1024;
     /**
-     * Allocator for generating unique iterator IDs.
+     * Default limit on the number of open cursors.
      */
-    private static final AtomicLong TSC_ITERS_ALLOC = new AtomicLong();
-
-    /**
-     * Cache iterators, so subsequent requests can refer to existing iterator.
-     */
-    private static final Cache<Long, IteratorAndCookie<Collection<CollectHistory.NamedEvaluation>>> EVAL_ITERS = CacheBuilder.newBuilder()
-            .expireAfterAccess(10, TimeUnit.MINUTES)
-            .softValues()
-            .build();
+    public static final int DEFAULT_MAX_CURSORS = 1024;
     /**
-     * Allocator for generating unique iterator IDs.
+     * Open iterators, so subsequent requests can refer to existing iterator.
      */
-    private static final AtomicLong EVAL_ITERS_ALLOC = new AtomicLong();
-
+    private static final CursorRegistry CURSORS = new CursorRegistry(DEFAULT_MAX_CURSOR_BYTES, DEFAULT_MAX_CURSORS);
     /**
-     * Cache iterators, so subsequent requests can refer to existing iterator.
+     * Byte counters for session pages, before and after compression.
      */
-    private static final Cache<Long, IteratorAndCookie<Map.Entry<DateTime, TimeSeriesValue>>> GROUP_STREAM_ITERS = CacheBuilder.newBuilder()
-            .expireAfterAccess(10, TimeUnit.MINUTES)
-            .softValues()
-            .build();
+    private static final LongAdder PAGE_BYTES_RAW = new LongAdder(),
+            PAGE_BYTES_COMPRESSED = new LongAdder();
+    public static final MetricName PAGE_BYTES_RAW_METRIC = MetricName.valueOf("session", "page_bytes", "raw");
+    public static final MetricName PAGE_BYTES_COMPRESSED_METRIC = MetricName.valueOf("session", "page_bytes", "compressed");
     /**
-     * Allocator for generating unique iterator IDs.
+     * Limit TimeSeriesCollection fetch size, in (estimated) encoded bytes.
+     *
+     * Large collections are cut short by this limit, while small collections
+     * are returned in larger pages, reducing the number of round trips.
      */
-    private static final AtomicLong GROUP_STREAM_ITERS_ALLOC = new AtomicLong();
+    @Getter
+    @Setter
+    private volatile long maxTscFetchBytes = DEFAULT_MAX_TSC_FETCH_BYTES;
 
     public AbstractServer() throws OncRpcException, IOException {
         super();
@@ -164,31 +175,74 @@ public abstract class AbstractServer extends rh_protoServerStub {
     /**
      * Create a new TimeSeriesCollection iterator from the given stream.
      */
-    private static stream_response newTscStream(Stream<TimeSeriesCollection> tsc, int fetch) {
-        final BufferedIterator<TimeSeriesCollection> iter = new BufferedIterator(tsc.iterator(), TSC_QUEUE_SIZE);
-        final long idx = TSC_ITERS_ALLOC.getAndIncrement();
-        final IteratorAndCookie<TimeSeriesCollection> iterAndCookie = new IteratorAndCookie<>(iter);
-        TSC_ITERS.put(idx, iterAndCookie);
+    private stream_response newTscStream(Stream<TimeSeriesCollection> tsc, int fetch) {
+        final Optional<CursorRegistry.Cursor<TimeSeriesCollection>> registered = CURSORS.<TimeSeriesCollection>register(CursorRegistry.Kind.TSC, tsc, TSC_QUEUE_SIZE, AbstractServer::estimateEncodedBytes).getLeft();
+        if (!registered.isPresent())
+            return EncDec.encodeStreamResponse(refusedIter_());
+        final CursorRegistry.Cursor<TimeSeriesCollection> cursor = registered.get();
 
-        final List<TimeSeriesCollection> result = fetchFromIter(iter, fetch, MAX_TSC_FETCH);
+        final List<TimeSeriesCollection> result = cursor.fetch(iter -> fetchFromIter(iter, fetch, MAX_TSC_FETCH, AbstractServer::estimateEncodedBytes, maxTscFetchBytes));
         EncDec.NewIterResponse<TimeSeriesCollection> responseObj
-                = new EncDec.NewIterResponse<>(idx, result, iter.atEnd(), iterAndCookie.getCookie());
+                = new EncDec.NewIterResponse<>(cursor.getId(), result, cursor.getIterator().atEnd(), cursor.getCookie());
         LOG.log(Level.FINE, "responseObj = {0}", responseObj);
         return EncDec.encodeStreamResponse(responseObj);
     }
 
+    /**
+     * Create a new session iterator from the given stream.
+     *
+     * Pages of a session iterator share a dictionary and are compressed.
+     */
+    private session_response newSessionStream(Stream<TimeSeriesCollection> tsc, PageCompression compression, int fetch) {
+        final Optional<CursorRegistry.Cursor<TimeSeriesCollection>> registered = CURSORS.<TimeSeriesCollection>register(CursorRegistry.Kind.TSC, tsc, TSC_QUEUE_SIZE, AbstractServer::estimateEncodedBytes, new EncDec.StreamSession(), compression).getLeft();
+        if (!registered.isPresent())
+            return EncDec.encodeSessionResponse(new EncDec.StreamSession(), compression, refusedIter_());
+        final CursorRegistry.Cursor<TimeSeriesCollection> cursor = registered.get();
+
+        final List<TimeSeriesCollection> result = cursor.fetch(iter -> fetchFromIter(iter, fetch, MAX_TSC_FETCH, AbstractServer::estimateEncodedBytes, maxTscFetchBytes));
+        EncDec.NewIterResponse<TimeSeriesCollection> responseObj
+                = new EncDec.NewIterResponse<>(cursor.getId(), result, cursor.getIterator().atEnd(), cursor.getCookie());
+        LOG.log(Level.FINE, "responseObj = {0}", responseObj);
+        final session_response response = EncDec.encodeSessionResponse(cursor.getSession(), compression, responseObj);
+        recordPage_(response.first_response.rv);
+        return response;
+    }
+
+    /**
+     * Account for the size of an encoded session page.
+     */
+    private static void recordPage_(compressed_page page) {
+        PAGE_BYTES_RAW.add(page.raw_len);
+        PAGE_BYTES_COMPRESSED.add(page.data.length);
+        LOG.log(Level.FINE, "session page: {0} bytes, {1} bytes after compression", new Object[]{page.raw_len, page.data.length});
+    }
+
+    /**
+     * Total number of bytes in session pages, before compression.
+     */
+    public static long getPageBytesRaw() {
+        return PAGE_BYTES_RAW.sum();
+    }
+
+    /**
+     * Total number of bytes in session pages, after compression.
+     */
+    public static long getPageBytesCompressed() {
+        return PAGE_BYTES_COMPRESSED.sum();
+    }
+
     /**
      * Create a new evaluation iterator from the given stream.
      */
     private static evaluate_response newEvalStream(Stream<Collection<CollectHistory.NamedEvaluation>> tsc, int fetch) {
-        final BufferedIterator<Collection<CollectHistory.NamedEvaluation>> iter = new BufferedIterator(tsc.iterator(), EVAL_QUEUE_SIZE);
-        final long idx = EVAL_ITERS_ALLOC.getAndIncrement();
-        final IteratorAndCookie<Collection<CollectHistory.NamedEvaluation>> iterAndCookie = new IteratorAndCookie<>(iter);
-        EVAL_ITERS.put(idx, iterAndCookie);
+        final Optional<CursorRegistry.Cursor<Collection<CollectHistory.NamedEvaluation>>> registered = CURSORS.<Collection<CollectHistory.NamedEvaluation>>register(CursorRegistry.Kind.EVAL, tsc, EVAL_QUEUE_SIZE, AbstractServer::estimateEvalBytes).getLeft();
+        if (!registered.isPresent())
+            return EncDec.encodeEvaluateResponse(refusedIter_());
+        final CursorRegistry.Cursor<Collection<CollectHistory.NamedEvaluation>> cursor = registered.get();
 
-        final List<Collection<CollectHistory.NamedEvaluation>> result = fetchFromIter(iter, fetch, MAX_EVAL_FETCH);
+        final List<Collection<CollectHistory.NamedEvaluation>> result = cursor.fetch(iter -> fetchFromIter(iter, fetch, MAX_EVAL_FETCH));
         EncDec.NewIterResponse<Collection<CollectHistory.NamedEvaluation>> responseObj
-                = new EncDec.NewIterResponse<>(idx, result, iter.atEnd(), iterAndCookie.getCookie());
+                = new EncDec.NewIterResponse<>(cursor.getId(), result, cursor.getIterator().atEnd(), cursor.getCookie());
         LOG.log(Level.FINE, "responseObj = {0}", responseObj);
         return EncDec.encodeEvaluateResponse(responseObj);
     }
@@ -197,18 +251,40 @@ public abstract class AbstractServer extends rh_protoServerStub {
      * Create a new group iterator from the given stream.
      */
     private static group_stream_response newGroupStream(Stream<Map.Entry<DateTime, TimeSeriesValue>> tsc, int fetch) {
-        final BufferedIterator<Map.Entry<DateTime, TimeSeriesValue>> iter = new BufferedIterator<>(tsc.iterator(), GROUP_STREAM_QUEUE_SIZE);
-        final long idx = GROUP_STREAM_ITERS_ALLOC.getAndIncrement();
-        final IteratorAndCookie<Map.Entry<DateTime, TimeSeriesValue>> iterAndCookie = new IteratorAndCookie<>(iter);
-        GROUP_STREAM_ITERS.put(idx, iterAndCookie);
+        final Optional<CursorRegistry.Cursor<Map.Entry<DateTime, TimeSeriesValue>>> registered = CURSORS.<Map.Entry<DateTime, TimeSeriesValue>>register(CursorRegistry.Kind.GROUP_STREAM, tsc, GROUP_STREAM_QUEUE_SIZE, AbstractServer::estimateGroupEntryBytes).getLeft();
+        if (!registered.isPresent())
+            return EncDec.encodeStreamGroupResponse(refusedIter_());
+        final CursorRegistry.Cursor<Map.Entry<DateTime, TimeSeriesValue>> cursor = registered.get();
 
-        final List<Map.Entry<DateTime, TimeSeriesValue>> result = fetchFromIter(iter, fetch, MAX_GROUP_STREAM_FETCH);
+        final List<Map.Entry<DateTime, TimeSeriesValue>> result = cursor.fetch(iter -> fetchFromIter(iter, fetch, MAX_GROUP_STREAM_FETCH));
         EncDec.NewIterResponse<Map.Entry<DateTime, TimeSeriesValue>> responseObj
-                = new EncDec.NewIterResponse<>(idx, result, iter.atEnd(), iterAndCookie.getCookie());
+                = new EncDec.NewIterResponse<>(cursor.getId(), result, cursor.getIterator().atEnd(), cursor.getCookie());
         LOG.log(Level.FINE, "responseObj = {0}", responseObj);
         return EncDec.encodeStreamGroupResponse(responseObj);
     }
 
+    /**
+     * Response for a stream that was refused, because too many cursors are
+     * open.
+     *
+     * The response holds no data and refers to {@link CursorRegistry#REFUSED_ID},
+     * so that the client learns about the refusal when it requests the next
+     * page.
+     */
+    private static <T> EncDec.NewIterResponse<T> refusedIter_() {
+        LOG.log(Level.WARNING, "refusing stream: too many open cursors");
+        return new EncDec.NewIterResponse<>(CursorRegistry.REFUSED_ID, new ArrayList<>(), false, 0);
+    }
+
+    /**
+     * Error for a request on an iterator that is not registered.
+     */
+    private static EncDec.IterErrorResponse iterError_(long id) {
+        if (id == CursorRegistry.REFUSED_ID)
+            return new EncDec.IterErrorResponse(IteratorErrorCode.TOO_MANY_ITERATORS);
+        return new EncDec.IterErrorResponse(IteratorErrorCode.UNKNOWN_ITERATOR);
+    }
+
     /**
      * Fetch up to a given amount of items from the iterator.
      *
@@ -220,13 +296,36 @@ public abstract class AbstractServer extends rh_protoServerStub {
      * @return A list with items fetched from the iterator.
      */
     private static <T> List<T> fetchFromIter(BufferedIterator<T> iter, int fetch, int max_fetch) {
+        return fetchFromIter(iter, fetch, max_fetch, item -> 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Fetch up to a given amount of items from the iterator, stopping early
+     * once the byte budget is used up.
+     *
+     * @param <T> The type of elements in the iterator.
+     * @param iter The iterator supplying items.
+     * @param fetch The requested number of items to fetch (user supplied
+     * parameter).
+     * @param max_fetch The hard limit on how many items to fetch.
+     * @param sizeFn Estimate of the encoded size of an item.
+     * @param max_bytes The limit on the estimated size of the result.
+     * @return A list with items fetched from the iterator.
+     */
+    private static <T> List<T> fetchFromIter(BufferedIterator<T> iter, int fetch, int max_fetch, ToLongFunction<? super T> sizeFn, long max_bytes) {
         final long t0 = System.currentTimeMillis();
         assert (max_fetch >= 1);
         if (fetch < 0 || fetch > max_fetch) fetch = max_fetch;
 
-        final List<T> result = new ArrayList<>(fetch);
+        final List<T> result = new ArrayList<>(Integer.min(fetch, 64));
+        long bytes = 0;
         for (int i = 0; i < fetch && !iter.atEnd(); ++i) {
-            if (iter.nextAvail()) result.add(iter.next());
+            if (iter.nextAvail()) {
+                final T item = iter.next();
+                result.add(item);
+                bytes += sizeFn.applyAsLong(item);
+                if (bytes >= max_bytes) break;
+            }
 
             // Decide if we should cut the fetch short.
             // We stop fetching more items if the time delay exceeds the deadline.
@@ -247,6 +346,58 @@ public abstract class AbstractServer extends rh_protoServerStub {
         return result;
     }
 
+    /**
+     * Estimate the encoded size of a TimeSeriesCollection.
+     *
+     * The estimate doesn't need to be exact, it is only used to size pages
+     * and to account for cursor memory.
+     */
+    static long estimateEncodedBytes(TimeSeriesCollection tsc) {  // Package visibility for testing purposes.
+        long bytes = 16;
+        for (TimeSeriesValue tsv : tsc.getTSValues())
+            bytes += 64 + 32 * tsv.getMetrics().size();
+        return bytes;
+    }
+
+    /**
+     * Estimate the memory use of an evaluation, for cursor accounting.
+     */
+    private static long estimateEvalBytes(Collection<CollectHistory.NamedEvaluation> evals) {
+        long bytes = 16;
+        for (CollectHistory.NamedEvaluation eval : evals)
+            bytes += 64 + 32 * eval.getTS().size();
+        return bytes;
+    }
+
+    /**
+     * Estimate the memory use of a group stream entry, for cursor accounting.
+     */
+    private static long estimateGroupEntryBytes(Map.Entry<DateTime, TimeSeriesValue> entry) {
+        return 16 + 64 + 32 * entry.getValue().getMetrics().size();
+    }
+
+    /**
+     * The registry holding the open iterators.
+     *
+     * Allows the memory limits to be changed.
+     */
+    public static CursorRegistry getCursors() {
+        return CURSORS;
+    }
+
+    /**
+     * Metrics describing the server: open cursors, buffered bytes, evictions
+     * and session page sizes.
+     *
+     * @return A map of metric values.
+     */
+    public static Map<MetricName, MetricValue> getMetrics() {
+        final Map<MetricName, MetricValue> result = CURSORS.getMetrics();
+        result.put(PAGE_BYTES_RAW_METRIC, MetricValue.fromIntValue(getPageBytesRaw()));
+        result.put(PAGE_BYTES_COMPRESSED_METRIC, MetricValue.fromIntValue(getPageBytesCompressed()));
+        return result;
+    }
+
     public abstract boolean addTSData(List<TimeSeriesCollection> c);
 
     public abstract long getFileSize();
@@ -280,6 +431,37 @@ public abstract class AbstractServer extends rh_protoServerStub {
 
     public abstract Stream<Map.Entry<DateTime, TimeSeriesValue>> streamGroup(DateTime begin, GroupName group);
 
+    public Stream<TimeSeriesCollection> stream(TimeSeriesMetricFilter filter) {
+        return stream().map(filter::apply);
+    }
+
+    public Stream<TimeSeriesCollection> stream(DateTime begin, TimeSeriesMetricFilter filter) {
+        return stream(begin).map(filter::apply);
+    }
+
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        return stream(begin, end).map(filter::apply);
+    }
+
+    public Stream<TimeSeriesCollection> stream(Duration stepSize, TimeSeriesMetricFilter filter) {
+        return stream(stepSize).map(filter::apply);
+    }
+
+    public Stream<TimeSeriesCollection> stream(DateTime begin, Duration stepSize, TimeSeriesMetricFilter filter) {
+        return stream(begin, stepSize).map(filter::apply);
+    }
+
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, Duration stepSize, TimeSeriesMetricFilter filter) {
+        return stream(begin, end, stepSize).map(filter::apply);
+    }
+
+    public Stream<Map.Entry<DateTime, TimeSeriesValue>> streamGroup(DateTime begin, GroupName group, TimeSeriesMetricFilter filter) {
+        return streamGroup(begin, group)
+                .map(entry -> filter.apply(entry.getValue()).map(tsv -> SimpleMapEntry.create(entry.getKey(), tsv)))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
     @Override
     public final boolean addTSData_1(list_of_timeseries_collection c) {
         return addTSData(EncDec.decodeTSCCollection(c));
@@ -298,19 +480,17 @@ public abstract class AbstractServer extends rh_protoServerStub {
     @Override
     public final stream_iter_tsc_response streamIterTscNext_1(long id, long cookie, int fetch) {
         LOG.log(Level.FINE, "TSC iter next({0}, {1})", new Object[]{id, fetch});
-        IteratorAndCookie<TimeSeriesCollection> iter = TSC_ITERS.getIfPresent(id);
+        final CursorRegistry.Cursor<TimeSeriesCollection> iter = CURSORS.<TimeSeriesCollection>get(id, CursorRegistry.Kind.TSC).orElse(null);
         if (iter == null || !iter.update(cookie))
-            return EncDec.encodeStreamIterTscResponse(new EncDec.IterErrorResponse(IteratorErrorCode.UNKNOWN_ITERATOR));
+            return EncDec.encodeStreamIterTscResponse(iterError_(id));
 
-        final List<TimeSeriesCollection> result = fetchFromIter(iter.getIterator(), fetch, MAX_TSC_FETCH);
+        final List<TimeSeriesCollection> result = iter.fetch(i -> fetchFromIter(i, fetch, MAX_TSC_FETCH, AbstractServer::estimateEncodedBytes, maxTscFetchBytes));
         return EncDec.encodeStreamIterTscResponse(new EncDec.IterSuccessResponseImpl<>(result, iter.getIterator().atEnd(), iter.getCookie()));
     }
 
     @Override
     public void closeIterTsc_1(long id, long cookie) {
-        final IteratorAndCookie<TimeSeriesCollection> iter = TSC_ITERS.getIfPresent(id);
-        if (iter != null && iter.update(cookie))
-            TSC_ITERS.invalidate(id);
+        CURSORS.close(id, CursorRegistry.Kind.TSC, cookie);
     }
 
     @Override
@@ -353,22 +533,102 @@ public abstract class AbstractServer extends rh_protoServerStub {
         return newTscStream(stream(EncDec.decodeTimestamp(begin), EncDec.decodeTimestamp(end), EncDec.decodeDuration(stepSize)), fetch);
     }
 
+    @Override
+    public final stream_response streamFiltered_2(stream_filtered_args args, int fetch) {
+        return newTscStream(filteredStream_(args), fetch);
+    }
+
+    @Override
+    public final session_response streamSession_2(stream_filtered_args args, int compression, int fetch) {
+        final PageCompression pageCompression;
+        try {
+            pageCompression = PageCompression.fromEncodedForm(compression);
+        } catch (IllegalArgumentException ex) {
+            LOG.log(Level.WARNING, "unrecognized page compression", ex);
+            throw ex;
+        }
+        return newSessionStream(filteredStream_(args), pageCompression, fetch);
+    }
+
+    @Override
+    public final session_iter_response streamSessionNext_2(long id, long cookie, int fetch) {
+        LOG.log(Level.FINE, "session iter next({0}, {1})", new Object[]{id, fetch});
+        final CursorRegistry.Cursor<TimeSeriesCollection> iter = CURSORS.<TimeSeriesCollection>get(id, CursorRegistry.Kind.TSC).orElse(null);
+        if (iter == null || iter.getSession() == null || !iter.update(cookie))
+            return EncDec.encodeSessionIterResponse(iterError_(id));
+
+        final List<TimeSeriesCollection> result = iter.fetch(i -> fetchFromIter(i, fetch, MAX_TSC_FETCH, AbstractServer::estimateEncodedBytes, maxTscFetchBytes));
+        final session_iter_response response = EncDec.encodeSessionIterResponse(iter.getSession(), iter.getCompression(), new EncDec.IterSuccessResponseImpl<>(result, iter.getIterator().atEnd(), iter.getCookie()));
+        recordPage_(response.response.rv);
+        return response;
+    }
+
+    /**
+     * Create the stream described by the filtered stream arguments.
+     */
+    private Stream<TimeSeriesCollection> filteredStream_(stream_filtered_args args) {
+        final Optional<DateTime> begin = Optional.ofNullable(args.begin).map(EncDec::decodeTimestamp);
+        final Optional<DateTime> end = Optional.ofNullable(args.end).map(EncDec::decodeTimestamp);
+        final Optional<Duration> stepSize = Optional.ofNullable(args.step_size).map(EncDec::decodeDuration);
+        final TimeSeriesMetricFilter filter;
+        try {
+            filter = EncDec.decodeMetricFilter(args.filter);
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "unable to decode filter", ex);
+            throw ex;
+        }
+        LOG.log(Level.FINE, "filtered stream({0}, {1}, {2}, {3})", new Object[]{begin, end, stepSize, filter});
+
+        final Stream<TimeSeriesCollection> tsc;
+        if (filter.equals(TimeSeriesMetricFilter.ALL_GROUPS)) {
+            // Unfiltered: use the plain stream methods, which may be cheaper.
+            if (stepSize.isPresent()) {
+                if (end.isPresent())
+                    tsc = stream(begin.orElse(EPOCH), end.get(), stepSize.get());
+                else if (begin.isPresent())
+                    tsc = stream(begin.get(), stepSize.get());
+                else
+                    tsc = stream(stepSize.get());
+            } else {
+                if (end.isPresent())
+                    tsc = stream(begin.orElse(EPOCH), end.get());
+                else if (begin.isPresent())
+                    tsc = stream(begin.get());
+                else
+                    tsc = stream();
+            }
+        } else if (stepSize.isPresent()) {
+            if (end.isPresent())
+                tsc = stream(begin.orElse(EPOCH), end.get(), stepSize.get(), filter);
+            else if (begin.isPresent())
+                tsc = stream(begin.get(), stepSize.get(), filter);
+            else
+                tsc = stream(stepSize.get(), filter);
+        } else {
+            if (end.isPresent())
+                tsc = stream(begin.orElse(EPOCH), end.get(), filter);
+            else if (begin.isPresent())
+                tsc = stream(begin.get(), filter);
+            else
+                tsc = stream(filter);
+        }
+        return tsc;
+    }
+
     @Override
     public final evaluate_iter_response evaluateIterNext_1(long id, long cookie, int fetch) {
         LOG.log(Level.FINE, "eval iter next({0}, {1})", new Object[]{id, fetch});
-        IteratorAndCookie<Collection<CollectHistory.NamedEvaluation>> iter = EVAL_ITERS.getIfPresent(id);
+        final CursorRegistry.Cursor<Collection<CollectHistory.NamedEvaluation>> iter = CURSORS.<Collection<CollectHistory.NamedEvaluation>>get(id, CursorRegistry.Kind.EVAL).orElse(null);
         if (iter == null || !iter.update(cookie))
-            return EncDec.encodeEvaluateIterResponse(new EncDec.IterErrorResponse(IteratorErrorCode.UNKNOWN_ITERATOR));
+            return EncDec.encodeEvaluateIterResponse(iterError_(id));
 
-        final List<Collection<CollectHistory.NamedEvaluation>> result = fetchFromIter(iter.getIterator(), fetch, MAX_EVAL_FETCH);
+        final List<Collection<CollectHistory.NamedEvaluation>> result = iter.fetch(i -> fetchFromIter(i, fetch, MAX_EVAL_FETCH));
         return EncDec.encodeEvaluateIterResponse(new EncDec.IterSuccessResponseImpl<>(result, iter.getIterator().atEnd(), iter.getCookie()));
     }
 
     @Override
     public final void closeEvalIter_1(long id, long cookie) {
-        final IteratorAndCookie<Collection<CollectHistory.NamedEvaluation>> iter = EVAL_ITERS.getIfPresent(id);
-        if (iter != null && iter.update(cookie))
-            EVAL_ITERS.invalidate(id);
+        CURSORS.close(id, CursorRegistry.Kind.EVAL, cookie);
     }
 
     @Override
@@ -404,19 +664,22 @@ public abstract class AbstractServer extends rh_protoServerStub {
     @Override
     public final group_stream_iter_response streamGroupIterNext_1(long id, long cookie, int fetch) {
         LOG.log(Level.FINE, "group stream iter next({0}, {1})", new Object[]{id, fetch});
-        IteratorAndCookie<Map.Entry<DateTime, TimeSeriesValue>> iter = GROUP_STREAM_ITERS.getIfPresent(id);
+        final CursorRegistry.Cursor<Map.Entry<DateTime, TimeSeriesValue>> iter = CURSORS.<Map.Entry<DateTime, TimeSeriesValue>>get(id, CursorRegistry.Kind.GROUP_STREAM).orElse(null);
         if (iter == null || !iter.update(cookie))
-            return EncDec.encodeStreamGroupIterResponse(new EncDec.IterErrorResponse(IteratorErrorCode.UNKNOWN_ITERATOR));
+            return EncDec.encodeStreamGroupIterResponse(iterError_(id));
 
-        final List<Map.Entry<DateTime, TimeSeriesValue>> result = fetchFromIter(iter.getIterator(), fetch, MAX_GROUP_STREAM_FETCH);
+        final List<Map.Entry<DateTime, TimeSeriesValue>> result = iter.fetch(i -> fetchFromIter(i, fetch, MAX_GROUP_STREAM_FETCH));
         return EncDec.encodeStreamGroupIterResponse(new EncDec.IterSuccessResponseImpl<>(result, iter.getIterator().atEnd(), iter.getCookie()));
     }
 
+    @Override
+    public final group_stream_response streamGroupFiltered_2(timestamp_msec begin, literals_group_name group, timeseries_metric_filter filter, int fetch) {
+        return newGroupStream(streamGroup(EncDec.decodeTimestamp(begin), EncDec.decodeLiteralsGroupName(group), EncDec.decodeMetricFilter(filter)), fetch);
+    }
+
     @Override
     public final void closeGroupIter_1(long id, long cookie) {
-        final IteratorAndCookie<Map.Entry<DateTime, TimeSeriesValue>> iter = GROUP_STREAM_ITERS.getIfPresent(id);
-        if (iter != null && iter.update(cookie))
-            GROUP_STREAM_ITERS.invalidate(id);
+        CURSORS.close(id, CursorRegistry.Kind.GROUP_STREAM, cookie);
     }
 
     @Override
@@ -429,32 +692,6 @@ public abstract class AbstractServer extends rh_protoServerStub {
         }
     }
 
-    @RequiredArgsConstructor
-    @Getter
-    private static class IteratorAndCookie<T> {
-        private static final SecureRandom RANDOM = new SecureRandom();
-        private final BufferedIterator<T> iterator;
-        private long cookie = RANDOM.nextLong();
-
-        /**
-         * Change the cookie.
-         *
-         * @return True indicating the expected value matched and the cookie was
-         * changed. If the operation fails, false is returned.
-         */
-        synchronized public boolean update(long expected) {
-            if (cookie != expected) return false;
-
-            long newCookie;
-            do {
-                newCookie = RANDOM.nextLong();
-            } while (cookie == newCookie);  // Always change the cookie.
-            cookie = newCookie;
-
-            return true;
-        }
-    }
-
     @Override
     public void dispatchOncRpcCall(OncRpcCallInformation call, int program, int version, int procedure) throws OncRpcException, IOException {
         try {
@@ -36,12 +36,20 @@ import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.lib.Any2;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
 import static com.groupon.monsoon.remote.history.EncDec.decodeTimestamp;
 import static com.groupon.monsoon.remote.history.EncDec.encodeTSCCollection;
+import com.groupon.monsoon.remote.history.xdr.compressed_page;
+import com.groupon.monsoon.remote.history.xdr.iter_result_code;
 import com.groupon.monsoon.remote.history.xdr.list_of_timeseries_collection;
 import com.groupon.monsoon.remote.history.xdr.named_evaluation_map;
+import com.groupon.monsoon.remote.history.xdr.rh_proto;
 import com.groupon.monsoon.remote.history.xdr.rh_protoClient;
+import com.groupon.monsoon.remote.history.xdr.session_iter_response;
+import com.groupon.monsoon.remote.history.xdr.session_response;
+import com.groupon.monsoon.remote.history.xdr.stream_filtered_args;
+import com.groupon.monsoon.remote.history.xdr.timeseries_metric_filter;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Collection;
@@ -58,34 +66,109 @@ import static java.util.Spliterator.IMMUTABLE;
 import static java.util.Spliterator.NONNULL;
 import static java.util.Spliterator.ORDERED;
 import java.util.Spliterators;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import org.acplt.oncrpc.OncRpcException;
 import org.acplt.oncrpc.OncRpcProtocols;
+import org.acplt.oncrpc.XdrVoid;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
-public class Client implements CollectHistory {
+public class Client implements CollectHistory, AutoCloseable {
     /**
      * Default port for the RPC server.
      */
     public static final int DEFAULT_PORT = 9996;
     private static final int TSC_INITIAL_BATCH_SIZE = 10;
     private static final int TSC_BATCH_SIZE = 50;
+    /**
+     * Batch size for TCP connections, which are not limited by datagram size.
+     * The server trims the page to its byte budget.
+     */
+    private static final int TSC_TCP_BATCH_SIZE = 500;
     private static final int EVAL_INITIAL_BATCH_SIZE = 50;
     private static final int EVAL_BATCH_SIZE = 250;
     private static final int STREAM_GROUP_INITIAL_BATCH_SIZE = 5000;
     private static final int STREAM_GROUP_BATCH_SIZE = 25000;
     private static final Logger LOG = Logger.getLogger(Client.class.getName());
+    /**
+     * Time to wait before restarting an iterator that the server refused,
+     * multiplied by the number of consecutive refusals.
+     */
+    private static final long REFUSED_BACKOFF_MSEC = 250;
+    /**
+     * Max number of consecutive refusals, before an iterator gives up.
+     */
+    private static final int MAX_REFUSALS = 20;
+    /**
+     * Default max number of idle connections kept per protocol.
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+    /**
+     * Default time after which an idle connection is no longer reused.
+     */
+    public static final long DEFAULT_MAX_IDLE_MSEC = 30 * 1000;
+    /**
+     * Default compression requested for pages of session streams.
+     */
+    public static final PageCompression DEFAULT_PAGE_COMPRESSION = PageCompression.SNAPPY;
+    /**
+     * Threads that fetch the next page of an iterator, while the consumer
+     * processes the current page.
+     */
+    private static final ExecutorService PREFETCH_POOL = Executors.newCachedThreadPool((Runnable r) -> {
+        final Thread t = new Thread(r, "rh-client-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
     private final InetAddress host;
     private final int port;
     private final OptionalInt protocolOverride;
+    private final Map<Integer, BlockingDeque<IdleClient>> idle = new ConcurrentHashMap<>();
+    private final LongAdder pageBytesRaw = new LongAdder(), pageBytesCompressed = new LongAdder();
+    /**
+     * Cleared once the server turns out not to support session streams.
+     */
+    private volatile boolean sessionStreams = true;
+    /**
+     * Max number of idle connections kept per protocol.
+     */
+    @Getter
+    @Setter
+    private volatile int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    /**
+     * Max time a connection may be idle and still be reused, in milliseconds.
+     */
+    @Getter
+    @Setter
+    private volatile long maxIdleMsec = DEFAULT_MAX_IDLE_MSEC;
+    /**
+     * Compression requested for pages of session streams.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private volatile PageCompression pageCompression = DEFAULT_PAGE_COMPRESSION;
 
     public Client(InetAddress host, int port, OptionalInt protocolOverride) throws OncRpcException, IOException {
         if (port == 0) port = DEFAULT_PORT;
@@ -93,13 +176,14 @@ public class Client implements CollectHistory {
         this.port = port;
         this.protocolOverride = protocolOverride;
 
-        final rh_protoClient client = getRpcClient(OncRpcProtocols.ONCRPC_UDP);
         try {
-            BlockingWrapper.execute(() -> client.nullproc());  // Test the connection.
+            call_(OncRpcProtocols.ONCRPC_UDP, true, (client, ignored) -> {
+                // Test the connection, using the version all servers implement.
+                client.getClient().call(0, rh_proto.vers, XdrVoid.XDR_VOID, XdrVoid.XDR_VOID);
+                return true;
+            });
         } catch (InterruptedException ex) {
             throw new RuntimeException(ex);
-        } finally {
-            client.close();
         }
     }
 
@@ -112,11 +196,193 @@ public class Client implements CollectHistory {
     }
 
     private rh_protoClient getRpcClient(int protocol) throws IOException, OncRpcException {
-        final rh_protoClient client = new rh_protoClient(this.host, this.port, protocolOverride.orElse(protocol));
+        final rh_protoClient client = new rh_protoClient(this.host, this.port, protocol);
         client.getClient().setCharacterEncoding("UTF-8");
         return client;
     }
 
+    /**
+     * Take an idle connection from the pool.
+     *
+     * Connections that have been idle for longer than {@link #maxIdleMsec} are
+     * closed instead of reused, since the server may have dropped them.
+     *
+     * @return An idle connection, or null if none are available.
+     */
+    private rh_protoClient pollIdleRpcClient_(int protocol) {
+        final BlockingDeque<IdleClient> pool = idle.get(protocol);
+        if (pool == null) return null;
+
+        final long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(maxIdleMsec);
+        for (IdleClient entry = pool.pollFirst(); entry != null; entry = pool.pollFirst()) {
+            if (entry.since - cutoff >= 0) return entry.client;
+            closeRpcClient_(entry.client);
+        }
+        return null;
+    }
+
+    /**
+     * Return a connection to the pool.
+     *
+     * The connection is closed if the pool is full.
+     */
+    private void releaseRpcClient_(int protocol, rh_protoClient client) {
+        final BlockingDeque<IdleClient> pool = idle.computeIfAbsent(protocol, p -> new LinkedBlockingDeque<>());
+        if (pool.size() >= maxIdleConnections || !pool.offerFirst(new IdleClient(client, System.nanoTime())))
+            closeRpcClient_(client);
+    }
+
+    /**
+     * Test if an exception indicates the connection failed, as opposed to the
+     * server rejecting the call.
+     */
+    private static boolean isConnectionFailure_(Exception ex) {
+        if (ex instanceof IOException) return true;
+        if (ex instanceof OncRpcException) {
+            switch (((OncRpcException) ex).getReason()) {
+                case OncRpcException.RPC_CANTSEND:
+                case OncRpcException.RPC_CANTRECV:
+                case OncRpcException.RPC_TIMEDOUT:
+                case OncRpcException.RPC_FAILED:
+                case OncRpcException.RPC_BUFFERUNDERFLOW:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static void closeRpcClient_(rh_protoClient client) {
+        try {
+            client.close();
+        } catch (OncRpcException ex) {
+            /* Ignore, let GC handle anything that needs closing using finalization. */
+        }
+    }
+
+    /**
+     * Test if an exception indicates the server does not implement the
+     * program version of the call.
+     *
+     * Servers generated for version 1 only reply PROG_UNAVAIL for unknown
+     * versions, rather than PROG_MISMATCH.
+     */
+    private static boolean isUnsupportedVersion_(OncRpcException ex) {
+        return ex.getReason() == OncRpcException.RPC_PROGVERSMISMATCH
+                || ex.getReason() == OncRpcException.RPC_PROGUNAVAIL;
+    }
+
+    /**
+     * Test if an exception indicates the request was never sent, so the
+     * server cannot have acted on it.
+     */
+    private static boolean isSendFailure_(Exception ex) {
+        return ex instanceof OncRpcException
+                && ((OncRpcException) ex).getReason() == OncRpcException.RPC_CANTSEND;
+    }
+
+    /**
+     * Perform an RPC call on a pooled connection.
+     *
+     * If the call fails on a pooled connection, because the connection went
+     * stale, the call is retried once on a new connection. Calls that are not
+     * idempotent are only retried if the request was never sent, since
+     * otherwise the server may already have applied it.
+     */
+    private <T> T call_(int protocol, boolean idempotent, RpcCall<Void, T> call) throws IOException, OncRpcException, InterruptedException {
+        final int effectiveProtocol = protocolOverride.orElse(protocol);
+        final rh_protoClient pooled = pollIdleRpcClient_(effectiveProtocol);
+        if (pooled != null) {
+            try {
+                return callOn_(effectiveProtocol, pooled, call);
+            } catch (IOException | OncRpcException ex) {
+                if (!(idempotent ? isConnectionFailure_(ex) : isSendFailure_(ex))) throw ex;
+                LOG.log(Level.FINE, "pooled connection failed, retrying on new connection", ex);
+            }
+        }
+        return callOn_(effectiveProtocol, getRpcClient(effectiveProtocol), call);
+    }
+
+    /**
+     * Perform an RPC call on the given connection.
+     *
+     * On failure, the connection is discarded, since its state is unknown.
+     */
+    private <T> T callOn_(int effectiveProtocol, rh_protoClient client, RpcCall<Void, T> call) throws IOException, OncRpcException, InterruptedException {
+        final T result;
+        try {
+            result = BlockingWrapper.execute(() -> call.call(client, null));
+        } catch (IOException | OncRpcException | InterruptedException | RuntimeException ex) {
+            closeRpcClient_(client);
+            throw ex;
+        }
+        releaseRpcClient_(effectiveProtocol, client);
+        return result;
+    }
+
+    /**
+     * Create an iterator on a pooled connection.
+     *
+     * The connection is returned to the pool once the iterator is exhausted.
+     * If the iterator cannot be started on a pooled connection, because the
+     * connection went stale, it is retried once on a new connection.
+     */
+    private <T> RpcIterator<T> newIterator_(RpcCall<DateTime, EncDec.NewIterResponse<T>> restartCall,
+                                            RpcContinue<T> continueCall,
+                                            RpcClose closeCall,
+                                            Function<List<? extends T>, Optional<DateTime>> computeRestartTs,
+                                            DateTime initialTime) throws IOException, OncRpcException {
+        final int effectiveProtocol = protocolOverride.orElse(OncRpcProtocols.ONCRPC_TCP);
+        final rh_protoClient pooled = pollIdleRpcClient_(effectiveProtocol);
+        if (pooled != null) {
+            try {
+                return newIteratorOn_(effectiveProtocol, pooled, restartCall, continueCall, closeCall, computeRestartTs, initialTime);
+            } catch (IOException | OncRpcException ex) {
+                if (!isConnectionFailure_(ex)) throw ex;
+                LOG.log(Level.FINE, "pooled connection failed, retrying on new connection", ex);
+            }
+        }
+        return newIteratorOn_(effectiveProtocol, getRpcClient(effectiveProtocol), restartCall, continueCall, closeCall, computeRestartTs, initialTime);
+    }
+
+    private <T> RpcIterator<T> newIteratorOn_(int effectiveProtocol,
+                                              rh_protoClient rpcClient,
+                                              RpcCall<DateTime, EncDec.NewIterResponse<T>> restartCall,
+                                              RpcContinue<T> continueCall,
+                                              RpcClose closeCall,
+                                              Function<List<? extends T>, Optional<DateTime>> computeRestartTs,
+                                              DateTime initialTime) throws IOException, OncRpcException {
+        return new RpcIterator<>(
+                rpcClient,
+                client -> releaseRpcClient_(effectiveProtocol, client),
+                restartCall,
+                continueCall,
+                closeCall,
+                computeRestartTs,
+                initialTime);
+    }
+
+    /**
+     * Number of TimeSeriesCollections to request per page.
+     */
+    private int tscBatchSize_() {
+        if (protocolOverride.orElse(OncRpcProtocols.ONCRPC_TCP) == OncRpcProtocols.ONCRPC_TCP)
+            return TSC_TCP_BATCH_SIZE;
+        return TSC_BATCH_SIZE;
+    }
+
+    /**
+     * Close all idle connections.
+     */
+    @Override
+    public void close() {
+        idle.values().forEach(pool -> {
+            for (IdleClient entry = pool.pollFirst(); entry != null; entry = pool.pollFirst())
+                closeRpcClient_(entry.client);
+        });
+    }
+
     /**
      * Add a TimeSeriesCollection to the history.
      */
@@ -131,13 +397,8 @@ public class Client implements CollectHistory {
     @Override
     public boolean addAll(Collection<? extends TimeSeriesCollection> c) {
         try {
-            final rh_protoClient client = getRpcClient(OncRpcProtocols.ONCRPC_TCP);
-            try {
-                final list_of_timeseries_collection enc_c = encodeTSCCollection(c);
-                return BlockingWrapper.execute(() -> client.addTSData_1(enc_c));
-            } finally {
-                client.close();
-            }
+            final list_of_timeseries_collection enc_c = encodeTSCCollection(c);
+            return call_(OncRpcProtocols.ONCRPC_TCP, false, (client, ignored) -> client.addTSData_1(enc_c));
         } catch (OncRpcException | IOException | InterruptedException | RuntimeException ex) {
             LOG.log(Level.SEVERE, "addAll RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -152,12 +413,7 @@ public class Client implements CollectHistory {
     @Override
     public long getFileSize() {
         try {
-            final rh_protoClient client = getRpcClient(OncRpcProtocols.ONCRPC_UDP);
-            try {
-                return BlockingWrapper.execute(() -> client.getFileSize_1());
-            } finally {
-                client.close();
-            }
+            return call_(OncRpcProtocols.ONCRPC_UDP, true, (client, ignored) -> client.getFileSize_1());
         } catch (OncRpcException | IOException | InterruptedException | RuntimeException ex) {
             LOG.log(Level.SEVERE, "getFileSize RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -172,12 +428,7 @@ public class Client implements CollectHistory {
     @Override
     public DateTime getEnd() {
         try {
-            final rh_protoClient client = getRpcClient(OncRpcProtocols.ONCRPC_UDP);
-            try {
-                return decodeTimestamp(BlockingWrapper.execute(() -> client.getEnd_1()));
-            } finally {
-                client.close();
-            }
+            return decodeTimestamp(call_(OncRpcProtocols.ONCRPC_UDP, true, (client, ignored) -> client.getEnd_1()));
         } catch (OncRpcException | IOException | InterruptedException | RuntimeException ex) {
             LOG.log(Level.SEVERE, "getEnd RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -192,8 +443,7 @@ public class Client implements CollectHistory {
     @Override
     public Stream<TimeSeriesCollection> streamReversed() {
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         if (ts == null)
                             return EncDec.decodeStreamResponse(rpcClient.streamReverse_1(TSC_INITIAL_BATCH_SIZE));
@@ -201,13 +451,14 @@ public class Client implements CollectHistory {
                             return EncDec.decodeStreamResponse(rpcClient.streamReverseFrom_1(EncDec.encodeTimestamp(ts), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().minus(1));
                     },
                     null);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -221,9 +472,11 @@ public class Client implements CollectHistory {
      */
     @Override
     public Stream<TimeSeriesCollection> stream() {
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(null, null, null, TimeSeriesMetricFilter.ALL_GROUPS);
+        if (session.isPresent()) return session.get();
+
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         if (ts == null)
                             return EncDec.decodeStreamResponse(rpcClient.stream_1(TSC_INITIAL_BATCH_SIZE));
@@ -231,13 +484,14 @@ public class Client implements CollectHistory {
                             return EncDec.decodeStreamResponse(rpcClient.streamFrom_1(EncDec.encodeTimestamp(ts), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().plus(1));
                     },
                     null);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -258,9 +512,11 @@ public class Client implements CollectHistory {
         else
             stepSize = stepSizeArg;
 
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(null, null, stepSize, TimeSeriesMetricFilter.ALL_GROUPS);
+        if (session.isPresent()) return session.get();
+
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         if (ts == null)
                             return EncDec.decodeStreamResponse(rpcClient.streamStepped_1(EncDec.encodeDuration(stepSize), TSC_INITIAL_BATCH_SIZE));
@@ -268,13 +524,14 @@ public class Client implements CollectHistory {
                             return EncDec.decodeStreamResponse(rpcClient.streamSteppedFrom_1(EncDec.encodeTimestamp(ts), EncDec.encodeDuration(stepSize), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().plus(stepSize));
                     },
                     null);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -289,20 +546,23 @@ public class Client implements CollectHistory {
      */
     @Override
     public Stream<TimeSeriesCollection> stream(DateTime begin) {
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(begin, null, null, TimeSeriesMetricFilter.ALL_GROUPS);
+        if (session.isPresent()) return session.get();
+
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeStreamResponse(rpcClient.streamFrom_1(EncDec.encodeTimestamp(ts), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().plus(1));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -324,20 +584,23 @@ public class Client implements CollectHistory {
         else
             stepSize = stepSizeArg;
 
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(begin, null, stepSize, TimeSeriesMetricFilter.ALL_GROUPS);
+        if (session.isPresent()) return session.get();
+
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeStreamResponse(rpcClient.streamSteppedFrom_1(EncDec.encodeTimestamp(ts), EncDec.encodeDuration(stepSize), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().plus(stepSize));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -354,20 +617,23 @@ public class Client implements CollectHistory {
      */
     @Override
     public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end) {
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(begin, end, null, TimeSeriesMetricFilter.ALL_GROUPS);
+        if (session.isPresent()) return session.get();
+
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeStreamResponse(rpcClient.streamFromTo_1(EncDec.encodeTimestamp(ts), EncDec.encodeTimestamp(end), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().plus(1));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -391,20 +657,23 @@ public class Client implements CollectHistory {
         else
             stepSize = stepSizeArg;
 
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(begin, end, stepSize, TimeSeriesMetricFilter.ALL_GROUPS);
+        if (session.isPresent()) return session.get();
+
         try {
-            final RpcIterator<TimeSeriesCollection> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeStreamResponse(rpcClient.streamSteppedFromTo_1(EncDec.encodeTimestamp(ts), EncDec.encodeTimestamp(end), EncDec.encodeDuration(stepSize), TSC_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
-                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, TSC_BATCH_SIZE));
+                        return EncDec.decodeStreamIterTscResponse(rpcClient.streamIterTscNext_1(id, cookie, tscBatchSize_()));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
                     (data) -> {
                         return Optional.of(data.get(data.size() - 1).getTimestamp().plus(stepSize));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -429,8 +698,7 @@ public class Client implements CollectHistory {
 
         try {
             final named_evaluation_map query = EncDec.encodeEvaluationMap(expression);
-            final RpcIterator<Collection<NamedEvaluation>> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<Collection<NamedEvaluation>> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         if (ts == null)
                             return EncDec.decodeEvaluateResponse(rpcClient.evaluate_1(query, EncDec.encodeDuration(stepSize), EVAL_INITIAL_BATCH_SIZE));
@@ -440,6 +708,7 @@ public class Client implements CollectHistory {
                     (rh_protoClient rpcClient, long id, long cookie) -> {
                         return EncDec.decodeEvaluateIterResponse(rpcClient.evaluateIterNext_1(id, cookie, EVAL_BATCH_SIZE));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeEvalIter_1(id, cookie),
                     (data) -> {
                         return data.stream()
                         .flatMap(Collection::stream)
@@ -448,7 +717,7 @@ public class Client implements CollectHistory {
                         .map(ts -> ts.plus(stepSize));
                     },
                     null);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -474,14 +743,14 @@ public class Client implements CollectHistory {
 
         try {
             final named_evaluation_map query = EncDec.encodeEvaluationMap(expression);
-            final RpcIterator<Collection<NamedEvaluation>> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<Collection<NamedEvaluation>> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeEvaluateResponse(rpcClient.evaluateFrom_1(query, EncDec.encodeTimestamp(ts), EncDec.encodeDuration(stepSize), EVAL_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
                         return EncDec.decodeEvaluateIterResponse(rpcClient.evaluateIterNext_1(id, cookie, EVAL_BATCH_SIZE));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeEvalIter_1(id, cookie),
                     (data) -> {
                         return data.stream()
                         .flatMap(Collection::stream)
@@ -490,7 +759,7 @@ public class Client implements CollectHistory {
                         .map(ts -> ts.plus(stepSize));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -517,14 +786,14 @@ public class Client implements CollectHistory {
 
         try {
             final named_evaluation_map query = EncDec.encodeEvaluationMap(expression);
-            final RpcIterator<Collection<NamedEvaluation>> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<Collection<NamedEvaluation>> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeEvaluateResponse(rpcClient.evaluateFromTo_1(query, EncDec.encodeTimestamp(ts), EncDec.encodeTimestamp(end), EncDec.encodeDuration(stepSize), EVAL_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
                         return EncDec.decodeEvaluateIterResponse(rpcClient.evaluateIterNext_1(id, cookie, EVAL_BATCH_SIZE));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeEvalIter_1(id, cookie),
                     (data) -> {
                         return data.stream()
                         .flatMap(Collection::stream)
@@ -533,7 +802,7 @@ public class Client implements CollectHistory {
                         .map(ts -> ts.plus(stepSize));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
@@ -543,53 +812,257 @@ public class Client implements CollectHistory {
     @Override
     public Stream<Map.Entry<DateTime, TimeSeriesValue>> streamGroup(DateTime begin, GroupName group) {
         try {
-            final RpcIterator<Map.Entry<DateTime, TimeSeriesValue>> iter = new RpcIterator<>(
-                    getRpcClient(OncRpcProtocols.ONCRPC_TCP),
+            final RpcIterator<Map.Entry<DateTime, TimeSeriesValue>> iter = newIterator_(
                     (rh_protoClient rpcClient, DateTime ts) -> {
                         return EncDec.decodeStreamGroupResponse(rpcClient.streamGroup_1(EncDec.encodeTimestamp(ts), EncDec.encodeLiteralsGroupName(group), STREAM_GROUP_INITIAL_BATCH_SIZE));
                     },
                     (rh_protoClient rpcClient, long id, long cookie) -> {
                         return EncDec.decodeStreamGroupIterResponse(rpcClient.streamGroupIterNext_1(id, cookie, STREAM_GROUP_BATCH_SIZE));
                     },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeGroupIter_1(id, cookie),
                     (data) -> {
                         if (data.isEmpty())
                             return Optional.empty();
                         return Optional.of(data.get(data.size() - 1).getKey().plus(1));
                     },
                     begin);
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, NONNULL | IMMUTABLE | ORDERED), false);
+            return iter.stream();
         } catch (OncRpcException | IOException ex) {
             LOG.log(Level.SEVERE, "stream RPC call failed", ex);
             throw new RuntimeException("RPC call failed", ex);
         }
     }
 
+    /**
+     * Iterate the history, holding only data selected by the filter.
+     *
+     * @param stepSizeArg The minimum time difference between metrics.
+     * @param filter Selects the groups and metrics to retrieve.
+     * @return A TimeSeriesCollection stream, in chronological order.
+     */
+    @Override
+    public Stream<TimeSeriesCollection> stream(Duration stepSizeArg, TimeSeriesMetricFilter filter) {
+        return streamFiltered_(null, null, stepSizeArg, filter,
+                stepSize -> CollectHistory.super.stream(stepSize, filter));
+    }
+
+    /**
+     * Iterate the history, starting at the given timestamp, holding only data
+     * selected by the filter.
+     *
+     * @param begin The timestamp from which to start iterating the history.
+     * @param stepSizeArg The minimum time difference between metrics.
+     * @param filter Selects the groups and metrics to retrieve.
+     * @return A TimeSeriesCollection stream, in chronological order.
+     */
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, Duration stepSizeArg, TimeSeriesMetricFilter filter) {
+        return streamFiltered_(begin, null, stepSizeArg, filter,
+                stepSize -> CollectHistory.super.stream(begin, stepSize, filter));
+    }
+
+    /**
+     * Iterate the history, between the given timestamps, holding only data
+     * selected by the filter.
+     *
+     * @param begin The timestamp from which to start iterating the history.
+     * @param end The timestamp (inclusive) at which to stop iterating the
+     * history.
+     * @param stepSizeArg The minimum time difference between metrics.
+     * @param filter Selects the groups and metrics to retrieve.
+     * @return A TimeSeriesCollection stream, in chronological order.
+     */
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, Duration stepSizeArg, TimeSeriesMetricFilter filter) {
+        return streamFiltered_(begin, end, stepSizeArg, filter,
+                stepSize -> CollectHistory.super.stream(begin, end, stepSize, filter));
+    }
+
+    /**
+     * Implementation of the filtered streams.
+     *
+     * The filter is applied by the server. If the server does not support
+     * filtered streams, the fallback is used, which filters locally.
+     */
+    private Stream<TimeSeriesCollection> streamFiltered_(DateTime begin, DateTime end, Duration stepSizeArg, TimeSeriesMetricFilter filter, Function<Duration, Stream<TimeSeriesCollection>> fallback) {
+        final Duration stepSize;
+        if (!stepSizeArg.isLongerThan(Duration.ZERO))
+            stepSize = new Duration(1);
+        else
+            stepSize = stepSizeArg;
+
+        final Optional<Stream<TimeSeriesCollection>> session = streamSession_(begin, end, stepSize, filter);
+        if (session.isPresent()) return session.get();
+        LOG.log(Level.FINE, "filtering locally");
+        return fallback.apply(stepSize);
+    }
+
+    /**
+     * Stream the history using a session iterator.
+     *
+     * Pages in a session share a dictionary and are compressed using
+     * {@link #pageCompression}. When the iterator is restarted, a new session
+     * is started.
+     *
+     * @param begin The timestamp from which to start, or null to start at the
+     * beginning of the history.
+     * @param end The timestamp (inclusive) at which to stop, or null to iterate
+     * until the end of the history.
+     * @param stepSize The minimum time difference between metrics, or null for
+     * all metrics.
+     * @param filter Selects the groups and metrics to retrieve.
+     * @return A TimeSeriesCollection stream, or an empty optional if the server
+     * does not support session streams.
+     */
+    private Optional<Stream<TimeSeriesCollection>> streamSession_(DateTime begin, DateTime end, Duration stepSize, TimeSeriesMetricFilter filter) {
+        if (!sessionStreams) return Optional.empty();
+
+        final Duration restartStep = (stepSize == null ? new Duration(1) : stepSize);
+        final PageCompression compression = pageCompression;
+        final AtomicReference<EncDec.StreamSession> session = new AtomicReference<>();
+        try {
+            final timeseries_metric_filter encFilter = EncDec.encodeMetricFilter(filter);
+            final RpcIterator<TimeSeriesCollection> iter = newIterator_(
+                    (rh_protoClient rpcClient, DateTime ts) -> {
+                        final stream_filtered_args args = new stream_filtered_args();
+                        args.begin = (ts == null ? null : EncDec.encodeTimestamp(ts));
+                        args.end = (end == null ? null : EncDec.encodeTimestamp(end));
+                        args.step_size = (stepSize == null ? null : EncDec.encodeDuration(stepSize));
+                        args.filter = encFilter;
+                        final session_response response = rpcClient.streamSession_2(args, compression.getEncoded(), TSC_INITIAL_BATCH_SIZE);
+                        session.set(new EncDec.StreamSession());  // New server iterator, new dictionary.
+                        recordPage_(response.first_response.rv);
+                        return EncDec.decodeSessionResponse(session.get(), response);
+                    },
+                    (rh_protoClient rpcClient, long id, long cookie) -> {
+                        final session_iter_response response = rpcClient.streamSessionNext_2(id, cookie, tscBatchSize_());
+                        if (response.result == iter_result_code.SUCCESS)
+                            recordPage_(response.response.rv);
+                        return EncDec.decodeSessionIterResponse(session.get(), response);
+                    },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeIterTsc_1(id, cookie),
+                    (data) -> {
+                        return Optional.of(data.get(data.size() - 1).getTimestamp().plus(restartStep));
+                    },
+                    begin);
+            return Optional.of(iter.stream());
+        } catch (OncRpcException ex) {
+            if (isUnsupportedVersion_(ex)) {
+                LOG.log(Level.INFO, "server does not support session streams");
+                sessionStreams = false;
+                return Optional.empty();
+            }
+            LOG.log(Level.SEVERE, "stream RPC call failed", ex);
+            throw new RuntimeException("RPC call failed", ex);
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "stream RPC call failed", ex);
+            throw new RuntimeException("RPC call failed", ex);
+        }
+    }
+
+    /**
+     * Account for the size of a received session page.
+     */
+    private void recordPage_(compressed_page page) {
+        pageBytesRaw.add(page.raw_len);
+        pageBytesCompressed.add(page.data.length);
+    }
+
+    /**
+     * Number of bytes in received session pages, before compression.
+     */
+    public long getPageBytesRaw() {
+        return pageBytesRaw.sum();
+    }
+
+    /**
+     * Number of bytes in received session pages, as received.
+     */
+    public long getPageBytesCompressed() {
+        return pageBytesCompressed.sum();
+    }
+
+    /**
+     * Stream a single group, holding only metrics selected by the filter.
+     *
+     * @param begin The timestamp from which to start streaming.
+     * @param group The group for which to stream.
+     * @param filter Selects the metrics to retrieve.
+     * @return A stream of Map.Entry, mapping the timestamp to the selected
+     * group of time series values.
+     */
+    @Override
+    public Stream<Map.Entry<DateTime, TimeSeriesValue>> streamGroup(DateTime begin, GroupName group, TimeSeriesMetricFilter filter) {
+        try {
+            final timeseries_metric_filter encFilter = EncDec.encodeMetricFilter(filter);
+            final RpcIterator<Map.Entry<DateTime, TimeSeriesValue>> iter = newIterator_(
+                    (rh_protoClient rpcClient, DateTime ts) -> {
+                        return EncDec.decodeStreamGroupResponse(rpcClient.streamGroupFiltered_2(EncDec.encodeTimestamp(ts), EncDec.encodeLiteralsGroupName(group), encFilter, STREAM_GROUP_INITIAL_BATCH_SIZE));
+                    },
+                    (rh_protoClient rpcClient, long id, long cookie) -> {
+                        return EncDec.decodeStreamGroupIterResponse(rpcClient.streamGroupIterNext_1(id, cookie, STREAM_GROUP_BATCH_SIZE));
+                    },
+                    (rh_protoClient rpcClient, long id, long cookie) -> rpcClient.closeGroupIter_1(id, cookie),
+                    (data) -> {
+                        if (data.isEmpty())
+                            return Optional.empty();
+                        return Optional.of(data.get(data.size() - 1).getKey().plus(1));
+                    },
+                    begin);
+            return iter.stream();
+        } catch (OncRpcException ex) {
+            if (isUnsupportedVersion_(ex)) {
+                LOG.log(Level.INFO, "server does not support filtered streams, filtering locally");
+                return CollectHistory.super.streamGroup(begin, group, filter);
+            }
+            LOG.log(Level.SEVERE, "stream RPC call failed", ex);
+            throw new RuntimeException("RPC call failed", ex);
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "stream RPC call failed", ex);
+            throw new RuntimeException("RPC call failed", ex);
+        }
+    }
+
     /**
      * Internal iterator type that iterates remote iterator instances.
      *
      * The iterator is able to resume if the remote iterator disappears.
+     *
+     * While the consumer processes a page, the next page is fetched in the
+     * background.
+     *
+     * An iterator that is abandoned before it is exhausted must be closed, to
+     * close the server iterator and release the connection.
      */
-    private static class RpcIterator<T> implements Iterator<T> {
+    private static class RpcIterator<T> implements Iterator<T>, AutoCloseable {
         private long id;
         private rh_protoClient rpcClient;
+        private final Consumer<rh_protoClient> releaseClient;
+        private CompletableFuture<Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse>> prefetch = null;
         private boolean fin = false;
+        private int refusals = 0;
         private List<? extends T> nextValues = EMPTY_LIST;
         private DateTime restartTS;
         private long cookie;
         private final Function<List<? extends T>, Optional<DateTime>> computeRestartTs;
         private final RpcCall<DateTime, EncDec.NewIterResponse<T>> restartCall;
         private final RpcContinue<T> continueCall;
+        private final RpcClose closeCall;
 
         public RpcIterator(@NonNull rh_protoClient rpcClient,
+                           @NonNull Consumer<rh_protoClient> releaseClient,
                            @NonNull RpcCall<DateTime, EncDec.NewIterResponse<T>> restartCall,
                            @NonNull RpcContinue<T> continueCall,
+                           @NonNull RpcClose closeCall,
                            @NonNull Function<List<? extends T>, Optional<DateTime>> computeRestartTs,
                            DateTime initialTime) throws IOException, OncRpcException {
             this.rpcClient = rpcClient;
+            this.releaseClient = releaseClient;
             this.restartTS = initialTime;
             this.computeRestartTs = computeRestartTs;
             this.restartCall = restartCall;
             this.continueCall = continueCall;
+            this.closeCall = closeCall;
 
             try {
                 final EncDec.NewIterResponse<T> sr;
@@ -611,6 +1084,61 @@ public class Client implements CollectHistory {
             }
         }
 
+        /**
+         * Create a stream over this iterator, that closes the iterator when
+         * the stream is closed.
+         */
+        public Stream<T> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, NONNULL | IMMUTABLE | ORDERED), false)
+                    .onClose(this::close);
+        }
+
+        /**
+         * Stop iterating.
+         *
+         * Waits for an outstanding prefetch, since it owns the connection,
+         * then closes the server iterator and releases the connection.
+         */
+        @Override
+        public void close() {
+            final rh_protoClient client = rpcClient;
+            if (client == null) return;  // Already exhausted or closed.
+            final CompletableFuture<Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse>> pending = prefetch;
+            rpcClient = null;
+            prefetch = null;
+            fin = true;
+            nextValues = EMPTY_LIST;
+
+            if (pending != null) {
+                final Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse> response;
+                try {
+                    response = pending.join();
+                } catch (CompletionException ex) {
+                    closeRpcClient_(client);
+                    return;
+                }
+                if (!response.getLeft().isPresent()) {
+                    releaseClient.accept(client);  // Server already dropped the iterator.
+                    return;
+                }
+                cookie = response.getLeft().get().getCookie();
+            }
+            closeIter_(client, id, cookie);
+        }
+
+        /**
+         * Close the server iterator and release the connection.
+         */
+        private void closeIter_(rh_protoClient client, long closeId, long closeCookie) {
+            try {
+                BlockingWrapper.execute(() -> closeCall.call(client, closeId, closeCookie));
+                releaseClient.accept(client);
+            } catch (IOException | OncRpcException | InterruptedException | RuntimeException ex) {
+                /* Ignore, server will drop iterator at some point. */
+                closeRpcClient_(client);
+            }
+        }
+
         @Override
         public boolean hasNext() {
             ensureNextValues();
@@ -638,7 +1166,7 @@ public class Client implements CollectHistory {
             do {
                 final Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse> response;
                 try {
-                    response = BlockingWrapper.execute(() -> continueCall.call(rpcClient, id, cookie));
+                    response = fetchNext_();
                 } catch (IOException | OncRpcException | InterruptedException ex) {
                     LOG.log(Level.WARNING, "error fetching next set from iterator", ex);
                     restart();
@@ -646,6 +1174,7 @@ public class Client implements CollectHistory {
                 }
                 final Optional<EncDec.IterSuccessResponse<T>> success = response.getLeft();
                 if (success.isPresent()) {
+                    refusals = 0;
                     applyValues(success.get());
                     continue;
                 }
@@ -656,10 +1185,59 @@ public class Client implements CollectHistory {
                     case UNKNOWN_ITERATOR:
                         restart();
                         break;
+                    case TOO_MANY_ITERATORS:
+                        backOff_();
+                        restart();
+                        break;
                 }
             } while (nextValues.isEmpty() && !fin);
         }
 
+        /**
+         * Retrieve the next page, using the prefetched page if there is one.
+         */
+        private Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse> fetchNext_() throws IOException, OncRpcException, InterruptedException {
+            final CompletableFuture<Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse>> pending = prefetch;
+            prefetch = null;
+            if (pending == null)
+                return BlockingWrapper.execute(() -> continueCall.call(rpcClient, id, cookie));
+
+            try {
+                return pending.join();  // Uninterruptible: the prefetch owns the RPC client until it completes.
+            } catch (CompletionException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof OncRpcException) throw (OncRpcException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException("prefetch failed", cause);
+            }
+        }
+
+        /**
+         * Start fetching the next page in the background.
+         *
+         * The RPC client is not used by the consumer until the prefetch is
+         * collected, so it is safe to use it from the prefetch thread.
+         */
+        private void startPrefetch_() {
+            final rh_protoClient client = rpcClient;
+            final long prefetchId = id;
+            final long prefetchCookie = cookie;
+            final CompletableFuture<Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse>> future = new CompletableFuture<>();
+            try {
+                PREFETCH_POOL.execute(() -> {
+                    try {
+                        future.complete(continueCall.call(client, prefetchId, prefetchCookie));
+                    } catch (IOException | OncRpcException | RuntimeException ex) {
+                        future.completeExceptionally(ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                return;  // Fall back to fetching synchronously.
+            }
+            prefetch = future;
+        }
+
         private void applyValues(EncDec.IterSuccessResponse<T> sr) {
             assert (this.nextValues.isEmpty());
             this.nextValues = sr.getData();
@@ -668,17 +1246,25 @@ public class Client implements CollectHistory {
             if (!this.nextValues.isEmpty())
                 computeRestartTs.apply(this.nextValues).ifPresent(ts -> this.restartTS = ts);
             if (fin) {
-                try {
-                    BlockingWrapper.execute(() -> rpcClient.closeIterTsc_1(id, this.cookie));
-                } catch (IOException | OncRpcException | InterruptedException | RuntimeException ex) {
-                    /* Ignore, server will drop iterator at some point. */
-                }
-                try {
-                    rpcClient.close();
-                } catch (OncRpcException ex) {
-                    /* Ignore, let GC handle anything that needs closing using finalization. */
-                }
+                closeIter_(rpcClient, id, cookie);
                 rpcClient = null;
+            } else {
+                startPrefetch_();
+            }
+        }
+
+        /**
+         * Wait before restarting an iterator that the server refused.
+         */
+        private void backOff_() {
+            if (++refusals > MAX_REFUSALS)
+                throw new IllegalStateException("server has too many open iterators");
+            LOG.log(Level.INFO, "server has too many open iterators, retrying");
+            try {
+                Thread.sleep(REFUSED_BACKOFF_MSEC * refusals);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while waiting to restart iterator", ex);
             }
         }
 
@@ -697,6 +1283,15 @@ public class Client implements CollectHistory {
         }
     }
 
+    /**
+     * A pooled connection, with the time (System.nanoTime) it became idle.
+     */
+    @RequiredArgsConstructor
+    private static class IdleClient {
+        private final rh_protoClient client;
+        private final long since;
+    }
+
     private static interface RpcCall<Arg, T> {
         public T call(rh_protoClient rpcClient, Arg arg) throws IOException, OncRpcException;
     }
@@ -705,6 +1300,10 @@ public class Client implements CollectHistory {
         public Any2<EncDec.IterSuccessResponse<T>, EncDec.IterErrorResponse> call(rh_protoClient rpcClient, long id, long cookie) throws IOException, OncRpcException;
     }
 
+    private static interface RpcClose {
+        public void call(rh_protoClient rpcClient, long id, long cookie) throws IOException, OncRpcException;
+    }
+
     /**
      * Wrapper around RPC calls, to play nice with ForkJoinPool.
      */
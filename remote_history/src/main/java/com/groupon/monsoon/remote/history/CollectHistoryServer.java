@@ -35,6 +35,7 @@ import com.groupon.lex.metrics.GroupName;
 import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -159,4 +160,46 @@ public class CollectHistoryServer extends AbstractServer {
         LOG.log(Level.FINE, "returning({0}, {1}) => {2}", new Object[]{begin, group, result});
         return result;
     }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0})", filter);
+        return history.stream(filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0}, {1})", new Object[]{begin, filter});
+        return history.stream(begin, filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0}, {1}, {2})", new Object[]{begin, end, filter});
+        return history.stream(begin, end, filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(Duration stepSize, TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0}, {1})", new Object[]{stepSize, filter});
+        return history.stream(stepSize, filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, Duration stepSize, TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0}, {1}, {2})", new Object[]{begin, stepSize, filter});
+        return history.stream(begin, stepSize, filter);
+    }
+
+    @Override
+    public Stream<TimeSeriesCollection> stream(DateTime begin, DateTime end, Duration stepSize, TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0}, {1}, {2}, {3})", new Object[]{begin, end, stepSize, filter});
+        return history.stream(begin, end, stepSize, filter);
+    }
+
+    @Override
+    public Stream<Map.Entry<DateTime, TimeSeriesValue>> streamGroup(DateTime begin, GroupName group, TimeSeriesMetricFilter filter) {
+        LOG.log(Level.FINE, "request received({0}, {1}, {2})", new Object[]{begin, group, filter});
+        return history.streamGroup(begin, group, filter);
+    }
 }
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.monsoon.remote.history;
+
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.lib.Any2;
+import com.groupon.lex.metrics.lib.BufferedIterator;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * Registry of server side cursors.
+ *
+ * A cursor stays registered until it is closed, runs idle for too long, or is
+ * evicted to make room for a new cursor. Only cursors that have been idle for
+ * {@link #getEvictIdleFraction() a fraction} of the idle timeout of their kind
+ * are evicted, least recently used first.
+ *
+ * Each cursor accounts for the bytes held in its read-ahead buffer. The sum of
+ * those counts against the memory limit of the registry. If no cursor can be
+ * evicted to satisfy the limits, a new cursor is refused, so that cursors in
+ * use are not disrupted. Cursors stop reading ahead while the limit is
+ * exceeded.
+ *
+ * The registry owns the stream of a cursor: it is closed when the cursor is
+ * refused or removed.
+ *
+ * @author ariane
+ */
+public class CursorRegistry {
+    private static final Logger LOG = Logger.getLogger(CursorRegistry.class.getName());
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Types of cursors.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static enum Kind {
+        TSC(TimeUnit.MINUTES.toMillis(5)),
+        EVAL(TimeUnit.MINUTES.toMillis(10)),
+        GROUP_STREAM(TimeUnit.MINUTES.toMillis(10));
+
+        /** Time after which an unused cursor is discarded. */
+        private final long idleTimeoutMsec;
+    }
+
+    /** The shortest idle timeout of all kinds of cursors. */
+    private static final long MIN_IDLE_TIMEOUT_MSEC = Arrays.stream(Kind.values())
+            .mapToLong(Kind::getIdleTimeoutMsec)
+            .min()
+            .getAsLong();
+
+    /**
+     * Max number of bytes buffered by all cursors together.
+     */
+    @Getter
+    @Setter
+    private volatile long maxBufferedBytes;
+    /**
+     * Max number of open cursors.
+     */
+    @Getter
+    @Setter
+    private volatile int maxCursors;
+    /**
+     * Default fraction of the idle timeout, after which a cursor may be
+     * evicted.
+     */
+    public static final double DEFAULT_EVICT_IDLE_FRACTION = 0.5;
+    /**
+     * ID handed out for a refused cursor.
+     *
+     * The ID is never registered, so subsequent requests for it can be
+     * answered with {@link IteratorErrorCode#TOO_MANY_ITERATORS}.
+     */
+    public static final long REFUSED_ID = -1;
+    public static final MetricName OPEN_CURSORS = MetricName.valueOf("cursors", "open");
+    public static final MetricName BUFFERED_BYTES = MetricName.valueOf("cursors", "buffered_bytes");
+    public static final MetricName EVICTIONS = MetricName.valueOf("cursors", "evictions");
+    public static final MetricName EXPIRATIONS = MetricName.valueOf("cursors", "expirations");
+    public static final MetricName REJECTIONS = MetricName.valueOf("cursors", "rejections");
+    /**
+     * Cursors are only evicted after being idle for this fraction of the idle
+     * timeout of their kind.
+     */
+    @Getter
+    @Setter
+    private volatile double evictIdleFraction = DEFAULT_EVICT_IDLE_FRACTION;
+    private final LongSupplier clock;
+    /** Cursors, in least recently used order. */
+    private final LinkedHashMap<Long, Cursor<?>> cursors = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong alloc = new AtomicLong();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final LongAdder evictions = new LongAdder(),
+            expirations = new LongAdder(),
+            rejections = new LongAdder();
+
+    public CursorRegistry(long maxBufferedBytes, int maxCursors) {
+        this(maxBufferedBytes, maxCursors, System::currentTimeMillis);
+    }
+
+    CursorRegistry(long maxBufferedBytes, int maxCursors, @NonNull LongSupplier clock) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxCursors = maxCursors;
+        this.clock = clock;
+    }
+
+    /**
+     * Register a new cursor.
+     *
+     * @param <T> The type of elements in the cursor.
+     * @param kind The type of cursor.
+     * @param stream The stream supplying the elements.
+     * @param queueSize The number of elements to read ahead.
+     * @param sizeFn Estimates the memory use of an element.
+     * @return A newly registered cursor, or
+     * {@link IteratorErrorCode#TOO_MANY_ITERATORS} if the registry is full and
+     * no cursor can be evicted.
+     */
+    public <T> Any2<Cursor<T>, IteratorErrorCode> register(Kind kind, Stream<? extends T> stream, int queueSize, ToLongFunction<? super T> sizeFn) {
+        return register(kind, stream, queueSize, sizeFn, null, PageCompression.NONE);
+    }
+
+    /**
+     * Register a new cursor, with a session for its pages.
+     *
+     * @param <T> The type of elements in the cursor.
+     * @param kind The type of cursor.
+     * @param stream The stream supplying the elements.
+     * @param queueSize The number of elements to read ahead.
+     * @param sizeFn Estimates the memory use of an element.
+     * @param session The page session of the cursor, may be null.
+     * @param compression The page compression of the cursor.
+     * @return A newly registered cursor, or
+     * {@link IteratorErrorCode#TOO_MANY_ITERATORS} if the registry is full and
+     * no cursor can be evicted.
+     */
+    public synchronized <T> Any2<Cursor<T>, IteratorErrorCode> register(Kind kind, Stream<? extends T> stream, int queueSize, ToLongFunction<? super T> sizeFn, EncDec.StreamSession session, PageCompression compression) {
+        final long now = clock.getAsLong();
+        expire_(now);
+        makeRoom_(now, 1);
+        if (cursors.size() >= maxCursors || bufferedBytes.get() >= maxBufferedBytes) {
+            rejections.increment();
+            LOG.log(Level.WARNING, "refusing new cursor: {0} cursors open, {1} bytes buffered", new Object[]{cursors.size(), bufferedBytes.get()});
+            stream.close();
+            return Any2.right(IteratorErrorCode.TOO_MANY_ITERATORS);
+        }
+
+        final Cursor<T> cursor = new Cursor<>(alloc.getAndIncrement(), kind, now, sizeFn, session, compression, stream, queueSize);
+        cursors.put(cursor.getId(), cursor);
+        return Any2.left(cursor);
+    }
+
+    /**
+     * Look up a cursor.
+     *
+     * @param <T> The type of elements in the cursor.
+     * @param id The ID of the cursor.
+     * @param kind The expected type of the cursor.
+     * @return The cursor with the given ID, if it is registered and of the
+     * given kind.
+     */
+    public synchronized <T> Optional<Cursor<T>> get(long id, Kind kind) {
+        final long now = clock.getAsLong();
+        expire_(now);
+
+        final Cursor<?> cursor = cursors.get(id);
+        if (cursor == null || cursor.getKind() != kind) return Optional.empty();
+        cursor.lastAccess = now;
+
+        // Safe: the element type of a cursor is determined by its kind, and
+        // callers ask for the element type that goes with the kind.
+        @SuppressWarnings("unchecked")
+        final Cursor<T> result = (Cursor<T>) cursor;
+        return Optional.of(result);
+    }
+
+    /**
+     * Close a cursor.
+     *
+     * @param id The ID of the cursor.
+     * @param kind The expected type of the cursor.
+     * @param cookie The cookie of the cursor.
+     */
+    public synchronized void close(long id, Kind kind, long cookie) {
+        final Cursor<?> cursor = cursors.get(id);
+        if (cursor != null && cursor.getKind() == kind && cursor.update(cookie))
+            remove_(cursor);
+    }
+
+    /**
+     * The number of open cursors.
+     */
+    public synchronized int getOpenCursors() {
+        return cursors.size();
+    }
+
+    /**
+     * The number of bytes buffered by all cursors.
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * The number of cursors evicted to make room.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * The number of cursors discarded after running idle.
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * The number of cursors refused because the registry was full.
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * Metrics describing the registry.
+     *
+     * @return A map of metric values.
+     */
+    public Map<MetricName, MetricValue> getMetrics() {
+        final Map<MetricName, MetricValue> result = new HashMap<>();
+        result.put(OPEN_CURSORS, MetricValue.fromIntValue(getOpenCursors()));
+        result.put(BUFFERED_BYTES, MetricValue.fromIntValue(getBufferedBytes()));
+        result.put(EVICTIONS, MetricValue.fromIntValue(getEvictions()));
+        result.put(EXPIRATIONS, MetricValue.fromIntValue(getExpirations()));
+        result.put(REJECTIONS, MetricValue.fromIntValue(getRejections()));
+        return result;
+    }
+
+    /**
+     * Discard cursors that have been idle for too long.
+     *
+     * Cursors are walked from least to most recently used.  The walk stops at
+     * the first cursor that is idle for less than the shortest idle timeout,
+     * since all cursors after it are used more recently.
+     */
+    private void expire_(long now) {
+        final List<Cursor<?>> expired = new ArrayList<>();
+        for (Cursor<?> cursor : cursors.values()) {
+            final long idle = now - cursor.lastAccess;
+            if (idle < MIN_IDLE_TIMEOUT_MSEC)
+                break;
+            if (idle >= cursor.getKind().getIdleTimeoutMsec())
+                expired.add(cursor);
+        }
+
+        expired.forEach(cursor -> {
+            LOG.log(Level.FINE, "cursor {0} expired", cursor.getId());
+            remove_(cursor);
+            expirations.increment();
+        });
+    }
+
+    /**
+     * Evict least recently used cursors, until the registry has room for
+     * additional cursors.
+     *
+     * Cursors that have not been idle for {@link #evictIdleFraction} of their
+     * idle timeout are presumed in use, and are skipped.
+     *
+     * @param now The current time.
+     * @param additional The number of cursors to make room for.
+     */
+    private void makeRoom_(long now, int additional) {
+        final double fraction = evictIdleFraction;
+        final Iterator<Cursor<?>> iter = cursors.values().iterator();
+        while (iter.hasNext() && (cursors.size() + additional > maxCursors || bufferedBytes.get() > maxBufferedBytes)) {
+            final Cursor<?> cursor = iter.next();
+            if (now - cursor.lastAccess < (long) (cursor.getKind().getIdleTimeoutMsec() * fraction))
+                continue;  // Still in use.
+
+            LOG.log(Level.FINE, "evicting cursor {0} ({1} bytes buffered)", new Object[]{cursor.getId(), cursor.getBufferedBytes()});
+            iter.remove();
+            cursor.release_();
+            evictions.increment();
+        }
+    }
+
+    private void remove_(Cursor<?> cursor) {
+        cursors.remove(cursor.getId());
+        cursor.release_();
+    }
+
+    /**
+     * A server side cursor.
+     *
+     * @param <T> The type of elements in the cursor.
+     */
+    public class Cursor<T> {
+        @Getter
+        private final long id;
+        @Getter
+        private final Kind kind;
+        private final ToLongFunction<? super T> sizeFn;
+        /**
+         * Dictionary session, only present on session cursors.
+         */
+        @Getter
+        private final EncDec.StreamSession session;
+        @Getter
+        private final PageCompression compression;
+        @Getter
+        private final BufferedIterator<T> iterator;
+        @Getter
+        private long cookie = RANDOM.nextLong();
+        @Getter
+        private long bufferedBytes = 0;
+        private volatile boolean released = false;
+        private final Stream<? extends T> stream;
+        /**
+         * Held while reading from the stream, so the stream is not closed
+         * while a read is in progress.
+         */
+        private final ReentrantLock readLock = new ReentrantLock();
+        /** Guarded by readLock. */
+        private boolean closed = false;
+        /** Guarded by the registry. */
+        private long lastAccess;
+
+        private Cursor(long id, Kind kind, long now, ToLongFunction<? super T> sizeFn, EncDec.StreamSession session, PageCompression compression, Stream<? extends T> stream, int queueSize) {
+            this.id = id;
+            this.kind = kind;
+            this.lastAccess = now;
+            this.sizeFn = sizeFn;
+            this.session = session;
+            this.compression = compression;
+            this.stream = stream;
+            this.iterator = new BufferedIterator<>(track_(stream.iterator()), queueSize, this::mayReadAhead_);  // Must be last: starts reading ahead.
+        }
+
+        /**
+         * Change the cookie.
+         *
+         * @return True indicating the expected value matched and the cookie was
+         * changed. If the operation fails, false is returned.
+         */
+        synchronized public boolean update(long expected) {
+            if (cookie != expected) return false;
+
+            long newCookie;
+            do {
+                newCookie = RANDOM.nextLong();
+            } while (cookie == newCookie);  // Always change the cookie.
+            cookie = newCookie;
+
+            return true;
+        }
+
+        /**
+         * Fetch elements from the cursor.
+         *
+         * @param fetchFn Takes elements from the iterator.
+         * @return The fetched elements.
+         */
+        public List<T> fetch(Function<? super BufferedIterator<T>, ? extends List<T>> fetchFn) {
+            final List<T> result = fetchFn.apply(iterator);
+            addBuffered_(-result.stream().mapToLong(sizeFn).sum());
+            return result;
+        }
+
+        /**
+         * Wrap the iterator, so elements are accounted for when read ahead.
+         *
+         * Once the cursor is released, the wrapper reports the end of the
+         * iteration, which stops the read-ahead.
+         */
+        private Iterator<T> track_(Iterator<? extends T> iter) {
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    if (released) return false;
+                    readLock.lock();
+                    try {
+                        return !released && iter.hasNext();
+                    } finally {
+                        readLock.unlock();
+                        closeIfReleased_();
+                    }
+                }
+
+                @Override
+                public T next() {
+                    final T v;
+                    readLock.lock();
+                    try {
+                        if (released) throw new NoSuchElementException("cursor " + id + " is closed");
+                        v = iter.next();
+                    } finally {
+                        readLock.unlock();
+                        closeIfReleased_();
+                    }
+                    addBuffered_(sizeFn.applyAsLong(v));
+                    return v;
+                }
+            };
+        }
+
+        /**
+         * Read ahead only while the registry is within its memory limit.
+         */
+        private boolean mayReadAhead_() {
+            return CursorRegistry.this.bufferedBytes.get() < maxBufferedBytes;
+        }
+
+        /**
+         * Close the stream, once the cursor is released.
+         *
+         * If a read is in progress, the reader closes the stream when it
+         * completes.
+         */
+        private void closeIfReleased_() {
+            if (!released || !readLock.tryLock()) return;
+            try {
+                if (!closed) {
+                    closed = true;
+                    stream.close();
+                }
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, "failed to close cursor " + id, ex);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private void addBuffered_(long delta) {
+            synchronized (this) {
+                if (released) return;
+                bufferedBytes += delta;
+            }
+            CursorRegistry.this.bufferedBytes.addAndGet(delta);
+        }
+
+        /**
+         * Stop accounting for this cursor, once it is removed.
+         *
+         * The read-ahead is stopped and the stream is closed.
+         */
+        private void release_() {
+            final long delta;
+            synchronized (this) {
+                if (released) return;
+                released = true;
+                delta = bufferedBytes;
+                bufferedBytes = 0;
+            }
+            CursorRegistry.this.bufferedBytes.addAndGet(-delta);
+            closeIfReleased_();
+        }
+    }
+}
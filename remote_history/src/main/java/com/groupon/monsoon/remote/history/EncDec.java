@@ -35,8 +35,10 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.groupon.lex.metrics.GroupName;
 import com.groupon.lex.metrics.Histogram;
+import com.groupon.lex.metrics.MetricMatcher;
 import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.PathMatcher;
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.Tags;
 import com.groupon.lex.metrics.history.CollectHistory;
@@ -47,7 +49,9 @@ import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricDeltaSet;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import com.groupon.monsoon.remote.history.xdr.compressed_page;
 import com.groupon.monsoon.remote.history.xdr.dictionary_delta;
 import com.groupon.monsoon.remote.history.xdr.duration_msec;
 import com.groupon.monsoon.remote.history.xdr.evaluate_iter_response;
@@ -63,6 +67,7 @@ import com.groupon.monsoon.remote.history.xdr.list_of_timestamped_tsfile_record;
 import com.groupon.monsoon.remote.history.xdr.literals_group_name;
 import com.groupon.monsoon.remote.history.xdr.literals_metric_value;
 import com.groupon.monsoon.remote.history.xdr.literals_tag;
+import com.groupon.monsoon.remote.history.xdr.metric_matcher;
 import com.groupon.monsoon.remote.history.xdr.metric_value;
 import com.groupon.monsoon.remote.history.xdr.metrickind;
 import com.groupon.monsoon.remote.history.xdr.named_evaluation;
@@ -72,12 +77,17 @@ import com.groupon.monsoon.remote.history.xdr.named_evaluation_set;
 import com.groupon.monsoon.remote.history.xdr.path;
 import com.groupon.monsoon.remote.history.xdr.path_dictionary_delta;
 import com.groupon.monsoon.remote.history.xdr.path_elem;
+import com.groupon.monsoon.remote.history.xdr.path_matcher;
+import com.groupon.monsoon.remote.history.xdr.session_iter_response;
+import com.groupon.monsoon.remote.history.xdr.session_iter_response_success;
+import com.groupon.monsoon.remote.history.xdr.session_response;
 import com.groupon.monsoon.remote.history.xdr.stream_iter_tsc_response;
 import com.groupon.monsoon.remote.history.xdr.stream_iter_tsc_response_success;
 import com.groupon.monsoon.remote.history.xdr.stream_response;
 import com.groupon.monsoon.remote.history.xdr.strval_dictionary_delta;
 import com.groupon.monsoon.remote.history.xdr.tag_dictionary_delta;
 import com.groupon.monsoon.remote.history.xdr.tag_elem;
+import com.groupon.monsoon.remote.history.xdr.timeseries_metric_filter;
 import com.groupon.monsoon.remote.history.xdr.tagged_metric_value;
 import com.groupon.monsoon.remote.history.xdr.tags;
 import com.groupon.monsoon.remote.history.xdr.timeseries_collection;
@@ -86,6 +96,7 @@ import com.groupon.monsoon.remote.history.xdr.timestamp_msec;
 import com.groupon.monsoon.remote.history.xdr.timestamped_tsfile_record;
 import com.groupon.monsoon.remote.history.xdr.tsfile_record;
 import com.groupon.monsoon.remote.history.xdr.tsfile_record_entry;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -99,6 +110,10 @@ import java.util.stream.Collectors;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
+import org.acplt.oncrpc.OncRpcException;
+import org.acplt.oncrpc.XdrAble;
+import org.acplt.oncrpc.XdrBufferDecodingStream;
+import org.acplt.oncrpc.XdrBufferEncodingStream;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
@@ -176,8 +191,53 @@ public class EncDec {
         return new NewIterResponse<>(sr.iter_id, decodeTSCCollection(sr.first_response.rv), sr.first_response.last, sr.first_response.cookie);
     }
 
+    public static session_response encodeSessionResponse(StreamSession session, PageCompression compression, NewIterResponse<? extends TimeSeriesCollection> sr) {
+        session_response result = new session_response();
+        result.iter_id = sr.getIterIdx();
+        result.first_response = new session_iter_response_success();
+        result.first_response.last = sr.isLast();
+        result.first_response.rv = session.encodePage(sr.getData(), compression);
+        result.first_response.cookie = sr.getCookie();
+        return result;
+    }
+
+    public static NewIterResponse<TimeSeriesCollection> decodeSessionResponse(StreamSession session, session_response sr) throws IOException, OncRpcException {
+        return new NewIterResponse<>(sr.iter_id, session.decodePage(sr.first_response.rv), sr.first_response.last, sr.first_response.cookie);
+    }
+
+    public static session_iter_response encodeSessionIterResponse(IterErrorResponse r) {
+        session_iter_response result = new session_iter_response();
+        result.result = r.getError().getEncoded();
+        return result;
+    }
+
+    public static session_iter_response encodeSessionIterResponse(StreamSession session, PageCompression compression, IterSuccessResponse<TimeSeriesCollection> r) {
+        session_iter_response result = new session_iter_response();
+        result.result = iter_result_code.SUCCESS;
+        result.response = new session_iter_response_success();
+        result.response.last = r.isLast();
+        result.response.rv = session.encodePage(r.getData(), compression);
+        result.response.cookie = r.getCookie();
+        return result;
+    }
+
+    public static Any2<IterSuccessResponse<TimeSeriesCollection>, IterErrorResponse> decodeSessionIterResponse(StreamSession session, session_iter_response r) throws IOException, OncRpcException {
+        final Any2<IterSuccessResponse<TimeSeriesCollection>, IterErrorResponse> result;
+        switch (r.result) {
+            case iter_result_code.SUCCESS:
+                result = Any2.left(new IterSuccessResponseImpl<>(session.decodePage(r.response.rv), r.response.last, r.response.cookie));
+                break;
+            default:
+                result = Any2.right(new IterErrorResponse(IteratorErrorCode.fromEncodedForm(r.result)));
+        }
+        return result;
+    }
+
     public static list_of_timeseries_collection encodeTSCCollection(Collection<? extends TimeSeriesCollection> c) {
-        final ActiveDict dict = new ActiveDict();
+        return encodeTSCCollection(new ActiveDict(), c);
+    }
+
+    private static list_of_timeseries_collection encodeTSCCollection(ActiveDict dict, Collection<? extends TimeSeriesCollection> c) {
         final list_of_timeseries_collection lotc = new list_of_timeseries_collection();
         lotc.collections = c.stream()
                 .map(tsc -> encodeTSC(dict, tsc))
@@ -186,7 +246,10 @@ public class EncDec {
     }
 
     public static List<TimeSeriesCollection> decodeTSCCollection(list_of_timeseries_collection c) {
-        final ActiveDict dict = new ActiveDict();
+        return decodeTSCCollection(new ActiveDict(), c);
+    }
+
+    private static List<TimeSeriesCollection> decodeTSCCollection(ActiveDict dict, list_of_timeseries_collection c) {
         return Arrays.stream(c.collections)
                 .map(tsc -> decodeTSC(dict, tsc))
                 .collect(Collectors.toList());
@@ -502,6 +565,45 @@ public class EncDec {
                         }));
     }
 
+    public static timeseries_metric_filter encodeMetricFilter(TimeSeriesMetricFilter filter) {
+        timeseries_metric_filter result = new timeseries_metric_filter();
+        result.groups = filter.getGroups().stream()
+                .map(EncDec::encodePathMatcher)
+                .toArray(path_matcher[]::new);
+        result.metrics = filter.getMetrics().stream()
+                .map(matcher -> {
+                    metric_matcher mm = new metric_matcher();
+                    mm.groups = encodePathMatcher(matcher.getGroups());
+                    mm.metric = encodePathMatcher(matcher.getMetric());
+                    return mm;
+                })
+                .toArray(metric_matcher[]::new);
+        return result;
+    }
+
+    public static TimeSeriesMetricFilter decodeMetricFilter(timeseries_metric_filter filter) {
+        return new TimeSeriesMetricFilter()
+                .withGroups(Arrays.stream(filter.groups)
+                        .map(EncDec::decodePathMatcher)
+                        .collect(Collectors.toList()))
+                .withMetrics(Arrays.stream(filter.metrics)
+                        .map(mm -> new MetricMatcher(decodePathMatcher(mm.groups), decodePathMatcher(mm.metric)))
+                        .collect(Collectors.toList()));
+    }
+
+    private static path_matcher encodePathMatcher(PathMatcher matcher) {
+        return new path_matcher(matcher.configString().toString());
+    }
+
+    private static PathMatcher decodePathMatcher(path_matcher matcher) {
+        try {
+            return PathMatcher.valueOf(matcher.value);
+        } catch (PathMatcher.ParseException ex) {
+            LOG.log(Level.WARNING, "parse failed for " + matcher.value, ex);
+            throw new RuntimeException("unable to parse path matcher", ex);
+        }
+    }
+
     public static evaluate_iter_response encodeEvaluateIterResponse(IterSuccessResponse<Collection<CollectHistory.NamedEvaluation>> r) {
         evaluate_iter_response result = new evaluate_iter_response();
         result.result = iter_result_code.SUCCESS;
@@ -641,6 +743,80 @@ public class EncDec {
         }
     }
 
+    /**
+     * Dictionary state shared by the pages of a session stream.
+     *
+     * The server and the client each keep a session per iterator. Since every
+     * page builds on the dictionary of the pages before it, pages must be
+     * decoded in the order they were encoded. If a page is lost, the iterator
+     * must be restarted with a new session.
+     */
+    public static class StreamSession {
+        private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+        private final ActiveDict dict = new ActiveDict();
+
+        /**
+         * Encode a page of collections.
+         *
+         * @param c The collections in the page.
+         * @param compression The compression to apply.
+         * @return The encoded page.
+         */
+        public synchronized compressed_page encodePage(Collection<? extends TimeSeriesCollection> c, PageCompression compression) {
+            final XdrBufferEncodingStream xdr = toXdr_(encodeTSCCollection(dict, c));
+
+            compressed_page page = new compressed_page();
+            page.compression = compression.getEncoded();
+            page.raw_len = xdr.getXdrLength();
+            page.data = compression.compress(xdr.getXdrData(), xdr.getXdrLength());
+            return page;
+        }
+
+        /**
+         * Decode a page of collections.
+         *
+         * @param page The encoded page.
+         * @return The collections in the page.
+         * @throws IOException If the page is corrupt.
+         * @throws OncRpcException If the page is corrupt.
+         */
+        public synchronized List<TimeSeriesCollection> decodePage(compressed_page page) throws IOException, OncRpcException {
+            final PageCompression compression;
+            try {
+                compression = PageCompression.fromEncodedForm(page.compression);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("unrecognized page compression", ex);
+            }
+
+            final XdrBufferDecodingStream xdr = new XdrBufferDecodingStream(compression.decompress(page.data, page.raw_len));
+            xdr.beginDecoding();
+            final list_of_timeseries_collection lotc = new list_of_timeseries_collection(xdr);
+            xdr.endDecoding();
+            return decodeTSCCollection(dict, lotc);
+        }
+
+        /**
+         * Encode an XDR object into a buffer, growing the buffer as needed.
+         */
+        private static XdrBufferEncodingStream toXdr_(XdrAble v) {
+            for (int size = INITIAL_BUFFER_SIZE; size > 0; size *= 2) {
+                final XdrBufferEncodingStream xdr = new XdrBufferEncodingStream(size);
+                try {
+                    xdr.beginEncoding(null, 0);
+                    v.xdrEncode(xdr);
+                    xdr.endEncoding();
+                    return xdr;
+                } catch (OncRpcException ex) {
+                    if (ex.getReason() != OncRpcException.RPC_BUFFEROVERFLOW)
+                        throw new RuntimeException("unable to encode page", ex);
+                } catch (IOException ex) {
+                    throw new RuntimeException("unable to encode page", ex);
+                }
+            }
+            throw new IllegalStateException("page too large");
+        }
+    }
+
     private static class ActiveDict {
         private final BiMap<Integer, SimpleGroupPath> group_dict = HashBiMap.create();
         private final BiMap<Integer, Tags> tag_dict = HashBiMap.create();
@@ -706,10 +882,11 @@ public class EncDec {
         }
 
         private static int allocateNext(BiMap<Integer, ?> map) {
-            return map.keySet().stream()
-                    .mapToInt(i -> i + 1)
-                    .max()
-                    .orElse(0);
+            // Indices are allocated densely, so the size is usually free.
+            // This keeps allocation cheap in long lived session dictionaries.
+            int idx = map.size();
+            while (map.containsKey(idx)) ++idx;
+            return idx;
         }
     }
 
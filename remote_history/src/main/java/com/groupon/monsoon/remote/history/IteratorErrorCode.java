@@ -43,7 +43,9 @@ import lombok.Getter;
 @AllArgsConstructor
 public enum IteratorErrorCode {
     /** The iterator is not known. */
-    UNKNOWN_ITERATOR(iter_result_code.UNKNOWN_ITER);
+    UNKNOWN_ITERATOR(iter_result_code.UNKNOWN_ITER),
+    /** The iterator was refused, because too many iterators are open. */
+    TOO_MANY_ITERATORS(iter_result_code.TOO_MANY_ITER);
 
     /** Error code in its encoded form. */
     private final int encoded;
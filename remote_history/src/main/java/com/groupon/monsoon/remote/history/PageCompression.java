@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.monsoon.remote.history;
+
+import com.groupon.monsoon.remote.history.xdr.page_compression;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+
+/**
+ * Compression applied to session stream pages.
+ *
+ * @author ariane
+ */
+@Getter
+@AllArgsConstructor
+public enum PageCompression {
+    /** No compression. */
+    NONE(page_compression.PAGE_UNCOMPRESSED) {
+        @Override
+        public byte[] compress(byte[] data, int len) {
+            return Arrays.copyOf(data, len);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int rawLen) throws IOException {
+            if (data.length != rawLen)
+                throw new IOException("page length mismatch");
+            return data;
+        }
+    },
+    /** Deflate compression, slower but smaller than snappy. */
+    DEFLATE(page_compression.PAGE_DEFLATE) {
+        @Override
+        public byte[] compress(byte[] data, int len) {
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(data, 0, len);
+                deflater.finish();
+
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(len / 4 + 64);
+                final byte[] buf = new byte[8192];
+                while (!deflater.finished()) {
+                    final int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int rawLen) throws IOException {
+            validateRawLen(rawLen);
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                final byte[] result = new byte[rawLen];
+                int off = 0;
+                while (off < rawLen && !inflater.finished()) {
+                    final int n = inflater.inflate(result, off, rawLen - off);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    off += n;
+                }
+                if (off != rawLen || !inflater.finished())
+                    throw new IOException("page length mismatch");
+                return result;
+            } catch (DataFormatException ex) {
+                throw new IOException("corrupt page", ex);
+            } finally {
+                inflater.end();
+            }
+        }
+    },
+    /** Snappy compression, fast with reasonable compression. */
+    SNAPPY(page_compression.PAGE_SNAPPY) {
+        @Override
+        public byte[] compress(byte[] data, int len) {
+            final byte[] out = new byte[Snappy.maxCompressedLength(len)];
+            final int outLen = Snappy.compress(data, 0, len, out, 0);
+            return Arrays.copyOf(out, outLen);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int rawLen) throws IOException {
+            validateRawLen(rawLen);
+            try {
+                if (Snappy.getUncompressedLength(data, 0) != rawLen)
+                    throw new IOException("page length mismatch");
+                return Snappy.uncompress(data, 0, data.length);
+            } catch (CorruptionException ex) {
+                throw new IOException("corrupt page", ex);
+            }
+        }
+    };
+
+    /**
+     * Max length of a decompressed page.
+     *
+     * The length is supplied by the peer, so it is checked before a buffer of
+     * that size is allocated.
+     */
+    public static final int MAX_RAW_LEN = 128 * 1024 * 1024;
+
+    /** Compression in its encoded form. */
+    private final int encoded;
+
+    /**
+     * Compress data.
+     *
+     * @param data The data to compress.
+     * @param len The number of bytes in data to compress.
+     * @return The compressed data.
+     */
+    public abstract byte[] compress(byte[] data, int len);
+
+    /**
+     * Decompress data.
+     *
+     * @param data The compressed data.
+     * @param rawLen The length of the uncompressed data.
+     * @return The decompressed data.
+     * @throws IOException If the data is corrupt, or rawLen is negative or
+     * exceeds {@link #MAX_RAW_LEN}.
+     */
+    public abstract byte[] decompress(byte[] data, int rawLen) throws IOException;
+
+    /**
+     * Validate the length of the uncompressed data, as supplied by the peer.
+     *
+     * @param rawLen The length of the uncompressed data.
+     * @throws IOException If rawLen is negative or exceeds
+     * {@link #MAX_RAW_LEN}.
+     */
+    private static void validateRawLen(int rawLen) throws IOException {
+        if (rawLen < 0 || rawLen > MAX_RAW_LEN)
+            throw new IOException("invalid page length " + rawLen);
+    }
+
+    /**
+     * Change encoded compression into PageCompression.
+     *
+     * @param encoded The encoded value of the compression.
+     * @return An instance of PageCompression mapping to the encoded form.
+     * @throws IllegalArgumentException If the encoded form is not a known
+     * compression.
+     */
+    public static PageCompression fromEncodedForm(int encoded) throws IllegalArgumentException {
+        for (PageCompression c : values())
+            if (c.getEncoded() == encoded) return c;
+        throw new IllegalArgumentException("No mapping present for compression " + encoded);
+    }
+}
@@ -25,9 +25,14 @@ enum metrickind {
     EMPTY = 0x7fffffff
 };
 
+/* TOO_MANY_ITER is returned for the iterator ID of a refused stream.
+ * A stream is refused if the server has too many open iterators; the
+ * caller should back off and restart the stream.
+ */
 enum iter_result_code {
     SUCCESS = 0,
-    UNKNOWN_ITER = 1
+    UNKNOWN_ITER = 1,
+    TOO_MANY_ITER = 2
 };
 
 union metric_value switch(metrickind kind) {
@@ -171,6 +176,8 @@ case SUCCESS:
     stream_iter_tsc_response_success response;
 case UNKNOWN_ITER:
     void;
+case TOO_MANY_ITER:
+    void;
 };
 
 struct group_stream_iter_response_success {
@@ -184,6 +191,8 @@ case SUCCESS:
     group_stream_iter_response_success response;
 case UNKNOWN_ITER:
     void;
+case TOO_MANY_ITER:
+    void;
 };
 
 struct stream_response {
@@ -202,6 +211,8 @@ case SUCCESS:
     evaluate_iter_response_success response;
 case UNKNOWN_ITER:
     void;
+case TOO_MANY_ITER:
+    void;
 };
 
 struct evaluate_response {
@@ -214,6 +225,68 @@ struct group_stream_response {
     group_stream_iter_response_success first_response;
 };
 
+typedef string path_matcher<>;
+
+struct metric_matcher {
+    path_matcher groups;
+    path_matcher metric;
+};
+
+/* Selects the groups and metrics a caller is interested in.
+ * Groups matching a group matcher are sent in full.
+ * Groups matching the group part of a metric matcher are sent,
+ * with only the metrics matching a metric matcher for that group.
+ * Matchers are in PathMatcher configuration syntax.
+ */
+struct timeseries_metric_filter {
+    path_matcher groups<>;
+    metric_matcher metrics<>;
+};
+
+struct stream_filtered_args {
+    timestamp_msec *begin;
+    timestamp_msec *end;
+    duration_msec *step_size;
+    timeseries_metric_filter filter;
+};
+
+enum page_compression {
+    PAGE_UNCOMPRESSED = 0,
+    PAGE_DEFLATE = 1,
+    PAGE_SNAPPY = 2
+};
+
+/* A page of a session stream.
+ * Data holds the XDR encoded list_of_timeseries_collection, compressed
+ * using the given compression. The dictionary deltas in the data build on
+ * the dictionary of all preceding pages of the same iterator.
+ */
+struct compressed_page {
+    page_compression compression;
+    int raw_len;
+    opaque data<>;
+};
+
+struct session_iter_response_success {
+    hyper cookie;
+    bool last;
+    compressed_page rv;
+};
+
+union session_iter_response switch(iter_result_code result) {
+case SUCCESS:
+    session_iter_response_success response;
+case UNKNOWN_ITER:
+    void;
+case TOO_MANY_ITER:
+    void;
+};
+
+struct session_response {
+    hyper iter_id;
+    session_iter_response_success first_response;
+};
+
 
 program rhistory {
     version vers {
@@ -242,4 +315,18 @@ program rhistory {
         void closeGroupIter(hyper, hyper) = 301;
         group_stream_response streamGroup(timestamp_msec, literals_group_name, int) = 310;
     } = 1;
+
+    /* Version 2 adds filtered streams and session streams.
+     * Iterators created by version 2 calls are closed using the
+     * version 1 iterator procedures.
+     * Session stream iterators are continued using streamSessionNext,
+     * other iterators are continued using the version 1 procedures.
+     */
+    version filtered_vers {
+        stream_response streamFiltered(stream_filtered_args, int) = 120;
+        group_stream_response streamGroupFiltered(timestamp_msec, literals_group_name, timeseries_metric_filter, int) = 310;
+
+        session_iter_response streamSessionNext(hyper, hyper, int) = 100;
+        session_response streamSession(stream_filtered_args, page_compression, int) = 130;
+    } = 2;
 } = 0x20131719;
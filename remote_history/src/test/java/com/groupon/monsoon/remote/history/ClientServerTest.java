@@ -33,8 +33,10 @@ package com.groupon.monsoon.remote.history;
 
 import com.groupon.lex.metrics.GroupName;
 import com.groupon.lex.metrics.Histogram;
+import com.groupon.lex.metrics.MetricMatcher;
 import com.groupon.lex.metrics.MetricName;
 import com.groupon.lex.metrics.MetricValue;
+import com.groupon.lex.metrics.PathMatcher;
 import com.groupon.lex.metrics.SimpleGroupPath;
 import com.groupon.lex.metrics.Tags;
 import com.groupon.lex.metrics.history.CollectHistory;
@@ -44,7 +46,9 @@ import com.groupon.lex.metrics.timeseries.SimpleTimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesCollection;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricDeltaSet;
 import com.groupon.lex.metrics.timeseries.TimeSeriesMetricExpression;
+import com.groupon.lex.metrics.timeseries.TimeSeriesMetricFilter;
 import com.groupon.lex.metrics.timeseries.TimeSeriesValue;
+import com.groupon.monsoon.remote.history.xdr.rh_proto;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.util.Collection;
@@ -56,7 +60,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,7 +71,9 @@ import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import org.acplt.oncrpc.OncRpcException;
 import org.acplt.oncrpc.OncRpcProtocols;
+import org.acplt.oncrpc.server.OncRpcCallInformation;
 import org.acplt.oncrpc.server.OncRpcServerTransport;
+import org.acplt.oncrpc.server.OncRpcTcpServerTransport;
 import org.acplt.oncrpc.server.OncRpcUdpServerTransport;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
@@ -75,6 +83,7 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -132,6 +141,7 @@ public class ClientServerTest {
 
     @After
     public void cleanup() throws Exception {
+        client.close();
         server.stopRpcProcessing();
         LOG.log(Level.INFO, "stopped server {0}", server);
     }
@@ -148,6 +158,191 @@ public class ClientServerTest {
         verifyNoMoreInteractions(history);
     }
 
+    @Test
+    public void repeatedCalls() throws Exception {
+        when(history.getFileSize()).thenReturn(100000l);
+
+        for (int i = 0; i < 3; ++i)
+            assertEquals(100000, client.getFileSize());
+        client.close();  // Drops pooled connections, next call opens a new one.
+        assertEquals(100000, client.getFileSize());
+
+        verify(history, times(4)).getFileSize();
+        verifyNoMoreInteractions(history);
+    }
+
+    @Test(timeout = 30000)
+    public void serverRestartBetweenCalls() throws Exception {
+        when(history.getFileSize()).thenReturn(100000l);
+
+        final CollectHistoryServer tcpServer = new CollectHistoryServer(history);
+        final CompletableFuture<Integer> portFuture = new CompletableFuture<>();
+        final Thread tcpServerThread = startTcpServer(tcpServer, 0, portFuture);
+        final int port = portFuture.get(15, TimeUnit.SECONDS);
+
+        try (Client tcpClient = new Client(Inet4Address.getLoopbackAddress(), port, OncRpcProtocols.ONCRPC_TCP)) {
+            assertEquals(100000, tcpClient.getFileSize());  // Leaves a pooled connection.
+
+            tcpServer.stopRpcProcessing();
+            tcpServerThread.join();
+            final CollectHistoryServer restartedServer = new CollectHistoryServer(history);
+            Thread restartedServerThread;
+            for (int attempt = 0;; ++attempt) {
+                // The old listen socket is released asynchronously, so binding its port may briefly fail.
+                final CompletableFuture<Integer> restartedPortFuture = new CompletableFuture<>();
+                restartedServerThread = startTcpServer(restartedServer, port, restartedPortFuture);
+                try {
+                    restartedPortFuture.get(15, TimeUnit.SECONDS);
+                    break;
+                } catch (ExecutionException ex) {
+                    if (attempt >= 100) throw ex;
+                    restartedServerThread.join();
+                    Thread.sleep(50);
+                }
+            }
+
+            try {
+                // Pooled connection was dropped by the restart, call is retried on a new connection.
+                assertEquals(100000, tcpClient.getFileSize());
+            } finally {
+                restartedServer.stopRpcProcessing();
+                restartedServerThread.join();
+            }
+        }
+
+        verify(history, times(2)).getFileSize();
+        verifyNoMoreInteractions(history);
+    }
+
+    @Test(timeout = 30000)
+    public void streamFilteredV1Fallback() throws Exception {
+        final DateTime begin = new DateTime(DateTimeZone.UTC);
+        final DateTime end = begin.plus(Duration.standardDays(1));
+        final Duration stepSize = Duration.standardMinutes(1);
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withMetric(new MetricMatcher(PathMatcher.valueOf("test.group"), PathMatcher.valueOf("counter")));
+        final List<TimeSeriesCollection> expected = generateCollection()
+                .map(filter::apply)
+                .collect(Collectors.toList());
+        when(history.stream(Mockito.isA(DateTime.class), Mockito.isA(DateTime.class), Mockito.isA(Duration.class)))
+                .thenAnswer((invocation) -> generateCollection());
+
+        final List<TimeSeriesCollection> result = withV1Server(true, v1Client -> {
+            return v1Client.stream(begin, end, stepSize, filter).collect(Collectors.toList());
+        });
+
+        assertEquals(expected, result);
+
+        // Filtered stream is not supported by the server, so the client filters locally.
+        verify(history, times(1)).stream(Mockito.eq(begin), Mockito.eq(end), Mockito.eq(stepSize));
+        verifyNoMoreInteractions(history);
+    }
+
+    @Test(timeout = 30000)
+    public void streamGroupFilteredV1Fallback() throws Exception {
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withMetric(new MetricMatcher(PathMatcher.valueOf("test.group"), PathMatcher.valueOf("counter")));
+        final List<Map.Entry<DateTime, TimeSeriesValue>> unfiltered = generateCollection()
+                .map(tsc -> SimpleMapEntry.create(tsc.getTimestamp(), tsc.get(TEST_GROUP).get()))
+                .collect(Collectors.toList());
+        final List<Map.Entry<DateTime, TimeSeriesValue>> expected = unfiltered.stream()
+                .map(entry -> SimpleMapEntry.create(entry.getKey(), filter.apply(entry.getValue()).get()))
+                .collect(Collectors.toList());
+        when(history.streamGroup(Mockito.isA(DateTime.class), Mockito.any()))
+                .thenAnswer((invocation) -> unfiltered.stream());
+
+        final List<Map.Entry<DateTime, TimeSeriesValue>> result = withV1Server(false, v1Client -> {
+            return v1Client.streamGroup(T0, TEST_GROUP, filter).collect(Collectors.toList());
+        });
+
+        assertEquals(expected, result);
+
+        // Filtered group stream is not supported by the server, so the client filters locally.
+        verify(history, times(1)).streamGroup(Mockito.eq(T0), Mockito.eq(TEST_GROUP));
+        verifyNoMoreInteractions(history);
+    }
+
+    /**
+     * Run the function with a client connected to a server that only
+     * implements version 1 of the protocol.
+     *
+     * @param progMismatch If set, the server replies PROG_MISMATCH to calls
+     * for other versions, otherwise it replies PROG_UNAVAIL, like servers
+     * generated for version 1 only.
+     */
+    private <T> T withV1Server(boolean progMismatch, Function<Client, T> fn) throws Exception {
+        final CollectHistoryServer v1Server = new CollectHistoryServer(history) {
+            @Override
+            public void dispatchOncRpcCall(OncRpcCallInformation call, int program, int version, int procedure) throws OncRpcException, IOException {
+                if (version == rh_proto.vers)
+                    super.dispatchOncRpcCall(call, program, version, procedure);
+                else if (progMismatch)
+                    call.failProgramMismatch(rh_proto.vers, rh_proto.vers);
+                else
+                    call.failProgramUnavailable();
+            }
+        };
+        final CompletableFuture<Integer> portFuture = new CompletableFuture<>();
+        final Thread v1ServerThread = startTcpServer(v1Server, 0, portFuture);
+        try (Client v1Client = new Client(Inet4Address.getLoopbackAddress(), portFuture.get(15, TimeUnit.SECONDS), OncRpcProtocols.ONCRPC_TCP)) {
+            return fn.apply(v1Client);
+        } finally {
+            v1Server.stopRpcProcessing();
+            v1ServerThread.join();
+        }
+    }
+
+    private static Thread startTcpServer(CollectHistoryServer tcpServer, int port, CompletableFuture<Integer> portFuture) {
+        final Thread serverThread = new Thread(() -> {
+            OncRpcServerTransport transport = null;
+            try {
+                transport = new OncRpcTcpServerTransport(tcpServer, Inet4Address.getLoopbackAddress(), port, tcpServer.info, 32768);
+                transport.setCharacterEncoding("UTF-8");
+                portFuture.complete(transport.getPort());
+                tcpServer.run(new OncRpcServerTransport[]{transport});
+            } catch (IOException | OncRpcException ex) {
+                LOG.log(Level.SEVERE, "server " + tcpServer + " failed to start", ex);
+                portFuture.completeExceptionally(ex);
+            } finally {
+                if (transport != null) transport.close();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return serverThread;
+    }
+
+    @Test
+    public void repeatedStreams() {
+        final List<TimeSeriesCollection> expected = generateCollection().collect(Collectors.toList());
+        when(history.stream())
+                .thenAnswer((invocation) -> generateCollection());
+
+        // Second stream reuses the connection of the first.
+        assertEquals(expected, client.stream().collect(Collectors.toList()));
+        assertEquals(expected, client.stream().collect(Collectors.toList()));
+
+        verify(history, times(2)).stream();
+        verifyNoMoreInteractions(history);
+    }
+
+    @Test(timeout = 30000)
+    public void abandonedStreamClosesServerIterator() {
+        final List<TimeSeriesCollection> expected = generateCollection().limit(1).collect(Collectors.toList());
+        when(history.stream())
+                .thenAnswer((invocation) -> generateCollection());
+        final int openCursors = AbstractServer.getCursors().getOpenCursors();
+
+        try (Stream<TimeSeriesCollection> stream = client.stream()) {
+            assertEquals(expected, stream.limit(1).collect(Collectors.toList()));
+            assertEquals(openCursors + 1, AbstractServer.getCursors().getOpenCursors());
+        }
+
+        assertEquals(openCursors, AbstractServer.getCursors().getOpenCursors());
+        verify(history, times(1)).stream();
+        verifyNoMoreInteractions(history);
+    }
+
     @Test
     public void getEnd() throws Exception {
         when(history.getEnd()).thenReturn(T0);
@@ -212,6 +407,33 @@ public class ClientServerTest {
         verifyNoMoreInteractions(history);
     }
 
+    @Test
+    public void streamSessionPageBytes() {
+        final List<TimeSeriesCollection> expected = generateCollection().collect(Collectors.toList());
+        when(history.stream())
+                .thenAnswer((invocation) -> generateCollection());
+
+        final List<TimeSeriesCollection> result = client.stream().collect(Collectors.toList());
+
+        assertEquals(expected, result);
+        assertThat(client.getPageBytesRaw(), Matchers.greaterThan(0L));
+        assertThat(client.getPageBytesCompressed(), Matchers.lessThan(client.getPageBytesRaw()));
+        assertThat(AbstractServer.getPageBytesRaw(), Matchers.greaterThanOrEqualTo(client.getPageBytesRaw()));
+    }
+
+    @Test
+    public void streamSessionDeflate() {
+        final List<TimeSeriesCollection> expected = generateCollection().collect(Collectors.toList());
+        when(history.stream())
+                .thenAnswer((invocation) -> generateCollection());
+
+        client.setPageCompression(PageCompression.DEFLATE);
+        final List<TimeSeriesCollection> result = client.stream().collect(Collectors.toList());
+
+        assertEquals(expected, result);
+        assertThat(client.getPageBytesCompressed(), Matchers.lessThan(client.getPageBytesRaw()));
+    }
+
     @Test
     public void streamGroup() {
         final List<Map.Entry<DateTime, TimeSeriesValue>> expected = generateCollection()
@@ -228,6 +450,44 @@ public class ClientServerTest {
         verifyNoMoreInteractions(history);
     }
 
+    @Test
+    public void streamFiltered() throws Exception {
+        final DateTime begin = new DateTime(DateTimeZone.UTC);
+        final DateTime end = begin.plus(Duration.standardDays(1));
+        final Duration stepSize = Duration.standardMinutes(1);
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withGroup(PathMatcher.valueOf("test.*"))
+                .withMetric(new MetricMatcher(PathMatcher.valueOf("other.**"), PathMatcher.valueOf("counter")));
+        final List<TimeSeriesCollection> expected = generateCollection().collect(Collectors.toList());
+        when(history.stream(Mockito.isA(DateTime.class), Mockito.isA(DateTime.class), Mockito.isA(Duration.class), Mockito.isA(TimeSeriesMetricFilter.class)))
+                .thenAnswer((invocation) -> generateCollection());
+
+        final List<TimeSeriesCollection> result = client.stream(begin, end, stepSize, filter).collect(Collectors.toList());
+
+        assertEquals(expected, result);
+
+        verify(history, times(1)).stream(Mockito.eq(begin), Mockito.eq(end), Mockito.eq(stepSize), Mockito.eq(filter));
+        verifyNoMoreInteractions(history);
+    }
+
+    @Test
+    public void streamGroupFiltered() throws Exception {
+        final TimeSeriesMetricFilter filter = new TimeSeriesMetricFilter()
+                .withMetric(new MetricMatcher(PathMatcher.valueOf("test.group"), PathMatcher.valueOf("counter")));
+        final List<Map.Entry<DateTime, TimeSeriesValue>> expected = generateCollection()
+                .map(tsc -> SimpleMapEntry.create(tsc.getTimestamp(), tsc.get(TEST_GROUP).get()))
+                .collect(Collectors.toList());
+        when(history.streamGroup(Mockito.isA(DateTime.class), Mockito.any(), Mockito.isA(TimeSeriesMetricFilter.class)))
+                .thenAnswer((invocation) -> expected.stream());
+
+        final List<Map.Entry<DateTime, TimeSeriesValue>> result = client.streamGroup(T0, TEST_GROUP, filter).collect(Collectors.toList());
+
+        assertEquals(expected, result);
+
+        verify(history, times(1)).streamGroup(Mockito.eq(T0), Mockito.eq(TEST_GROUP), Mockito.eq(filter));
+        verifyNoMoreInteractions(history);
+    }
+
     @Test
     public void streamFrom() {
         final DateTime begin = new DateTime(DateTimeZone.UTC);
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.monsoon.remote.history;
+
+import com.groupon.lex.metrics.MetricName;
+import com.groupon.lex.metrics.MetricValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CursorRegistryTest {
+    private AtomicLong now;
+    private CursorRegistry registry;
+
+    @Before
+    public void setup() {
+        now = new AtomicLong(1000000);
+        registry = new CursorRegistry(1000, 3, now::get);
+    }
+
+    private <T> CursorRegistry.Cursor<T> register(Stream<? extends T> stream, ToLongFunction<? super T> sizeFn) {
+        return registry.<T>register(CursorRegistry.Kind.TSC, stream, 8, sizeFn).getLeft()
+                .orElseThrow(() -> new AssertionError("expected registration to succeed"));
+    }
+
+    /** Time after which a TSC cursor is considered idle enough to be evicted. */
+    private long evictAfter() {
+        return (long) (CursorRegistry.Kind.TSC.getIdleTimeoutMsec() * registry.getEvictIdleFraction());
+    }
+
+    @Test
+    public void registerAndGet() {
+        final CursorRegistry.Cursor<Integer> cursor = register(Stream.of(1, 2, 3), i -> 1);
+
+        assertSame(cursor, registry.<Integer>get(cursor.getId(), CursorRegistry.Kind.TSC).get());
+        assertFalse(registry.get(cursor.getId(), CursorRegistry.Kind.EVAL).isPresent());
+        assertFalse(registry.get(cursor.getId() + 1, CursorRegistry.Kind.TSC).isPresent());
+        assertEquals(1, registry.getOpenCursors());
+    }
+
+    @Test
+    public void close() {
+        final CursorRegistry.Cursor<Integer> cursor = register(Stream.of(1, 2, 3), i -> 1);
+
+        registry.close(cursor.getId(), CursorRegistry.Kind.TSC, cursor.getCookie() + 1);  // Wrong cookie.
+        assertTrue(registry.get(cursor.getId(), CursorRegistry.Kind.TSC).isPresent());
+
+        registry.close(cursor.getId(), CursorRegistry.Kind.TSC, cursor.getCookie());
+        assertFalse(registry.get(cursor.getId(), CursorRegistry.Kind.TSC).isPresent());
+        assertEquals(0, registry.getOpenCursors());
+        assertEquals(0, registry.getBufferedBytes());
+    }
+
+    @Test
+    public void bufferedBytes() throws Exception {
+        final CursorRegistry.Cursor<Integer> cursor = register(Stream.of(10, 20, 30), i -> i);
+        while (!cursor.getIterator().atEnd() && registry.getBufferedBytes() < 60)
+            cursor.getIterator().waitAvail(10, TimeUnit.MILLISECONDS);
+        assertEquals(60, registry.getBufferedBytes());
+        assertEquals(60, cursor.getBufferedBytes());
+
+        final List<Integer> fetched = cursor.fetch(iter -> Collections.singletonList(iter.next()));
+        assertEquals(Collections.singletonList(10), fetched);
+        assertEquals(50, registry.getBufferedBytes());
+        assertEquals(50, cursor.getBufferedBytes());
+
+        registry.close(cursor.getId(), CursorRegistry.Kind.TSC, cursor.getCookie());
+        assertEquals(0, registry.getBufferedBytes());
+    }
+
+    @Test
+    public void closeClosesStream() throws Exception {
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        final CursorRegistry.Cursor<Integer> cursor = register(Stream.of(1, 2, 3).onClose(() -> closed.complete(null)), i -> 1);
+
+        registry.close(cursor.getId(), CursorRegistry.Kind.TSC, cursor.getCookie());
+        closed.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void readAheadStopsAtMemoryLimit() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final CursorRegistry.Cursor<Integer> cursor = register(Stream.iterate(400, i -> i).peek(i -> reads.incrementAndGet()), i -> i);
+        while (registry.getBufferedBytes() < registry.getMaxBufferedBytes())
+            cursor.getIterator().waitAvail(10, TimeUnit.MILLISECONDS);
+
+        assertEquals(1200, registry.getBufferedBytes());
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    public void refusedCursorClosesStream() throws Exception {
+        IntStream.range(0, 3).forEach(i -> register(Stream.of(1, 2, 3), x -> 1));
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+        assertFalse(registry.register(CursorRegistry.Kind.TSC, Stream.of(1, 2, 3).onClose(() -> closed.complete(null)), 8, x -> 1).getLeft().isPresent());
+        closed.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void expire() {
+        final CursorRegistry.Cursor<Integer> cursor = register(Stream.of(1, 2, 3), i -> 1);
+
+        now.addAndGet(CursorRegistry.Kind.TSC.getIdleTimeoutMsec());
+        assertFalse(registry.get(cursor.getId(), CursorRegistry.Kind.TSC).isPresent());
+        assertEquals(1, registry.getExpirations());
+        assertEquals(0, registry.getEvictions());
+    }
+
+    @Test
+    public void expireBehindLongerTimeout() {
+        final CursorRegistry.Cursor<Integer> eval = registry.<Integer>register(CursorRegistry.Kind.EVAL, Stream.of(1, 2, 3), 8, i -> 1).getLeft().get();
+        final CursorRegistry.Cursor<Integer> tsc = register(Stream.of(1, 2, 3), i -> 1);
+        final CursorRegistry.Cursor<Integer> recent;
+
+        now.addAndGet(CursorRegistry.Kind.TSC.getIdleTimeoutMsec() - 1);
+        recent = register(Stream.of(1, 2, 3), i -> 1);
+        now.addAndGet(1);
+
+        // The EVAL cursor is least recently used, but has not expired yet.
+        assertTrue(registry.get(recent.getId(), CursorRegistry.Kind.TSC).isPresent());
+        assertFalse(registry.get(tsc.getId(), CursorRegistry.Kind.TSC).isPresent());
+        assertTrue(registry.get(eval.getId(), CursorRegistry.Kind.EVAL).isPresent());
+        assertEquals(1, registry.getExpirations());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        final CompletableFuture<Void> evictedClosed = new CompletableFuture<>();
+        final List<CursorRegistry.Cursor<Integer>> cursors = new ArrayList<>();
+        cursors.add(register(Stream.of(1, 2, 3), x -> 1));
+        cursors.add(register(Stream.of(1, 2, 3).onClose(() -> evictedClosed.complete(null)), x -> 1));
+        cursors.add(register(Stream.of(1, 2, 3), x -> 1));
+        now.addAndGet(evictAfter());
+        registry.get(cursors.get(0).getId(), CursorRegistry.Kind.TSC);  // Keep cursors[0] in use.
+
+        assertTrue(registry.register(CursorRegistry.Kind.TSC, Stream.of(1, 2, 3), 8, x -> 1).getLeft().isPresent());
+
+        assertEquals(3, registry.getOpenCursors());
+        assertEquals(1, registry.getEvictions());
+        assertTrue(registry.get(cursors.get(0).getId(), CursorRegistry.Kind.TSC).isPresent());
+        assertFalse(registry.get(cursors.get(1).getId(), CursorRegistry.Kind.TSC).isPresent());
+        assertTrue(registry.get(cursors.get(2).getId(), CursorRegistry.Kind.TSC).isPresent());
+        evictedClosed.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void rejectWhenAllCursorsBusy() {
+        IntStream.range(0, 3).forEach(i -> register(Stream.of(1, 2, 3), x -> 1));
+        now.addAndGet(evictAfter() - 1);  // Idle, but not long enough to be evicted.
+
+        assertEquals(Optional.of(IteratorErrorCode.TOO_MANY_ITERATORS),
+                registry.register(CursorRegistry.Kind.TSC, Stream.of(1, 2, 3), 8, x -> 1).getRight());
+        assertEquals(3, registry.getOpenCursors());
+        assertEquals(0, registry.getEvictions());
+        assertEquals(1, registry.getRejections());
+    }
+
+    @Test
+    public void getDoesNotEvict() {
+        final List<CursorRegistry.Cursor<Integer>> cursors = new ArrayList<>();
+        IntStream.range(0, 3).forEach(i -> cursors.add(register(Stream.of(1, 2, 3), x -> 1)));
+        registry.setMaxCursors(1);
+        now.addAndGet(evictAfter());
+
+        cursors.forEach(cursor -> assertTrue(registry.get(cursor.getId(), CursorRegistry.Kind.TSC).isPresent()));
+        assertEquals(3, registry.getOpenCursors());
+        assertEquals(0, registry.getEvictions());
+    }
+
+    @Test
+    public void metrics() {
+        register(Stream.of(1, 2, 3), x -> 1);
+        registry.setMaxCursors(1);
+        registry.register(CursorRegistry.Kind.TSC, Stream.of(1, 2, 3), 8, x -> 1);
+
+        final Map<MetricName, MetricValue> metrics = registry.getMetrics();
+        assertEquals(MetricValue.fromIntValue(1), metrics.get(CursorRegistry.OPEN_CURSORS));
+        assertEquals(MetricValue.fromIntValue(registry.getBufferedBytes()), metrics.get(CursorRegistry.BUFFERED_BYTES));
+        assertEquals(MetricValue.fromIntValue(0), metrics.get(CursorRegistry.EVICTIONS));
+        assertEquals(MetricValue.fromIntValue(0), metrics.get(CursorRegistry.EXPIRATIONS));
+        assertEquals(MetricValue.fromIntValue(1), metrics.get(CursorRegistry.REJECTIONS));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016, Groupon, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of GROUPON nor the names of its contributors may be
+ * used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.groupon.monsoon.remote.history;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PageCompressionTest {
+    private static final byte[] DATA = "Pop goes the weasel! Pop goes the weasel! Pop goes the weasel!".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void mappingIsUnique() {
+        Set<Integer> uniqueEncoded = Arrays.stream(PageCompression.values())
+                .map(PageCompression::getEncoded)
+                .collect(Collectors.toSet());
+
+        assertEquals("no duplicate encoded entries allowed", PageCompression.values().length, uniqueEncoded.size());
+    }
+
+    @Test
+    public void reverseMappingWorks() {
+        for (PageCompression c : PageCompression.values())
+            assertSame(c.name() + " must resolve back from its encoded form", c, PageCompression.fromEncodedForm(c.getEncoded()));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final byte[] buf = Arrays.copyOf(DATA, DATA.length + 17);  // Trailing bytes must be ignored.
+
+        for (PageCompression c : PageCompression.values())
+            assertArrayEquals(c.name(), DATA, c.decompress(c.compress(buf, DATA.length), DATA.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void lengthMismatch() throws Exception {
+        PageCompression.SNAPPY.decompress(PageCompression.SNAPPY.compress(DATA, DATA.length), DATA.length + 1);
+    }
+
+    @Test
+    public void invalidRawLen() throws Exception {
+        for (PageCompression c : Arrays.asList(PageCompression.DEFLATE, PageCompression.SNAPPY)) {
+            final byte[] compressed = c.compress(DATA, DATA.length);
+            for (int rawLen : new int[]{-1, Integer.MIN_VALUE, PageCompression.MAX_RAW_LEN + 1, Integer.MAX_VALUE}) {
+                try {
+                    c.decompress(compressed, rawLen);
+                    fail(c.name() + " must reject raw length " + rawLen);
+                } catch (IOException ex) {
+                    // Expected.
+                }
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptDeflate() throws Exception {
+        PageCompression.DEFLATE.decompress(DATA, DATA.length);
+    }
+}
@@ -31,9 +31,9 @@
  */
 package com.groupon.monsoon.remote.history.server;
 
-import com.groupon.lex.metrics.history.CollectHistory;
 import com.groupon.lex.metrics.history.v2.Compression;
 import com.groupon.lex.metrics.history.xdr.DirCollectHistory;
+import com.groupon.lex.metrics.history.xdr.TSDataOptimizerTask;
 import com.groupon.lex.metrics.lib.BytesParser.BytesParserOptionHandler;
 import com.groupon.monsoon.remote.history.CollectHistoryServer;
 import java.io.IOException;
@@ -46,6 +46,7 @@ import org.acplt.oncrpc.OncRpcException;
 import org.acplt.oncrpc.server.OncRpcServerTransport;
 import org.acplt.oncrpc.server.OncRpcTcpServerTransport;
 import org.acplt.oncrpc.server.OncRpcUdpServerTransport;
+import org.joda.time.Duration;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -75,6 +76,18 @@ public class RhistMain {
     @Option(name = "--archive-compress", usage = "optimized-compression for archived data", handler = Compression.CompressionOptionHandler.class)
     private Compression optimizedCompression = Compression.DEFAULT_OPTIMIZED;
 
+    @Option(name = "--write-behind", usage = "queue up to this many scrapes in memory and write them in the background (0 disables)")
+    private int writeBehind = 0;
+
+    @Option(name = "--write-behind-fsync", usage = "with --write-behind, force written data to disk every given number of seconds (0 disables)")
+    private int writeBehindFsyncSec = 0;
+
+    @Option(name = "--optimize-tasks", usage = "number of optimizations that may run concurrently")
+    private int optimizeTasks = TSDataOptimizerTask.getTaskConcurrency();
+
+    @Option(name = "--optimize-decoders", usage = "number of threads decoding files during optimization")
+    private int optimizeDecoders = TSDataOptimizerTask.getDecodeConcurrency();
+
     @Argument(metaVar = "/path/to/history/dir", usage = "path: which dir contains the history files", index = 0)
     private String dir;
 
@@ -109,6 +122,12 @@ public class RhistMain {
             /* UNREACHABLE */
         }
 
+        if (optimizeTasks < 1 || optimizeDecoders < 1) {
+            System.err.println("optimizer concurrency must be at least 1");
+            print_usage_and_exit_(parser);
+            /* UNREACHABLE */
+        }
+
         // If there are no files, comlain with a non-zero exit code.
         if (dir == null)
             System.exit(EX_USAGE);
@@ -117,7 +136,10 @@ public class RhistMain {
     }
 
     public void run() throws IOException, OncRpcException {
-        final CollectHistoryServer server = new CollectHistoryServer(openHistory());
+        final DirCollectHistory history = openHistory();
+        // Write out scrapes queued in write-behind mode when the process exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> close_(history)));
+        final CollectHistoryServer server = new CollectHistoryServer(history);
 
         OncRpcUdpServerTransport rpcUdp = new OncRpcUdpServerTransport(server, null, port, server.info, 32768);
         rpcUdp.setCharacterEncoding("UTF-8");
@@ -128,12 +150,24 @@ public class RhistMain {
         rpcUdp.close();
     }
 
-    private CollectHistory openHistory() throws IOException {
+    private static void close_(DirCollectHistory history) {
+        try {
+            history.close();
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "unable to write queued scrapes", ex);
+        }
+    }
+
+    private DirCollectHistory openHistory() throws IOException {
+        TSDataOptimizerTask.setTaskConcurrency(optimizeTasks);
+        TSDataOptimizerTask.setDecodeConcurrency(optimizeDecoders);
         DirCollectHistory history = new DirCollectHistory(path_, size);
         history.setAppendCompression(compression);
         history.setOptimizedCompression(optimizedCompression);
         if (optimizeOld)
             history.optimizeOldFiles();
+        if (writeBehind > 0)
+            history.enableWriteBehind(writeBehind, Duration.standardSeconds(writeBehindFsyncSec));
         return history;
     }
 